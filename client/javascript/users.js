@@ -4,6 +4,9 @@ function getFilteredUsers() {
   console.log("Getting users");
 
   var url = "/api/users?";
+  if(document.getElementById("name").value != "") {
+    url = url + "&name=" + getFieldValue("name");
+  }
   if(document.getElementById("age").value != "") {
     url = url + "&age=" + getFieldValue("age");
   }
@@ -0,0 +1,191 @@
+package umm3601;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.javalin.http.Context;
+import io.javalin.http.HandlerType;
+import io.javalin.http.HttpStatus;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Just enough of a Javalin `Context` to run a controller outside of a
+ * server, so a benchmark measures the controller and its JSON rather than
+ * Jetty.
+ * <p>
+ * The response body is serialized for real, just like Javalin would, but
+ * the bytes are only counted and then thrown away.
+ */
+public final class BenchmarkContext implements Context {
+
+  // What Javalin's default JSON mapper uses
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  private final Map<String, List<String>> queryParams;
+  private final String accept;
+  private final CountingOutputStream out = new CountingOutputStream();
+
+  /**
+   * Construct a context for one request.
+   *
+   * @param queryParams the request's query params
+   * @param accept      the request's `Accept` header; may be null
+   */
+  public BenchmarkContext(Map<String, List<String>> queryParams, String accept) {
+    this.queryParams = queryParams;
+    this.accept = accept;
+  }
+
+  /**
+   * How big the response body was.
+   *
+   * @return the number of bytes written to the response
+   */
+  public long bytes() {
+    return out.bytes;
+  }
+
+  @Override
+  public Map<String, List<String>> queryParamMap() {
+    return queryParams;
+  }
+
+  @Override
+  public String header(String header) {
+    return "Accept".equalsIgnoreCase(header) ? accept : null;
+  }
+
+  @Override
+  public Context header(String name, String value) {
+    return this;
+  }
+
+  @Override
+  public Context status(HttpStatus status) {
+    return this;
+  }
+
+  @Override
+  public Context contentType(String contentType) {
+    return this;
+  }
+
+  @Override
+  public Context json(Object obj) {
+    try {
+      out.write(MAPPER.writeValueAsString(obj).getBytes(StandardCharsets.UTF_8));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return this;
+  }
+
+  @Override
+  public Context result(byte[] bytes) {
+    out.write(bytes, 0, bytes.length);
+    return this;
+  }
+
+  @Override
+  public ServletOutputStream outputStream() {
+    return out;
+  }
+
+  @Override
+  public HttpServletRequest req() {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public HttpServletResponse res() {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public <T> T appAttribute(String key) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public HandlerType handlerType() {
+    return HandlerType.GET;
+  }
+
+  @Override
+  public String matchedPath() {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public String endpointHandlerPath() {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public String pathParam(String key) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public Map<String, String> pathParamMap() {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public Context result(InputStream resultStream) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public InputStream resultInputStream() {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void future(Supplier<? extends CompletableFuture<?>> future) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void redirect(String location, HttpStatus status) {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * Counts the bytes written to it, and forgets them.
+   */
+  private static final class CountingOutputStream extends ServletOutputStream {
+    private long bytes;
+
+    @Override
+    public boolean isReady() {
+      return true;
+    }
+
+    @Override
+    public void setWriteListener(WriteListener writeListener) {
+      // Writes never block, so there's nothing to listen for
+    }
+
+    @Override
+    public void write(int b) {
+      bytes++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      bytes += len;
+    }
+  }
+}
@@ -0,0 +1,96 @@
+package umm3601;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import umm3601.todo.Todo;
+import umm3601.todo.TodoDatabase;
+import umm3601.user.User;
+import umm3601.user.UserDatabase;
+
+/**
+ * The data the benchmarks run against.
+ * <p>
+ * A dataset the size of the real data file is just the real data. Bigger
+ * datasets come from the `DataGenerator`, with its default settings and
+ * seed, so every run (and every fork) benchmarks exactly the same records.
+ */
+public final class BenchmarkData {
+
+  private BenchmarkData() {
+  }
+
+  /**
+   * Get todos to benchmark against.
+   *
+   * @param count how many todos
+   * @return the todos: the real ones if there are exactly that many, and
+   *         generated ones otherwise
+   */
+  public static Todo[] todos(int count) {
+    Todo[] real = loadTodos();
+    if (count == real.length) {
+      return real;
+    }
+    return DataGenerator.builder().todos(count).build().todos();
+  }
+
+  /**
+   * Get users to benchmark against.
+   *
+   * @param count how many users
+   * @return the users: the real ones if there are exactly that many, and
+   *         generated ones otherwise
+   */
+  public static User[] users(int count) {
+    User[] real = loadUsers();
+    if (count == real.length) {
+      return real;
+    }
+    return DataGenerator.builder().users(count).build().users();
+  }
+
+  /**
+   * Turn a query string into query params, the way Javalin does.
+   *
+   * @param query a query string like `owner=Fry&limit=20`; may be empty
+   * @return the query params
+   */
+  public static Map<String, List<String>> params(String query) {
+    Map<String, List<String>> params = new HashMap<>();
+    for (String pair : query.split("&")) {
+      if (!pair.isEmpty()) {
+        String[] parts = pair.split("=", 2);
+        params.computeIfAbsent(decode(parts[0]), name -> new ArrayList<>())
+            .add(parts.length > 1 ? decode(parts[1]) : "");
+      }
+    }
+    return params;
+  }
+
+  private static String decode(String part) {
+    return URLDecoder.decode(part, StandardCharsets.UTF_8);
+  }
+
+  private static Todo[] loadTodos() {
+    try {
+      return new TodoDatabase(Server.TODO_DATA_FILE).listTodos(new HashMap<>());
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static User[] loadUsers() {
+    try {
+      return new UserDatabase(Server.USER_DATA_FILE).listUsers(new HashMap<>());
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
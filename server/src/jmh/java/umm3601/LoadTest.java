@@ -0,0 +1,155 @@
+package umm3601;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A closed-loop HTTP load test: a number of connections that each send a
+ * request, wait for the response, and send the next, for a while.
+ * <p>
+ * This is for comparing the server's thread modes (see
+ * `Server.THREADS_PROPERTY`) under many concurrent connections, which the
+ * JMH benchmarks, being single-process, can't do. Run the server once with
+ * `-Dserver.threads=platform` and once with `-Dserver.threads=virtual`,
+ * load each the same way, and compare the throughput and latencies, and
+ * the server's peak platform thread count, which is read from its
+ * `/api/metrics` after the run.
+ * <p>
+ * The client sends asynchronously, so it needs only a few threads itself
+ * however many connections it keeps open.
+ */
+@SuppressWarnings({ "MagicNumber" })
+public final class LoadTest {
+
+  private static final double NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+  private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+  private static final Duration TIMEOUT = Duration.ofSeconds(30);
+  private static final int FIRST_ERROR_STATUS = 400;
+
+  // The server's metrics that are reported along with the results
+  private static final String[] SERVER_METRICS = {
+    "server_virtual_threads", "jvm_threads_current", "jvm_threads_peak",
+  };
+
+  private final HttpClient client = HttpClient.newBuilder()
+      .version(HttpClient.Version.HTTP_1_1)
+      .connectTimeout(TIMEOUT)
+      .build();
+  private final HttpRequest request;
+  private final int connections;
+
+  private final LatencyHistogram latency = new LatencyHistogram();
+  private final LongAdder errors = new LongAdder();
+
+  private LoadTest(HttpRequest request, int connections) {
+    this.request = request;
+    this.connections = connections;
+  }
+
+  /**
+   * Run a load test, and print the results.
+   * <p>
+   * The settings are given as `name=value` arguments:
+   * <ul>
+   * <li>`url`: what to request (default `http://localhost:4567/api/todos?limit=20`)
+   * <li>`method`: the request method (default `GET`)
+   * <li>`body`: a JSON body to send, e.g., for `POST /api/todos`
+   * <li>`connections`: how many connections to keep busy (default 1000)
+   * <li>`warmup`: seconds to run before measuring (default 5)
+   * <li>`seconds`: seconds to measure for (default 20)
+   * </ul>
+   *
+   * @param args the settings
+   * @throws InterruptedException if interrupted while running
+   */
+  public static void main(String[] args) throws InterruptedException {
+    Map<String, String> settings = new HashMap<>();
+    for (String arg : args) {
+      String[] parts = arg.split("=", 2);
+      if (parts.length != 2) {
+        throw new IllegalArgumentException("Settings are name=value, not " + arg);
+      }
+      settings.put(parts[0], parts[1]);
+    }
+    URI uri = URI.create(settings.getOrDefault("url", "http://localhost:4567/api/todos?limit=20"));
+    String body = settings.get("body");
+    HttpRequest request = HttpRequest.newBuilder(uri)
+        .timeout(TIMEOUT)
+        .header("Content-Type", "application/json")
+        .method(settings.getOrDefault("method", "GET"),
+            body == null ? HttpRequest.BodyPublishers.noBody() : HttpRequest.BodyPublishers.ofString(body))
+        .build();
+    LoadTest test = new LoadTest(request, Integer.parseInt(settings.getOrDefault("connections", "1000")));
+    long warmup = TimeUnit.SECONDS.toNanos(Long.parseLong(settings.getOrDefault("warmup", "5")));
+    long measure = TimeUnit.SECONDS.toNanos(Long.parseLong(settings.getOrDefault("seconds", "20")));
+
+    System.out.println(request.method() + " " + uri + " on " + test.connections + " connections");
+    test.run(warmup, measure);
+    test.printServerMetrics(uri.resolve("/api/metrics"));
+  }
+
+  private void run(long warmupNanos, long measureNanos) throws InterruptedException {
+    long measureFrom = System.nanoTime() + warmupNanos;
+    long end = measureFrom + measureNanos;
+    CountDownLatch done = new CountDownLatch(connections);
+    for (int i = 0; i < connections; i++) {
+      send(measureFrom, end, done);
+    }
+    done.await();
+    long requests = latency.count();
+    System.out.printf("%d requests, %d errors, %.0f requests/s%n",
+        requests, errors.sum(), requests / (measureNanos / NANOS_PER_SECOND));
+    System.out.printf("latency ms: p50 %.2f, p90 %.2f, p99 %.2f, p99.9 %.2f, max %.2f%n",
+        millis(latency.valueAtQuantile(0.5)), millis(latency.valueAtQuantile(0.9)),
+        millis(latency.valueAtQuantile(0.99)), millis(latency.valueAtQuantile(0.999)), millis(latency.max()));
+  }
+
+  // Send a request on one of the connections, and when it's answered, the
+  // next one, until the test is over. Only requests started after the
+  // warmup are recorded.
+  private void send(long measureFrom, long end, CountDownLatch done) {
+    long start = System.nanoTime();
+    if (start >= end) {
+      done.countDown();
+      return;
+    }
+    client.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenCompleteAsync((response, error) -> {
+      if (start >= measureFrom) {
+        latency.record(System.nanoTime() - start);
+        if (error != null || response.statusCode() >= FIRST_ERROR_STATUS) {
+          errors.increment();
+        }
+      }
+      send(measureFrom, end, done);
+    });
+  }
+
+  private void printServerMetrics(URI metrics) throws InterruptedException {
+    try {
+      HttpResponse<String> response = client.send(HttpRequest.newBuilder(metrics).timeout(TIMEOUT).build(),
+          HttpResponse.BodyHandlers.ofString());
+      for (String line : response.body().split("\n")) {
+        for (String name : SERVER_METRICS) {
+          if (line.startsWith(name + " ")) {
+            System.out.println("server " + line);
+          }
+        }
+      }
+    } catch (IOException e) {
+      System.out.println("Couldn't read the server's metrics: " + e);
+    }
+  }
+
+  private static double millis(long nanos) {
+    return nanos / NANOS_PER_MILLI;
+  }
+}
@@ -0,0 +1,67 @@
+package umm3601.todo;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import umm3601.BenchmarkContext;
+import umm3601.BenchmarkData;
+import umm3601.StreamingJson;
+
+/**
+ * Benchmarks `TodoController.getTodos` end to end, from query params to
+ * serialized JSON, without a response cache, so every operation really
+ * runs the query and serializes the result.
+ */
+@SuppressWarnings({ "MagicNumber" })
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xms4g", "-Xmx4g" })
+@State(Scope.Benchmark)
+public class TodoControllerBenchmark {
+
+  @Param({ "300", "100000", "1000000" })
+  private int size;
+
+  @Param({
+      "limit=20",
+      "owner=Fry&orderBy=body&limit=100",
+      "status=complete&category=homework",
+  })
+  private String query;
+
+  // A plain JSON array, or newline delimited JSON
+  @Param({ "application/json", StreamingJson.NDJSON })
+  private String accept;
+
+  private TodoController controller;
+  private Map<String, List<String>> params;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    controller = new TodoController(new TodoDatabase(BenchmarkData.todos(size)));
+    params = BenchmarkData.params(query);
+  }
+
+  @Benchmark
+  public long getTodos() {
+    BenchmarkContext ctx = new BenchmarkContext(params, accept);
+    controller.getTodos(ctx);
+    return ctx.bytes();
+  }
+}
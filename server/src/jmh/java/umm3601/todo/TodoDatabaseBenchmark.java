@@ -0,0 +1,147 @@
+package umm3601.todo;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import umm3601.BenchmarkData;
+import umm3601.ParallelScan;
+
+/**
+ * Benchmarks the todo database's hot paths: looking up a todo by ID, and
+ * listing todos with the different combinations of filters, sorting, and
+ * paging that the client uses.
+ */
+@SuppressWarnings({ "MagicNumber" })
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xms4g", "-Xmx4g" })
+public class TodoDatabaseBenchmark {
+
+  /**
+   * A database full of todos.
+   */
+  @State(Scope.Benchmark)
+  public static class Data {
+    @Param({ "300", "100000", "1000000" })
+    private int size;
+
+    @Param({ "OBJECTS", "COLUMNS" })
+    private TodoDatabase.Storage storage;
+
+    // Threads to check `contains` on, when enough todos are left (1 for
+    // on the calling thread only); compare with `-p scanThreads=1,4`
+    @Param({ "1" })
+    private int scanThreads;
+
+    private TodoDatabase database;
+    private ParallelScan scan;
+    private String[] ids;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+      Todo[] todos = BenchmarkData.todos(size);
+      database = new TodoDatabase(storage == TodoDatabase.Storage.COLUMNS
+          ? TodoColumnStore.of(todos) : new TodoArrayStore(todos));
+      if (scanThreads > 1) {
+        scan = new ParallelScan(scanThreads, ParallelScan.DEFAULT_THRESHOLD);
+        database.scanInParallel(scan);
+      }
+      ids = new String[todos.length];
+      for (int i = 0; i < todos.length; i++) {
+        ids[i] = todos[i]._id;
+      }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+      if (scan != null) {
+        scan.close();
+      }
+    }
+
+    // Walks through the IDs in order, so lookups aren't all of one todo
+    String nextId() {
+      next = next + 1 < ids.length ? next + 1 : 0;
+      return ids[next];
+    }
+  }
+
+  /**
+   * The filters, sorting, and paging the client asks for.
+   */
+  @State(Scope.Benchmark)
+  public static class Query {
+    @Param({
+        "",
+        "owner=Fry",
+        "status=complete&category=homework",
+        "owner=Blanche&status=incomplete&orderBy=body",
+        "orderBy=owner&limit=20",
+        "category=groceries&orderBy=category&offset=100&limit=20",
+    })
+    private String query;
+
+    private Map<String, List<String>> params;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+      params = BenchmarkData.params(query);
+    }
+  }
+
+  /**
+   * The `contains` searches of todo bodies (what used to be
+   * `filterTodosByContains`).
+   */
+  @State(Scope.Benchmark)
+  public static class Contains {
+    @Param({
+        "contains=sunt",
+        "contains=ea commodo",
+        "contains=SUNT&ignoreCase=true",
+        "contains=zzz",
+        "owner=Fry&contains=ad&limit=20",
+    })
+    private String query;
+
+    private Map<String, List<String>> params;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+      params = BenchmarkData.params(query);
+    }
+  }
+
+  @Benchmark
+  public Todo getTodo(Data data) {
+    return data.database.getTodo(data.nextId());
+  }
+
+  @Benchmark
+  public Todo[] listTodos(Data data, Query query) {
+    return data.database.listTodos(query.params);
+  }
+
+  @Benchmark
+  public Todo[] containsTodos(Data data, Contains contains) {
+    return data.database.listTodos(contains.params);
+  }
+}
@@ -0,0 +1,60 @@
+package umm3601.user;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import umm3601.BenchmarkData;
+
+/**
+ * Benchmarks listing users with the different combinations of filters and
+ * paging that the client uses.
+ */
+@SuppressWarnings({ "MagicNumber" })
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xms4g", "-Xmx4g" })
+@State(Scope.Benchmark)
+public class UserDatabaseBenchmark {
+
+  @Param({ "300", "100000", "1000000" })
+  private int size;
+
+  @Param({
+      "",
+      "age=25",
+      "company=OHMNET",
+      "company=OHMNET&age=25",
+      "company=OHMNET&limit=20",
+  })
+  private String query;
+
+  private UserDatabase database;
+  private Map<String, List<String>> params;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    database = new UserDatabase(BenchmarkData.users(size));
+    params = BenchmarkData.params(query);
+  }
+
+  @Benchmark
+  public User[] listUsers() {
+    return database.listUsers(params);
+  }
+}
@@ -0,0 +1,76 @@
+package umm3601;
+
+import java.util.Arrays;
+
+import io.javalin.http.BadRequestResponse;
+import io.javalin.http.Context;
+
+/**
+ * The request and response formats for looking up many records by ID in
+ * one request (e.g., `POST /api/todos/_batch`), instead of one round trip
+ * per record.
+ * <p>
+ * The request body is a JSON array of IDs. The response is a JSON array
+ * (or newline delimited JSON, if asked for) with one entry per requested
+ * ID, in the same order: the record with that ID, or `null` if there isn't
+ * one. So which IDs are missing can be read straight off the response, and
+ * the `X-Missing-Count` header says how many there were.
+ */
+public final class BatchLookup {
+
+  /** The most IDs that can be looked up in one request. */
+  public static final int MAX_IDS = 1000;
+
+  /** The header with the number of requested IDs that weren't found. */
+  public static final String MISSING_COUNT_HEADER = "X-Missing-Count";
+
+  private BatchLookup() {
+  }
+
+  /**
+   * Read the IDs to look up from the request body.
+   *
+   * @param ctx a Javalin HTTP context
+   * @return the IDs, in the order they were given
+   * @throws BadRequestResponse if the body isn't a JSON array of (at most
+   *                            `MAX_IDS`) strings
+   */
+  public static String[] readIds(Context ctx) {
+    String[] ids;
+    try {
+      ids = ctx.bodyAsClass(String[].class);
+    } catch (Exception e) {
+      throw new BadRequestResponse("The request body isn't a JSON array of ids");
+    }
+    if (ids == null || Arrays.asList(ids).contains(null)) {
+      throw new BadRequestResponse("The request body isn't a JSON array of ids");
+    }
+    if (ids.length > MAX_IDS) {
+      throw new BadRequestResponse("A batch can have at most " + MAX_IDS + " ids, not " + ids.length);
+    }
+    return ids;
+  }
+
+  /**
+   * Stream the records that were found, with a `null` for each one that
+   * wasn't, to the response.
+   *
+   * @param ctx     a Javalin HTTP context
+   * @param records the record for each requested ID, or null where there
+   *                wasn't one
+   */
+  public static void send(Context ctx, Object[] records) {
+    int missing = 0;
+    for (Object record : records) {
+      if (record == null) {
+        missing++;
+      }
+    }
+    ctx.header(MISSING_COUNT_HEADER, Integer.toString(missing));
+    StreamingJson.write(ctx, StreamingJson.wantsNdjson(ctx), out -> {
+      for (Object record : records) {
+        out.accept(record);
+      }
+    });
+  }
+}
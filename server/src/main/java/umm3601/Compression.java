@@ -0,0 +1,134 @@
+package umm3601;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import io.javalin.http.Context;
+
+/**
+ * Gzip compression of response bodies that are kept around and sent many
+ * times (cached API responses, static files), so they're compressed once
+ * rather than on every request, and the content negotiation that decides
+ * whether a client gets the compressed copy.
+ * <p>
+ * Bodies that are written once, as they're made (e.g., streamed results),
+ * are compressed on the fly by Javalin instead, with the same size
+ * threshold.
+ */
+public final class Compression {
+
+  /** The `Content-Encoding` of gzipped bodies. */
+  public static final String GZIP = "gzip";
+
+  /**
+   * Bodies smaller than this aren't compressed: they'd shrink by too few
+   * bytes to be worth the time, and might fit in one packet anyway.
+   */
+  public static final int MIN_SIZE = 1024;
+
+  private Compression() {
+  }
+
+  /**
+   * Check whether it's worth compressing a body of the given type and size.
+   *
+   * @param contentType the body's content type, or null if it has none
+   * @param size        the body's length in bytes
+   * @return true for text (including JSON, JavaScript and SVG) of at least
+   *         `MIN_SIZE` bytes
+   */
+  public static boolean worthCompressing(String contentType, int size) {
+    if (contentType == null || size < MIN_SIZE) {
+      return false;
+    }
+    return contentType.startsWith("text/") || contentType.contains("json") || contentType.contains("javascript")
+        || contentType.contains("xml");
+  }
+
+  /**
+   * Check whether the request's `Accept-Encoding` header allows a gzipped
+   * response.
+   *
+   * @param ctx a Javalin HTTP context
+   * @return true if the client accepts gzip
+   */
+  public static boolean acceptsGzip(Context ctx) {
+    return accepts(ctx.header("Accept-Encoding"), GZIP);
+  }
+
+  /**
+   * Check whether an `Accept-Encoding` header allows a content coding,
+   * either by name or through `*`, with a quality above zero.
+   *
+   * @param acceptEncoding the value of the header, or null if there isn't
+   *                       one (which allows only the identity coding)
+   * @param coding         the coding, e.g., `gzip`
+   * @return true if the coding is acceptable
+   */
+  static boolean accepts(String acceptEncoding, String coding) {
+    if (acceptEncoding == null) {
+      return false;
+    }
+    double named = -1;
+    double wildcard = -1;
+    for (String part : acceptEncoding.split(",")) {
+      String[] params = part.split(";");
+      String name = params[0].trim();
+      double quality = 1;
+      for (int i = 1; i < params.length; i++) {
+        String param = params[i].trim();
+        if (param.startsWith("q=")) {
+          try {
+            quality = Double.parseDouble(param.substring(2));
+          } catch (NumberFormatException e) {
+            quality = 0;
+          }
+        }
+      }
+      if (name.equalsIgnoreCase(coding)) {
+        named = quality;
+      } else if (name.equals("*")) {
+        wildcard = quality;
+      }
+    }
+    // A coding that's named explicitly overrides the wildcard, e.g.,
+    // `*, gzip;q=0` refuses gzip
+    return named >= 0 ? named > 0 : wildcard > 0;
+  }
+
+  /**
+   * Gzip a body.
+   *
+   * @param body the body
+   * @return the gzipped body
+   */
+  public static byte[] gzip(byte[] body) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(body.length / 2);
+    try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+      gzip.write(body);
+    } catch (IOException e) {
+      // Nothing here does any real I/O
+      throw new UncheckedIOException(e);
+    }
+    return out.toByteArray();
+  }
+
+  /**
+   * Decompress a gzipped body, e.g., for a client that can't accept it
+   * gzipped.
+   *
+   * @param gzipped the gzipped body
+   * @return the original body
+   */
+  public static byte[] gunzip(byte[] gzipped) {
+    try (GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(gzipped))) {
+      return gzip.readAllBytes();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
@@ -0,0 +1,150 @@
+package umm3601;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import io.javalin.http.BadRequestResponse;
+
+/**
+ * Encodes and decodes the opaque cursors used to page through query results.
+ * <p>
+ * A cursor says which record the next page starts at by its key: its sort
+ * value (when the results are sorted) and its `_id`, which breaks ties in
+ * every sort order. Fetching that page seeks straight to the first record
+ * that doesn't sort before that key, with a binary search of the sort order,
+ * so a page doesn't move when records before it are added, changed, or
+ * deleted (or the data is reloaded) in between.
+ * <p>
+ * A cursor also has the record's position and the version of the data it
+ * was made from. While that's still the current version the position can
+ * be used as is, without searching. In results that aren't sorted (i.e.,
+ * in position order) a later version finds the record's new position by its
+ * `_id`, or, if it's gone, starts from its old position.
+ */
+public final class Cursors {
+
+  // The first byte of every cursor, in case the format ever changes
+  private static final byte FORMAT = 'k';
+
+  private Cursors() {
+  }
+
+  /**
+   * Where a page starts: the first record on it.
+   */
+  public static final class Cursor {
+    private final long version;
+    private final int position;
+    private final String id;
+    private final String key;
+
+    /**
+     * Describe where a page starts.
+     *
+     * @param version  the version of the data the cursor was made from
+     * @param position the position of the page's first record in that
+     *                 version
+     * @param id       the record's `_id`
+     * @param key      the record's sort value, as a string, or null if it
+     *                 doesn't have one (or the results aren't sorted)
+     */
+    public Cursor(long version, int position, String id, String key) {
+      this.version = version;
+      this.position = position;
+      this.id = id;
+      this.key = key;
+    }
+
+    public long version() {
+      return version;
+    }
+
+    public int position() {
+      return position;
+    }
+
+    public String id() {
+      return id;
+    }
+
+    public String key() {
+      return key;
+    }
+  }
+
+  /**
+   * Make a cursor for the page that starts at the given record.
+   *
+   * @param cursor where the page starts
+   * @return the cursor
+   */
+  public static String encode(Cursor cursor) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      out.writeByte(FORMAT);
+      out.writeLong(cursor.version);
+      out.writeInt(cursor.position);
+      writeString(out, cursor.id);
+      writeString(out, cursor.key);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes.toByteArray());
+  }
+
+  /**
+   * Get where a cursor says a page starts.
+   *
+   * @param cursor a cursor made by `encode`
+   * @return where the page starts
+   * @throws BadRequestResponse if the cursor wasn't made by `encode`
+   */
+  public static Cursor decode(String cursor) {
+    try {
+      byte[] bytes = Base64.getUrlDecoder().decode(cursor);
+      DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+      if (in.readByte() == FORMAT) {
+        long version = in.readLong();
+        int position = in.readInt();
+        String id = readString(in);
+        String key = readString(in);
+        if (version >= 0 && position >= 0 && in.available() == 0) {
+          return new Cursor(version, position, id, key);
+        }
+      }
+    } catch (IllegalArgumentException | IOException e) {
+      // Fall through to the error below; this covers bad base 64 as well
+      // as cursors that are cut short
+    }
+    throw new BadRequestResponse("Specified cursor '" + cursor + "' is not valid");
+  }
+
+  private static void writeString(DataOutputStream out, String value) throws IOException {
+    if (value == null) {
+      out.writeInt(-1);
+    } else {
+      byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+      out.writeInt(utf8.length);
+      out.write(utf8);
+    }
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    int length = in.readInt();
+    if (length < 0) {
+      return null;
+    }
+    if (length > in.available()) {
+      throw new IOException("The string runs past the end of the cursor");
+    }
+    byte[] utf8 = new byte[length];
+    in.readFully(utf8);
+    return new String(utf8, StandardCharsets.UTF_8);
+  }
+}
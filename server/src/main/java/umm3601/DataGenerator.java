@@ -0,0 +1,519 @@
+package umm3601;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Consumer;
+
+import umm3601.todo.Todo;
+import umm3601.user.User;
+
+/**
+ * Makes up realistic todos and users, as many as you like, for benchmarks
+ * and load tests.
+ * <p>
+ * Everything is generated from a seed, so the same settings always give
+ * exactly the same records, no matter how many there are. Records are
+ * generated one at a time rather than all at once, so writing out a data
+ * file of millions of todos doesn't need much heap.
+ * <p>
+ * The owners, categories, and companies start with the ones in the real
+ * data (so `owner=Fry` still finds something), and there can be as many
+ * of them as you like. How often each one comes up can be skewed: with a
+ * skew of `s`, the `k`th most common value comes up in proportion to
+ * `1 / k^s` (a Zipf distribution), so `0` is uniform and `1` is typical of
+ * real data, where a few owners have most of the todos.
+ * <p>
+ * It can also be run from the command line (see `main`) to write data
+ * files that the server can load with `-Dtodo.file` and `-Duser.file`.
+ */
+public final class DataGenerator {
+
+  /**
+   * How the number of words in a todo's body is spread between the
+   * minimum and the maximum.
+   */
+  public enum Lengths {
+    /** Every length is as likely as any other. */
+    UNIFORM,
+    /** Most bodies are around halfway, like the real data. */
+    NORMAL,
+    /** Most bodies are short, but a few are very long. */
+    LONG_TAIL
+  }
+
+  private static final String[] OWNERS = {
+    "Blanche", "Fry", "Barry", "Dawn", "Roberta", "Workman",
+    "Leela", "Bender", "Amy", "Hermes", "Zoidberg", "Nibbler",
+  };
+
+  private static final String[] CATEGORIES = {
+    "software design", "video games", "homework", "groceries",
+    "chores", "errands", "reading", "exercise",
+  };
+
+  private static final String[] COMPANIES = {
+    "OHMNET", "NIQUENT", "MOMENTIA", "DATAGENE", "SURELOGIC",
+    "VINCH", "RECOGNIA", "ESCENTA", "KINETICUT",
+  };
+
+  private static final String[] FIRST_NAMES = {
+    "Connie", "Lynn", "Roseann", "Stokes", "Valerie", "Kitty", "Bolton", "Marguerite",
+    "Merrill", "Cervantes", "Alma", "Dean", "Ingrid", "Jules", "Maude", "Otis",
+  };
+
+  private static final String[] LAST_NAMES = {
+    "Stewart", "Ferguson", "Roberson", "Clayton", "Erickson", "Page", "Monroe", "Norton",
+    "Parker", "Morin", "Hale", "Vance", "Quinn", "Baxter", "Lowe", "Ramos",
+  };
+
+  private static final String[] WORDS = {
+    "ad", "adipisicing", "aliqua", "aliquip", "amet", "anim", "aute", "cillum",
+    "commodo", "consectetur", "consequat", "culpa", "cupidatat", "deserunt", "do", "dolor",
+    "dolore", "duis", "ea", "eiusmod", "elit", "enim", "esse", "est", "et", "eu", "ex",
+    "excepteur", "exercitation", "fugiat", "id", "in", "incididunt", "ipsum", "irure",
+    "labore", "laboris", "laborum", "lorem", "magna", "minim", "mollit", "nisi", "non",
+    "nostrud", "nulla", "occaecat", "officia", "pariatur", "proident", "qui", "quis",
+    "reprehenderit", "sint", "sit", "sunt", "tempor", "ullamco", "ut", "velit", "veniam",
+    "voluptate",
+  };
+
+  // The first 8 hex digits of every ID, like a MongoDB object ID's time
+  private static final int ID_EPOCH = 0x58893000;
+
+  // Bodies are split into sentences of about this many words
+  private static final int WORDS_PER_SENTENCE = 12;
+
+  // Users' ages are spread around this, give or take the spread, but never
+  // younger than the minimum
+  private static final int MEAN_AGE = 35;
+  private static final int AGE_SPREAD = 12;
+  private static final int MIN_AGE = 18;
+
+  // The normal distribution of body lengths fits this many standard
+  // deviations between the minimum and maximum
+  private static final double LENGTH_DEVIATIONS = 6;
+
+  private final long seed;
+  private final int todoCount;
+  private final int userCount;
+  private final Skewed owners;
+  private final Skewed categories;
+  private final Skewed companies;
+  private final int minWords;
+  private final int maxWords;
+  private final Lengths lengths;
+  private final Skewed longTail;
+  private final double completeRatio;
+
+  private DataGenerator(Builder builder) {
+    this.seed = builder.seed;
+    this.todoCount = builder.todoCount;
+    this.userCount = builder.userCount;
+    this.owners = new Skewed(names(OWNERS, builder.ownerCount), builder.ownerSkew);
+    this.categories = new Skewed(names(CATEGORIES, builder.categoryCount), builder.categorySkew);
+    this.companies = new Skewed(names(COMPANIES, builder.companyCount), builder.companySkew);
+    this.minWords = builder.minWords;
+    this.maxWords = builder.maxWords;
+    this.lengths = builder.lengths;
+    String[] wordCounts = new String[maxWords - minWords + 1];
+    for (int i = 0; i < wordCounts.length; i++) {
+      wordCounts[i] = Integer.toString(minWords + i);
+    }
+    this.longTail = new Skewed(wordCounts, 1);
+    this.completeRatio = builder.completeRatio;
+  }
+
+  /**
+   * Start choosing the settings for a generator. Every setting has a
+   * default that resembles the real data.
+   *
+   * @return a builder for a generator
+   */
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Generate the todos, one at a time.
+   *
+   * @param consumer receives each todo in turn
+   */
+  public void forEachTodo(Consumer<Todo> consumer) {
+    Random random = new Random(seed);
+    for (int i = 0; i < todoCount; i++) {
+      Todo todo = new Todo();
+      todo._id = id(i, random);
+      todo.owner = owners.next(random);
+      todo.status = random.nextDouble() < completeRatio;
+      todo.body = body(random);
+      todo.category = categories.next(random);
+      consumer.accept(todo);
+    }
+  }
+
+  /**
+   * Generate the users, one at a time.
+   *
+   * @param consumer receives each user in turn
+   */
+  public void forEachUser(Consumer<User> consumer) {
+    // A different seed from the todos', so the todos don't depend on how
+    // many users there are or vice versa
+    Random random = new Random(~seed);
+    for (int i = 0; i < userCount; i++) {
+      String first = FIRST_NAMES[random.nextInt(FIRST_NAMES.length)];
+      String last = LAST_NAMES[random.nextInt(LAST_NAMES.length)];
+      User user = new User();
+      user._id = id(i, random);
+      user.name = first + " " + last;
+      user.age = Math.max(MIN_AGE, (int) Math.round(MEAN_AGE + AGE_SPREAD * random.nextGaussian()));
+      user.company = companies.next(random);
+      user.email = (first + last + i + "@" + user.company.replace(" ", "") + ".com").toLowerCase(Locale.ROOT);
+      consumer.accept(user);
+    }
+  }
+
+  /**
+   * Generate all the todos at once.
+   *
+   * @return the todos
+   */
+  public Todo[] todos() {
+    List<Todo> todos = new ArrayList<>(todoCount);
+    forEachTodo(todos::add);
+    return todos.toArray(new Todo[0]);
+  }
+
+  /**
+   * Generate all the users at once.
+   *
+   * @return the users
+   */
+  public User[] users() {
+    List<User> users = new ArrayList<>(userCount);
+    forEachUser(users::add);
+    return users.toArray(new User[0]);
+  }
+
+  /**
+   * Write the todos as JSON, one at a time.
+   *
+   * @param out    where to write the todos
+   * @param ndjson true to write newline delimited JSON instead of an array
+   */
+  public void writeTodos(OutputStream out, boolean ndjson) {
+    StreamingJson.write(out, ndjson, records -> forEachTodo(records::accept));
+  }
+
+  /**
+   * Write the users as JSON, one at a time.
+   *
+   * @param out    where to write the users
+   * @param ndjson true to write newline delimited JSON instead of an array
+   */
+  public void writeUsers(OutputStream out, boolean ndjson) {
+    StreamingJson.write(out, ndjson, records -> forEachUser(records::accept));
+  }
+
+  // Like a MongoDB object ID: 24 hex digits, unique thanks to the counter
+  private static String id(int i, Random random) {
+    return String.format("%08x%08x%08x", ID_EPOCH, i, random.nextInt());
+  }
+
+  private String body(Random random) {
+    int length;
+    if (lengths == Lengths.UNIFORM) {
+      length = minWords + random.nextInt(maxWords - minWords + 1);
+    } else if (lengths == Lengths.NORMAL) {
+      double middle = (minWords + maxWords) / 2.0;
+      double deviation = (maxWords - minWords) / LENGTH_DEVIATIONS;
+      length = (int) Math.round(middle + deviation * random.nextGaussian());
+      length = Math.min(maxWords, Math.max(minWords, length));
+    } else {
+      length = Integer.parseInt(longTail.next(random));
+    }
+    StringBuilder body = new StringBuilder();
+    boolean startOfSentence = true;
+    for (int i = 0; i < length; i++) {
+      String word = WORDS[random.nextInt(WORDS.length)];
+      if (startOfSentence) {
+        word = Character.toUpperCase(word.charAt(0)) + word.substring(1);
+      }
+      body.append(word);
+      startOfSentence = i == length - 1 || random.nextInt(WORDS_PER_SENTENCE) == 0;
+      body.append(startOfSentence ? ". " : " ");
+    }
+    return body.toString().trim();
+  }
+
+  // The first `count` of the names, and then numbered copies of them if
+  // that isn't enough
+  private static String[] names(String[] names, int count) {
+    String[] result = new String[count];
+    for (int i = 0; i < count; i++) {
+      result[i] = i < names.length ? names[i] : names[i % names.length] + " " + (i / names.length + 1);
+    }
+    return result;
+  }
+
+  /**
+   * Picks values at random, the first ones more often than the later ones
+   * according to a Zipf distribution.
+   */
+  private static final class Skewed {
+    private final String[] values;
+    private final double[] cumulative;
+
+    Skewed(String[] values, double skew) {
+      this.values = values;
+      this.cumulative = new double[values.length];
+      double total = 0;
+      for (int k = 0; k < values.length; k++) {
+        total += 1 / Math.pow(k + 1, skew);
+        cumulative[k] = total;
+      }
+      for (int k = 0; k < values.length; k++) {
+        cumulative[k] /= total;
+      }
+    }
+
+    String next(Random random) {
+      int k = Arrays.binarySearch(cumulative, random.nextDouble());
+      return values[Math.min(k < 0 ? -k - 1 : k, values.length - 1)];
+    }
+  }
+
+  /**
+   * The settings for a generator.
+   */
+  public static final class Builder {
+    private static final int DEFAULT_OWNERS = 6;
+    private static final int DEFAULT_CATEGORIES = 4;
+    private static final int DEFAULT_COMPANIES = 9;
+    private static final int DEFAULT_MIN_WORDS = 10;
+    private static final int DEFAULT_MAX_WORDS = 30;
+    private static final double DEFAULT_COMPLETE_RATIO = 0.48;
+    private static final long DEFAULT_SEED = 3601;
+
+    private long seed = DEFAULT_SEED;
+    private int todoCount;
+    private int userCount;
+    private int ownerCount = DEFAULT_OWNERS;
+    private double ownerSkew = 1;
+    private int categoryCount = DEFAULT_CATEGORIES;
+    private double categorySkew;
+    private int companyCount = DEFAULT_COMPANIES;
+    private double companySkew = 1;
+    private int minWords = DEFAULT_MIN_WORDS;
+    private int maxWords = DEFAULT_MAX_WORDS;
+    private Lengths lengths = Lengths.NORMAL;
+    private double completeRatio = DEFAULT_COMPLETE_RATIO;
+
+    private Builder() {
+    }
+
+    /**
+     * Set the seed everything is generated from.
+     *
+     * @param value the seed
+     * @return this builder
+     */
+    public Builder seed(long value) {
+      this.seed = value;
+      return this;
+    }
+
+    /**
+     * Set how many todos to generate.
+     *
+     * @param count the number of todos
+     * @return this builder
+     */
+    public Builder todos(int count) {
+      this.todoCount = atLeast(0, count, "todos");
+      return this;
+    }
+
+    /**
+     * Set how many users to generate.
+     *
+     * @param count the number of users
+     * @return this builder
+     */
+    public Builder users(int count) {
+      this.userCount = atLeast(0, count, "users");
+      return this;
+    }
+
+    /**
+     * Set how many different owners the todos have, and how skewed they
+     * are towards the first few.
+     *
+     * @param count the number of owners
+     * @param skew  the Zipf exponent: 0 for uniform, 1 for typical skew
+     * @return this builder
+     */
+    public Builder owners(int count, double skew) {
+      this.ownerCount = atLeast(1, count, "owners");
+      this.ownerSkew = skew;
+      return this;
+    }
+
+    /**
+     * Set how many different categories the todos have, and how skewed they
+     * are towards the first few.
+     *
+     * @param count the number of categories
+     * @param skew  the Zipf exponent: 0 for uniform, 1 for typical skew
+     * @return this builder
+     */
+    public Builder categories(int count, double skew) {
+      this.categoryCount = atLeast(1, count, "categories");
+      this.categorySkew = skew;
+      return this;
+    }
+
+    /**
+     * Set how many different companies the users work for, and how skewed
+     * they are towards the first few.
+     *
+     * @param count the number of companies
+     * @param skew  the Zipf exponent: 0 for uniform, 1 for typical skew
+     * @return this builder
+     */
+    public Builder companies(int count, double skew) {
+      this.companyCount = atLeast(1, count, "companies");
+      this.companySkew = skew;
+      return this;
+    }
+
+    /**
+     * Set how many words the todos' bodies have.
+     *
+     * @param min          the fewest words in a body
+     * @param max          the most words in a body
+     * @param distribution how the lengths are spread between the two
+     * @return this builder
+     */
+    public Builder bodyWords(int min, int max, Lengths distribution) {
+      this.minWords = atLeast(1, min, "minWords");
+      this.maxWords = atLeast(min, max, "maxWords");
+      this.lengths = distribution;
+      return this;
+    }
+
+    /**
+     * Set the fraction of todos that are complete.
+     *
+     * @param ratio the fraction, from 0 to 1
+     * @return this builder
+     */
+    public Builder complete(double ratio) {
+      if (ratio < 0 || ratio > 1) {
+        throw new IllegalArgumentException("complete must be between 0 and 1, not " + ratio);
+      }
+      this.completeRatio = ratio;
+      return this;
+    }
+
+    /**
+     * Build a generator with these settings.
+     *
+     * @return the generator
+     */
+    public DataGenerator build() {
+      return new DataGenerator(this);
+    }
+
+    private static int atLeast(int min, int value, String name) {
+      if (value < min) {
+        throw new IllegalArgumentException(name + " must be at least " + min + ", not " + value);
+      }
+      return value;
+    }
+  }
+
+  /**
+   * Write generated data files. The arguments are all `name=value`
+   * settings, and any that are left out get their defaults:
+   * <ul>
+   * <li>`todos`, `users`: how many of each to generate (default 0)
+   * <li>`seed`
+   * <li>`owners`, `ownerSkew`, `categories`, `categorySkew`, `companies`,
+   * `companySkew`
+   * <li>`minWords`, `maxWords`, `lengths` (`uniform`, `normal`, or
+   * `long_tail`)
+   * <li>`complete`: the fraction of todos that are complete
+   * <li>`format`: `json` (an array; the default) or `ndjson`
+   * <li>`out`: the directory to write `todos.json` and `users.json` (or
+   * `.ndjson`) to (default `generated`)
+   * </ul>
+   * For example, `todos=1000000 owners=500 ownerSkew=1.2 format=ndjson`.
+   *
+   * @param args the settings
+   * @throws IOException if the files can't be written
+   */
+  public static void main(String[] args) throws IOException {
+    Map<String, String> settings = new HashMap<>();
+    for (String arg : args) {
+      String[] parts = arg.split("=", 2);
+      if (parts.length != 2) {
+        throw new IllegalArgumentException("Expected name=value, not " + arg);
+      }
+      settings.put(parts[0], parts[1]);
+    }
+    Builder defaults = builder();
+    DataGenerator generator = builder()
+        .seed(Long.parseLong(settings.getOrDefault("seed", Long.toString(defaults.seed))))
+        .todos(intSetting(settings, "todos", 0))
+        .users(intSetting(settings, "users", 0))
+        .owners(intSetting(settings, "owners", defaults.ownerCount),
+            doubleSetting(settings, "ownerSkew", defaults.ownerSkew))
+        .categories(intSetting(settings, "categories", defaults.categoryCount),
+            doubleSetting(settings, "categorySkew", defaults.categorySkew))
+        .companies(intSetting(settings, "companies", defaults.companyCount),
+            doubleSetting(settings, "companySkew", defaults.companySkew))
+        .bodyWords(intSetting(settings, "minWords", defaults.minWords),
+            intSetting(settings, "maxWords", defaults.maxWords),
+            Lengths.valueOf(settings.getOrDefault("lengths", defaults.lengths.name()).toUpperCase(Locale.ROOT)))
+        .complete(doubleSetting(settings, "complete", defaults.completeRatio))
+        .build();
+    boolean ndjson = settings.getOrDefault("format", "json").equals("ndjson");
+    Path out = Paths.get(settings.getOrDefault("out", "generated"));
+    Files.createDirectories(out);
+    String extension = ndjson ? ".ndjson" : ".json";
+    if (generator.todoCount > 0) {
+      Path file = out.resolve("todos" + extension);
+      try (OutputStream stream = new BufferedOutputStream(Files.newOutputStream(file))) {
+        generator.writeTodos(stream, ndjson);
+      }
+      System.out.println("Wrote " + generator.todoCount + " todos to " + file);
+    }
+    if (generator.userCount > 0) {
+      Path file = out.resolve("users" + extension);
+      try (OutputStream stream = new BufferedOutputStream(Files.newOutputStream(file))) {
+        generator.writeUsers(stream, ndjson);
+      }
+      System.out.println("Wrote " + generator.userCount + " users to " + file);
+    }
+  }
+
+  private static int intSetting(Map<String, String> settings, String name, int defaultValue) {
+    return settings.containsKey(name) ? Integer.parseInt(settings.get(name)) : defaultValue;
+  }
+
+  private static double doubleSetting(Map<String, String> settings, String name, double defaultValue) {
+    return settings.containsKey(name) ? Double.parseDouble(settings.get(name)) : defaultValue;
+  }
+}
@@ -0,0 +1,185 @@
+package umm3601;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Reloads a database when its data file changes, and keeps track of how
+ * those reloads went.
+ * <p>
+ * The watching happens on a background (daemon) thread. The database does
+ * the reload itself, building the new data off to the side and swapping it
+ * in all at once, so requests are never blocked or dropped while a reload
+ * is going on.
+ */
+public class DataReloader implements Closeable {
+
+  // Editors and copies often write a file in several steps, so wait until
+  // the file has been quiet for this long before reloading it
+  static final long QUIET_MILLIS = 200;
+
+  private static final double NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+  /**
+   * Reloads the data.
+   */
+  @FunctionalInterface
+  public interface Reload {
+    /**
+     * Reload the data.
+     *
+     * @throws IOException if the data can't be loaded
+     */
+    void run() throws IOException;
+  }
+
+  private final Reload reload;
+  private final LongSupplier generation;
+
+  private final AtomicLong reloads = new AtomicLong();
+  private final AtomicLong failures = new AtomicLong();
+  private volatile long lastReloadNanos;
+  private volatile String lastError;
+
+  private WatchService watcher;
+
+  /**
+   * Construct a reloader.
+   *
+   * @param reload     reloads the data
+   * @param generation gets the current version of the data
+   */
+  public DataReloader(Reload reload, LongSupplier generation) {
+    this.reload = reload;
+    this.generation = generation;
+  }
+
+  /**
+   * Start watching a data file, and reload whenever it changes.
+   *
+   * @param file the data file
+   * @throws IOException if the file's directory can't be watched
+   */
+  public synchronized void watch(Path file) throws IOException {
+    if (watcher != null) {
+      throw new IllegalStateException("Already watching a file");
+    }
+    Path absolute = file.toAbsolutePath();
+    watcher = absolute.getFileSystem().newWatchService();
+    absolute.getParent().register(watcher,
+        StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+    WatchService service = watcher;
+    Thread thread = new Thread(() -> watchLoop(service, absolute.getFileName()), "reload-" + absolute.getFileName());
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  private void watchLoop(WatchService service, Path name) {
+    try {
+      while (true) {
+        if (changed(service.take(), name)) {
+          WatchKey more = service.poll(QUIET_MILLIS, TimeUnit.MILLISECONDS);
+          while (more != null) {
+            changed(more, name);
+            more = service.poll(QUIET_MILLIS, TimeUnit.MILLISECONDS);
+          }
+          reloadNow();
+        }
+      }
+    } catch (InterruptedException | ClosedWatchServiceException e) {
+      // Closed; stop watching
+      return;
+    }
+  }
+
+  // Whether any of the key's events are about the file with the given name
+  // (or might have been, if some events were lost)
+  private static boolean changed(WatchKey key, Path name) {
+    boolean changed = false;
+    for (WatchEvent<?> event : key.pollEvents()) {
+      changed |= event.kind() == StandardWatchEventKinds.OVERFLOW || name.equals(event.context());
+    }
+    key.reset();
+    return changed;
+  }
+
+  /**
+   * Reload the data right away. If the reload fails, the old data stays in
+   * place and the failure is counted.
+   *
+   * @return true if the reload succeeded
+   */
+  public synchronized boolean reloadNow() {
+    long start = System.nanoTime();
+    try {
+      reload.run();
+      lastError = null;
+      reloads.incrementAndGet();
+      return true;
+    } catch (IOException | RuntimeException e) {
+      lastError = e.toString();
+      failures.incrementAndGet();
+      return false;
+    } finally {
+      lastReloadNanos = System.nanoTime() - start;
+    }
+  }
+
+  /**
+   * The number of successful reloads.
+   *
+   * @return the number of reloads
+   */
+  public long reloads() {
+    return reloads.get();
+  }
+
+  /**
+   * The number of reloads that failed (leaving the old data in place).
+   *
+   * @return the number of failures
+   */
+  public long failures() {
+    return failures.get();
+  }
+
+  /**
+   * The metrics for this reloader, e.g., for a stats endpoint: the current
+   * data generation (version), how many reloads succeeded and failed, how
+   * long the last one took, and why it failed (if it did).
+   *
+   * @return the metrics by name
+   */
+  public Map<String, Object> stats() {
+    Map<String, Object> stats = new LinkedHashMap<>();
+    stats.put("generation", generation.getAsLong());
+    stats.put("reloads", reloads());
+    stats.put("failures", failures());
+    stats.put("lastReloadMillis", lastReloadNanos / NANOS_PER_MILLI);
+    stats.put("lastError", lastError);
+    return stats;
+  }
+
+  /**
+   * Stop watching the data file (if one is being watched).
+   *
+   * @throws IOException if the watch can't be closed
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    if (watcher != null) {
+      watcher.close();
+    }
+  }
+}
@@ -0,0 +1,352 @@
+package umm3601;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.function.IntFunction;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Every record of one version of the data, already serialized to UTF-8
+ * JSON, so a response never has to serialize a record again.
+ * <p>
+ * The records are serialized once, when the data is loaded (or changed),
+ * exactly as `StreamingJson` would write them. A list of records is then
+ * written as `[`, the records' bytes joined by commas, and `]` (or the
+ * records' bytes each followed by a newline, for newline delimited JSON):
+ * just copying bytes, with no work for each field.
+ * <p>
+ * The bytes are kept in large segments, with each record's place in them,
+ * so there are only a handful of arrays however many records there are.
+ * When some of the records change, `with` makes a copy that shares all of
+ * those arrays and only encodes the changed records; when the data is
+ * reloaded, the records that are the same as before are copied from the
+ * old encodings rather than serialized again. The segments and places can
+ * also be written into a snapshot payload, and `read` back from a mapped
+ * one without copying anything onto the heap.
+ */
+public final class EncodedRecords {
+
+  // Records are packed into segments until they have this many bytes, so no
+  // one array has to be big enough for all of them
+  private static final int SEGMENT_SIZE = 16 * 1024 * 1024;
+
+  // The responses are written through a buffer of this size, so the slices
+  // go out in a few big writes rather than one small write each
+  private static final int BUFFER_SIZE = 32 * 1024;
+
+  private static final byte[] OPEN = {'['};
+  private static final byte[] COMMA = {','};
+  private static final byte[] CLOSE = {']'};
+  private static final byte[] NEWLINE = {'\n'};
+
+  private final int size;
+  // Heap arrays (wrapped), or slices of a mapped snapshot
+  private final ByteBuffer[] segments;
+  // The segment each record is in, where it starts, and how long it is
+  private final IntBuffer segmentOf;
+  private final IntBuffer starts;
+  private final IntBuffer lengths;
+
+  // The records that have changed since the segments were filled, by
+  // position; these are written instead of what's in the segments
+  private final Map<Integer, byte[]> changed;
+
+  /**
+   * Serialize the records at positions `0` to `size - 1`.
+   *
+   * @param size    the number of records
+   * @param records gets the record at a position
+   */
+  public EncodedRecords(int size, IntFunction<?> records) {
+    this(size, records, null, position -> -1);
+  }
+
+  /**
+   * Serialize the records at positions `0` to `size - 1`, copying the
+   * bytes of those that haven't changed from some earlier encodings (e.g.,
+   * of the data before it was reloaded) instead of serializing them again.
+   *
+   * @param size     the number of records
+   * @param records  gets the record at a position
+   * @param previous the earlier encodings, or null
+   * @param same     gets the position in `previous` of a record that's
+   *                 exactly the same as the one at a position, or -1 if
+   *                 it's changed (or new)
+   */
+  public EncodedRecords(int size, IntFunction<?> records, EncodedRecords previous, IntUnaryOperator same) {
+    List<ByteBuffer> filled = new ArrayList<>();
+    Packer packer = new Packer(size, segment -> filled.add(ByteBuffer.wrap(segment.toByteArray())));
+    packer.pack(records, previous, same);
+    this.size = size;
+    this.segments = filled.toArray(new ByteBuffer[0]);
+    this.segmentOf = IntBuffer.wrap(packer.segmentOf);
+    this.starts = IntBuffer.wrap(packer.starts);
+    this.lengths = IntBuffer.wrap(packer.lengths);
+    this.changed = Map.of();
+  }
+
+  private EncodedRecords(int size, ByteBuffer[] segments, IntBuffer segmentOf, IntBuffer starts, IntBuffer lengths,
+      Map<Integer, byte[]> changed) {
+    this.size = size;
+    this.segments = segments;
+    this.segmentOf = segmentOf;
+    this.starts = starts;
+    this.lengths = lengths;
+    this.changed = changed;
+  }
+
+  /**
+   * Make a copy of these records with the records at some positions
+   * changed (or added). Only those records are serialized; the rest are
+   * shared with this copy.
+   *
+   * @param positions the positions that have changed
+   * @param records   gets the record now at a position, or null if there
+   *                  isn't one any more
+   * @return the changed records
+   */
+  public EncodedRecords with(BitSet positions, IntFunction<?> records) {
+    Map<Integer, byte[]> next = new HashMap<>(changed);
+    ByteArrayOutputStream record = new ByteArrayOutputStream();
+    for (int position = positions.nextSetBit(0); position >= 0; position = positions.nextSetBit(position + 1)) {
+      Object value = records.apply(position);
+      if (value == null) {
+        next.remove(position);
+      } else {
+        record.reset();
+        StreamingJson.encode(record, value);
+        next.put(position, record.toByteArray());
+      }
+    }
+    return new EncodedRecords(Math.max(size, positions.length()), segments, segmentOf, starts, lengths, next);
+  }
+
+  /**
+   * Serialize the records at positions `0` to `size - 1` straight into a
+   * snapshot payload, in the form `read` reads, without keeping them: only
+   * one segment is held in memory at a time.
+   * <p>
+   * The payload has the record count, then each segment's length and bytes
+   * (ending with a length of -1), and then the segment, start, and length
+   * of every record.
+   *
+   * @param out     where to write them
+   * @param size    the number of records
+   * @param records gets the record at a position
+   * @throws IOException if they can't be written
+   */
+  public static void write(DataOutputStream out, int size, IntFunction<?> records) throws IOException {
+    write(out, size, records, null, position -> -1);
+  }
+
+  /**
+   * Write these records to a snapshot payload, in the form `read` reads,
+   * copying their bytes rather than serializing them again. A position
+   * that `with` has left without a record is written as `null`.
+   *
+   * @param out where to write them
+   * @throws IOException if they can't be written
+   */
+  public void write(DataOutputStream out) throws IOException {
+    write(out, size, position -> null, this, position -> has(position) ? position : -1);
+  }
+
+  private static void write(DataOutputStream out, int size, IntFunction<?> records, EncodedRecords previous,
+      IntUnaryOperator same) throws IOException {
+    out.writeInt(size);
+    Packer packer = new Packer(size, segment -> {
+      try {
+        out.writeInt(segment.size());
+        segment.writeTo(out);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    });
+    try {
+      packer.pack(records, previous, same);
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+    out.writeInt(-1);
+    for (int[] column : new int[][] {packer.segmentOf, packer.starts, packer.lengths}) {
+      for (int value : column) {
+        out.writeInt(value);
+      }
+    }
+  }
+
+  /**
+   * Read records written by `write(DataOutputStream)`. The records are
+   * read straight from the payload, not copied, so it mustn't change while
+   * they're in use.
+   *
+   * @param in the payload, positioned at the records; it's left positioned
+   *           just after them
+   * @return the records
+   */
+  public static EncodedRecords read(ByteBuffer in) {
+    int size = in.getInt();
+    List<ByteBuffer> segments = new ArrayList<>();
+    for (int length = in.getInt(); length >= 0; length = in.getInt()) {
+      segments.add(Snapshot.slice(in, length));
+    }
+    IntBuffer segmentOf = Snapshot.readInts(in, size);
+    IntBuffer starts = Snapshot.readInts(in, size);
+    IntBuffer lengths = Snapshot.readInts(in, size);
+    return new EncodedRecords(size, segments.toArray(new ByteBuffer[0]), segmentOf, starts, lengths, Map.of());
+  }
+
+  private boolean has(int position) {
+    return position < segmentOf.limit() || changed.containsKey(position);
+  }
+
+  // Copy the bytes of the record at a position
+  private void copy(int position, ByteArrayOutputStream out) {
+    byte[] record = changed.isEmpty() ? null : changed.get(position);
+    if (record != null) {
+      out.writeBytes(record);
+    } else {
+      ByteBuffer segment = segments[segmentOf.get(position)];
+      byte[] bytes = new byte[lengths.get(position)];
+      segment.get(starts.get(position), bytes);
+      out.writeBytes(bytes);
+    }
+  }
+
+  /**
+   * The number of records.
+   *
+   * @return the number of positions there are records for
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * The number of bytes the encoded records take up.
+   *
+   * @return the total length of the records' JSON
+   */
+  public long bytes() {
+    long total = 0;
+    for (ByteBuffer segment : segments) {
+      total += segment.limit();
+    }
+    for (byte[] record : changed.values()) {
+      total += record.length;
+    }
+    return total;
+  }
+
+  /**
+   * Write some of the records to a stream.
+   *
+   * @param out       where to write them; it's flushed, but not closed
+   * @param ndjson    true to write newline delimited JSON instead of an array
+   * @param positions produces the positions of the records to write, in
+   *                  order, passing each one to the consumer it is given
+   */
+  public void write(OutputStream out, boolean ndjson, Consumer<IntConsumer> positions) {
+    BufferedOutputStream buffered = new BufferedOutputStream(out, BUFFER_SIZE);
+    // For copying records out of segments that aren't on the heap
+    byte[][] scratch = {new byte[0]};
+    try {
+      if (!ndjson) {
+        buffered.write(OPEN);
+      }
+      boolean[] first = {true};
+      positions.accept(position -> {
+        try {
+          if (!ndjson && !first[0]) {
+            buffered.write(COMMA);
+          }
+          first[0] = false;
+          byte[] record = changed.isEmpty() ? null : changed.get(position);
+          if (record != null) {
+            buffered.write(record);
+          } else {
+            ByteBuffer segment = segments[segmentOf.get(position)];
+            int start = starts.get(position);
+            int length = lengths.get(position);
+            if (segment.hasArray()) {
+              buffered.write(segment.array(), segment.arrayOffset() + start, length);
+            } else {
+              if (scratch[0].length < length) {
+                scratch[0] = new byte[Math.max(length, BUFFER_SIZE)];
+              }
+              segment.get(start, scratch[0], 0, length);
+              buffered.write(scratch[0], 0, length);
+            }
+          }
+          if (ndjson) {
+            buffered.write(NEWLINE);
+          }
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      });
+      if (!ndjson) {
+        buffered.write(CLOSE);
+      }
+      buffered.flush();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  // Packs records into segments, handing each one on once it's full, and
+  // notes where each record went
+  private static final class Packer {
+    private final int[] segmentOf;
+    private final int[] starts;
+    private final int[] lengths;
+    private final Consumer<ByteArrayOutputStream> filled;
+
+    Packer(int size, Consumer<ByteArrayOutputStream> filled) {
+      this.segmentOf = new int[size];
+      this.starts = new int[size];
+      this.lengths = new int[size];
+      this.filled = filled;
+    }
+
+    // Serialize each record, or copy it from `previous` if `same` says
+    // it's the same as one there
+    void pack(IntFunction<?> records, EncodedRecords previous, IntUnaryOperator same) {
+      ByteArrayOutputStream segment = new ByteArrayOutputStream();
+      int segments = 0;
+      for (int position = 0; position < segmentOf.length; position++) {
+        int start = segment.size();
+        int old = previous == null ? -1 : same.applyAsInt(position);
+        if (old >= 0) {
+          previous.copy(old, segment);
+        } else {
+          StreamingJson.encode(segment, records.apply(position));
+        }
+        segmentOf[position] = segments;
+        starts[position] = start;
+        lengths[position] = segment.size() - start;
+        if (segment.size() >= SEGMENT_SIZE) {
+          filled.accept(segment);
+          segment.reset();
+          segments++;
+        }
+      }
+      if (segment.size() > 0) {
+        filled.accept(segment);
+      }
+    }
+  }
+}
@@ -0,0 +1,181 @@
+package umm3601;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Loads records from a (possibly huge) JSON data file on disk one token at a
+ * time, handing each field straight to whatever is storing the records.
+ * <p>
+ * Unlike `ObjectMapper.readValue`, this never holds more than one record's
+ * worth of parser state, so loading doesn't need any more heap than the
+ * records' final storage does. The file can either be a JSON array of
+ * records (like `todos.json`) or just one record after another (e.g.,
+ * newline delimited JSON).
+ */
+public final class JsonLoader {
+
+  /** How many records to load between progress reports. */
+  public static final int REPORT_INTERVAL = 100_000;
+
+  private static final int BUFFER_BYTES = 1 << 16;
+  private static final double BYTES_PER_MEGABYTE = 1 << 20;
+  private static final double PERCENT = 100;
+  private static final JsonFactory FACTORY = new JsonFactory();
+
+  private JsonLoader() {
+  }
+
+  /**
+   * Receives the records being loaded.
+   */
+  public interface RecordHandler {
+    /**
+     * Handle one field of the current record.
+     *
+     * @param name   the field name
+     * @param parser the parser, positioned at the field's value; any
+     *               object or array value the handler doesn't read is
+     *               skipped afterwards
+     * @throws IOException if the value can't be read
+     */
+    void field(String name, JsonParser parser) throws IOException;
+
+    /**
+     * The current record is complete; the next call to `field` (if any) is
+     * for a new record.
+     */
+    void endRecord();
+  }
+
+  /**
+   * How far a load has got.
+   */
+  public static final class Progress {
+    private final long records;
+    private final long bytes;
+    private final long totalBytes;
+    private final long elapsedNanos;
+    private final boolean done;
+
+    Progress(long records, long bytes, long totalBytes, long elapsedNanos, boolean done) {
+      this.records = records;
+      this.bytes = bytes;
+      this.totalBytes = totalBytes;
+      this.elapsedNanos = elapsedNanos;
+      this.done = done;
+    }
+
+    public long records() {
+      return records;
+    }
+
+    public long bytes() {
+      return bytes;
+    }
+
+    public long totalBytes() {
+      return totalBytes;
+    }
+
+    public long elapsedNanos() {
+      return elapsedNanos;
+    }
+
+    /**
+     * Whether this is the final report of a finished load.
+     *
+     * @return true if the load is done
+     */
+    public boolean done() {
+      return done;
+    }
+
+    /**
+     * The load rate so far.
+     *
+     * @return the number of records loaded per second
+     */
+    public double recordsPerSecond() {
+      return records / seconds();
+    }
+
+    /**
+     * The load rate so far.
+     *
+     * @return the number of megabytes (2^20 bytes) read per second
+     */
+    public double megabytesPerSecond() {
+      return bytes / BYTES_PER_MEGABYTE / seconds();
+    }
+
+    private double seconds() {
+      return Math.max(elapsedNanos, 1) / (double) TimeUnit.SECONDS.toNanos(1);
+    }
+
+    @Override
+    public String toString() {
+      return String.format(Locale.ROOT, "%s %,d records (%.0f%% of %,d bytes) at %,.0f records/s, %.1f MB/s",
+          done ? "Loaded" : "Loading", records, totalBytes == 0 ? PERCENT : PERCENT * bytes / totalBytes,
+          totalBytes, recordsPerSecond(), megabytesPerSecond());
+    }
+  }
+
+  /**
+   * Load all the records in a data file.
+   *
+   * @param file     the data file
+   * @param handler  receives the records
+   * @param progress called every `REPORT_INTERVAL` records, and once more at
+   *                 the end; may be null
+   * @return the final progress of the load
+   * @throws IOException if the file can't be read or isn't JSON records
+   */
+  public static Progress load(Path file, RecordHandler handler, Consumer<Progress> progress) throws IOException {
+    long totalBytes = Files.size(file);
+    long start = System.nanoTime();
+    long records = 0;
+    try (InputStream in = new BufferedInputStream(Files.newInputStream(file), BUFFER_BYTES);
+        JsonParser parser = FACTORY.createParser(in)) {
+      JsonToken token = parser.nextToken();
+      boolean inArray = token == JsonToken.START_ARRAY;
+      if (inArray) {
+        token = parser.nextToken();
+      }
+      while (token == JsonToken.START_OBJECT) {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+          String name = parser.getCurrentName();
+          parser.nextToken();
+          handler.field(name, parser);
+          parser.skipChildren();
+        }
+        handler.endRecord();
+        records++;
+        if (progress != null && records % REPORT_INTERVAL == 0) {
+          progress.accept(new Progress(records, parser.getCurrentLocation().getByteOffset(), totalBytes,
+              System.nanoTime() - start, false));
+        }
+        token = parser.nextToken();
+      }
+      if (inArray ? token != JsonToken.END_ARRAY || parser.nextToken() != null : token != null) {
+        throw new JsonParseException(parser, "Expected a JSON object for each record in " + file);
+      }
+    }
+    Progress last = new Progress(records, totalBytes, totalBytes, System.nanoTime() - start, true);
+    if (progress != null) {
+      progress.accept(last);
+    }
+    return last;
+  }
+}
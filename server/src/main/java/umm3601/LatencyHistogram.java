@@ -0,0 +1,125 @@
+package umm3601;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of durations (or any other non-negative values) that's cheap
+ * enough to record into on every request.
+ * <p>
+ * Like HdrHistogram, the buckets are log-linear: each power of two is split
+ * into `SUB_BUCKETS` equal buckets, so every value is kept to within about
+ * 3% of its true value whatever its size, from nanoseconds to minutes, in a
+ * fixed array of counters. Recording a value is a few bit operations and
+ * three atomic adds. It never allocates and never locks, so any number of
+ * threads can record at once.
+ * <p>
+ * Quantiles are read from a snapshot-free walk over the counters, so a
+ * reading taken while values are being recorded can be off by those
+ * values, which doesn't matter for monitoring.
+ */
+public final class LatencyHistogram {
+
+  // Each power of two gets 2^SUB_BUCKET_BITS buckets
+  private static final int SUB_BUCKET_BITS = 5;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+  // Values are tracked up to 2^MAX_BITS - 1 (over 18 minutes, in
+  // nanoseconds); anything bigger is counted as that
+  private static final int MAX_BITS = 40;
+  static final long MAX_VALUE = (1L << MAX_BITS) - 1;
+
+  private static final int BUCKETS = SUB_BUCKETS + (MAX_BITS - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong sum = new AtomicLong();
+  private final AtomicLong max = new AtomicLong();
+
+  /**
+   * Record a value.
+   *
+   * @param value the value, e.g., a duration in nanoseconds; negative
+   *              values are counted as 0
+   */
+  public void record(long value) {
+    long clamped = Math.min(Math.max(value, 0), MAX_VALUE);
+    counts.incrementAndGet(bucketOf(clamped));
+    count.incrementAndGet();
+    sum.addAndGet(clamped);
+    max.accumulateAndGet(clamped, Math::max);
+  }
+
+  /**
+   * The number of values recorded.
+   *
+   * @return the count
+   */
+  public long count() {
+    return count.get();
+  }
+
+  /**
+   * The total of the values recorded.
+   *
+   * @return the sum
+   */
+  public long sum() {
+    return sum.get();
+  }
+
+  /**
+   * The largest value recorded, exactly.
+   *
+   * @return the maximum, or 0 if nothing has been recorded
+   */
+  public long max() {
+    return max.get();
+  }
+
+  /**
+   * The value that the given fraction of the recorded values are less than
+   * or equal to, to within the precision of the buckets.
+   *
+   * @param quantile the fraction, e.g., 0.99 for the 99th percentile
+   * @return the value at that quantile (the top of its bucket, but never
+   *         more than the maximum), or 0 if nothing has been recorded
+   */
+  public long valueAtQuantile(double quantile) {
+    long total = count.get();
+    if (total == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(quantile * total));
+    long seen = 0;
+    for (int bucket = 0; bucket < BUCKETS; bucket++) {
+      seen += counts.get(bucket);
+      if (seen >= rank) {
+        return Math.min(highestValueIn(bucket), max.get());
+      }
+    }
+    return max.get();
+  }
+
+  // Values below SUB_BUCKETS each get their own bucket. Above that, a value
+  // in [2^e, 2^(e+1)) goes in one of the SUB_BUCKETS buckets for e, chosen
+  // by the SUB_BUCKET_BITS bits after its leading one.
+  static int bucketOf(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+    int shift = exponent - SUB_BUCKET_BITS;
+    int subBucket = (int) (value >>> shift) - SUB_BUCKETS;
+    return SUB_BUCKETS + shift * SUB_BUCKETS + subBucket;
+  }
+
+  static long highestValueIn(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    int shift = (bucket - SUB_BUCKETS) / SUB_BUCKETS;
+    long subBucket = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+    return ((SUB_BUCKETS + subBucket + 1) << shift) - 1;
+  }
+}
@@ -0,0 +1,140 @@
+package umm3601;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * A registry of named metrics, which can all be written out in the
+ * Prometheus text exposition format for scraping.
+ * <p>
+ * Metrics are registered once, up front (or on first use), and whoever
+ * records into them keeps hold of the metric itself. So looking metrics up
+ * by name never happens on the request path, and recording is just the
+ * metric's own (allocation-free) update.
+ * <p>
+ * Each metric belongs to a family (its name) and is told apart from the
+ * others in the family by its labels, which are given already formatted,
+ * e.g., `route="/api/todos",method="GET"`.
+ */
+public final class Metrics {
+
+  /** The content type of `prometheus()`. */
+  public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+  // The quantiles reported for every timer
+  private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+  private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+  private final Map<String, Family> families = new LinkedHashMap<>();
+
+  /**
+   * All the metrics with the same name.
+   */
+  private static final class Family {
+    private final String help;
+    private final String type;
+    private final Map<String, Object> metrics = new LinkedHashMap<>();
+
+    Family(String help, String type) {
+      this.help = help;
+      this.type = type;
+    }
+  }
+
+  /**
+   * Get (registering it if need be) a timer: a histogram of durations in
+   * nanoseconds, reported as a summary in seconds.
+   *
+   * @param name   the metric's name, which should end in `_seconds`
+   * @param help   what the metric measures
+   * @param labels the metric's labels, formatted; may be empty
+   * @return the histogram to record durations into
+   */
+  public LatencyHistogram timer(String name, String help, String labels) {
+    return (LatencyHistogram) register(name, help, "summary", labels, new LatencyHistogram());
+  }
+
+  /**
+   * Get (registering it if need be) a counter.
+   *
+   * @param name   the metric's name, which should end in `_total`
+   * @param help   what the metric counts
+   * @param labels the metric's labels, formatted; may be empty
+   * @return the counter to add to
+   */
+  public LongAdder counter(String name, String help, String labels) {
+    return (LongAdder) register(name, help, "counter", labels, new LongAdder());
+  }
+
+  /**
+   * Register a gauge: a value that goes up and down, which is read from
+   * the given supplier whenever the metrics are written out.
+   *
+   * @param name   the metric's name
+   * @param help   what the metric measures
+   * @param labels the metric's labels, formatted; may be empty
+   * @param value  reads the current value
+   */
+  public void gauge(String name, String help, String labels, LongSupplier value) {
+    register(name, help, "gauge", labels, value);
+  }
+
+  private synchronized Object register(String name, String help, String type, String labels, Object metric) {
+    Family family = families.computeIfAbsent(name, n -> new Family(help, type));
+    if (!family.type.equals(type)) {
+      throw new IllegalArgumentException(name + " is already a " + family.type + ", not a " + type);
+    }
+    return family.metrics.computeIfAbsent(labels, l -> metric);
+  }
+
+  /**
+   * Write out every metric in the Prometheus text format.
+   *
+   * @return the metrics, one sample per line
+   */
+  public synchronized String prometheus() {
+    StringBuilder out = new StringBuilder();
+    for (Map.Entry<String, Family> entry : families.entrySet()) {
+      String name = entry.getKey();
+      Family family = entry.getValue();
+      out.append("# HELP ").append(name).append(' ').append(family.help).append('\n');
+      out.append("# TYPE ").append(name).append(' ').append(family.type).append('\n');
+      for (Map.Entry<String, Object> metric : family.metrics.entrySet()) {
+        String labels = metric.getKey();
+        if (metric.getValue() instanceof LatencyHistogram) {
+          LatencyHistogram histogram = (LatencyHistogram) metric.getValue();
+          String prefix = labels.isEmpty() ? "" : labels + ",";
+          for (double quantile : QUANTILES) {
+            sample(out, name, prefix + "quantile=\"" + quantile + "\"",
+                histogram.valueAtQuantile(quantile) / NANOS_PER_SECOND);
+          }
+          sample(out, name + "_sum", labels, histogram.sum() / NANOS_PER_SECOND);
+          sample(out, name + "_count", labels, histogram.count());
+        } else if (metric.getValue() instanceof LongSupplier) {
+          sample(out, name, labels, ((LongSupplier) metric.getValue()).getAsLong());
+        } else {
+          sample(out, name, labels, ((LongAdder) metric.getValue()).sum());
+        }
+      }
+    }
+    return out.toString();
+  }
+
+  private static void sample(StringBuilder out, String name, String labels, double value) {
+    out.append(name);
+    if (!labels.isEmpty()) {
+      out.append('{').append(labels).append('}');
+    }
+    out.append(' ');
+    if (value == Math.rint(value) && Math.abs(value) < Long.MAX_VALUE) {
+      out.append((long) value);
+    } else {
+      out.append(value);
+    }
+    out.append('\n');
+  }
+}
@@ -0,0 +1,55 @@
+package umm3601;
+
+import java.io.OutputStream;
+
+/**
+ * One page of the records matching a query, as the list endpoints send it
+ * (see `PagedResponses`).
+ *
+ * @param <T> the type of record
+ */
+public interface PagedQuery<T> {
+
+  /**
+   * The version of the data the query runs against.
+   *
+   * @return the data's version
+   */
+  long version();
+
+  /**
+   * The most records this page could have, without finding them.
+   *
+   * @return an upper bound on the size of the page
+   */
+  int maxSize();
+
+  /**
+   * The number of matching records across all pages.
+   *
+   * @return the total number of matches
+   */
+  int totalCount();
+
+  /**
+   * The cursor for the page after this one.
+   *
+   * @return the cursor, or null if this is the last page
+   */
+  String nextCursor();
+
+  /**
+   * Write the page's already-serialized JSON to a stream.
+   *
+   * @param out    where to write it; it's flushed, but not closed
+   * @param ndjson true to write newline delimited JSON instead of an array
+   */
+  void writeJson(OutputStream out, boolean ndjson);
+
+  /**
+   * The records on the page.
+   *
+   * @return the records, in order
+   */
+  T[] toArray();
+}
@@ -0,0 +1,113 @@
+package umm3601;
+
+import java.io.ByteArrayOutputStream;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+import io.javalin.http.Context;
+
+/**
+ * Sends a page of query results for the list endpoints (e.g., `GET
+ * /api/todos`), the same way for every kind of record.
+ * <p>
+ * Large results (and any request that asks for `application/x-ndjson`)
+ * are streamed to the client as the query finds them. Either way, each
+ * record's JSON is copied from what was serialized when the data was
+ * loaded (see `EncodedRecords`), rather than serialized again. The response
+ * headers give the total number of matches and, if the result was cut
+ * short by `limit`, a cursor for the next page.
+ * <p>
+ * Given a cache, results that aren't too big to cache are served from it,
+ * and requests whose `If-None-Match` header matches the cached ETag just
+ * get a 304.
+ */
+public final class PagedResponses {
+
+  /**
+   * Results that might be bigger than this are streamed to the client
+   * rather than built and serialized all at once.
+   */
+  public static final int STREAMING_THRESHOLD = 1000;
+
+  /** The header with the number of matches across all pages. */
+  public static final String TOTAL_COUNT_HEADER = "X-Total-Count";
+
+  /** The header with the `cursor` to ask for to get the next page, if there is one. */
+  public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
+  private PagedResponses() {
+  }
+
+  /**
+   * Run a query for the request's parameters and send the page it finds.
+   *
+   * @param ctx     a Javalin HTTP context
+   * @param cache   where to cache serialized responses, or null to not
+   *                cache them
+   * @param version gets the current version of the data, to check cached
+   *                responses against
+   * @param query   makes the query for the request's parameters
+   */
+  public static void send(Context ctx, ResponseCache cache, LongSupplier version,
+      Function<Map<String, List<String>>, PagedQuery<?>> query) {
+    boolean ndjson = StreamingJson.wantsNdjson(ctx);
+    String cacheKey = null;
+    if (cache != null) {
+      cacheKey = ResponseCache.key(ctx.queryParamMap(), StreamingJson.contentType(ndjson));
+      ResponseCache.Entry cached = cache.lookup(cacheKey, version.getAsLong());
+      if (cached != null) {
+        cached.send(ctx);
+        return;
+      }
+    }
+
+    PagedQuery<?> page = query.apply(ctx.queryParamMap());
+    if (cacheKey != null && page.maxSize() <= STREAMING_THRESHOLD) {
+      // Cache it under the version the query actually ran against, in case
+      // the data was reloaded in between
+      cache.put(cacheKey, page.version(), render(page, ndjson)).send(ctx);
+      return;
+    }
+
+    ctx.header(TOTAL_COUNT_HEADER, Integer.toString(page.totalCount()));
+    if (ndjson || page.maxSize() > STREAMING_THRESHOLD) {
+      // Headers have to go out before the body, so find where the next
+      // page starts before streaming this one
+      setNextCursor(ctx, page.nextCursor());
+      ctx.contentType(StreamingJson.contentType(ndjson));
+      page.writeJson(ctx.outputStream(), ndjson);
+    } else {
+      Object[] records = page.toArray();
+      setNextCursor(ctx, page.nextCursor());
+      ctx.json(records);
+    }
+  }
+
+  /**
+   * Serialize a page, along with its paging headers, so it can be cached.
+   *
+   * @param page   the query to run
+   * @param ndjson true to write newline delimited JSON instead of an array
+   * @return the serialized response
+   */
+  private static ResponseCache.Entry render(PagedQuery<?> page, boolean ndjson) {
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    page.writeJson(body, ndjson);
+    Map<String, String> headers = new LinkedHashMap<>();
+    headers.put(TOTAL_COUNT_HEADER, Integer.toString(page.totalCount()));
+    String cursor = page.nextCursor();
+    if (cursor != null) {
+      headers.put(NEXT_CURSOR_HEADER, cursor);
+    }
+    return new ResponseCache.Entry(body.toByteArray(), StreamingJson.contentType(ndjson), headers);
+  }
+
+  private static void setNextCursor(Context ctx, String cursor) {
+    if (cursor != null) {
+      ctx.header(NEXT_CURSOR_HEADER, cursor);
+    }
+  }
+}
@@ -0,0 +1,157 @@
+package umm3601;
+
+import java.util.BitSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntPredicate;
+
+/**
+ * Checks a filter that no index can answer (e.g., a `contains` search over
+ * the todo bodies) on a large set of candidate positions, split across
+ * cores.
+ * <p>
+ * The candidates are split into ranges of positions that are checked in
+ * parallel, each into its own words of the result, so the matches come out
+ * as a bitset in the same order as the candidates, without any merging or
+ * locking. The work runs on a dedicated fork-join pool with a fixed number
+ * of threads, so however many heavy queries come in at once, they never use
+ * more than that many cores between them, and never take threads from the
+ * server's request pool (whose thread just waits for the result).
+ * <p>
+ * Splitting up the work has an overhead of its own, so candidate sets
+ * smaller than a threshold are checked on the calling thread as before.
+ */
+public final class ParallelScan implements AutoCloseable {
+
+  /** The default number of candidates a scan needs to be done in parallel. */
+  public static final int DEFAULT_THRESHOLD = 100_000;
+
+  // Ranges of positions are split until they're this small (a multiple of
+  // the bits in a word, so each range has its own words of the result)
+  private static final int MIN_RANGE = 64 * Long.SIZE;
+
+  // Split into this many ranges per thread, so threads that finish early
+  // can steal work from the rest
+  private static final int RANGES_PER_THREAD = 4;
+
+  private static final long KEEP_ALIVE_SECONDS = 60;
+
+  private final ForkJoinPool pool;
+  private final int parallelism;
+  private final int threshold;
+
+  /**
+   * Construct a parallel scan, with its own pool of threads.
+   *
+   * @param parallelism the most threads to check filters on at once
+   * @param threshold   the fewest candidates worth checking in parallel
+   */
+  public ParallelScan(int parallelism, int threshold) {
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("Parallelism must be at least 1, not " + parallelism);
+    }
+    this.parallelism = parallelism;
+    this.threshold = threshold;
+    // The pool never grows past `parallelism` threads, even to make up for
+    // ones that are blocked; idle threads go away after a while
+    this.pool = new ForkJoinPool(parallelism, ParallelScan::newThread, null, false,
+        0, parallelism, 1, p -> true, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+  }
+
+  private static ForkJoinWorkerThread newThread(ForkJoinPool forPool) {
+    ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(forPool);
+    thread.setName("parallel-scan-" + thread.getPoolIndex());
+    return thread;
+  }
+
+  /**
+   * Check whether a set of candidates is big enough to be worth checking
+   * in parallel.
+   *
+   * @param candidates the number of candidates
+   * @return true if they should be checked with `filter`
+   */
+  public boolean worthIt(int candidates) {
+    return candidates >= threshold;
+  }
+
+  /**
+   * Find the candidates that pass a filter, checking them in parallel.
+   *
+   * @param candidates the positions to check
+   * @param test       the filter; it's called from several threads at once
+   * @return the positions (out of the candidates) that pass
+   */
+  public BitSet filter(BitSet candidates, IntPredicate test) {
+    int end = candidates.length();
+    long[] words = new long[(end + Long.SIZE - 1) / Long.SIZE];
+    int range = Math.max(MIN_RANGE, roundUp(end / (parallelism * RANGES_PER_THREAD)));
+    pool.invoke(new Check(candidates, test, words, 0, end, range));
+    return BitSet.valueOf(words);
+  }
+
+  private static int roundUp(int positions) {
+    return (positions + Long.SIZE - 1) / Long.SIZE * Long.SIZE;
+  }
+
+  /**
+   * The number of threads scanning right now, e.g., for a gauge.
+   *
+   * @return the number of busy threads
+   */
+  public int activeThreads() {
+    return pool.getActiveThreadCount();
+  }
+
+  /**
+   * Stop the pool's threads, once any scans in progress are done.
+   */
+  @Override
+  public void close() {
+    pool.shutdown();
+  }
+
+  /**
+   * Check the candidates in a range of positions, splitting it in half
+   * while it's bigger than `range`.
+   */
+  private static final class Check extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final transient BitSet candidates;
+    private final transient IntPredicate test;
+    private final long[] words;
+    private final int from;
+    private final int to;
+    private final int range;
+
+    Check(BitSet candidates, IntPredicate test, long[] words, int from, int to, int range) {
+      this.candidates = candidates;
+      this.test = test;
+      this.words = words;
+      this.from = from;
+      this.to = to;
+      this.range = range;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from > range) {
+        // Split on a word boundary, so the halves never share a word
+        int middle = from + roundUp((to - from) / 2);
+        invokeAll(new Check(candidates, test, words, from, middle, range),
+            new Check(candidates, test, words, middle, to, range));
+        return;
+      }
+      int i = candidates.nextSetBit(from);
+      while (i >= 0 && i < to) {
+        if (test.test(i)) {
+          words[i / Long.SIZE] |= 1L << i;
+        }
+        i = candidates.nextSetBit(i + 1);
+      }
+    }
+  }
+}
@@ -0,0 +1,121 @@
+package umm3601;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.eclipse.jetty.server.Response;
+
+import io.javalin.http.Context;
+import io.javalin.http.HandlerType;
+import io.javalin.http.RequestLogger;
+
+/**
+ * Records how each API route behaves: how long its requests take, how
+ * they turned out (by status class), how many body bytes were sent, and,
+ * for list routes, how many records matched.
+ * <p>
+ * This is installed as Javalin's request logger, which is called once the
+ * response has been written (unlike `after` handlers, which run before a
+ * `result` body is sent). So it sees the full time Javalin spent on the
+ * request, and the real number of bytes written, compressed or not.
+ * <p>
+ * Only routes that have been registered with `route` are recorded, each
+ * into metrics made when it was registered, so recording never allocates.
+ */
+public final class RequestMetrics implements RequestLogger {
+
+  private static final double NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+  // 1xx through 5xx
+  private static final int STATUS_CLASSES = 5;
+  private static final int STATUS_CLASS_SIZE = 100;
+
+  private final Metrics metrics;
+
+  // By the path the route was registered with, then by method. Replaced
+  // (never changed) when a route is added, so it can be read without locking.
+  private volatile Map<String, Map<HandlerType, Route>> routes = Map.of();
+
+  /**
+   * The metrics for one route.
+   */
+  private static final class Route {
+    private final LatencyHistogram latency;
+    private final LongAdder[] responses = new LongAdder[STATUS_CLASSES];
+    private final LongAdder bytes;
+    private final LongAdder matches;
+
+    Route(Metrics metrics, String labels) {
+      latency = metrics.timer("http_request_duration_seconds",
+          "How long requests took, until the response was written", labels);
+      for (int i = 0; i < STATUS_CLASSES; i++) {
+        responses[i] = metrics.counter("http_requests_total",
+            "Requests, by the class of their response's status", labels + ",code=\"" + (i + 1) + "xx\"");
+      }
+      bytes = metrics.counter("http_response_bytes_total", "Response body bytes written", labels);
+      matches = metrics.counter("http_result_matches_total",
+          "Records that matched list requests, before paging", labels);
+    }
+  }
+
+  /**
+   * Construct request metrics that are kept in the given registry.
+   *
+   * @param metrics where to keep the metrics
+   */
+  public RequestMetrics(Metrics metrics) {
+    this.metrics = metrics;
+  }
+
+  /**
+   * Start recording the requests to a route.
+   *
+   * @param method the route's method
+   * @param path   the route's path, exactly as it was given to Javalin,
+   *               e.g., `/api/todos/{id}`
+   */
+  public synchronized void route(HandlerType method, String path) {
+    Map<HandlerType, Route> methods = new EnumMap<>(HandlerType.class);
+    methods.putAll(routes.getOrDefault(path, Map.of()));
+    methods.put(method, new Route(metrics, "method=\"" + method + "\",route=\"" + path + "\""));
+    Map<String, Map<HandlerType, Route>> updated = new HashMap<>(routes);
+    updated.put(path, methods);
+    routes = updated;
+  }
+
+  /**
+   * Record a request, once its response has been written.
+   *
+   * @param ctx             a Javalin HTTP context
+   * @param executionTimeMs how long the request took, as Javalin timed it
+   */
+  @Override
+  public void handle(Context ctx, Float executionTimeMs) {
+    // Requests that never reached an endpoint (static files, HEAD requests,
+    // 404s) have no route, and Javalin won't even say what it would be
+    if (ctx.handlerType() == HandlerType.BEFORE) {
+      return;
+    }
+    Map<HandlerType, Route> methods = routes.get(ctx.endpointHandlerPath());
+    Route route = methods == null ? null : methods.get(ctx.method());
+    if (route == null) {
+      return;
+    }
+    route.latency.record((long) (executionTimeMs * NANOS_PER_MILLI));
+    int statusClass = ctx.statusCode() / STATUS_CLASS_SIZE - 1;
+    if (statusClass >= 0 && statusClass < STATUS_CLASSES) {
+      route.responses[statusClass].increment();
+    }
+    if (ctx.res() instanceof Response) {
+      Response response = (Response) ctx.res();
+      route.bytes.add(response.getHttpOutput().getWritten());
+      String total = response.getHeader(PagedResponses.TOTAL_COUNT_HEADER);
+      if (total != null) {
+        route.matches.add(Integer.parseInt(total));
+      }
+    }
+  }
+}
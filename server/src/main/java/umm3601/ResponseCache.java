@@ -0,0 +1,346 @@
+package umm3601;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.javalin.http.Context;
+import io.javalin.http.HttpStatus;
+
+/**
+ * A bounded cache of fully serialized responses, keyed on the (normalized)
+ * query parameters of the request.
+ * <p>
+ * The cache is limited by the total number of body bytes it holds, and the
+ * least recently used responses are evicted first once that's exceeded.
+ * Every cached response carries a strong ETag (a hash of its body), so a
+ * client that already has the body can be answered with a 304.
+ * <p>
+ * Bodies that are worth compressing are kept gzipped, so they're
+ * compressed once when they're cached rather than every time they're sent,
+ * and take less of the cache. The few clients that don't accept gzip get
+ * them decompressed.
+ * <p>
+ * Each lookup also says which version of the data it expects; if the data
+ * has changed since the cached responses were made, they're all dropped.
+ */
+public class ResponseCache {
+
+  private static final int ETAG_BYTES = 16;
+  private static final int HEX_RADIX = 16;
+  private static final int BYTE_MASK = 0xff;
+  private static final int INITIAL_CAPACITY = 16;
+  private static final float LOAD_FACTOR = 0.75f;
+
+  private final long maxBytes;
+
+  // In access order, so the first entry is always the least recently used
+  private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(INITIAL_CAPACITY, LOAD_FACTOR, true);
+  private long bytes;
+  private long currentVersion = Long.MIN_VALUE;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+
+  /**
+   * A cached response: the serialized body (gzipped, if that's worth it),
+   * its content type and ETag, and any other headers that go with it.
+   */
+  public static final class Entry {
+    private final byte[] stored;
+    private final int length;
+    private final boolean gzipped;
+    private final String contentType;
+    private final String etag;
+    private final String gzipEtag;
+    private final Map<String, String> headers;
+
+    /**
+     * Construct a response to cache.
+     *
+     * @param body        the serialized body
+     * @param contentType the body's content type
+     * @param headers     any other headers that should be sent with it
+     */
+    public Entry(byte[] body, String contentType, Map<String, String> headers) {
+      this.etag = hash(body);
+      // The gzipped body is a different representation, so it needs its
+      // own strong ETag
+      this.gzipEtag = etag.substring(0, etag.length() - 1) + "-" + Compression.GZIP + "\"";
+      byte[] compressed = Compression.worthCompressing(contentType, body.length) ? Compression.gzip(body) : null;
+      this.gzipped = compressed != null && compressed.length < body.length;
+      this.stored = gzipped ? compressed : body;
+      this.length = body.length;
+      this.contentType = contentType;
+      this.headers = Collections.unmodifiableMap(headers);
+    }
+
+    /**
+     * The body, uncompressed.
+     *
+     * @return the body, which is decompressed if it's kept gzipped
+     */
+    public byte[] body() {
+      return gzipped ? Compression.gunzip(stored) : stored;
+    }
+
+    /**
+     * Check whether the body is kept gzipped.
+     *
+     * @return true if it is
+     */
+    public boolean gzipped() {
+      return gzipped;
+    }
+
+    /**
+     * The number of bytes the body takes up in the cache.
+     *
+     * @return the length of the body as it's kept
+     */
+    public int size() {
+      return stored.length;
+    }
+
+    public String contentType() {
+      return contentType;
+    }
+
+    public String etag() {
+      return etag;
+    }
+
+    public Map<String, String> headers() {
+      return headers;
+    }
+
+    /**
+     * Check whether an `If-None-Match` header says the client already has
+     * this response, in either encoding.
+     *
+     * @param ifNoneMatch the value of the header, or null if there isn't one
+     * @return true if the client's copy matches
+     */
+    public boolean matches(String ifNoneMatch) {
+      if (ifNoneMatch == null) {
+        return false;
+      }
+      for (String tag : ifNoneMatch.split(",")) {
+        String trimmed = tag.trim();
+        if (trimmed.equals("*") || trimmed.equals(etag) || gzipped && trimmed.equals(gzipEtag)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    /**
+     * Send this response, or just a 304 if the request's `If-None-Match`
+     * header says the client already has it. It's sent gzipped if it's
+     * kept that way and the client accepts gzip.
+     *
+     * @param ctx a Javalin HTTP context
+     */
+    public void send(Context ctx) {
+      respond(ctx, true);
+    }
+
+    /**
+     * Answer a `HEAD` request for this response: the same status and
+     * headers `send` would send, including the length of the body it would
+     * send, but no body.
+     *
+     * @param ctx a Javalin HTTP context
+     */
+    public void sendHead(Context ctx) {
+      respond(ctx, false);
+    }
+
+    private void respond(Context ctx, boolean withBody) {
+      headers.forEach(ctx::header);
+      boolean sendGzipped = gzipped && Compression.acceptsGzip(ctx);
+      if (gzipped) {
+        ctx.header("Vary", "Accept-Encoding");
+      }
+      ctx.header("ETag", sendGzipped ? gzipEtag : etag);
+      if (matches(ctx.header("If-None-Match"))) {
+        ctx.status(HttpStatus.NOT_MODIFIED);
+      } else {
+        ctx.contentType(contentType);
+        if (sendGzipped) {
+          // Javalin leaves bodies that already have an encoding alone
+          ctx.header("Content-Encoding", Compression.GZIP);
+        }
+        if (withBody) {
+          ctx.result(sendGzipped ? stored : body());
+        } else {
+          ctx.header("Content-Length", Integer.toString(sendGzipped ? stored.length : length));
+        }
+      }
+    }
+  }
+
+  /**
+   * Construct an empty cache.
+   *
+   * @param maxBytes the most body bytes to hold at once
+   */
+  public ResponseCache(long maxBytes) {
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Build a cache key from query parameters, so that the same query always
+   * gets the same key however its parameters were ordered.
+   *
+   * @param queryParams the query parameters of the request
+   * @param variant     anything else the response depends on (e.g., its
+   *                    format)
+   * @return the cache key
+   */
+  public static String key(Map<String, List<String>> queryParams, String variant) {
+    StringBuilder key = new StringBuilder(variant);
+    for (Map.Entry<String, List<String>> param : new TreeMap<>(queryParams).entrySet()) {
+      key.append('&').append(param.getKey());
+      for (String value : param.getValue()) {
+        key.append('=').append(value.length()).append(':').append(value);
+      }
+    }
+    return key.toString();
+  }
+
+  /**
+   * Get the response cached under the given key.
+   *
+   * @param key         the cache key
+   * @param dataVersion the version of the data the response should reflect
+   * @return the cached response, or null if there isn't one
+   */
+  public synchronized Entry lookup(String key, long dataVersion) {
+    invalidateIfChanged(dataVersion);
+    Entry entry = dataVersion == currentVersion ? entries.get(key) : null;
+    if (entry == null) {
+      misses.incrementAndGet();
+    } else {
+      hits.incrementAndGet();
+    }
+    return entry;
+  }
+
+  /**
+   * Cache a response under the given key, evicting the least recently used
+   * responses if that takes the cache over its size limit. Responses for
+   * data that's already been replaced, or that are bigger than the whole
+   * cache, aren't kept.
+   *
+   * @param key         the cache key
+   * @param dataVersion the version of the data the response reflects
+   * @param entry       the response
+   * @return the response
+   */
+  public synchronized Entry put(String key, long dataVersion, Entry entry) {
+    invalidateIfChanged(dataVersion);
+    if (dataVersion == currentVersion && entry.size() <= maxBytes) {
+      Entry previous = entries.put(key, entry);
+      if (previous != null) {
+        bytes -= previous.size();
+      }
+      bytes += entry.size();
+      evict();
+    }
+    return entry;
+  }
+
+  /**
+   * The number of lookups that found a cached response.
+   *
+   * @return the number of hits
+   */
+  public long hits() {
+    return hits.get();
+  }
+
+  /**
+   * The number of lookups that had to make the response.
+   *
+   * @return the number of misses
+   */
+  public long misses() {
+    return misses.get();
+  }
+
+  /**
+   * The number of responses evicted to make room for others.
+   *
+   * @return the number of evictions
+   */
+  public long evictions() {
+    return evictions.get();
+  }
+
+  /**
+   * The number of body bytes currently cached (as they're kept, so
+   * compressed bodies count at their compressed size).
+   *
+   * @return the number of bytes
+   */
+  public synchronized long bytes() {
+    return bytes;
+  }
+
+  /**
+   * The counters for this cache, e.g., for a stats endpoint.
+   *
+   * @return the counters by name
+   */
+  public synchronized Map<String, Long> stats() {
+    Map<String, Long> stats = new LinkedHashMap<>();
+    stats.put("hits", hits());
+    stats.put("misses", misses());
+    stats.put("evictions", evictions());
+    stats.put("entries", (long) entries.size());
+    stats.put("bytes", bytes);
+    return stats;
+  }
+
+  // Versions only go up, so a request that saw older data than the cache
+  // has can't clear it, but one that saw newer data can
+  private void invalidateIfChanged(long version) {
+    if (version > currentVersion) {
+      entries.clear();
+      bytes = 0;
+      currentVersion = version;
+    }
+  }
+
+  private void evict() {
+    Iterator<Entry> leastRecent = entries.values().iterator();
+    while (bytes > maxBytes && leastRecent.hasNext()) {
+      bytes -= leastRecent.next().size();
+      leastRecent.remove();
+      evictions.incrementAndGet();
+    }
+  }
+
+  private static String hash(byte[] body) {
+    try {
+      byte[] digest = MessageDigest.getInstance("SHA-256").digest(body);
+      StringBuilder tag = new StringBuilder("\"");
+      for (int i = 0; i < ETAG_BYTES; i++) {
+        String hex = Integer.toString(digest[i] & BYTE_MASK, HEX_RADIX);
+        tag.append(hex.length() == 1 ? "0" : "").append(hex);
+      }
+      return tag.append('"').toString();
+    } catch (NoSuchAlgorithmException e) {
+      // Every Java platform is required to support SHA-256
+      throw new IllegalStateException(e);
+    }
+  }
+}
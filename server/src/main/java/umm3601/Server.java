@@ -1,12 +1,23 @@
 package umm3601;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import io.javalin.Javalin;
+import io.javalin.compression.CompressionStrategy;
+import io.javalin.compression.Gzip;
 import io.javalin.plugin.bundled.RouteOverviewPlugin;
+import io.javalin.http.HandlerType;
 import io.javalin.http.staticfiles.Location;
+import io.javalin.util.ConcurrencyUtil;
 import umm3601.user.UserDatabase;
 import umm3601.user.UserController;
 import umm3601.todo.TodoDatabase;
 import umm3601.todo.TodoController;
+import umm3601.todo.TodoWriter;
 
 public class Server {
 
@@ -17,23 +28,98 @@ public class Server {
 
   public static final String TODO_DATA_FILE = "/todos.json";
   private static TodoDatabase todoDatabase;
+  // Run with `-Dtodo.storage=columns` to keep the todos in dictionary
+  // encoded columns instead of as one object each
+  public static final String TODO_STORAGE_PROPERTY = "todo.storage";
+
+  // Run with `-Dtodo.snapshot=<file>` and/or `-Duser.snapshot=<file>` to
+  // start from a binary snapshot of the data, which is (re)written from the
+  // JSON whenever it's missing or out of date
+  public static final String TODO_SNAPSHOT_PROPERTY = "todo.snapshot";
+  public static final String USER_SNAPSHOT_PROPERTY = "user.snapshot";
+
+  // Run with `-Dtodo.file=<file>` and/or `-Duser.file=<file>` to load the
+  // data from a JSON file on disk (of any size) instead of the classpath
+  public static final String TODO_FILE_PROPERTY = "todo.file";
+  public static final String USER_FILE_PROPERTY = "user.file";
+
+  // Run with `-Dtodo.writes=true` to allow adding, replacing, and deleting
+  // todos; otherwise those endpoints answer 405, and a todo data file on
+  // disk is reloaded whenever it changes. Changes are kept in a write-ahead
+  // log, and the snapshot it's compacted into, in `-Dtodo.data.dir=<dir>`.
+  // They belong to the data file they were made on top of: if that file
+  // changes (or a different one is used), they're set aside as `*.stale`.
+  public static final String TODO_WRITES_PROPERTY = "todo.writes";
+  public static final String TODO_DATA_DIR_PROPERTY = "todo.data.dir";
+  public static final String DEFAULT_TODO_DATA_DIR = "data";
+  private static TodoWriter todoWriter;
+
+  // How many bytes of serialized responses to cache for each of the
+  // `/api/users` and `/api/todos` endpoints
+  private static final long RESPONSE_CACHE_BYTES = 64L * 1024 * 1024;
+  private static ResponseCache userCache = new ResponseCache(RESPONSE_CACHE_BYTES);
+  private static ResponseCache todoCache = new ResponseCache(RESPONSE_CACHE_BYTES);
+
+  // The client's files, gzipped once and served from memory
+  private static StaticAssets clientAssets;
+
+  // Per-route request metrics and todo query timings, served in the
+  // Prometheus format at `/api/metrics`
+  private static Metrics metrics = new Metrics();
+  private static RequestMetrics requestMetrics = new RequestMetrics(metrics);
+
+  // Run with `-Dserver.threads=virtual` to handle each request on its own
+  // virtual thread, instead of on Jetty's pool of (at most 250) platform
+  // threads, so requests that block (streaming big responses, waiting on
+  // the write-ahead log) don't tie up a platform thread each. Needs Java 21.
+  public static final String THREADS_PROPERTY = "server.threads";
+
+  // Todo searches that no index can answer are split across this many
+  // threads (`-Dquery.parallelism=<n>`, default one per core; 1 turns it
+  // off) when at least `-Dquery.parallel.threshold=<n>` todos are left to
+  // check. The threads are their own pool, apart from the request threads.
+  public static final String PARALLELISM_PROPERTY = "query.parallelism";
+  public static final String PARALLEL_THRESHOLD_PROPERTY = "query.parallel.threshold";
+  private static ParallelScan parallelScan;
+
+  // Reload the data in the background, when it comes from a file on disk
+  // that changes
+  private static DataReloader userReloader;
+  private static DataReloader todoReloader;
 
   public static void main(String[] args) {
 
     // Initialize dependencies
     UserController userController = buildUserController();
     TodoController todoController = buildTodoController();
+    boolean virtualThreads = useVirtualThreads();
+    buildParallelScan();
+    buildClientAssets();
     Javalin server = Javalin.create(config -> {
       // This tells the server where to look for static files
-      // like HTML and JavaScript.
+      // like HTML and JavaScript. The ones that are there when the server
+      // starts are served precompressed (below); this is for any others.
       config.staticFiles.add(CLIENT_DIRECTORY, Location.EXTERNAL);
+      // Gzip any other response that's big enough to be worth it, as it's
+      // written
+      CompressionStrategy compression = new CompressionStrategy(null, new Gzip());
+      compression.setMinSizeForCompression(Compression.MIN_SIZE);
+      config.compression.custom(compression);
       // This adds a Javalin plugin that will list all of the
       // routes/endpoints that we add below on a page reachable
       // via the "/api" path.
       config.plugins.register(new RouteOverviewPlugin("/api"));
+      // Record every request once its response has been written
+      config.requestLogger.http(requestMetrics);
       // The next line starts the server listening on port 4567.
     }).start(PORT_NUMBER);
 
+    // The client's files, precompressed
+    for (String path : clientAssets.paths()) {
+      server.get(path, clientAssets::send);
+      server.head(path, clientAssets::sendHead);
+    }
+
     // Simple example route
     server.get("/hello", ctx -> ctx.result("Hello World"));
 
@@ -43,26 +129,153 @@ public class Server {
 
     // API endpoints
 
+    // Responses vary with Accept-Encoding, since any big enough ones are
+    // gzipped for clients that accept it
+    server.before("/api/*", ctx -> ctx.header("Vary", "Accept-Encoding"));
+
     // Get specific user
     server.get("/api/users/{id}", userController::getUser);
 
+    // Count todos by owner, category, and status (this has to come before
+    // `/api/todos/{id}`, or it would be taken for an ID)
+    server.get("/api/todos/summary", todoController::getTodoSummary);
+
     // Get specific todo
     server.get("/api/todos/{id}", todoController::getTodo);
 
     // List users, filtered using query parameters
     server.get("/api/users", userController::getUsers);
     server.get("/api/todos", todoController::getTodos);
+
+    // Get many users or todos by ID in one request
+    server.post("/api/users/_batch", userController::getUserBatch);
+    server.post("/api/todos/_batch", todoController::getTodoBatch);
+
+    // Add, replace, and delete todos
+    server.post("/api/todos", todoController::addTodo);
+    server.put("/api/todos/{id}", todoController::replaceTodo);
+    server.delete("/api/todos/{id}", todoController::deleteTodo);
+
+    // Latency histograms, status and size counters for each API route, and
+    // timings of each filter in todo queries, for Prometheus to scrape
+    for (String path : new String[] {"/api/users", "/api/users/{id}", "/api/todos", "/api/todos/{id}",
+        "/api/todos/summary"}) {
+      requestMetrics.route(HandlerType.GET, path);
+    }
+    requestMetrics.route(HandlerType.POST, "/api/users/_batch");
+    requestMetrics.route(HandlerType.POST, "/api/todos/_batch");
+    requestMetrics.route(HandlerType.POST, "/api/todos");
+    requestMetrics.route(HandlerType.PUT, "/api/todos/{id}");
+    requestMetrics.route(HandlerType.DELETE, "/api/todos/{id}");
+    todoDatabase.recordTimings(metrics);
+    if (parallelScan != null) {
+      metrics.gauge("query_parallel_scan_threads", "Threads checking unindexed query filters right now", "",
+          parallelScan::activeThreads);
+    }
+    // Platform threads only: virtual threads aren't counted here, which is
+    // what shows whether load is growing the thread pool
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    metrics.gauge("jvm_threads_current", "Live platform threads", "", threads::getThreadCount);
+    metrics.gauge("jvm_threads_peak", "The most live platform threads there have been", "",
+        threads::getPeakThreadCount);
+    metrics.gauge("server_virtual_threads", "1 if requests are handled on virtual threads, 0 if not", "",
+        () -> virtualThreads ? 1 : 0);
+    server.get("/api/metrics", ctx -> ctx.contentType(Metrics.CONTENT_TYPE).result(metrics.prometheus()));
+
+    // Hit/miss/eviction counters for the response caches
+    server.get("/api/cache", ctx -> {
+      Map<String, Map<String, Long>> stats = new LinkedHashMap<>();
+      stats.put("users", userCache.stats());
+      stats.put("todos", todoCache.stats());
+      stats.put("client", clientAssets.stats());
+      ctx.json(stats);
+    });
+
+    // Data generations and reload counts/timings
+    server.get("/api/data", ctx -> {
+      Map<String, Map<String, Object>> stats = new LinkedHashMap<>();
+      stats.put("users", userReloader.stats());
+      stats.put("todos", todoReloader.stats());
+      if (todoWriter != null) {
+        stats.put("todoWrites", new LinkedHashMap<>(todoWriter.stats()));
+      }
+      ctx.json(stats);
+    });
   }
 
  // private static TodoController buildTodoController() {
  //   return null;
  // }
 
+  private static void buildParallelScan() {
+    int parallelism = Integer.getInteger(PARALLELISM_PROPERTY, Runtime.getRuntime().availableProcessors());
+    if (parallelism > 1) {
+      parallelScan = new ParallelScan(parallelism,
+          Integer.getInteger(PARALLEL_THRESHOLD_PROPERTY, ParallelScan.DEFAULT_THRESHOLD));
+      todoDatabase.scanInParallel(parallelScan);
+    }
+  }
+
+  private static void buildClientAssets() {
+    try {
+      clientAssets = new StaticAssets(Paths.get(CLIENT_DIRECTORY));
+    } catch (IOException e) {
+      System.err.println("The server failed to load the client's files; shutting down.");
+      e.printStackTrace(System.err);
+
+      // Exit from the Java program
+      System.exit(1);
+    }
+  }
+
+  // Javalin runs requests on virtual threads whenever the JDK has them,
+  // unless told not to, so this decides which it gets told
+  private static boolean useVirtualThreads() {
+    String threads = System.getProperty(THREADS_PROPERTY, "platform");
+    boolean virtual = threads.equalsIgnoreCase("virtual");
+    if (!virtual && !threads.equalsIgnoreCase("platform")) {
+      System.err.println("Unknown " + THREADS_PROPERTY + " '" + threads + "'; using platform threads.");
+    } else if (virtual && !ConcurrencyUtil.isLoomAvailable()) {
+      System.err.println("Virtual threads need Java 21 or later; using platform threads.");
+      virtual = false;
+    }
+    ConcurrencyUtil.INSTANCE.setUseLoom(virtual);
+    return virtual;
+  }
+
   private static TodoController buildTodoController() {
     TodoController todoController = null;
     try {
-      todoDatabase = new TodoDatabase(TODO_DATA_FILE);
-      todoController = new TodoController(todoDatabase);
+      TodoDatabase.Storage storage = TodoDatabase.Storage.valueOf(
+          System.getProperty(TODO_STORAGE_PROPERTY, "objects").toUpperCase());
+      String snapshot = System.getProperty(TODO_SNAPSHOT_PROPERTY);
+      String file = System.getProperty(TODO_FILE_PROPERTY);
+      if (file != null) {
+        todoDatabase = new TodoDatabase(Paths.get(file), storage,
+            snapshot == null ? null : Paths.get(snapshot), progress -> System.out.println("todos: " + progress));
+      } else if (snapshot != null) {
+        todoDatabase = new TodoDatabase(TODO_DATA_FILE, storage, Paths.get(snapshot));
+      } else {
+        todoDatabase = new TodoDatabase(TODO_DATA_FILE, storage);
+      }
+      todoReloader = new DataReloader(todoDatabase::reload, todoDatabase::version);
+      if (Boolean.getBoolean(TODO_WRITES_PROPERTY)) {
+        // Once the todos can be changed, the write-ahead log and its
+        // snapshot are where they come from, and the data file is only the
+        // seed, so it isn't watched for changes
+        Snapshot.Source seed = Snapshot.Source.of(file != null
+            ? Paths.get(file).toUri().toURL() : Server.class.getResource(TODO_DATA_FILE));
+        Path dataDir = Paths.get(System.getProperty(TODO_DATA_DIR_PROPERTY, DEFAULT_TODO_DATA_DIR));
+        todoWriter = new TodoWriter(todoDatabase, seed, dataDir.resolve("todos.wal"),
+            dataDir.resolve("todos.snap"), TodoWriter.DEFAULT_COMPACT_EVERY);
+        if (todoWriter.stats().get("setAside") > 0) {
+          System.err.println("The todo changes in " + dataDir + " were made on top of a different data file,"
+              + " so they've been set aside as *" + TodoWriter.STALE_SUFFIX + ".");
+        }
+      } else if (file != null) {
+        todoReloader.watch(Paths.get(file));
+      }
+      todoController = new TodoController(todoDatabase, todoCache, todoWriter);
     } catch (IOException e) {
       System.err.println("The server failed to load the todo data; shutting down.");
       e.printStackTrace(System.err);
@@ -77,8 +290,21 @@ public class Server {
     UserController userController = null;
 
     try {
-      userDatabase = new UserDatabase(USER_DATA_FILE);
-      userController = new UserController(userDatabase);
+      String snapshot = System.getProperty(USER_SNAPSHOT_PROPERTY);
+      String file = System.getProperty(USER_FILE_PROPERTY);
+      if (file != null) {
+        userDatabase = new UserDatabase(Paths.get(file),
+            snapshot == null ? null : Paths.get(snapshot), progress -> System.out.println("users: " + progress));
+      } else if (snapshot != null) {
+        userDatabase = new UserDatabase(USER_DATA_FILE, Paths.get(snapshot));
+      } else {
+        userDatabase = new UserDatabase(USER_DATA_FILE);
+      }
+      userReloader = new DataReloader(userDatabase::reload, userDatabase::version);
+      if (file != null) {
+        userReloader.watch(Paths.get(file));
+      }
+      userController = new UserController(userDatabase, userCache);
     } catch (IOException e) {
       System.err.println("The server failed to load the user data; shutting down.");
       e.printStackTrace(System.err);
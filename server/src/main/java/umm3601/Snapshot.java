@@ -0,0 +1,313 @@
+package umm3601;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Binary snapshot files of a data set, so the server can start by mapping a
+ * file into memory instead of parsing JSON.
+ * <p>
+ * A snapshot is a header followed by a payload whose layout is up to
+ * whoever wrote it. The header has a magic number and format version, the
+ * length and modification time of the JSON file the snapshot was made
+ * from, a CRC32 of the payload, and the length of each section of the
+ * payload. `open` only hands back the payload if all of those check out, so
+ * a snapshot that is stale, truncated, corrupted, or from an older version
+ * of the server is just ignored and the caller falls back to the JSON.
+ * <p>
+ * Each section is mapped on its own, since one mapping can be at most 2 GB
+ * (`MAX_SECTION_BYTES`). The snapshot as a whole can be far bigger than
+ * that, but a payload has to be split into sections that aren't.
+ */
+public final class Snapshot {
+
+  /** Bumped whenever the layout of any snapshot payload changes. */
+  public static final int FORMAT_VERSION = 3;
+
+  /** The most bytes one section of a payload can have. */
+  public static final long MAX_SECTION_BYTES = Integer.MAX_VALUE;
+
+  private static final int MAGIC = 0x554d4d53;
+  // magic, version, source length, source time, checksum, section count;
+  // then the length of each section
+  private static final int HEADER_BYTES = Integer.BYTES * 3 + Long.BYTES * 3;
+  private static final int BUFFER_BYTES = 1 << 16;
+
+  private Snapshot() {
+  }
+
+  /**
+   * Something that writes a snapshot payload.
+   */
+  @FunctionalInterface
+  public interface PayloadWriter {
+    /**
+     * Write the payload (or one section of it).
+     *
+     * @param out where to write it
+     * @throws IOException if the payload can't be written
+     */
+    void write(DataOutputStream out) throws IOException;
+  }
+
+  /**
+   * Identifies the version of a source (JSON) file a snapshot was made from.
+   */
+  public static final class Source {
+    private final long length;
+    private final long lastModified;
+
+    /**
+     * Construct a source fingerprint.
+     *
+     * @param length       the length of the source in bytes
+     * @param lastModified when the source was last modified, in milliseconds
+     */
+    public Source(long length, long lastModified) {
+      this.length = length;
+      this.lastModified = lastModified;
+    }
+
+    /**
+     * Get the fingerprint of a resource, e.g., a data file on the classpath.
+     *
+     * @param resource the resource's URL
+     * @return the fingerprint
+     * @throws IOException if the resource can't be found
+     */
+    public static Source of(URL resource) throws IOException {
+      if (resource == null) {
+        throw new NoSuchFileException("resource not found");
+      }
+      URLConnection connection = resource.openConnection();
+      try {
+        return new Source(connection.getContentLengthLong(), connection.getLastModified());
+      } finally {
+        // Opening the connection may have opened the file (or jar) as well
+        connection.getInputStream().close();
+      }
+    }
+
+    public long length() {
+      return length;
+    }
+
+    public long lastModified() {
+      return lastModified;
+    }
+  }
+
+  /**
+   * Write a snapshot. It's written to a temporary file first and then moved
+   * into place, so a crash part way through never leaves a broken snapshot
+   * (and a server that's currently mapping the old one keeps its copy).
+   *
+   * @param file     where to write the snapshot
+   * @param source   the source file the payload was made from
+   * @param sections write the sections of the payload, in order
+   * @throws IOException if the snapshot can't be written, or a section is
+   *                     bigger than `MAX_SECTION_BYTES`
+   */
+  public static void write(Path file, Source source, PayloadWriter... sections) throws IOException {
+    Path absolute = file.toAbsolutePath();
+    Files.createDirectories(absolute.getParent());
+    Path temp = Files.createTempFile(absolute.getParent(), absolute.getFileName().toString(), ".tmp");
+    try {
+      CRC32 checksum = new CRC32();
+      try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+        int headerBytes = HEADER_BYTES + sections.length * Long.BYTES;
+        channel.position(headerBytes);
+        OutputStream body = new CheckedOutputStream(
+            new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_BYTES), checksum);
+        DataOutputStream out = new DataOutputStream(body);
+        long[] lengths = new long[sections.length];
+        for (int i = 0; i < sections.length; i++) {
+          long start = channel.position();
+          sections[i].write(out);
+          out.flush();
+          lengths[i] = channel.position() - start;
+          if (lengths[i] > MAX_SECTION_BYTES) {
+            throw new IOException("Snapshot section " + i + " is " + lengths[i]
+                + " bytes, but sections can be at most " + MAX_SECTION_BYTES);
+          }
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(headerBytes);
+        header.putInt(MAGIC).putInt(FORMAT_VERSION)
+            .putLong(source.length()).putLong(source.lastModified())
+            .putLong(checksum.getValue()).putInt(sections.length);
+        for (long length : lengths) {
+          header.putLong(length);
+        }
+        header.flip();
+        channel.write(header, 0);
+        channel.force(true);
+      }
+      Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+
+  /**
+   * Map a snapshot with a one section payload into memory, if it's there
+   * and up to date.
+   *
+   * @param file   the snapshot file
+   * @param source the current version of the source file
+   * @return a read only buffer over the payload, or null if there's no usable
+   *         snapshot for that version of the source
+   */
+  public static ByteBuffer open(Path file, Source source) {
+    ByteBuffer[] sections = openSections(file, source);
+    return sections == null || sections.length != 1 ? null : sections[0];
+  }
+
+  /**
+   * Map each section of a snapshot's payload into memory, if it's there and
+   * up to date.
+   *
+   * @param file   the snapshot file
+   * @param source the current version of the source file
+   * @return read only buffers over the sections, in order, or null if
+   *         there's no usable snapshot for that version of the source
+   */
+  public static ByteBuffer[] openSections(Path file, Source source) {
+    if (!Files.isRegularFile(file)) {
+      return null;
+    }
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      long size = channel.size();
+      ByteBuffer header = read(channel, 0, HEADER_BYTES);
+      if (header == null
+          || header.getInt() != MAGIC
+          || header.getInt() != FORMAT_VERSION
+          || header.getLong() != source.length()
+          || header.getLong() != source.lastModified()) {
+        return null;
+      }
+      long expected = header.getLong();
+      int count = header.getInt();
+      if (count < 0 || count > Integer.MAX_VALUE / Long.BYTES || count > (size - HEADER_BYTES) / Long.BYTES) {
+        return null;
+      }
+      ByteBuffer lengths = read(channel, HEADER_BYTES, count * Long.BYTES);
+      long offset = HEADER_BYTES + (long) count * Long.BYTES;
+      ByteBuffer[] sections = new ByteBuffer[count];
+      CRC32 checksum = new CRC32();
+      for (int i = 0; i < count; i++) {
+        long length = lengths.getLong();
+        if (length < 0 || length > MAX_SECTION_BYTES || length > size - offset) {
+          return null;
+        }
+        // The mapping stays valid after the channel is closed
+        sections[i] = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+        checksum.update(sections[i].duplicate());
+        offset += length;
+      }
+      return offset == size && checksum.getValue() == expected ? sections : null;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  // Read some bytes of a file, or null if it's too short
+  private static ByteBuffer read(FileChannel channel, long position, int bytes) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(bytes);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, position + buffer.position()) < 0) {
+        return null;
+      }
+    }
+    return buffer.flip();
+  }
+
+  /**
+   * Take the next bytes of a payload as a buffer of their own, e.g., to view
+   * them as ints.
+   *
+   * @param in    the payload; it's moved past the bytes
+   * @param bytes the number of bytes
+   * @return a buffer over just those bytes
+   */
+  public static ByteBuffer slice(ByteBuffer in, int bytes) {
+    ByteBuffer slice = in.slice();
+    slice.limit(bytes);
+    in.position(in.position() + bytes);
+    return slice;
+  }
+
+  /**
+   * Read the next ints of a payload, without copying them.
+   *
+   * @param in    the payload; it's moved past the ints
+   * @param count the number of ints
+   * @return a buffer over the ints
+   */
+  public static IntBuffer readInts(ByteBuffer in, int count) {
+    return slice(in, count * Integer.BYTES).asIntBuffer();
+  }
+
+  /**
+   * Write ints to a payload, in the form `readInts` expects.
+   *
+   * @param out    the payload being written
+   * @param values the ints
+   * @throws IOException if they can't be written
+   */
+  public static void writeInts(DataOutputStream out, IntBuffer values) throws IOException {
+    for (int i = 0; i < values.limit(); i++) {
+      out.writeInt(values.get(i));
+    }
+  }
+
+  /**
+   * Write a string (which may be null) to a payload, in the form `readString`
+   * expects.
+   *
+   * @param out   the payload being written
+   * @param value the string
+   * @throws IOException if it can't be written
+   */
+  public static void writeString(DataOutputStream out, String value) throws IOException {
+    if (value == null) {
+      out.writeInt(-1);
+    } else {
+      out.writeInt(value.length());
+      out.writeChars(value);
+    }
+  }
+
+  /**
+   * Read a string written by `writeString`.
+   *
+   * @param in the payload, positioned at the string
+   * @return the string, or null
+   */
+  public static String readString(ByteBuffer in) {
+    int length = in.getInt();
+    if (length < 0) {
+      return null;
+    }
+    char[] chars = new char[length];
+    in.asCharBuffer().get(chars);
+    in.position(in.position() + length * Character.BYTES);
+    return new String(chars);
+  }
+}
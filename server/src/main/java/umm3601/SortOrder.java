@@ -0,0 +1,188 @@
+package umm3601;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.function.IntPredicate;
+
+/**
+ * A precomputed sorted order (permutation) of the positions of some records.
+ * <p>
+ * Sorting is done once, when the records are loaded. An ordered query result
+ * is then just a walk over the permutation that keeps the positions in the
+ * result set, which can stop as soon as it has found enough of them. An
+ * order can also be written to a snapshot payload and `read` straight back
+ * out of the mapped pages, so a snapshot doesn't have to be sorted again.
+ */
+public class SortOrder {
+
+  // When the set being walked has fewer than 1/SPARSE_FACTOR of all the
+  // positions, it's cheaper to sort its ranks than to walk every position.
+  private static final int SPARSE_FACTOR = 16;
+
+  // `positions[rank]` is the position of the record with the given rank,
+  // and `ranks[position]` is the inverse. They're heap arrays (wrapped),
+  // or slices of a mapped snapshot.
+  private final IntBuffer positions;
+  private final IntBuffer ranks;
+
+  /**
+   * Sort the positions `0` to `size - 1` using the given comparator. The
+   * sort is stable, so ties stay in their original order.
+   *
+   * @param size       the number of positions
+   * @param comparator how to compare two positions
+   */
+  public SortOrder(int size, Comparator<Integer> comparator) {
+    Integer[] sorted = new Integer[size];
+    for (int i = 0; i < size; i++) {
+      sorted[i] = i;
+    }
+    Arrays.sort(sorted, comparator);
+    int[] sortedPositions = new int[size];
+    int[] sortedRanks = new int[size];
+    for (int rank = 0; rank < size; rank++) {
+      sortedPositions[rank] = sorted[rank];
+      sortedRanks[sorted[rank]] = rank;
+    }
+    this.positions = IntBuffer.wrap(sortedPositions);
+    this.ranks = IntBuffer.wrap(sortedRanks);
+  }
+
+  private SortOrder(IntBuffer positions, IntBuffer ranks) {
+    this.positions = positions;
+    this.ranks = ranks;
+  }
+
+  /**
+   * Write this order to a snapshot payload, in the form `read` reads.
+   *
+   * @param out where to write it
+   * @throws IOException if it can't be written
+   */
+  public void write(DataOutputStream out) throws IOException {
+    out.writeInt(positions.limit());
+    Snapshot.writeInts(out, positions);
+    Snapshot.writeInts(out, ranks);
+  }
+
+  /**
+   * Read an order written by `write`, straight from the payload rather than
+   * copying it, so the payload mustn't change while the order is in use.
+   *
+   * @param in the payload, positioned at the order; it's left positioned
+   *           just after it
+   * @return the order
+   */
+  public static SortOrder read(ByteBuffer in) {
+    int size = in.getInt();
+    IntBuffer positions = Snapshot.readInts(in, size);
+    return new SortOrder(positions, Snapshot.readInts(in, size));
+  }
+
+  /**
+   * The number of positions in the order.
+   *
+   * @return the number of positions
+   */
+  public int size() {
+    return positions.limit();
+  }
+
+  /**
+   * Get the position with the given rank (place in the sorted order).
+   *
+   * @param rank a rank
+   * @return the position with that rank
+   */
+  public int position(int rank) {
+    return positions.get(rank);
+  }
+
+  /**
+   * Get the rank (place in the sorted order) of the given position.
+   *
+   * @param position a position
+   * @return the rank of that position
+   */
+  public int rankOf(int position) {
+    return ranks.get(position);
+  }
+
+  /**
+   * Find where a point (such as a cursor's key) falls in the order, with a
+   * binary search.
+   *
+   * @param before says whether the record at a position sorts before the
+   *               point; it has to agree with the order, i.e., be true for
+   *               every rank up to some rank and false after it
+   * @return the first rank whose position doesn't sort before the point
+   *         (`size()` if they all do)
+   */
+  public int seek(IntPredicate before) {
+    int low = 0;
+    int high = positions.limit();
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (before.test(positions.get(middle))) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * Check how `forEach` walks a set of positions of the given size: by
+   * sorting the members' ranks (when there are few of them), or by walking
+   * every rank and skipping positions that aren't members.
+   *
+   * @param count the number of positions in the set
+   * @return true if the members' ranks are sorted
+   */
+  public boolean sortsMembers(int count) {
+    return count < positions.limit() / SPARSE_FACTOR;
+  }
+
+  /**
+   * Visit the positions in the given set in sorted order, starting at the
+   * given rank, until the visitor asks to stop.
+   *
+   * @param members  the positions to visit; any past the end of the order
+   *                 are left out
+   * @param fromRank skip any positions ranked before this
+   * @param visitor  called with each position; returns false to stop
+   */
+  public void forEach(BitSet members, int fromRank, IntPredicate visitor) {
+    int count = members.cardinality();
+    if (sortsMembers(count)) {
+      int[] memberRanks = new int[count];
+      int i = 0;
+      for (int position = members.nextSetBit(0); position >= 0 && position < ranks.limit();
+          position = members.nextSetBit(position + 1)) {
+        int rank = ranks.get(position);
+        if (rank >= fromRank) {
+          memberRanks[i++] = rank;
+        }
+      }
+      Arrays.sort(memberRanks, 0, i);
+      for (int j = 0; j < i; j++) {
+        if (!visitor.test(positions.get(memberRanks[j]))) {
+          return;
+        }
+      }
+    } else {
+      for (int rank = fromRank; rank < positions.limit(); rank++) {
+        int position = positions.get(rank);
+        if (members.get(position) && !visitor.test(position)) {
+          return;
+        }
+      }
+    }
+  }
+}
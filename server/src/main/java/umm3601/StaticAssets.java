@@ -0,0 +1,195 @@
+package umm3601;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+import org.eclipse.jetty.http.MimeTypes;
+
+import io.javalin.http.Context;
+import io.javalin.http.NotFoundResponse;
+
+/**
+ * The client's static files, read (and, where it's worth it, gzipped) once
+ * when the server starts, and served from memory.
+ * <p>
+ * Each file is kept as a `ResponseCache.Entry`, so it's sent with a strong
+ * ETag (and answered with a 304 when the browser already has it), and
+ * gzipped or not to suit the client, without being compressed again.
+ * <p>
+ * Files are still edited while the server runs, so each request checks
+ * whether its file has changed since it was read, and if it has, reads it
+ * again. Files that are added later aren't served from here; the server
+ * leaves those to Javalin's own static file handling.
+ */
+public final class StaticAssets {
+
+  private static final String INDEX = "index.html";
+  private static final String DEFAULT_CONTENT_TYPE = "application/octet-stream";
+
+  private final Path directory;
+
+  // By the path they're requested with, e.g., `/css/site.css`. A directory
+  // with an index file is there too, e.g., `/` for `/index.html`.
+  private final Map<String, Asset> assets = new ConcurrentHashMap<>();
+
+  /**
+   * A file, as it was when it was read.
+   */
+  private static final class Asset {
+    private final Path file;
+    private final FileTime modified;
+    private final long size;
+    private final ResponseCache.Entry entry;
+
+    Asset(Path file) throws IOException {
+      BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+      this.file = file;
+      this.modified = attributes.lastModifiedTime();
+      this.size = attributes.size();
+      // Browsers check back (with the ETag) before using their copy, so
+      // edits show up on the next reload
+      this.entry = new ResponseCache.Entry(Files.readAllBytes(file), contentType(file),
+          Map.of("Cache-Control", "no-cache"));
+    }
+
+    boolean isCurrent() throws IOException {
+      BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+      return attributes.lastModifiedTime().equals(modified) && attributes.size() == size;
+    }
+  }
+
+  /**
+   * Read all the files in a directory (and its subdirectories).
+   *
+   * @param directory the directory the files are served from
+   * @throws IOException if the files can't be read
+   */
+  public StaticAssets(Path directory) throws IOException {
+    this.directory = directory;
+    try (Stream<Path> files = Files.walk(directory)) {
+      for (Path file : (Iterable<Path>) files.filter(Files::isRegularFile)::iterator) {
+        Asset asset = new Asset(file);
+        String path = path(file);
+        assets.put(path, asset);
+        if (file.getFileName().toString().equals(INDEX)) {
+          assets.put(path.substring(0, path.length() - INDEX.length()), asset);
+        }
+      }
+    }
+  }
+
+  /**
+   * The paths that files are served at, to register routes for.
+   *
+   * @return the paths, e.g., `/`, `/index.html`, `/css/site.css`
+   */
+  public Set<String> paths() {
+    return new TreeSet<>(assets.keySet());
+  }
+
+  /**
+   * The file at the request's path.
+   *
+   * @param path the path it was requested with
+   * @return the file as it's served, or null if there isn't one
+   */
+  public ResponseCache.Entry get(String path) {
+    Asset asset = assets.get(path);
+    if (asset == null) {
+      return null;
+    }
+    try {
+      if (asset.isCurrent()) {
+        return asset.entry;
+      }
+      Asset reread = new Asset(asset.file);
+      // Both the file's paths (if it's an index) get the new copy
+      assets.replaceAll((p, a) -> a == asset ? reread : a);
+      return reread.entry;
+    } catch (NoSuchFileException e) {
+      return null;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Send the file at the request's path.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void send(Context ctx) {
+    ResponseCache.Entry entry = get(ctx.path());
+    if (entry == null) {
+      throw new NotFoundResponse();
+    }
+    entry.send(ctx);
+  }
+
+  /**
+   * Answer a `HEAD` request for the file at the request's path, with the
+   * headers (content type, length, and so on) that `send` would send.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void sendHead(Context ctx) {
+    ResponseCache.Entry entry = get(ctx.path());
+    if (entry == null) {
+      throw new NotFoundResponse();
+    }
+    entry.sendHead(ctx);
+  }
+
+  /**
+   * The number of bytes the files take up, as they're kept in memory and
+   * as they are on disk, e.g., for a stats endpoint.
+   *
+   * @return the counters by name
+   */
+  public Map<String, Long> stats() {
+    // An index file is there twice, but only counts once
+    Set<Asset> files = Collections.newSetFromMap(new IdentityHashMap<>());
+    files.addAll(assets.values());
+    long stored = 0;
+    long original = 0;
+    for (Asset asset : files) {
+      stored += asset.entry.size();
+      original += asset.size;
+    }
+    Map<String, Long> stats = new LinkedHashMap<>();
+    stats.put("files", (long) files.size());
+    stats.put("bytes", stored);
+    stats.put("originalBytes", original);
+    return stats;
+  }
+
+  private String path(Path file) {
+    StringBuilder path = new StringBuilder();
+    for (Path part : directory.relativize(file)) {
+      path.append('/').append(part);
+    }
+    return path.toString();
+  }
+
+  private static String contentType(Path file) {
+    String type = MimeTypes.getDefaultMimeByExtension(file.getFileName().toString());
+    if (type == null) {
+      return DEFAULT_CONTENT_TYPE;
+    }
+    boolean text = type.startsWith("text/") || type.contains("javascript") || type.contains("json");
+    return text && !type.contains("charset") ? type + "; charset=utf-8" : type;
+  }
+}
@@ -0,0 +1,124 @@
+package umm3601;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.function.Consumer;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import io.javalin.http.Context;
+
+/**
+ * Writes a sequence of records to a response as they are produced, instead
+ * of building the whole result and serializing it in one go.
+ * <p>
+ * Records are written with a Jackson `JsonGenerator` straight onto the
+ * response's output stream, so neither the time to the first byte nor the
+ * memory needed grows with the number of records. The output is either a
+ * normal JSON array or, if the client asks for it with an `Accept` header,
+ * newline delimited JSON (one record per line).
+ */
+public final class StreamingJson {
+
+  public static final String JSON = "application/json";
+  public static final String NDJSON = "application/x-ndjson";
+
+  private static final ObjectMapper MAPPER = new ObjectMapper()
+      .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+  // Jetty buffers the response itself, so we don't want Jackson flushing
+  // (and so sending a tiny chunk) after every single record. Newline
+  // delimited records are separated by the newlines alone, not by the
+  // space Jackson puts between top level values by default.
+  private static final ObjectWriter WRITER = MAPPER.writer()
+      .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE)
+      .withRootValueSeparator("");
+
+  private StreamingJson() {
+  }
+
+  /**
+   * Check whether the client asked for newline delimited JSON.
+   *
+   * @param ctx a Javalin HTTP context
+   * @return true if the `Accept` header includes `application/x-ndjson`
+   */
+  public static boolean wantsNdjson(Context ctx) {
+    String accept = ctx.header("Accept");
+    return accept != null && accept.contains(NDJSON);
+  }
+
+  /**
+   * Stream the records to the response.
+   *
+   * @param ctx     a Javalin HTTP context
+   * @param ndjson  true to write newline delimited JSON instead of an array
+   * @param records produces the records, passing each one to the consumer
+   *                it is given
+   */
+  public static void write(Context ctx, boolean ndjson, Consumer<Consumer<Object>> records) {
+    ctx.contentType(contentType(ndjson));
+    write(ctx.outputStream(), ndjson, records);
+  }
+
+  /**
+   * The content type of what `write` produces.
+   *
+   * @param ndjson true for newline delimited JSON, false for an array
+   * @return the content type
+   */
+  public static String contentType(boolean ndjson) {
+    return ndjson ? NDJSON : JSON;
+  }
+
+  /**
+   * Stream the records to an output stream, e.g., to build a response that
+   * will be cached.
+   *
+   * @param out     where to write the records
+   * @param ndjson  true to write newline delimited JSON instead of an array
+   * @param records produces the records, passing each one to the consumer
+   *                it is given
+   */
+  public static void write(OutputStream out, boolean ndjson, Consumer<Consumer<Object>> records) {
+    try (JsonGenerator generator = MAPPER.getFactory().createGenerator(out)) {
+      if (!ndjson) {
+        generator.writeStartArray();
+      }
+      records.accept(record -> {
+        try {
+          WRITER.writeValue(generator, record);
+          if (ndjson) {
+            generator.writeRaw('\n');
+          }
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      });
+      if (!ndjson) {
+        generator.writeEndArray();
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Write one record to an output stream, exactly as `write` would write it
+   * as part of a sequence, e.g., to keep it for `EncodedRecords`.
+   *
+   * @param out    where to write the record
+   * @param record the record
+   */
+  public static void encode(OutputStream out, Object record) {
+    try {
+      WRITER.writeValue(out, record);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
@@ -0,0 +1,328 @@
+package umm3601;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only log of records, each made durable before it's
+ * acknowledged.
+ * <p>
+ * Every record is framed with its length and a CRC32, so a record that was
+ * only partly written when the server died (a "torn" write) is detected on
+ * replay and cut off, along with anything after it. Records are appended
+ * in batches that share a single `fsync`, so many concurrent writers only
+ * pay for one disk flush between them (group commit).
+ * <p>
+ * A batch that fails part way through (e.g., the disk fills up) is cut
+ * back off the end of the file before the failure is passed on, so the
+ * next batch never ends up after a torn frame, where replay would stop
+ * before it.
+ * <p>
+ * The log starts with a header holding the fingerprint of the data its
+ * records are changes to, so a log that was written on top of some other
+ * version of that data can be recognized (`belongsTo`) and not replayed
+ * onto the wrong thing.
+ * <p>
+ * Once the earliest records have been folded into a snapshot, they can be
+ * trimmed off the front (`trim`) while newer ones are kept.
+ */
+public class WriteAheadLog implements Closeable {
+
+  // length, then checksum
+  private static final int FRAME_BYTES = Integer.BYTES + Long.BYTES;
+
+  private static final int MAGIC = 0x554d4d4c;
+  private static final int FORMAT_VERSION = 1;
+  // magic, version, source length, source time
+  static final int HEADER_BYTES = Integer.BYTES * 2 + Long.BYTES * 2;
+
+  // Null if the log is only kept in a channel
+  private final Path file;
+  private FileChannel channel;
+  private final Snapshot.Source source;
+  private long records;
+  private boolean replayed;
+  // Set if a failed batch couldn't be cut back off the file
+  private boolean broken;
+
+  /**
+   * Open (or create) a log. It has to be replayed before anything more is
+   * appended to it.
+   *
+   * @param file   the log file
+   * @param source the data the records are changes to
+   * @throws IOException if the file can't be opened
+   */
+  public WriteAheadLog(Path file, Snapshot.Source source) throws IOException {
+    this(file, open(file), source);
+  }
+
+  /**
+   * Make a log that's kept in the given channel, e.g., one that fails on
+   * purpose, for tests.
+   *
+   * @param channel the channel, open for reading and writing
+   * @param source  the data the records are changes to
+   */
+  WriteAheadLog(FileChannel channel, Snapshot.Source source) {
+    this(null, channel, source);
+  }
+
+  private WriteAheadLog(Path file, FileChannel channel, Snapshot.Source source) {
+    this.file = file;
+    this.channel = channel;
+    this.source = source;
+  }
+
+  private static FileChannel open(Path file) throws IOException {
+    Path parent = file.toAbsolutePath().getParent();
+    Files.createDirectories(parent);
+    return FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+  }
+
+  /**
+   * Check whether a log holds changes to the given data, i.e., whether it
+   * can be replayed on top of it. A log that doesn't exist yet, or that
+   * never got as far as its first record, belongs to anything.
+   *
+   * @param file   the log file
+   * @param source the data the log would be replayed on top of
+   * @return false if the log was written on top of something else
+   * @throws IOException if the log can't be read
+   */
+  public static boolean belongsTo(Path file, Snapshot.Source source) throws IOException {
+    if (!Files.exists(file)) {
+      return true;
+    }
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      return channel.size() < HEADER_BYTES || hasHeaderFor(channel, source);
+    }
+  }
+
+  // The channel has to be at least as long as a header
+  private static boolean hasHeaderFor(FileChannel channel, Snapshot.Source source) throws IOException {
+    ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+    return header.getInt() == MAGIC
+        && header.getInt() == FORMAT_VERSION
+        && header.getLong() == source.length()
+        && header.getLong() == source.lastModified();
+  }
+
+  /**
+   * Pass every intact record in the log to the handler, in order, and cut
+   * off any torn record at the end, so new records go right after the last
+   * intact one.
+   *
+   * @param handler receives each record
+   * @return the number of records replayed
+   * @throws IOException if the log can't be read, or it holds changes to
+   *                     something other than this log's source
+   */
+  public synchronized long replay(Consumer<ByteBuffer> handler) throws IOException {
+    if (channel.size() < HEADER_BYTES) {
+      // A new log (or one whose header never made it to disk, so it can't
+      // have any records either)
+      writeHeader();
+    } else if (!hasHeaderFor(channel, source)) {
+      throw new IOException("The write-ahead log holds changes to some other data");
+    }
+    ByteBuffer contents = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    contents.position(HEADER_BYTES);
+    long count = 0;
+    while (contents.remaining() >= FRAME_BYTES) {
+      int length = contents.getInt(contents.position());
+      long expected = contents.getLong(contents.position() + Integer.BYTES);
+      if (length < 0 || contents.remaining() - FRAME_BYTES < length) {
+        break;
+      }
+      ByteBuffer record = contents.duplicate();
+      record.position(contents.position() + FRAME_BYTES).limit(contents.position() + FRAME_BYTES + length);
+      CRC32 checksum = new CRC32();
+      checksum.update(record.duplicate());
+      if (checksum.getValue() != expected) {
+        break;
+      }
+      handler.accept(record.slice());
+      contents.position(record.limit());
+      count++;
+    }
+    if (contents.position() < channel.size()) {
+      channel.truncate(contents.position());
+      channel.force(true);
+    }
+    channel.position(contents.position());
+    records = count;
+    replayed = true;
+    return count;
+  }
+
+  private void writeHeader() throws IOException {
+    channel.truncate(0);
+    writeHeader(channel);
+    channel.force(true);
+  }
+
+  private void writeHeader(FileChannel to) throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+    header.putInt(MAGIC).putInt(FORMAT_VERSION).putLong(source.length()).putLong(source.lastModified()).flip();
+    while (header.hasRemaining()) {
+      to.write(header, header.position());
+    }
+  }
+
+  /**
+   * Append records to the log, and wait until they're on disk. Either the
+   * whole batch is appended, or (if this throws) none of it is.
+   *
+   * @param batch the records to append
+   * @throws IOException if the records can't be written
+   */
+  public synchronized void append(List<byte[]> batch) throws IOException {
+    if (!replayed) {
+      throw new IllegalStateException("The log has to be replayed before it's appended to");
+    }
+    if (broken) {
+      throw new IOException("A failed write couldn't be cut back off the log, so it can't be appended to");
+    }
+    int bytes = 0;
+    for (byte[] record : batch) {
+      bytes += FRAME_BYTES + record.length;
+    }
+    ByteBuffer frames = ByteBuffer.allocate(bytes);
+    for (byte[] record : batch) {
+      CRC32 checksum = new CRC32();
+      checksum.update(record);
+      frames.putInt(record.length).putLong(checksum.getValue()).put(record);
+    }
+    frames.flip();
+    long start = channel.position();
+    try {
+      while (frames.hasRemaining()) {
+        channel.write(frames);
+      }
+      channel.force(false);
+    } catch (IOException | RuntimeException e) {
+      rollBack(start, e);
+      throw e;
+    }
+    records += batch.size();
+  }
+
+  // Cut whatever part of a failed batch made it into the file back off, so
+  // the next batch goes where this one should have. If even that fails, no
+  // more can be appended until the log is cleared.
+  private void rollBack(long start, Exception cause) {
+    try {
+      channel.truncate(start);
+      channel.position(start);
+      channel.force(true);
+    } catch (IOException | RuntimeException e) {
+      cause.addSuppressed(e);
+      broken = true;
+    }
+  }
+
+  /**
+   * Throw away every record, e.g., once they've all been folded into a
+   * snapshot.
+   *
+   * @throws IOException if the log can't be truncated
+   */
+  public synchronized void clear() throws IOException {
+    channel.truncate(HEADER_BYTES);
+    channel.position(HEADER_BYTES);
+    channel.force(true);
+    records = 0;
+    broken = false;
+  }
+
+  /**
+   * Throw away the earliest records and keep the rest, e.g., once those
+   * have been folded into a snapshot but more have been appended since.
+   * <p>
+   * The records that are kept are copied into a new file that then takes
+   * this one's place, so if the server dies part way through, the log is
+   * either just as it was or just as it should be, and never loses a record
+   * that's been acknowledged.
+   *
+   * @param count the number of records to throw away, from the front
+   * @throws IOException if the records can't be copied, or the new file
+   *                     can't take the old one's place
+   */
+  public synchronized void trim(long count) throws IOException {
+    if (count >= records) {
+      clear();
+      return;
+    }
+    if (file == null) {
+      throw new IllegalStateException("Only a log kept in a file can be trimmed");
+    }
+    ByteBuffer contents = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    long start = skipFrames(contents, HEADER_BYTES, count);
+    long end = skipFrames(contents, start, records - count);
+
+    Path trimmed = file.resolveSibling(file.getFileName() + ".trim");
+    FileChannel copy = FileChannel.open(trimmed, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+        StandardOpenOption.READ, StandardOpenOption.WRITE);
+    try {
+      writeHeader(copy);
+      copy.position(HEADER_BYTES);
+      for (long from = start; from < end;) {
+        from += channel.transferTo(from, end - from, copy);
+      }
+      copy.force(true);
+      Files.move(trimmed, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException | RuntimeException e) {
+      copy.close();
+      Files.deleteIfExists(trimmed);
+      throw e;
+    }
+    // The copy is the log file now
+    channel.close();
+    channel = copy;
+    records -= count;
+    broken = false;
+  }
+
+  // The offset just after some frames that start at an offset
+  private static long skipFrames(ByteBuffer contents, long offset, long frames) {
+    long next = offset;
+    for (long i = 0; i < frames; i++) {
+      next += FRAME_BYTES + contents.getInt(Math.toIntExact(next));
+    }
+    return next;
+  }
+
+  /**
+   * The number of records in the log.
+   *
+   * @return the number of records
+   */
+  public synchronized long records() {
+    return records;
+  }
+
+  /**
+   * The size of the log.
+   *
+   * @return the number of bytes in the log file, including its header
+   * @throws IOException if the size can't be found
+   */
+  public synchronized long bytes() throws IOException {
+    return channel.size();
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    channel.close();
+  }
+}
@@ -0,0 +1,112 @@
+package umm3601.todo;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+import umm3601.Snapshot;
+
+/**
+ * A hash index from todo IDs to positions in a `TodoStore`.
+ * <p>
+ * This is an open addressing hash table of plain `int`s (positions, plus
+ * the ID hash codes to skip most wrong guesses), so it doesn't need a map
+ * entry, a boxed `Integer`, or even an ID `String` per todo; the IDs are
+ * only read back from the store to confirm a match. The table can also be
+ * written to a snapshot payload and `read` straight back out of the mapped
+ * pages.
+ */
+public class IdIndex {
+
+  private static final int EMPTY = -1;
+
+  private final TodoStore store;
+  // Heap arrays (wrapped), or slices of a mapped snapshot
+  private final IntBuffer positions;
+  private final IntBuffer hashes;
+  private final int mask;
+
+  /**
+   * Build an index over all the todos in the store. If several todos have
+   * the same ID, the first one wins.
+   *
+   * @param store the todos to index
+   */
+  public IdIndex(TodoStore store) {
+    this.store = store;
+    // A power of two at least twice the number of todos, so the table is
+    // never more than half full
+    int capacity = Integer.highestOneBit(Math.max(1, store.size()) * 2) * 2;
+    int[] slots = new int[capacity];
+    this.positions = IntBuffer.wrap(slots);
+    this.hashes = IntBuffer.allocate(capacity);
+    this.mask = capacity - 1;
+    Arrays.fill(slots, EMPTY);
+    for (int position = 0; position < store.size(); position++) {
+      String id = store.id(position);
+      if (id != null && find(id) == EMPTY) {
+        int slot = id.hashCode() & mask;
+        while (slots[slot] != EMPTY) {
+          slot = (slot + 1) & mask;
+        }
+        slots[slot] = position;
+        hashes.put(slot, id.hashCode());
+      }
+    }
+  }
+
+  private IdIndex(TodoStore store, IntBuffer positions, IntBuffer hashes) {
+    this.store = store;
+    this.positions = positions;
+    this.hashes = hashes;
+    this.mask = positions.limit() - 1;
+  }
+
+  /**
+   * Write this index to a snapshot payload, in the form `read` reads.
+   *
+   * @param out where to write it
+   * @throws IOException if it can't be written
+   */
+  void write(DataOutputStream out) throws IOException {
+    out.writeInt(positions.limit());
+    Snapshot.writeInts(out, positions);
+    Snapshot.writeInts(out, hashes);
+  }
+
+  /**
+   * Read an index written by `write`, straight from the payload rather than
+   * copying it, so the payload mustn't change while the index is in use.
+   *
+   * @param store the todos the index was built over
+   * @param in    the payload, positioned at the index; it's left positioned
+   *              just after it
+   * @return the index
+   */
+  static IdIndex read(TodoStore store, ByteBuffer in) {
+    int capacity = in.getInt();
+    IntBuffer positions = Snapshot.readInts(in, capacity);
+    return new IdIndex(store, positions, Snapshot.readInts(in, capacity));
+  }
+
+  /**
+   * Find the position of the todo with the given ID.
+   *
+   * @param id the ID to look for
+   * @return the position of that todo, or -1 if there isn't one
+   */
+  public int find(String id) {
+    if (id == null) {
+      return EMPTY;
+    }
+    int hash = id.hashCode();
+    for (int slot = hash & mask; positions.get(slot) != EMPTY; slot = (slot + 1) & mask) {
+      if (hashes.get(slot) == hash && id.equals(store.id(positions.get(slot)))) {
+        return positions.get(slot);
+      }
+    }
+    return EMPTY;
+  }
+}
@@ -7,8 +7,6 @@ public class Todo {
   public Boolean status;
   public String body;
   public String category;
-  public Object sorting;
-  public Object contains;
 
   public String getOwner() {
     return this.owner;
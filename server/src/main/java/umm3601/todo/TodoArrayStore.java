@@ -0,0 +1,66 @@
+package umm3601.todo;
+
+/**
+ * The simplest kind of `TodoStore`: an array of `Todo` objects, exactly as
+ * Jackson reads them from the data file.
+ */
+public class TodoArrayStore implements TodoStore {
+
+  private final Todo[] todos;
+
+  /**
+   * Construct a store holding the given todos.
+   *
+   * @param todos the todos; the store keeps this array, rather than a copy
+   */
+  public TodoArrayStore(Todo[] todos) {
+    this.todos = todos;
+  }
+
+  @Override
+  public int size() {
+    return todos.length;
+  }
+
+  @Override
+  public Todo get(int position) {
+    return todos[position];
+  }
+
+  @Override
+  public String id(int position) {
+    return todos[position]._id;
+  }
+
+  @Override
+  public String owner(int position) {
+    return todos[position].owner;
+  }
+
+  @Override
+  public String category(int position) {
+    return todos[position].category;
+  }
+
+  @Override
+  public boolean status(int position) {
+    return Boolean.TRUE.equals(todos[position].status);
+  }
+
+  @Override
+  public CharSequence body(int position) {
+    return todos[position].body;
+  }
+
+  @Override
+  public boolean bodyContains(int position, String target, boolean ignoreCase) {
+    String body = todos[position].body;
+    if (body == null) {
+      return false;
+    }
+    if (ignoreCase) {
+      return TrigramIndex.containsIgnoreCase(body, target);
+    }
+    return body.contains(target);
+  }
+}
@@ -0,0 +1,289 @@
+package umm3601.todo;
+
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A `TodoStore` that keeps the todos in columns of primitives instead of
+ * as one object per todo.
+ * <p>
+ * Owners and categories only take a handful of distinct values, so they're
+ * dictionary encoded: each todo just has an `int` code for its owner and
+ * category. Statuses are bits in a `BitSet`, and all the IDs and bodies are
+ * packed end to end into shared `char` arrays. Scans over these columns
+ * touch far less memory than chasing a pointer per todo, and the store as a
+ * whole uses several times less heap. `Todo` objects are only made when
+ * `get` is called, i.e., when a todo is actually sent to a client.
+ * <p>
+ * Each column is one array, so it can hold at most `MAX_LENGTH` entries:
+ * that many todos, or that many characters of IDs (or of bodies) between
+ * all the todos. Adding more than that fails with an
+ * `IllegalStateException`.
+ */
+public final class TodoColumnStore implements TodoStore {
+
+  private static final int INITIAL_CAPACITY = 16;
+
+  /** The most entries (todos, or characters of IDs or bodies) a column can hold. */
+  static final int MAX_LENGTH = Integer.MAX_VALUE - 8;
+
+  private final int size;
+  private final PackedStrings ids;
+  private final PackedStrings bodies;
+  private final DictionaryColumn owners;
+  private final DictionaryColumn categories;
+  private final BitSet complete;
+
+  private TodoColumnStore(Builder builder) {
+    this.size = builder.size;
+    this.ids = builder.ids.trim();
+    this.bodies = builder.bodies.trim();
+    this.owners = builder.owners.trim();
+    this.categories = builder.categories.trim();
+    this.complete = builder.complete;
+  }
+
+  /**
+   * Build a column store holding the same todos as the given array.
+   *
+   * @param todos the todos to store
+   * @return the new store
+   */
+  public static TodoColumnStore of(Todo[] todos) {
+    Builder builder = new Builder();
+    for (Todo todo : todos) {
+      builder.add(todo);
+    }
+    return builder.build();
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public Todo get(int position) {
+    Todo todo = new Todo();
+    todo._id = ids.get(position);
+    todo.owner = owners.get(position);
+    todo.status = complete.get(position);
+    todo.body = bodies.get(position);
+    todo.category = categories.get(position);
+    return todo;
+  }
+
+  @Override
+  public String id(int position) {
+    return ids.get(position);
+  }
+
+  @Override
+  public String owner(int position) {
+    return owners.get(position);
+  }
+
+  @Override
+  public String category(int position) {
+    return categories.get(position);
+  }
+
+  @Override
+  public boolean status(int position) {
+    return complete.get(position);
+  }
+
+  @Override
+  public CharSequence body(int position) {
+    return bodies.view(position);
+  }
+
+  @Override
+  public boolean bodyContains(int position, String target, boolean ignoreCase) {
+    return bodies.contains(position, target, ignoreCase);
+  }
+
+  /**
+   * Adds todos to a new column store one at a time, so a loader can fill
+   * the columns without ever having all the todos as objects.
+   */
+  public static class Builder {
+    private int size;
+    private final PackedStrings ids = new PackedStrings("IDs");
+    private final PackedStrings bodies = new PackedStrings("bodies");
+    private final DictionaryColumn owners = new DictionaryColumn("owners");
+    private final DictionaryColumn categories = new DictionaryColumn("categories");
+    private final BitSet complete = new BitSet();
+
+    /**
+     * Add a todo to the store being built.
+     *
+     * @param todo the todo to add; only its fields are kept
+     * @return this builder
+     */
+    public Builder add(Todo todo) {
+      ids.add(todo._id);
+      bodies.add(todo.body);
+      owners.add(todo.owner);
+      categories.add(todo.category);
+      if (Boolean.TRUE.equals(todo.status)) {
+        complete.set(size);
+      }
+      size++;
+      return this;
+    }
+
+    /**
+     * Finish building the store.
+     *
+     * @return the store
+     */
+    public TodoColumnStore build() {
+      return new TodoColumnStore(this);
+    }
+  }
+
+  /**
+   * The new length for a column's array that has to grow, at least
+   * doubling it (so adding to it stays amortized constant time) but never
+   * past `MAX_LENGTH`.
+   *
+   * @param length the array's length now
+   * @param needed the length it needs
+   * @param column what's in the array, for the error message
+   * @return the new length
+   * @throws IllegalStateException if the column would need more than
+   *                               `MAX_LENGTH` entries
+   */
+  static int grow(int length, long needed, String column) {
+    if (needed > MAX_LENGTH) {
+      throw new IllegalStateException("The todo " + column + " need " + needed
+          + " entries, more than the " + MAX_LENGTH + " a column store can hold");
+    }
+    return (int) Math.min(MAX_LENGTH, Math.max(needed, length * 2L));
+  }
+
+  /**
+   * Lots of strings packed end to end in one `char` array, with the offset
+   * of each one in an `int` array.
+   */
+  private static final class PackedStrings {
+    private final String name;
+    private char[] chars = new char[INITIAL_CAPACITY];
+    private int length;
+    // `starts[i]` to `starts[i + 1]` are the characters of string `i`; a
+    // negative start means the string is null
+    private int[] starts = new int[INITIAL_CAPACITY + 1];
+    private int count;
+
+    PackedStrings(String name) {
+      this.name = name;
+    }
+
+    void add(String value) {
+      if (count + 1 == starts.length) {
+        starts = Arrays.copyOf(starts, grow(starts.length, count + 2L, name));
+      }
+      if (value == null) {
+        starts[count] = -1 - length;
+      } else {
+        if ((long) length + value.length() > chars.length) {
+          chars = Arrays.copyOf(chars, grow(chars.length, (long) length + value.length(), name));
+        }
+        value.getChars(0, value.length(), chars, length);
+        starts[count] = length;
+        length += value.length();
+      }
+      count++;
+      starts[count] = length;
+    }
+
+    PackedStrings trim() {
+      chars = Arrays.copyOf(chars, length);
+      starts = Arrays.copyOf(starts, count + 1);
+      return this;
+    }
+
+    private int start(int i) {
+      return starts[i] < 0 ? -1 - starts[i] : starts[i];
+    }
+
+    private int end(int i) {
+      return start(i + 1);
+    }
+
+    String get(int i) {
+      return starts[i] < 0 ? null : new String(chars, starts[i], end(i) - starts[i]);
+    }
+
+    CharSequence view(int i) {
+      return starts[i] < 0 ? null : CharBuffer.wrap(chars, starts[i], end(i) - starts[i]);
+    }
+
+    boolean contains(int i, String target, boolean ignoreCase) {
+      if (starts[i] < 0) {
+        return false;
+      }
+      int last = end(i) - target.length();
+      for (int from = starts[i]; from <= last; from++) {
+        int j = 0;
+        while (j < target.length() && same(chars[from + j], target.charAt(j), ignoreCase)) {
+          j++;
+        }
+        if (j == target.length()) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    private static boolean same(char a, char b, boolean ignoreCase) {
+      return a == b || (ignoreCase && Character.toLowerCase(a) == Character.toLowerCase(b));
+    }
+  }
+
+  /**
+   * A column of strings with few distinct values, stored as an `int` code
+   * per row plus a dictionary from codes to values.
+   */
+  private static final class DictionaryColumn {
+    private final String name;
+    private final Map<String, Integer> codes = new HashMap<>();
+    private final List<String> values = new ArrayList<>();
+    private int[] column = new int[INITIAL_CAPACITY];
+    private int count;
+    private String[] dictionary;
+
+    DictionaryColumn(String name) {
+      this.name = name;
+    }
+
+    void add(String value) {
+      Integer code = codes.get(value);
+      if (code == null) {
+        code = values.size();
+        codes.put(value, code);
+        values.add(value);
+      }
+      if (count == column.length) {
+        column = Arrays.copyOf(column, grow(column.length, count + 1L, name));
+      }
+      column[count++] = code;
+    }
+
+    DictionaryColumn trim() {
+      column = Arrays.copyOf(column, count);
+      dictionary = values.toArray(new String[0]);
+      return this;
+    }
+
+    String get(int i) {
+      return dictionary[column[i]];
+    }
+  }
+}
@@ -1,7 +1,15 @@
 package umm3601.todo;
+
+import java.util.List;
+import java.util.Map;
+import io.javalin.http.BadRequestResponse;
 import io.javalin.http.Context;
 import io.javalin.http.HttpStatus;
+import io.javalin.http.MethodNotAllowedResponse;
 import io.javalin.http.NotFoundResponse;
+import umm3601.BatchLookup;
+import umm3601.PagedResponses;
+import umm3601.ResponseCache;
 
 
 //TodoController that manages requests for info about todo.
@@ -10,10 +18,41 @@ public class TodoController {
 
   private TodoDatabase database;
 
+  // Cache of serialized responses to `getTodos`, or null to not cache them
+  private ResponseCache cache;
+
+  // Makes changes to the todos, or null if they can't be changed
+  private TodoWriter writer;
+
   public TodoController(TodoDatabase database) {
     this.database = database;
   }
 
+  /**
+   * Construct a controller for todos that caches the responses it sends
+   * for lists of todos.
+   *
+   * @param database the `Database` containing todo data
+   * @param cache    where to cache serialized responses
+   */
+  public TodoController(TodoDatabase database, ResponseCache cache) {
+    this.database = database;
+    this.cache = cache;
+  }
+
+  /**
+   * Construct a controller for todos that can also add, replace, and
+   * delete todos.
+   *
+   * @param database the `Database` containing todo data
+   * @param cache    where to cache serialized responses, or null
+   * @param writer   makes the changes to the todos
+   */
+  public TodoController(TodoDatabase database, ResponseCache cache, TodoWriter writer) {
+    this(database, cache);
+    this.writer = writer;
+  }
+
   public void getTodo(Context ctx1) {
     String id = ctx1.pathParam("id");
     Todo todo = database.getTodo(id);
@@ -25,10 +64,107 @@ public class TodoController {
     }
   }
 
+  /**
+   * Get the todos with the IDs in the request body (a JSON array), all in
+   * one response. See `BatchLookup` for the formats.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void getTodoBatch(Context ctx) {
+    BatchLookup.send(ctx, database.getTodos(BatchLookup.readIds(ctx)));
+  }
+
+  /**
+   * Get a JSON response with a list of all the todos matching the query.
+   * <p>
+   * The page is sent as `PagedResponses` describes: streamed if it's
+   * large, with paging headers, and served from this controller's cache if
+   * it has one.
+   * <p>
+   * With `explain=true`, the response is how the query was planned and how
+   * running it went (see `TodoPlan`) instead of the todos.
+   *
+   * @param ctx1 a Javalin HTTP context
+   */
   public void getTodos(Context ctx1) {
-    Todo[] todos = database.listTodos(ctx1.queryParamMap());
-    ctx1.json(todos);
+    Map<String, List<String>> queryParams = ctx1.queryParamMap();
+    if (queryParams.containsKey("explain") && Boolean.parseBoolean(queryParams.get("explain").get(0))) {
+      ctx1.json(database.query(queryParams).explain());
+      return;
+    }
+    PagedResponses.send(ctx1, cache, database::version, database::query);
   }
 
-}
+  /**
+   * Get a JSON summary of the todos matching the query: how many there are
+   * in all, for each owner, in each category, and with each status. The
+   * filters are the same as for `getTodos`.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void getTodoSummary(Context ctx) {
+    ctx.json(database.summarize(ctx.queryParamMap()));
+  }
+
+  /**
+   * Add a new todo from the JSON in the request body, and respond with the
+   * new todo (including its new `_id`).
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void addTodo(Context ctx) {
+    Todo todo = writer().create(readTodo(ctx));
+    ctx.status(HttpStatus.CREATED);
+    ctx.json(todo);
+  }
 
+  /**
+   * Replace the todo with the ID in the path with the JSON in the request
+   * body, and respond with the new todo.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void replaceTodo(Context ctx) {
+    String id = ctx.pathParam("id");
+    Todo todo = writer().replace(id, readTodo(ctx));
+    if (todo == null) {
+      throw new NotFoundResponse("No todo with id " + id + " was found.");
+    }
+    ctx.status(HttpStatus.OK);
+    ctx.json(todo);
+  }
+
+  /**
+   * Delete the todo with the ID in the path.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void deleteTodo(Context ctx) {
+    String id = ctx.pathParam("id");
+    if (writer().delete(id) == null) {
+      throw new NotFoundResponse("No todo with id " + id + " was found.");
+    }
+    ctx.status(HttpStatus.NO_CONTENT);
+  }
+
+  private TodoWriter writer() {
+    if (writer == null) {
+      throw new MethodNotAllowedResponse("The todos can't be changed");
+    }
+    return writer;
+  }
+
+  private static Todo readTodo(Context ctx) {
+    Todo todo;
+    try {
+      todo = ctx.bodyAsClass(Todo.class);
+    } catch (Exception e) {
+      throw new BadRequestResponse("The request body isn't a valid todo");
+    }
+    if (todo == null || todo.owner == null || todo.status == null || todo.body == null || todo.category == null) {
+      throw new BadRequestResponse("A todo needs an owner, status, body, and category");
+    }
+    return todo;
+  }
+
+}
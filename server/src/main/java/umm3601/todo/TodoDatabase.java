@@ -1,13 +1,32 @@
 package umm3601.todo;
 
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntPredicate;
+import java.util.function.Predicate;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import io.javalin.http.BadRequestResponse;
+import umm3601.Cursors;
+import umm3601.EncodedRecords;
+import umm3601.JsonLoader;
+import umm3601.LatencyHistogram;
+import umm3601.Metrics;
+import umm3601.ParallelScan;
+import umm3601.Snapshot;
+import umm3601.SortOrder;
 
 /**
  * A fake "database" of todo info
@@ -20,156 +39,926 @@ import io.javalin.http.BadRequestResponse;
 
 public class TodoDatabase {
 
+  // Checking this many characters of a body costs about as much as adding
+  // one position from a trigram posting list to a bitset, for deciding
+  // whether using the trigram index is worth it
+  private static final int CHARS_PER_POSTING = 4;
+
+  private static final double NANOS_PER_MICRO = 1000;
+
+  /**
+   * The most changed todos `apply` lays over the indexed todos before it
+   * merges them in and rebuilds the indexes itself. Every query checks each
+   * changed todo, so there mustn't be too many; normally the todo writer
+   * compacts long before this.
+   */
+  static final int MAX_CHANGES = 16_384;
+
+  /**
+   * The ways a `TodoDatabase` can keep its todos in memory.
+   */
+  public enum Storage {
+    /**
+     * One `Todo` object per todo (see `TodoArrayStore`), and each todo
+     * already serialized to JSON (see `EncodedRecords`), so listing them
+     * is just copying bytes.
+     */
+    OBJECTS,
+    /**
+     * Dictionary encoded columns of primitives (see `TodoColumnStore`).
+     * To keep memory down, the todos aren't kept serialized as well, but
+     * serialized as they're listed; a snapshot has them serialized in it
+     * already, and they're copied from there.
+     */
+    COLUMNS
+  }
+
+  /**
+   * Get the single todo specified by the given ID. Return `null` if there is no
+   * todo with that ID.
+   * <p>
+   * This is a constant time lookup in `todosById`, so it doesn't get slower as
+   * the data file grows.
+   *
+   * @param id the ID of the desired todo
+   * @return the todo with the given ID, or null if there is no todo with that ID
+   */
   public Todo getTodo(String id) {
-    return Arrays.stream(allTodo).filter(x -> x._id.equals(id)).findFirst().orElse(null);
+    State current = state;
+    int position = current.find(id);
+    return position < 0 ? null : current.store.get(position);
+  }
+
+  /**
+   * Get the todos with the given IDs, all from the same version of the data
+   * (even if it's reloaded part way through).
+   *
+   * @param ids the IDs of the desired todos
+   * @return the todo with each ID, in the same order, or null where there is
+   *         no todo with that ID
+   */
+  public Todo[] getTodos(String[] ids) {
+    State current = state;
+    Todo[] todos = new Todo[ids.length];
+    for (int i = 0; i < ids.length; i++) {
+      int position = current.find(ids[i]);
+      todos[i] = position < 0 ? null : current.store.get(position);
+    }
+    return todos;
+  }
+
+  /**
+   * Everything built from one version of the data: the todos themselves and
+   * all the indexes over them.
+   * <p>
+   * A state is never changed once it's built. Reloading the data builds a
+   * whole new state off to the side and then swaps it in with a single
+   * write to the volatile `state` field, so a request always sees one
+   * consistent version of the data (whichever state it read first), and
+   * never has to wait for a reload to finish.
+   * <p>
+   * Changing some of the todos (with `apply`) doesn't rebuild the indexes,
+   * though. The new state shares them with the old one, and lays the
+   * changes over the todos they were built from (see `TodoOverlay`). And
+   * the indexes over a snapshot are never built at all: they're written
+   * into the snapshot along with the todos, and read back out of it.
+   */
+  static final class State {
+    private final TodoStore store;
+
+    // The changes laid over the todos the indexes were built from, or null
+    // if there aren't any (in which case `store` is those todos)
+    private final TodoOverlay overlay;
+
+    // Index from each todo's `_id` to its position, so `getTodo` doesn't
+    // have to scan all the todos.
+    private final IdIndex todosById;
+
+    // Secondary indexes: for each owner (or category) the set of positions
+    // in `store` of the todos with that owner (or category), and the
+    // positions of all the complete todos.
+    private final Map<String, BitSet> todosByOwner;
+    private final Map<String, BitSet> todosByCategory;
+    private final BitSet completeTodos;
+
+    // Trigram index over the todo bodies, used to narrow `contains` searches.
+    private final TrigramIndex bodyIndex;
+
+    // The todos sorted by each of the fields `orderBy` accepts
+    private final Map<String, TodoOrder> sortOrders = new HashMap<>();
+
+    // Counts of the todos by owner, category, and status, for summaries
+    private final TodoFacets facets;
+
+    // How often each value of each field occurs, for planning queries
+    private final TodoStatistics statistics;
+
+    // Each todo already serialized to JSON, so listing them is just copying
+    // bytes; null if they're serialized as they're listed
+    private final EncodedRecords encoded;
+
+    // The total matches of recent queries with unindexed filters
+    private final TotalCounts totalCounts = new TotalCounts();
+
+    private final long version;
+
+    // Index the todos in a store from scratch. If they're to be kept
+    // serialized, any that are the same as in the previous version are
+    // copied from its encodings rather than serialized again
+    State(TodoStore todos, State previous, boolean encode) {
+      todosByOwner = new HashMap<>();
+      todosByCategory = new HashMap<>();
+      completeTodos = new BitSet(todos.size());
+      for (int i = 0; i < todos.size(); i++) {
+        todosByOwner.computeIfAbsent(todos.owner(i), k -> new BitSet()).set(i);
+        todosByCategory.computeIfAbsent(todos.category(i), k -> new BitSet()).set(i);
+        if (todos.status(i)) {
+          completeTodos.set(i);
+        }
+      }
+      for (String field : TodoOrder.keys(todos).keySet()) {
+        sortOrders.put(field, new TodoOrder(todos, field));
+      }
+
+      this.store = todos;
+      this.overlay = null;
+      this.todosById = new IdIndex(todos);
+      this.bodyIndex = new TrigramIndex(todos.size(), todos::body);
+      this.facets = new TodoFacets(todos);
+      this.statistics = new TodoStatistics(todos, todosByOwner, todosByCategory, completeTodos);
+      this.encoded = encode(todos, previous, encode);
+      this.version = previous == null ? 1 : previous.version + 1;
+    }
+
+    // The previous state with more changes: everything built from the
+    // todos underneath is shared, and only the touched positions are
+    // sorted and serialized
+    State(State previous, TodoOverlay changes, BitSet touched, long version) {
+      previous.sortOrders.forEach((field, order) -> sortOrders.put(field, order.over(changes, field, touched)));
+      this.store = changes;
+      this.overlay = changes;
+      this.todosById = previous.todosById;
+      this.todosByOwner = previous.todosByOwner;
+      this.todosByCategory = previous.todosByCategory;
+      this.completeTodos = previous.completeTodos;
+      this.bodyIndex = previous.bodyIndex;
+      this.facets = previous.facets;
+      this.statistics = previous.statistics;
+      this.encoded = previous.encoded == null ? null : previous.encoded.with(touched, changes::get);
+      this.version = version;
+    }
+
+    // Read the indexes over the todos in a snapshot out of it, rather than
+    // building them
+    private State(TodoSnapshotStore todos, State previous) {
+      ByteBuffer in = todos.indexes();
+      this.store = todos;
+      this.overlay = null;
+      this.todosById = IdIndex.read(todos, in);
+      this.todosByOwner = readPositions(in);
+      this.todosByCategory = readPositions(in);
+      this.completeTodos = readBits(in);
+      for (int orders = in.getInt(); sortOrders.size() < orders;) {
+        String field = Snapshot.readString(in);
+        sortOrders.put(field, new TodoOrder(todos, field, SortOrder.read(in)));
+      }
+      this.bodyIndex = TrigramIndex.read(in);
+      this.facets = TodoFacets.read(in);
+      this.statistics = new TodoStatistics(todos.size(), todosByOwner, todosByCategory, completeTodos,
+          in.getDouble());
+      this.encoded = todos.encoded();
+      this.version = previous == null ? 1 : previous.version + 1;
+    }
+
+    /**
+     * Index the todos in a store: read the indexes out of it if it's a
+     * snapshot, and otherwise build them.
+     *
+     * @param todos    the todos
+     * @param previous the state being replaced, or null
+     * @param encode   true to keep the todos serialized to JSON
+     * @return the new state
+     */
+    static State of(TodoStore todos, State previous, boolean encode) {
+      return todos instanceof TodoSnapshotStore ? new State((TodoSnapshotStore) todos, previous)
+          : new State(todos, previous, encode);
+    }
+
+    /**
+     * Write the indexes to a snapshot payload, in the form a snapshot's
+     * state reads them back. Only the indexes over the todos they were
+     * built from are written, so there mustn't be any changes laid over
+     * them.
+     *
+     * @param out where to write them
+     * @throws IOException if they can't be written
+     */
+    void writeIndexes(DataOutputStream out) throws IOException {
+      if (overlay != null) {
+        throw new IllegalStateException("Compact the changes to the todos before writing their indexes");
+      }
+      todosById.write(out);
+      writePositions(out, todosByOwner);
+      writePositions(out, todosByCategory);
+      writeBits(out, completeTodos);
+      out.writeInt(sortOrders.size());
+      for (Map.Entry<String, TodoOrder> order : sortOrders.entrySet()) {
+        Snapshot.writeString(out, order.getKey());
+        order.getValue().base().write(out);
+      }
+      bodyIndex.write(out);
+      facets.write(out);
+      out.writeDouble(statistics.averageBodyLength());
+    }
+
+    // A set of positions, as the number of words and then the words (as in
+    // `BitSet.toLongArray`). Bitsets are always on the heap, so these are
+    // copied out of a snapshot, but that's just a bulk copy.
+    private static void writeBits(DataOutputStream out, BitSet positions) throws IOException {
+      long[] words = positions.toLongArray();
+      out.writeInt(words.length);
+      for (long word : words) {
+        out.writeLong(word);
+      }
+    }
+
+    private static BitSet readBits(ByteBuffer in) {
+      return BitSet.valueOf(Snapshot.slice(in, in.getInt() * Long.BYTES).asLongBuffer());
+    }
+
+    // Sets of positions by key, as the number of keys, and then each key
+    // and its positions
+    private static void writePositions(DataOutputStream out, Map<String, BitSet> positions) throws IOException {
+      out.writeInt(positions.size());
+      for (Map.Entry<String, BitSet> entry : positions.entrySet()) {
+        Snapshot.writeString(out, entry.getKey());
+        writeBits(out, entry.getValue());
+      }
+    }
+
+    private static Map<String, BitSet> readPositions(ByteBuffer in) {
+      Map<String, BitSet> positions = new HashMap<>();
+      for (int count = in.getInt(); positions.size() < count;) {
+        String key = Snapshot.readString(in);
+        positions.put(key, readBits(in));
+      }
+      return positions;
+    }
+
+    // The todos serialized to JSON: serialized now (copying the ones that
+    // haven't changed), or not at all
+    private static EncodedRecords encode(TodoStore todos, State previous, boolean encode) {
+      if (!encode) {
+        return null;
+      }
+      if (previous == null || previous.encoded == null) {
+        return new EncodedRecords(todos.size(), todos::get);
+      }
+      return new EncodedRecords(todos.size(), todos::get, previous.encoded, position -> {
+        Todo todo = todos.get(position);
+        int old = previous.find(todo._id);
+        return old >= 0 && same(todo, previous.store.get(old)) ? old : -1;
+      });
+    }
+
+    private static boolean same(Todo a, Todo b) {
+      return Objects.equals(a._id, b._id) && Objects.equals(a.owner, b.owner)
+          && Objects.equals(a.status, b.status) && Objects.equals(a.body, b.body)
+          && Objects.equals(a.category, b.category);
+    }
+
+    TodoStore store() {
+      return store;
+    }
+
+    // The todos serialized to JSON, or null if they aren't kept serialized
+    EncodedRecords encoded() {
+      return encoded;
+    }
+
+    long version() {
+      return version;
+    }
+
+    // The number of todos, not counting the holes deleted ones leave
+    int count() {
+      return overlay == null ? store.size() : overlay.count();
+    }
+
+    // The position of the todo with an ID, or -1 if there isn't one
+    int find(String id) {
+      return overlay == null ? todosById.find(id) : overlay.find(id);
+    }
+
+    /**
+     * Find where the page a cursor points at starts.
+     *
+     * @param cursor the cursor
+     * @param order  the order the query walks, or null for position order
+     * @return the rank in the order's precomputed part to start at, or the
+     *         position if there isn't an order
+     */
+    int start(Cursors.Cursor cursor, TodoOrder order) {
+      int position = cursor.position();
+      boolean current = cursor.version() == version && position < store.size()
+          && Objects.equals(store.id(position), cursor.id());
+      if (order == null) {
+        if (current) {
+          return position;
+        }
+        int found = find(cursor.id());
+        return found >= 0 ? found : Math.min(position, store.size());
+      }
+      return current && order.precomputed(position) ? order.rankOf(position)
+          : order.seek(cursor.key(), cursor.id());
+    }
   }
 
-  public static Todo[] limiting(Todo[] todos, int range) {
-    return Arrays.stream(todos).limit(range).toArray(Todo[]::new);
+  /**
+   * Gets the todos from wherever this database loads them from.
+   */
+  @FunctionalInterface
+  private interface StoreLoader {
+    TodoStore load() throws IOException;
   }
 
-  private Todo[] allTodo;
+  // The current state; only ever replaced as a whole (in `setTodos`)
+  private volatile State state;
+
+  // How to (re)load the todos
+  private final StoreLoader loader;
+
+  // How to store the todos after they've been changed by `apply`
+  private final Storage storage;
+
+  // Timers for each filter in `query` and for running queries; null unless
+  // `recordTimings` has been called
+  private volatile QueryTimers timers;
+
+  // Where queries check unindexed filters on many candidates in parallel;
+  // null unless `scanInParallel` has been called
+  private volatile ParallelScan parallelScan;
+
+  /**
+   * Where `query` records how long each filter took, and where the queries
+   * it plans record how long they took to run (i.e., to walk the candidates,
+   * check any unindexed filter, and hand each todo on to wherever it's
+   * going, such as a response stream).
+   */
+  private static final class QueryTimers {
+    private final LatencyHistogram owner;
+    private final LatencyHistogram category;
+    private final LatencyHistogram status;
+    private final LatencyHistogram contains;
+    private final LatencyHistogram walk;
+
+    QueryTimers(Metrics metrics) {
+      String name = "todo_query_filter_duration_seconds";
+      String help = "How long each todo query filter took to narrow down the candidates";
+      owner = metrics.timer(name, help, "filter=\"owner\"");
+      category = metrics.timer(name, help, "filter=\"category\"");
+      status = metrics.timer(name, help, "filter=\"status\"");
+      contains = metrics.timer(name, help, "filter=\"contains\"");
+      walk = metrics.timer("todo_query_walk_duration_seconds",
+          "How long todo queries took to run: walking the candidates, checking unindexed filters, "
+          + "and handing on each todo", "");
+    }
+  }
 
   public TodoDatabase(String todoDataFile) throws IOException {
-    InputStreamReader reader = new InputStreamReader(getClass().getResourceAsStream(todoDataFile));
+    this(todoDataFile, Storage.OBJECTS);
+  }
+
+  /**
+   * Construct a database from a JSON data file on the classpath, keeping the
+   * todos in the given kind of storage.
+   *
+   * @param todoDataFile the name of the data file
+   * @param storage      how to keep the todos in memory
+   * @throws IOException if the data file can't be read
+   */
+  public TodoDatabase(String todoDataFile, Storage storage) throws IOException {
+    this(() -> readJson(todoDataFile, storage), storage);
+  }
+
+  /**
+   * Construct a database from a binary snapshot of a JSON data file, so
+   * startup just maps the snapshot into memory and the todos are served
+   * straight from the mapped pages.
+   * <p>
+   * If the snapshot is missing, corrupt, or older than the data file, the
+   * JSON is read instead (into the given kind of storage), and a new
+   * snapshot is written for next time.
+   *
+   * @param todoDataFile the name of the data file on the classpath
+   * @param storage      how to keep the todos if the JSON has to be read
+   * @param snapshotFile where the snapshot is (or should be) kept
+   * @throws IOException if neither the snapshot nor the data file can be
+   *                     read, or a new snapshot can't be written
+   */
+  public TodoDatabase(String todoDataFile, Storage storage, Path snapshotFile) throws IOException {
+    this(() -> openSnapshot(snapshotFile, Snapshot.Source.of(TodoDatabase.class.getResource(todoDataFile)),
+        () -> readJson(todoDataFile, storage)), storage);
+  }
+
+  /**
+   * Construct a database from a JSON data file on disk, which can be far
+   * bigger than would fit in memory as `Todo` objects. The file is parsed
+   * one token at a time, straight into the given kind of storage.
+   *
+   * @param todoDataFile the data file: a JSON array of todos, or one todo
+   *                     object after another
+   * @param storage      how to keep the todos in memory
+   * @param snapshotFile where a snapshot of the data is (or should be)
+   *                     kept, or null to always read the JSON
+   * @param progress     receives progress reports while the JSON is read;
+   *                     may be null
+   * @throws IOException if the data can't be read
+   */
+  public TodoDatabase(Path todoDataFile, Storage storage, Path snapshotFile,
+      Consumer<JsonLoader.Progress> progress) throws IOException {
+    this(snapshotFile == null
+        ? () -> load(todoDataFile, storage, progress)
+        : () -> openSnapshot(snapshotFile, Snapshot.Source.of(todoDataFile.toUri().toURL()),
+            () -> load(todoDataFile, storage, progress)), storage);
+  }
+
+  /**
+   * Construct a database directly from an array of todos, e.g., for
+   * benchmarks that need a lot more data than `todos.json` has.
+   *
+   * @param todos the todos to store in this database
+   */
+  public TodoDatabase(Todo[] todos) {
+    this(new TodoArrayStore(todos));
+  }
+
+  /**
+   * Construct a database holding the todos in the given store.
+   *
+   * @param store the todos to serve
+   */
+  public TodoDatabase(TodoStore store) {
+    this.loader = () -> store;
+    this.storage = Storage.OBJECTS;
+    setTodos(store);
+  }
+
+  private TodoDatabase(StoreLoader loader, Storage storage) throws IOException {
+    this.loader = loader;
+    this.storage = storage;
+    reload();
+  }
+
+  // The todos in the snapshot, if it's up to date; otherwise the todos in
+  // the JSON, which are then written to a new snapshot (along with their
+  // indexes, so they're only built once) and served from there
+  private static TodoStore openSnapshot(Path snapshotFile, Snapshot.Source source, StoreLoader json)
+      throws IOException {
+    TodoSnapshotStore snapshot = TodoSnapshotStore.open(snapshotFile, source);
+    if (snapshot != null) {
+      return snapshot;
+    }
+    TodoStore todos = json.load();
+    TodoSnapshotStore.write(snapshotFile, source, todos);
+    snapshot = TodoSnapshotStore.open(snapshotFile, source);
+    return snapshot != null ? snapshot : todos;
+  }
+
+  private static TodoStore load(Path todoDataFile, Storage storage, Consumer<JsonLoader.Progress> progress)
+      throws IOException {
+    if (storage == Storage.COLUMNS) {
+      TodoColumnStore.Builder builder = new TodoColumnStore.Builder();
+      JsonLoader.load(todoDataFile, new TodoRecords(builder::add, true), progress);
+      return builder.build();
+    }
+    List<Todo> todos = new ArrayList<>();
+    JsonLoader.load(todoDataFile, new TodoRecords(todos::add, false), progress);
+    return new TodoArrayStore(todos.toArray(new Todo[0]));
+  }
+
+  private static TodoStore readJson(String todoDataFile, Storage storage) throws IOException {
+    InputStreamReader reader = new InputStreamReader(TodoDatabase.class.getResourceAsStream(todoDataFile));
     ObjectMapper objectMapper = new ObjectMapper();
-    allTodo = objectMapper.readValue(reader, Todo[].class);
+    Todo[] todos = objectMapper.readValue(reader, Todo[].class);
+    return storage == Storage.COLUMNS ? TodoColumnStore.of(todos) : new TodoArrayStore(todos);
+  }
+
+  /**
+   * Load the todos again from wherever they came from (e.g., because the
+   * data file has changed), and rebuild all the indexes.
+   * <p>
+   * Requests keep being answered from the old data until the new data is
+   * completely ready. If loading fails, the old data stays in place.
+   *
+   * @throws IOException if the data can't be loaded
+   */
+  public synchronized void reload() throws IOException {
+    setTodos(loader.load());
+  }
+
+  /**
+   * Apply some changes to the todos, and publish the result as a new
+   * version of the data. Each put replaces the todo with the same ID in
+   * place, or adds the todo at the end if there isn't one; each delete
+   * removes the todo with its ID, if there is one.
+   * <p>
+   * The indexes aren't rebuilt; the changes are laid over the todos they
+   * were built from (see `TodoOverlay`), so this costs as much as the
+   * changes since the last `compact`, not as much as there are todos. Once
+   * there are more than `MAX_CHANGES` of them, they're compacted anyway.
+   *
+   * @param mutations the changes, in the order to make them
+   */
+  synchronized void apply(List<TodoMutation> mutations) {
+    state = apply(state, mutations);
+  }
+
+  private State apply(State current, List<TodoMutation> mutations) {
+    TodoOverlay overlay = current.overlay != null ? current.overlay
+        : new TodoOverlay(current.store, current.todosById);
+    BitSet touched = new BitSet();
+    TodoOverlay changed = overlay.apply(mutations, touched);
+    if (changed.changes() > MAX_CHANGES) {
+      return State.of(merge(changed), current, storage == Storage.OBJECTS);
+    }
+    return new State(current, changed, touched, current.version + 1);
+  }
+
+  /**
+   * Merge all the changes made by `apply` into the todos, and rebuild the
+   * indexes over the result (as a new version of the data). This costs as
+   * much as reloading the data, so it should only be done once in a while,
+   * e.g., when the write-ahead log is compacted.
+   *
+   * @return the version of the data with all the changes made
+   */
+  synchronized State compact() {
+    State current = state;
+    if (current.overlay != null) {
+      setTodos(merge(current.overlay));
+    }
+    return state;
+  }
+
+  /**
+   * The current version of the data, e.g., to compact it in the background
+   * while more changes are applied (see `merged` and `rebase`).
+   *
+   * @return the current state
+   */
+  State state() {
+    return state;
+  }
+
+  /**
+   * All the todos in a version of the data, with any changes `apply` laid
+   * over them merged in. This doesn't touch the database, and states never
+   * change, so it can run on any thread while the database goes on
+   * changing.
+   *
+   * @param version the version of the data
+   * @return its todos, as a store with nothing laid over it
+   */
+  TodoStore merged(State version) {
+    return version.overlay == null ? version.store : merge(version.overlay);
+  }
+
+  /**
+   * Replace the todos with a compacted copy of an earlier version of them
+   * (e.g., a snapshot of `merged`), and make the changes that have been
+   * applied since that version again on top. The result is published as
+   * one new version, so no query sees the todos without those changes.
+   *
+   * @param todos the todos as of the earlier version
+   * @param since the changes applied since then, in the order they were
+   *              applied
+   */
+  synchronized void rebase(TodoStore todos, List<TodoMutation> since) {
+    State base = State.of(todos, state, storage == Storage.OBJECTS);
+    state = since.isEmpty() ? base : apply(base, since);
+  }
+
+  private TodoStore merge(TodoOverlay overlay) {
+    Todo[] todos = overlay.merge();
+    return storage == Storage.COLUMNS ? TodoColumnStore.of(todos) : new TodoArrayStore(todos);
+  }
+
+  /**
+   * Replace the todos in this database, rebuilding the ID and field
+   * indexes so that they stay consistent with the data.
+   *
+   * @param todos the new todos
+   */
+  synchronized void setTodos(TodoStore todos) {
+    state = State.of(todos, state, storage == Storage.OBJECTS);
+  }
+
+  /**
+   * The version of the data in this database, which goes up every time the
+   * data changes. Anything derived from the data (like cached responses)
+   * is out of date if it was made from an older version.
+   *
+   * @return the current data version
+   */
+  public long version() {
+    return state.version;
   }
 
   public int size() {
-    return allTodo.length;
+    return state.count();
   }
 
+  /**
+   * Get an array of all the todos satisfying the queries in the params.
+   *
+   * @param queryParams map of key-value pairs for the query
+   * @return an array of all the todos matching the given criteria
+   */
+  public Todo[] listTodos(Map<String, List<String>> queryParams) {
+    return query(queryParams).toArray();
+  }
 
-    public Todo[] listTodos(Map<String, List<String>> queryParams) {
-      Todo[] filteredTodos = allTodo;
+  /**
+   * Plan a query for the todos satisfying the queries in the params.
+   * <p>
+   * The `owner`, `category`, and `status` filters are answered by
+   * intersecting the matching index bitsets, so combining them never scans
+   * the todos. A `contains` search checks the bodies of the todos that are
+   * left (adding `ignoreCase=true` makes it case insensitive), and can first
+   * narrow them down with the trigram index.
+   * <p>
+   * The statistics gathered when the data was indexed say roughly how many
+   * todos each filter leaves, so the filters are applied from the one
+   * expected to leave the fewest to the one expected to leave the most, and
+   * once nothing is left the rest are skipped. The trigram index is only
+   * used if that's cheaper than just checking the bodies of the todos left
+   * by then. The plan, and how long each part of it took, is what
+   * `TodoQuery.explain` returns (for `explain=true`).
+   * <p>
+   * `limit` sets the page size, and `offset` or `cursor` say where the page
+   * starts. Walking the candidates stops as soon as the page is full.
+   *
+   * @param queryParams map of key-value pairs for the query
+   * @return a query that can be run to get the matching todos
+   */
+  public TodoQuery query(Map<String, List<String>> queryParams) {
+    long planStart = System.nanoTime();
+    // Plan against one state, even if a reload swaps in another meanwhile
+    State current = state;
+    QueryTimers timed = timers;
+    TodoStore store = current.store;
+    TodoStatistics statistics = current.statistics;
+    TodoPlan plan = new TodoPlan(current.count());
+    List<IndexedFilter> indexed = new ArrayList<>();
 
     // Filter Owner if defined
     if (queryParams.containsKey("owner")) {
       String targetOwner = queryParams.get("owner").get(0);
-      filteredTodos = filterTodosByOwner(filteredTodos, targetOwner);
+      indexed.add(new IndexedFilter("owner = " + targetOwner, statistics.owner(targetOwner),
+          timed == null ? null : timed.owner, todo -> targetOwner.equals(todo.owner), candidates -> {
+            candidates.and(current.todosByOwner.getOrDefault(targetOwner, new BitSet()));
+            return TodoPlan.Step.INDEX;
+          }));
     }
 
     // Filter Category if defined
     if (queryParams.containsKey("category")) {
       String targetCategory = queryParams.get("category").get(0);
-      filteredTodos = filterTodosByCategory(filteredTodos, targetCategory);
-    }
-
-    // Filter Contains if defined
-    if (queryParams.containsKey("contains")) {
-      String targetContains = queryParams.get("contains").get(0);
-      filteredTodos = filterTodosByContains(filteredTodos, targetContains);
+      indexed.add(new IndexedFilter("category = " + targetCategory, statistics.category(targetCategory),
+          timed == null ? null : timed.category, todo -> targetCategory.equals(todo.category), candidates -> {
+            candidates.and(current.todosByCategory.getOrDefault(targetCategory, new BitSet()));
+            return TodoPlan.Step.INDEX;
+          }));
     }
 
     // Filter Status if defined
     if (queryParams.containsKey("status")) {
-      String targetStatus = queryParams.get("status").get(0);
-      filteredTodos = filterTodosByStatus(filteredTodos, targetStatus);
+      boolean targetComplete = !queryParams.get("status").get(0).equals("incomplete");
+      indexed.add(new IndexedFilter("status = " + (targetComplete ? "complete" : "incomplete"),
+          statistics.status(targetComplete), timed == null ? null : timed.status,
+          todo -> Boolean.TRUE.equals(todo.status) == targetComplete, candidates -> {
+            if (targetComplete) {
+              candidates.and(current.completeTodos);
+            } else {
+              candidates.andNot(current.completeTodos);
+            }
+            return TodoPlan.Step.INDEX;
+          }));
     }
 
-    if (queryParams.containsKey("owner")) {
-      String targetOwner = queryParams.get("owner").get(0);
-      filteredTodos = filterTodosByOwner(filteredTodos, targetOwner);
+    // Filter Contains if defined: the bodies are always checked while
+    // walking, but the trigram index might narrow the candidates first
+    IntPredicate filter = null;
+    if (queryParams.containsKey("contains")) {
+      String targetContains = queryParams.get("contains").get(0);
+      boolean ignoreCase = queryParams.containsKey("ignoreCase")
+          && Boolean.parseBoolean(queryParams.get("ignoreCase").get(0));
+      filter = position -> store.bodyContains(position, targetContains, ignoreCase);
+      plan.residual = "body contains '" + targetContains + "'" + (ignoreCase ? " ignoring case" : "");
+      int estimate = current.bodyIndex.estimate(targetContains);
+      if (estimate >= 0) {
+        indexed.add(new IndexedFilter("body has the trigrams of '" + targetContains + "'", estimate,
+            timed == null ? null : timed.contains, todo -> true,
+            candidates -> narrowByTrigrams(current, targetContains, candidates)));
+      }
     }
 
+    BitSet candidates = applyInOrder(indexed, store.size(), plan);
+    if (current.overlay != null) {
+      // The indexes only know about the todos from before any changes
+      Predicate<Todo> passes = todo -> true;
+      for (IndexedFilter applied : indexed) {
+        passes = passes.and(applied.keeps);
+      }
+      current.overlay.recheck(candidates, passes);
+    }
+
+    TodoOrder order = null;
+    plan.walk = "in position order";
     if (queryParams.containsKey("orderBy")) {
       String targetSorting = queryParams.get("orderBy").get(0);
-      filteredTodos = filterTodosBySorting(filteredTodos, targetSorting);
+      order = current.sortOrders.get(targetSorting);
+      if (order == null) {
+        throw new BadRequestResponse("nothing to sort");
+      }
+      plan.walk = "in " + targetSorting + " order";
     }
 
+    int targetLimit = Integer.MAX_VALUE;
     if (queryParams.containsKey("limit")) {
-      String targetResult = queryParams.get("limit").get(0);
-      try {
-        int targetLimit = Integer.parseInt(targetResult);
-        filteredTodos = limiting(filteredTodos, targetLimit);
-      } catch (NumberFormatException e) {
-        throw new BadRequestResponse("Specified limit '" + targetResult + "' can't be parsed to an integer");
-      }
+      targetLimit = parseCount("limit", queryParams.get("limit").get(0));
+      plan.limit = targetLimit;
     }
-    return filteredTodos;
-  }
 
- /**
-   * Get an array of all the users having the target company.
-   *
-   * @param todos         the list of users to filter by company
-   * @param targetOwner  the target owner to look for
-   * @return an array of all the users from the given list that have the target
-   *         company
-   */
-  public Todo[] filterTodosByOwner(Todo[] todos, String targetOwner) {
-    return Arrays.stream(todos).filter(x -> x.owner.equals(targetOwner)).toArray(Todo[]::new);
+    // Where the page starts: either a number of todos to skip, or a
+    // cursor from a previous page
+    int targetOffset = 0;
+    if (queryParams.containsKey("offset")) {
+      targetOffset = parseCount("offset", queryParams.get("offset").get(0));
+    }
+    plan.offset = targetOffset;
+    int fromRank = 0;
+    int fromChanged = 0;
+    if (queryParams.containsKey("cursor")) {
+      Cursors.Cursor cursor = Cursors.decode(queryParams.get("cursor").get(0));
+      fromRank = current.start(cursor, order);
+      fromChanged = order == null ? 0 : order.seekChanged(cursor.key(), cursor.id());
+    }
+    TodoQuery query = new TodoQuery(current, candidates, filter, fromRank, targetOffset, targetLimit);
+    if (order != null) {
+      query.along(order, fromChanged);
+    }
+    if (filter != null) {
+      query.countIn(current.totalCounts, Arrays.asList(first(queryParams, "owner"),
+          first(queryParams, "category"), first(queryParams, "status"), first(queryParams, "contains"),
+          first(queryParams, "ignoreCase")));
+    }
+    plan.planMicros = micros(System.nanoTime() - planStart);
+    query.withPlan(plan);
+    ParallelScan scan = parallelScan;
+    if (scan != null) {
+      query.scanWith(scan);
+    }
+    return timed == null ? query : query.timeWalks(timed.walk);
   }
 
   /**
-   * Get an array of all the users having the target company.
-   *    Map<String, List<String>> queryParams = new HashMap<>();
-    queryParams.put("category", Arrays.asList(new String[] {"software design"}));
-    when(ctx.queryParamMap()).thenReturn(queryParams);
-    todoController.getTodos(ctx);
-   * @param todos         the list of users to filter by company
-   * @param targetCategory  the target category to look for
-   * @return an array of all the users from the given list that have the target
-   *         company
+   * An indexed filter, waiting to be applied.
    */
-  public Todo[] filterTodosByCategory(Todo[] todos, String targetCategory) {
-    return Arrays.stream(todos).filter(x -> x.category.equals(targetCategory)).toArray(Todo[]::new);
+  private static final class IndexedFilter {
+    private final String description;
+    // How many todos it would match on its own, from the statistics
+    private final int matches;
+    private final LatencyHistogram timer;
+    // Checks a changed todo, which the indexes don't know about yet
+    private final Predicate<Todo> keeps;
+    // Narrows down the candidates in place, and says which path it took
+    private final Function<BitSet, String> narrow;
+
+    IndexedFilter(String description, int matches, LatencyHistogram timer, Predicate<Todo> keeps,
+        Function<BitSet, String> narrow) {
+      this.description = description;
+      this.matches = matches;
+      this.timer = timer;
+      this.keeps = keeps;
+      this.narrow = narrow;
+    }
+  }
+
+  // Apply the indexed filters to all the todos, from the one expected to
+  // match the fewest to the one expected to match the most (guessing that
+  // the filters are independent), until there are no candidates left
+  private static BitSet applyInOrder(List<IndexedFilter> indexed, int size, TodoPlan plan) {
+    indexed.sort(Comparator.comparingInt(filter -> filter.matches));
+    BitSet candidates = new BitSet(size);
+    candidates.set(0, size);
+    double estimate = size;
+    for (IndexedFilter filter : indexed) {
+      TodoPlan.Step step = new TodoPlan.Step(filter.description,
+          Math.round(size == 0 ? 0 : estimate * filter.matches / size));
+      estimate = step.estimatedRows;
+      plan.steps.add(step);
+      if (candidates.isEmpty()) {
+        step.path = TodoPlan.Step.SKIPPED;
+        continue;
+      }
+      long start = System.nanoTime();
+      step.path = filter.narrow.apply(candidates);
+      step.rows = candidates.cardinality();
+      long elapsed = System.nanoTime() - start;
+      step.micros = micros(elapsed);
+      if (filter.timer != null) {
+        filter.timer.record(elapsed);
+      }
+    }
+    return candidates;
   }
+
+  // Narrow down the candidates for a `contains` search with the trigram
+  // index, unless checking the bodies it would rule out is cheaper than
+  // using the index: i.e., unless there are few enough candidates left
+  private static String narrowByTrigrams(State current, String target, BitSet candidates) {
+    int left = candidates.cardinality();
+    double ruledOut = left - Math.min(left, current.bodyIndex.estimate(target));
+    double checkingCost = ruledOut * current.statistics.averageBodyLength() / CHARS_PER_POSTING;
+    if (checkingCost <= current.bodyIndex.cost(target)) {
+      return TodoPlan.Step.SCAN;
+    }
+    candidates.and(current.bodyIndex.candidates(target));
+    return TodoPlan.Step.INDEX;
+  }
+
+  private static double micros(long nanos) {
+    return nanos / NANOS_PER_MICRO;
+  }
+
   /**
-   * Get an array of all the users having the target company.
+   * Count the todos satisfying the filters in the params (`owner`,
+   * `category`, `status`, and `contains`, exactly as `query` takes them) by
+   * owner, by category, and by status. Any paging or sorting params are
+   * ignored.
+   * <p>
+   * Without a `contains` filter, this is added up from counts that were
+   * kept when the data was indexed (corrected for any todos changed since),
+   * so it never looks at the rest of the todos. A `contains` filter has to check the bodies, so the
+   * summary then counts the todos the query matches.
    *
-   * @param todos         the list of users to filter by company
-   * @param targetStatus  the target status to look for
-   * @return an array of all the users from the given list that have the target
+   * @param queryParams map of key-value pairs for the query
+   * @return the counts
    */
-
-
-  public Todo[] filterTodosByStatus(Todo[] todos, String targetStatus) {
-    if (targetStatus.equals("incomplete")) {
-      return Arrays.stream(todos).filter(x -> !x.status).toArray(Todo[]::new);
-    } else {
-      return Arrays.stream(todos).filter(x -> x.status).toArray(Todo[]::new);
+  public TodoSummary summarize(Map<String, List<String>> queryParams) {
+    if (queryParams.containsKey("contains")) {
+      Map<String, List<String>> filters = new HashMap<>(queryParams);
+      filters.keySet().retainAll(List.of("owner", "category", "status", "contains", "ignoreCase"));
+      return query(filters).summary();
+    }
+    Boolean complete = null;
+    if (queryParams.containsKey("status")) {
+      complete = !queryParams.get("status").get(0).equals("incomplete");
     }
+    State current = state;
+    String owner = first(queryParams, "owner");
+    String category = first(queryParams, "category");
+    TodoSummary summary = current.facets.summarize(owner, category, complete);
+    return current.overlay == null ? summary : current.overlay.adjust(summary, owner, category, complete);
   }
-/**
-   * Get an array of all the users having the target company.
- * @param filteredTodos
+
+  private static String first(Map<String, List<String>> queryParams, String name) {
+    return queryParams.containsKey(name) ? queryParams.get(name).get(0) : null;
+  }
+
+  /**
+   * Start recording how long each filter in a query takes (the `contains`
+   * timing covers narrowing with the trigram index; checking the bodies of
+   * what's left is part of walking the candidates, which is timed too).
    *
-   * @param todos         the list of users to filter by company
-   * @param targetContains  the target body to look for
-   * @return an array of all the users from the given list that have the target
+   * @param metrics where to keep the timings
    */
-  public Todo[] filterTodosByContains(Todo[] todos, String content) {
-    return Arrays.stream(todos).filter(x -> x.body.contains(content)).toArray(Todo[]::new);
+  public void recordTimings(Metrics metrics) {
+    timers = new QueryTimers(metrics);
   }
 
-/**
-   * Get an array of all the users having the target company.
- * @param filteredSorting
+  /**
+   * Check unindexed filters (i.e., `contains`) in parallel, in queries that
+   * leave enough candidates for them to be worth splitting up.
    *
-   * @param todos         the list of users to filter by company
-   * @param targetContent1  the target content to look for
-   * @return an array of all the users from the given list that have the target
+   * @param scan where to check them
    */
+  public void scanInParallel(ParallelScan scan) {
+    parallelScan = scan;
+  }
 
-  public Todo[] filterTodosBySorting(Todo[] todos, String content1) {
-    if (content1.equals("owner")) {
-      Arrays.sort(todos, Comparator.comparing(Todo::getOwner));
-      return todos;
-    } else if (content1.equals("status")) {
-      return Arrays.stream(todos).sorted(Comparator.comparing(Todo::getStatus)).toArray(Todo[]::new);
-    } else if (content1.equals("body")) {
-      return Arrays.stream(todos).sorted(Comparator.comparing(Todo::getBody)).toArray(Todo[]::new);
-    } else if (content1.equals("category")) {
-      return Arrays.stream(todos).sorted(Comparator.comparing(Todo::getCategory)).toArray(Todo[]::new);
-    } else {
-      throw new BadRequestResponse("nothing to sort");
+  private static int parseCount(String name, String value) {
+    int count;
+    try {
+      count = Integer.parseInt(value);
+    } catch (NumberFormatException e) {
+      throw new BadRequestResponse("Specified " + name + " '" + value + "' can't be parsed to an integer");
+    }
+    if (count < 0) {
+      throw new BadRequestResponse("Specified " + name + " '" + value + "' can't be negative");
     }
+    return count;
   }
 }
-
-
-
-
-
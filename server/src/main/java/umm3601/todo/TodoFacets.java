@@ -0,0 +1,193 @@
+package umm3601.todo;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import umm3601.Snapshot;
+
+/**
+ * The number of todos with each combination of owner, category, and status
+ * that occurs in a `TodoStore`, counted once when the store is indexed.
+ * <p>
+ * Any summary whose filters are only on those fields can be added up from
+ * these counts, so it costs as much as there are combinations (dozens, for
+ * the real data) rather than as much as there are todos. The counts can be
+ * written to a snapshot payload and `read` back, so a snapshot doesn't have
+ * to be counted again.
+ */
+final class TodoFacets {
+
+  // Each distinct owner and category, by its code, and the other way round
+  private final List<String> owners = new ArrayList<>();
+  private final List<String> categories = new ArrayList<>();
+  private final Map<String, Integer> ownerCodes = new HashMap<>();
+  private final Map<String, Integer> categoryCodes = new HashMap<>();
+
+  // One entry for each combination that occurs
+  private final int[] comboOwners;
+  private final int[] comboCategories;
+  private final boolean[] comboComplete;
+  private final int[] comboCounts;
+
+  /**
+   * Count the todos in a store.
+   *
+   * @param store the todos
+   */
+  TodoFacets(TodoStore store) {
+    // By owner code, category code, and status, packed into one key
+    Map<Long, int[]> counts = new HashMap<>();
+    for (int i = 0; i < store.size(); i++) {
+      int owner = code(ownerCodes, owners, store.owner(i));
+      int category = code(categoryCodes, categories, store.category(i));
+      long key = ((long) owner << Integer.SIZE) | ((long) category << 1) | (store.status(i) ? 1 : 0);
+      counts.computeIfAbsent(key, k -> new int[1])[0]++;
+    }
+    comboOwners = new int[counts.size()];
+    comboCategories = new int[counts.size()];
+    comboComplete = new boolean[counts.size()];
+    comboCounts = new int[counts.size()];
+    int combo = 0;
+    for (Map.Entry<Long, int[]> entry : counts.entrySet()) {
+      long key = entry.getKey();
+      comboOwners[combo] = (int) (key >>> Integer.SIZE);
+      // The low half of the key, without the status bit
+      comboCategories[combo] = (int) key >>> 1;
+      comboComplete[combo] = (key & 1) != 0;
+      comboCounts[combo] = entry.getValue()[0];
+      combo++;
+    }
+  }
+
+  private TodoFacets(List<String> owners, List<String> categories, int combinations) {
+    for (String owner : owners) {
+      code(ownerCodes, this.owners, owner);
+    }
+    for (String category : categories) {
+      code(categoryCodes, this.categories, category);
+    }
+    comboOwners = new int[combinations];
+    comboCategories = new int[combinations];
+    comboComplete = new boolean[combinations];
+    comboCounts = new int[combinations];
+  }
+
+  /**
+   * Write these counts to a snapshot payload, in the form `read` reads.
+   *
+   * @param out where to write them
+   * @throws IOException if they can't be written
+   */
+  void write(DataOutputStream out) throws IOException {
+    for (List<String> values : List.of(owners, categories)) {
+      out.writeInt(values.size());
+      for (String value : values) {
+        Snapshot.writeString(out, value);
+      }
+    }
+    out.writeInt(comboCounts.length);
+    for (int combo = 0; combo < comboCounts.length; combo++) {
+      out.writeInt(comboOwners[combo]);
+      out.writeInt(comboCategories[combo]);
+      out.writeBoolean(comboComplete[combo]);
+      out.writeInt(comboCounts[combo]);
+    }
+  }
+
+  /**
+   * Read counts written by `write`.
+   *
+   * @param in the payload, positioned at the counts; it's left positioned
+   *           just after them
+   * @return the counts
+   */
+  static TodoFacets read(ByteBuffer in) {
+    List<String> owners = readStrings(in);
+    List<String> categories = readStrings(in);
+    TodoFacets facets = new TodoFacets(owners, categories, in.getInt());
+    for (int combo = 0; combo < facets.comboCounts.length; combo++) {
+      facets.comboOwners[combo] = in.getInt();
+      facets.comboCategories[combo] = in.getInt();
+      facets.comboComplete[combo] = in.get() != 0;
+      facets.comboCounts[combo] = in.getInt();
+    }
+    return facets;
+  }
+
+  private static List<String> readStrings(ByteBuffer in) {
+    List<String> values = new ArrayList<>();
+    for (int count = in.getInt(); values.size() < count;) {
+      values.add(Snapshot.readString(in));
+    }
+    return values;
+  }
+
+  private static int code(Map<String, Integer> codes, List<String> values, String value) {
+    Integer code = codes.get(value);
+    if (code == null) {
+      code = values.size();
+      codes.put(value, code);
+      values.add(value);
+    }
+    return code;
+  }
+
+  /**
+   * The number of combinations of owner, category, and status there are
+   * todos for, i.e., what a summary costs.
+   *
+   * @return the number of combinations
+   */
+  int combinations() {
+    return comboCounts.length;
+  }
+
+  /**
+   * Summarize the todos that have the given owner, category, and status.
+   *
+   * @param owner    the owner to count the todos of, or null for any owner
+   * @param category the category to count the todos in, or null for any
+   * @param complete true or false to count only complete or incomplete
+   *                 todos, or null for either
+   * @return the summary
+   */
+  TodoSummary summarize(String owner, String category, Boolean complete) {
+    // Values that aren't there match nothing (and null means any value)
+    Integer ownerCode = owner == null ? Integer.valueOf(-1) : ownerCodes.get(owner);
+    Integer categoryCode = category == null ? Integer.valueOf(-1) : categoryCodes.get(category);
+    if (ownerCode == null || categoryCode == null) {
+      return new TodoSummary(0, Map.of(), Map.of(), 0);
+    }
+    int wantedOwner = ownerCode;
+    int wantedCategory = categoryCode;
+    int[] byOwner = new int[owners.size()];
+    int[] byCategory = new int[categories.size()];
+    int total = 0;
+    int totalComplete = 0;
+    for (int combo = 0; combo < comboCounts.length; combo++) {
+      if ((wantedOwner < 0 || comboOwners[combo] == wantedOwner)
+          && (wantedCategory < 0 || comboCategories[combo] == wantedCategory)
+          && (complete == null || comboComplete[combo] == complete)) {
+        int count = comboCounts[combo];
+        byOwner[comboOwners[combo]] += count;
+        byCategory[comboCategories[combo]] += count;
+        total += count;
+        totalComplete += comboComplete[combo] ? count : 0;
+      }
+    }
+    return new TodoSummary(total, byValue(owners, byOwner), byValue(categories, byCategory), totalComplete);
+  }
+
+  private static Map<String, Integer> byValue(List<String> values, int[] counts) {
+    Map<String, Integer> byValue = new HashMap<>();
+    for (int code = 0; code < counts.length; code++) {
+      byValue.put(values.get(code), counts[code]);
+    }
+    return byValue;
+  }
+}
@@ -0,0 +1,114 @@
+package umm3601.todo;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+
+import umm3601.Snapshot;
+
+/**
+ * One change to the todos: either putting a todo (adding it, or replacing
+ * the todo with the same ID) or deleting the todo with a given ID.
+ * <p>
+ * Mutations are idempotent, so replaying a write-ahead log that overlaps
+ * with what's already in a snapshot still ends up with the same todos.
+ */
+final class TodoMutation {
+
+  private static final byte PUT = 1;
+  private static final byte DELETE = 2;
+
+  private static final byte NO_STATUS = 0;
+  private static final byte INCOMPLETE = 1;
+  private static final byte COMPLETE = 2;
+
+  private final String id;
+  // The new todo, or null for a delete
+  private final Todo todo;
+
+  private TodoMutation(String id, Todo todo) {
+    this.id = id;
+    this.todo = todo;
+  }
+
+  /**
+   * Make a mutation that adds the given todo, or replaces the one with the
+   * same ID.
+   *
+   * @param todo the todo, which must already have its `_id`
+   * @return the mutation
+   */
+  static TodoMutation put(Todo todo) {
+    return new TodoMutation(todo._id, todo);
+  }
+
+  /**
+   * Make a mutation that deletes the todo with the given ID, if there is one.
+   *
+   * @param id the todo's ID
+   * @return the mutation
+   */
+  static TodoMutation delete(String id) {
+    return new TodoMutation(id, null);
+  }
+
+  String id() {
+    return id;
+  }
+
+  /**
+   * The todo being put.
+   *
+   * @return the todo, or null if this is a delete
+   */
+  Todo todo() {
+    return todo;
+  }
+
+  /**
+   * Encode this mutation as a write-ahead log record.
+   *
+   * @return the encoded mutation
+   */
+  byte[] encode() {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      out.writeByte(todo == null ? DELETE : PUT);
+      Snapshot.writeString(out, id);
+      if (todo != null) {
+        Snapshot.writeString(out, todo.owner);
+        out.writeByte(todo.status == null ? NO_STATUS : todo.status ? COMPLETE : INCOMPLETE);
+        Snapshot.writeString(out, todo.body);
+        Snapshot.writeString(out, todo.category);
+      }
+    } catch (IOException e) {
+      // Writing to a byte array can't actually fail
+      throw new UncheckedIOException(e);
+    }
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Decode a mutation encoded by `encode`.
+   *
+   * @param record the encoded mutation
+   * @return the mutation
+   */
+  static TodoMutation decode(ByteBuffer record) {
+    byte kind = record.get();
+    String id = Snapshot.readString(record);
+    if (kind == DELETE) {
+      return delete(id);
+    }
+    Todo todo = new Todo();
+    todo._id = id;
+    todo.owner = Snapshot.readString(record);
+    byte status = record.get();
+    todo.status = status == NO_STATUS ? null : status == COMPLETE;
+    todo.body = Snapshot.readString(record);
+    todo.category = Snapshot.readString(record);
+    return put(todo);
+  }
+}
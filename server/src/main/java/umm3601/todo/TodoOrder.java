@@ -0,0 +1,288 @@
+package umm3601.todo;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.IntFunction;
+import java.util.function.IntPredicate;
+
+import umm3601.SortOrder;
+
+/**
+ * The todos sorted by one of the fields `orderBy` accepts, with ties broken
+ * by `_id`, so every todo has a place in the order that a cursor can seek
+ * back to.
+ * <p>
+ * The order is a `SortOrder` precomputed over a base store, plus, if the
+ * todos have been changed since (see `TodoOverlay`), the changed todos'
+ * positions sorted on their own. Walking the order merges the two, skipping
+ * the base's out of date places for the changed positions. Applying a
+ * batch of changes then only has to sort the changed todos into their
+ * little list, rather than sort all the todos again.
+ */
+final class TodoOrder {
+
+  // Sort keys (and IDs) compare as text, with missing values first
+  private static final Comparator<CharSequence> BY_TEXT = Comparator.nullsFirst(CharSequence::compare);
+
+  private static final int[] NONE = {};
+
+  // The precomputed order of the base store's todos, and how to get each
+  // one's key there
+  private final SortOrder base;
+  private final TodoStore baseStore;
+  private final IntFunction<CharSequence> baseKey;
+
+  // The todos as they are now (with any changes), and how to get each one's key
+  private final TodoStore store;
+  private final IntFunction<CharSequence> key;
+
+  // The positions whose base places are out of date (or null if there
+  // aren't any), and the changed todos that are there now, in order
+  private final BitSet changed;
+  private final int[] changedInOrder;
+
+  /**
+   * Sort the todos in a store by one of their fields.
+   *
+   * @param todos the todos
+   * @param field the field, one of the keys of `keys`
+   */
+  TodoOrder(TodoStore todos, String field) {
+    this(todos, field, sort(todos, field));
+  }
+
+  /**
+   * Use a precomputed order of the todos in a store (e.g., from a snapshot).
+   *
+   * @param todos the todos
+   * @param field the field they're sorted by, one of the keys of `keys`
+   * @param order the todos' positions sorted by that field
+   */
+  TodoOrder(TodoStore todos, String field, SortOrder order) {
+    IntFunction<CharSequence> sortKey = keys(todos).get(field);
+    this.base = order;
+    this.baseStore = todos;
+    this.baseKey = sortKey;
+    this.store = todos;
+    this.key = sortKey;
+    this.changed = null;
+    this.changedInOrder = NONE;
+  }
+
+  private TodoOrder(TodoOrder previous, TodoOverlay overlay, IntFunction<CharSequence> key, int[] changedInOrder) {
+    this.base = previous.base;
+    this.baseStore = previous.baseStore;
+    this.baseKey = previous.baseKey;
+    this.store = overlay;
+    this.key = key;
+    this.changed = overlay.changed();
+    this.changedInOrder = changedInOrder;
+  }
+
+  private static SortOrder sort(TodoStore todos, String field) {
+    IntFunction<CharSequence> sortKey = keys(todos).get(field);
+    return new SortOrder(todos.size(), (a, b) -> compare(todos, sortKey, a, sortKey.apply(b), todos.id(b)));
+  }
+
+  /**
+   * The precomputed order of the todos the order was first made for, which
+   * is what a snapshot keeps.
+   *
+   * @return the precomputed order
+   */
+  SortOrder base() {
+    return base;
+  }
+
+  /**
+   * The fields `orderBy` accepts, and how to get each todo's value of it.
+   * Statuses sort as "false" and then "true", like booleans do.
+   *
+   * @param todos the todos
+   * @return how to get each todo's value of each field
+   */
+  static Map<String, IntFunction<CharSequence>> keys(TodoStore todos) {
+    Map<String, IntFunction<CharSequence>> keys = new HashMap<>();
+    keys.put("owner", todos::owner);
+    keys.put("status", position -> Boolean.toString(todos.status(position)));
+    keys.put("body", todos::body);
+    keys.put("category", todos::category);
+    return keys;
+  }
+
+  /**
+   * Compare the todo at a position to a sort key and ID: by the key, with
+   * ties broken by the ID.
+   *
+   * @param todos    the todos
+   * @param key      gets a todo's sort key
+   * @param position the position of the todo
+   * @param otherKey the key to compare it to
+   * @param otherId  the ID to compare it to
+   * @return a negative number, zero, or a positive number as the todo sorts
+   *         before, at, or after the other key and ID
+   */
+  static int compare(TodoStore todos, IntFunction<CharSequence> key, int position, CharSequence otherKey,
+      String otherId) {
+    int order = BY_TEXT.compare(key.apply(position), otherKey);
+    return order != 0 ? order : BY_TEXT.compare(todos.id(position), otherId);
+  }
+
+  /**
+   * Make the order of the todos with some more changes laid over them. Only
+   * the todos at the touched positions are sorted (and merged into the
+   * changed todos that were already sorted).
+   *
+   * @param overlay the todos with all the changes so far
+   * @param field   the field this order sorts by
+   * @param touched the positions changed since this order was made
+   * @return the new order
+   */
+  TodoOrder over(TodoOverlay overlay, String field, BitSet touched) {
+    IntFunction<CharSequence> newKey = keys(overlay).get(field);
+    Comparator<Integer> byKey = (a, b) -> compare(overlay, newKey, a, newKey.apply(b), overlay.id(b));
+    Integer[] added = touched.stream().filter(overlay::live).boxed().toArray(Integer[]::new);
+    Arrays.sort(added, byKey);
+
+    // Merge the newly sorted todos into the ones that were already sorted
+    // (leaving out any that have just been changed again)
+    int[] merged = new int[changedInOrder.length + added.length];
+    int length = 0;
+    int next = 0;
+    for (int position : changedInOrder) {
+      if (touched.get(position)) {
+        continue;
+      }
+      while (next < added.length && byKey.compare(added[next], position) < 0) {
+        merged[length++] = added[next++];
+      }
+      merged[length++] = position;
+    }
+    while (next < added.length) {
+      merged[length++] = added[next++];
+    }
+    return new TodoOrder(this, overlay, newKey, Arrays.copyOf(merged, length));
+  }
+
+  /**
+   * How to get each todo's value of the field this order sorts by.
+   *
+   * @return gets the value at a position
+   */
+  IntFunction<CharSequence> key() {
+    return key;
+  }
+
+  /**
+   * Check whether a position is in the precomputed order, i.e., whether
+   * `rankOf` works for it.
+   *
+   * @param position a position
+   * @return true if the todo there hasn't changed since the order was
+   *         precomputed
+   */
+  boolean precomputed(int position) {
+    return position < base.size() && (changed == null || !changed.get(position));
+  }
+
+  /**
+   * Get the rank of a position in the precomputed order.
+   *
+   * @param position a position for which `precomputed` is true
+   * @return its rank
+   */
+  int rankOf(int position) {
+    return base.rankOf(position);
+  }
+
+  /**
+   * Find where a sort key and ID fall in the precomputed order.
+   *
+   * @param sortKey the key
+   * @param id      the ID
+   * @return the first rank that doesn't sort before them
+   */
+  int seek(CharSequence sortKey, String id) {
+    return base.seek(position -> compare(baseStore, baseKey, position, sortKey, id) < 0);
+  }
+
+  /**
+   * Find where a sort key and ID fall among the changed todos.
+   *
+   * @param sortKey the key
+   * @param id      the ID
+   * @return the index of the first changed todo that doesn't sort before them
+   */
+  int seekChanged(CharSequence sortKey, String id) {
+    int low = 0;
+    int high = changedInOrder.length;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (compare(store, key, changedInOrder[middle], sortKey, id) < 0) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * Check how `forEach` walks the precomputed order for a set of positions
+   * of the given size (see `SortOrder.sortsMembers`).
+   *
+   * @param count the number of positions in the set
+   * @return true if the members' ranks are sorted
+   */
+  boolean sortsMembers(int count) {
+    return base.sortsMembers(count);
+  }
+
+  /**
+   * Visit the positions in the given set in order, starting at the given
+   * rank in the precomputed order and the given index in the changed todos,
+   * until the visitor asks to stop.
+   *
+   * @param members     the positions to visit
+   * @param fromRank    skip any precomputed positions ranked before this
+   * @param fromChanged skip any changed todos before this index
+   * @param visitor     called with each position; returns false to stop
+   */
+  void forEach(BitSet members, int fromRank, int fromChanged, IntPredicate visitor) {
+    if (changed == null) {
+      base.forEach(members, fromRank, visitor);
+      return;
+    }
+    int[] next = {fromChanged};
+    boolean[] stopped = {false};
+    base.forEach(members, fromRank, position -> {
+      if (changed.get(position)) {
+        // It's visited in its new place, among the changed todos
+        return true;
+      }
+      if (next[0] < changedInOrder.length) {
+        CharSequence positionKey = key.apply(position);
+        String id = store.id(position);
+        while (next[0] < changedInOrder.length
+            && compare(store, key, changedInOrder[next[0]], positionKey, id) < 0) {
+          if (!visitChanged(members, changedInOrder[next[0]++], visitor)) {
+            stopped[0] = true;
+            return false;
+          }
+        }
+      }
+      stopped[0] = !visitor.test(position);
+      return !stopped[0];
+    });
+    for (int i = next[0]; i < changedInOrder.length && !stopped[0]; i++) {
+      stopped[0] = !visitChanged(members, changedInOrder[i], visitor);
+    }
+  }
+
+  private static boolean visitChanged(BitSet members, int position, IntPredicate visitor) {
+    return !members.get(position) || visitor.test(position);
+  }
+}
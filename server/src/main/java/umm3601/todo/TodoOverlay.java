@@ -0,0 +1,300 @@
+package umm3601.todo;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * The todos in a `TodoStore` with some changes laid over them: todos
+ * replaced in place, todos deleted (which leaves a hole at their position),
+ * and new todos added at positions after the end of the store.
+ * <p>
+ * The store underneath (the "base") and all its indexes are left exactly
+ * as they were, so making a change only costs as much as the changes made
+ * since the base was built, not as much as there are todos. Queries use
+ * the base's indexes as they are and then look at the changed positions
+ * separately (see `recheck`). Once there are enough changes, they're merged
+ * into a new base (see `TodoDatabase.compact`), so that never gets slow.
+ * <p>
+ * Like the rest of a `TodoDatabase.State`, an overlay is never changed
+ * once it's published; `apply` makes a new one.
+ */
+final class TodoOverlay implements TodoStore {
+
+  private final TodoStore base;
+  private final IdIndex baseIds;
+
+  // Every position whose todo comes from the overlay rather than the base:
+  // the replaced and deleted positions in the base, and every added position
+  private final BitSet changed;
+
+  // The todo now at each changed position; deleted positions aren't in it
+  private final Map<Integer, Todo> todos;
+
+  // The position of each changed todo by ID, or -1 if it's been deleted
+  private final Map<String, Integer> positions;
+
+  // These only change while `apply` is making a new overlay
+  private int size;
+  private int holes;
+
+  /**
+   * Lay an (as yet empty) overlay over a store.
+   *
+   * @param base    the todos to change
+   * @param baseIds the index of their IDs
+   */
+  TodoOverlay(TodoStore base, IdIndex baseIds) {
+    this.base = base;
+    this.baseIds = baseIds;
+    this.changed = new BitSet();
+    this.todos = new HashMap<>();
+    this.positions = new HashMap<>();
+    this.size = base.size();
+  }
+
+  private TodoOverlay(TodoOverlay previous) {
+    this.base = previous.base;
+    this.baseIds = previous.baseIds;
+    this.changed = (BitSet) previous.changed.clone();
+    this.todos = new HashMap<>(previous.todos);
+    this.positions = new HashMap<>(previous.positions);
+    this.size = previous.size;
+    this.holes = previous.holes;
+  }
+
+  /**
+   * Make a new overlay with some more changes. Each put replaces the todo
+   * with the same ID in place, or adds the todo at the end if there isn't
+   * one; each delete removes the todo with its ID, if there is one.
+   *
+   * @param mutations the changes, in the order to make them
+   * @param touched   has the positions the changes were made at added to it
+   * @return the new overlay
+   */
+  TodoOverlay apply(List<TodoMutation> mutations, BitSet touched) {
+    TodoOverlay next = new TodoOverlay(this);
+    for (TodoMutation mutation : mutations) {
+      int position = next.find(mutation.id());
+      if (mutation.todo() == null) {
+        if (position >= 0) {
+          next.todos.remove(position);
+          next.positions.put(mutation.id(), -1);
+          next.holes++;
+        }
+      } else {
+        if (position < 0) {
+          position = next.size++;
+        }
+        next.todos.put(position, mutation.todo());
+        next.positions.put(mutation.id(), position);
+      }
+      if (position >= 0) {
+        next.changed.set(position);
+        touched.set(position);
+      }
+    }
+    return next;
+  }
+
+  /**
+   * Find the position of the todo with the given ID.
+   *
+   * @param id the ID to look for
+   * @return the position of that todo, or -1 if there isn't one
+   */
+  int find(String id) {
+    Integer position = positions.get(id);
+    return position != null ? position : baseIds.find(id);
+  }
+
+  /**
+   * The number of todos, not counting the holes left by deleted ones.
+   *
+   * @return the number of todos
+   */
+  int count() {
+    return size - holes;
+  }
+
+  /**
+   * The number of positions with changed (or deleted) todos, i.e., how
+   * much the overlay adds to the cost of each query.
+   *
+   * @return the number of changed positions
+   */
+  int changes() {
+    return todos.size() + holes;
+  }
+
+  /**
+   * The positions whose todos come from the overlay, which the base's
+   * indexes are out of date for.
+   *
+   * @return the changed positions; this mustn't be modified
+   */
+  BitSet changed() {
+    return changed;
+  }
+
+  /**
+   * Check whether there's a todo at a position, rather than a hole.
+   *
+   * @param position a position
+   * @return true if there's a todo there
+   */
+  boolean live(int position) {
+    return !changed.get(position) || todos.containsKey(position);
+  }
+
+  /**
+   * Correct a set of candidates found with the base's indexes at the changed
+   * positions: a changed position is a candidate if it has a todo that
+   * passes the filters the indexes were used for.
+   *
+   * @param candidates the candidates, which are corrected in place
+   * @param filters    checks a todo against the indexed filters
+   */
+  void recheck(BitSet candidates, Predicate<Todo> filters) {
+    for (int i = changed.nextSetBit(0); i >= 0; i = changed.nextSetBit(i + 1)) {
+      Todo todo = todos.get(i);
+      candidates.set(i, todo != null && filters.test(todo));
+    }
+  }
+
+  /**
+   * Correct a summary of the base's todos for the changes: take off the
+   * base's todos that were replaced or deleted, and add on the todos that
+   * are there now.
+   *
+   * @param summary  the summary of the base's todos with these filters
+   * @param owner    the owner to count the todos of, or null for any owner
+   * @param category the category to count the todos in, or null for any
+   * @param complete true or false to count only complete or incomplete
+   *                 todos, or null for either
+   * @return the summary of all the todos
+   */
+  TodoSummary adjust(TodoSummary summary, String owner, String category, Boolean complete) {
+    Map<String, Integer> owners = new HashMap<>(summary.owner);
+    Map<String, Integer> categories = new HashMap<>(summary.category);
+    int[] totals = {summary.total, summary.status.get("complete")};
+    for (int i = changed.nextSetBit(0); i >= 0 && i < base.size(); i = changed.nextSetBit(i + 1)) {
+      Todo replaced = base.get(i);
+      if (matches(replaced, owner, category, complete)) {
+        count(owners, categories, totals, replaced, -1);
+      }
+    }
+    for (Todo todo : todos.values()) {
+      if (matches(todo, owner, category, complete)) {
+        count(owners, categories, totals, todo, 1);
+      }
+    }
+    return new TodoSummary(totals[0], owners, categories, totals[1]);
+  }
+
+  private static boolean matches(Todo todo, String owner, String category, Boolean complete) {
+    return (owner == null || owner.equals(todo.owner))
+        && (category == null || category.equals(todo.category))
+        && (complete == null || complete == Boolean.TRUE.equals(todo.status));
+  }
+
+  // Count a todo `by` times (i.e., take it off for -1) in the totals and
+  // in the counts for its owner and category. A todo with no owner (or
+  // category) only counts in the total, but the maps take null keys, and
+  // the summary leaves them out.
+  private static void count(Map<String, Integer> owners, Map<String, Integer> categories, int[] totals,
+      Todo todo, int by) {
+    owners.merge(todo.owner, by, Integer::sum);
+    categories.merge(todo.category, by, Integer::sum);
+    totals[0] += by;
+    totals[1] += Boolean.TRUE.equals(todo.status) ? by : 0;
+  }
+
+  /**
+   * All the todos, with the changes made, in position order (leaving out
+   * the holes), for merging into a new base.
+   *
+   * @return the todos
+   */
+  Todo[] merge() {
+    Todo[] merged = new Todo[count()];
+    int next = 0;
+    for (int i = 0; i < size; i++) {
+      if (!changed.get(i)) {
+        merged[next++] = base.get(i);
+      } else if (todos.containsKey(i)) {
+        merged[next++] = todos.get(i);
+      }
+    }
+    return merged;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public Todo get(int position) {
+    return changed.get(position) ? todos.get(position) : base.get(position);
+  }
+
+  @Override
+  public String id(int position) {
+    if (!changed.get(position)) {
+      return base.id(position);
+    }
+    Todo todo = todos.get(position);
+    return todo == null ? null : todo._id;
+  }
+
+  @Override
+  public String owner(int position) {
+    if (!changed.get(position)) {
+      return base.owner(position);
+    }
+    Todo todo = todos.get(position);
+    return todo == null ? null : todo.owner;
+  }
+
+  @Override
+  public String category(int position) {
+    if (!changed.get(position)) {
+      return base.category(position);
+    }
+    Todo todo = todos.get(position);
+    return todo == null ? null : todo.category;
+  }
+
+  @Override
+  public boolean status(int position) {
+    if (!changed.get(position)) {
+      return base.status(position);
+    }
+    Todo todo = todos.get(position);
+    return todo != null && Boolean.TRUE.equals(todo.status);
+  }
+
+  @Override
+  public CharSequence body(int position) {
+    if (!changed.get(position)) {
+      return base.body(position);
+    }
+    Todo todo = todos.get(position);
+    return todo == null ? null : todo.body;
+  }
+
+  @Override
+  public boolean bodyContains(int position, String target, boolean ignoreCase) {
+    if (!changed.get(position)) {
+      return base.bodyContains(position, target, ignoreCase);
+    }
+    Todo todo = todos.get(position);
+    if (todo == null || todo.body == null) {
+      return false;
+    }
+    return ignoreCase ? TrigramIndex.containsIgnoreCase(todo.body, target) : todo.body.contains(target);
+  }
+}
@@ -0,0 +1,76 @@
+package umm3601.todo;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * How `TodoDatabase.query` decided to answer a query, and how that went
+ * when it was run. This is what `/api/todos?explain=true` responds with
+ * instead of the todos.
+ * <p>
+ * The indexed filters (`steps`) each narrow down a set of candidate
+ * positions, in the order they were applied: the filter expected to leave
+ * the fewest todos first. Then the candidates are walked (in sort order, if
+ * there is one), checking the `residual` filter, until the page is full.
+ */
+@SuppressWarnings({"VisibilityModifier"})
+public class TodoPlan {
+
+  /**
+   * One filter that narrowed down the candidates (or was skipped).
+   */
+  @SuppressWarnings({"VisibilityModifier"})
+  public static class Step {
+    static final String INDEX = "index";
+    static final String SCAN = "scan";
+    static final String SKIPPED = "skipped";
+
+    /** The filter, e.g., `owner = Fry`. */
+    public final String filter;
+    /** `index`, `scan` (checked on each candidate while walking), or `skipped`. */
+    public String path;
+    /** How many todos the statistics said would be left after this step. */
+    public final long estimatedRows;
+    /** How many candidates were actually left after this step. */
+    public int rows;
+    /** How long the step took. */
+    public double micros;
+
+    Step(String filter, long estimatedRows) {
+      this.filter = filter;
+      this.estimatedRows = estimatedRows;
+    }
+  }
+
+  /** The number of todos in the data that was queried. */
+  public final int todos;
+  /** The indexed filters, in the order they were applied. */
+  public final List<Step> steps = new ArrayList<>();
+  /** The filter checked on each candidate while walking, if there is one. */
+  public String residual;
+  /** How the candidates are walked. */
+  public String walk;
+  /** The number of matches skipped before the page starts. */
+  public int offset;
+  /** The most todos on the page, or null if there's no limit. */
+  public Integer limit;
+  /** How long planning took, including the indexed filters. */
+  public double planMicros;
+
+  /** Whether the residual filter was checked on every candidate in parallel, before walking. */
+  public boolean parallel;
+  /** The number of candidates left for the walk. */
+  public int candidates;
+  /** How many candidates the walk looked at before the page was full. */
+  public int examined;
+  /** How many todos were on the page. */
+  public int returned;
+  /** How many todos matched in all, ignoring paging. */
+  public int matched;
+  /** How long the walk took, including making each todo on the page. */
+  public double walkMicros;
+
+  TodoPlan(int todos) {
+    this.todos = todos;
+  }
+}
@@ -0,0 +1,405 @@
+package umm3601.todo;
+
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.function.IntPredicate;
+
+import umm3601.Cursors;
+import umm3601.EncodedRecords;
+import umm3601.LatencyHistogram;
+import umm3601.PagedQuery;
+import umm3601.ParallelScan;
+import umm3601.StreamingJson;
+
+/**
+ * A todo query that has been planned against a `TodoDatabase` but not yet
+ * run.
+ * <p>
+ * The indexed filters have already narrowed things down to a set of
+ * candidate positions; running the query walks those candidates (in sort
+ * order if there is one), checks any unindexed filter, and hands each
+ * matching todo on until the page is full. That walk can either fill
+ * an array, feed the todos straight to a consumer, or write their
+ * already-serialized JSON straight to a response stream, without ever
+ * holding the whole result.
+ * <p>
+ * A page is described by a `limit` and either an `offset` (a number of
+ * matching todos to skip) or a cursor (the todo to start at; see
+ * `Cursors`). Starting from a cursor only costs as much as the page itself.
+ * <p>
+ * If there are enough candidates left for an unindexed filter, it's checked
+ * on all of them at once, in parallel (see `ParallelScan`), the first time
+ * the query needs it; the walks then just go through the matches. That
+ * gives up stopping early, but the total count the list endpoints send has
+ * to check every candidate anyway (though only on the first page of a
+ * search; see `TotalCounts`).
+ */
+public class TodoQuery implements PagedQuery<Todo> {
+
+  private static final double NANOS_PER_MICRO = 1000;
+
+  private final TodoStore todos;
+  private final EncodedRecords encoded;
+  private final long version;
+  private final BitSet candidates;
+  private final IntPredicate filter;
+  private final int fromRank;
+  private int fromChanged;
+  private final int offset;
+  private final int limit;
+
+  // The order to walk the todos in, or null for their original order
+  private TodoOrder order;
+
+  // The position of the first todo after this page, or -1 if there isn't
+  // one. This is null until some walk has found out.
+  private Integer nextPosition;
+  private Integer totalCount;
+
+  // Where the total counts of queries like this one are kept, if anywhere,
+  // and this query's filters, which it's kept under
+  private TotalCounts counts;
+  private List<String> countKey;
+
+  // Where to record how long each walk over the candidates takes, if anywhere
+  private LatencyHistogram walkTimer;
+
+  // Where to check an unindexed filter in parallel, if anywhere, and the
+  // candidates that pass it, once they've been found that way
+  private ParallelScan scan;
+  private BitSet matches;
+
+  // How the query was planned, and the number of candidates the last walk
+  // looked at, for `explain`
+  private TodoPlan plan;
+  private int examined;
+
+  /**
+   * Construct a query over the given todos.
+   *
+   * @param state      the database state (version of the data) to query
+   * @param candidates the positions in the store that pass the indexed filters
+   * @param filter     the combined unindexed filter (on positions), or null if
+   *                   there isn't one
+   * @param fromRank   the rank in the sort order's precomputed part (or the
+   *                   position, if there isn't an order) to start at
+   * @param offset     the number of matching todos to skip
+   * @param limit      the maximum number of todos to return
+   */
+  TodoQuery(TodoDatabase.State state, BitSet candidates, IntPredicate filter, int fromRank, int offset,
+      int limit) {
+    this.todos = state.store();
+    this.encoded = state.encoded();
+    this.version = state.version();
+    this.candidates = candidates;
+    this.filter = filter;
+    this.fromRank = fromRank;
+    this.offset = offset;
+    this.limit = limit;
+  }
+
+  /**
+   * Return the todos in a sort order, rather than their original order.
+   *
+   * @param sortOrder   the order
+   * @param changedFrom the index in the order's changed todos (see
+   *                    `TodoOrder`) to start at
+   * @return this query
+   */
+  TodoQuery along(TodoOrder sortOrder, int changedFrom) {
+    this.order = sortOrder;
+    this.fromChanged = changedFrom;
+    return this;
+  }
+
+  /**
+   * Look up (and keep) the total count of this query's matches in the
+   * counts for its version of the data.
+   *
+   * @param totalCounts the counts
+   * @param filters     this query's filters, which its count is kept under
+   * @return this query
+   */
+  TodoQuery countIn(TotalCounts totalCounts, List<String> filters) {
+    this.counts = totalCounts;
+    this.countKey = filters;
+    return this;
+  }
+
+  /**
+   * Record how long this query takes to run, every time it's run.
+   *
+   * @param timer where to record the durations
+   * @return this query
+   */
+  TodoQuery timeWalks(LatencyHistogram timer) {
+    this.walkTimer = timer;
+    return this;
+  }
+
+  /**
+   * Check the unindexed filter in parallel when there are enough candidates.
+   *
+   * @param parallelScan where to check it
+   * @return this query
+   */
+  TodoQuery scanWith(ParallelScan parallelScan) {
+    this.scan = parallelScan;
+    return this;
+  }
+
+  /**
+   * Keep the plan this query was made from, for `explain`.
+   *
+   * @param queryPlan how the query was planned
+   * @return this query
+   */
+  TodoQuery withPlan(TodoPlan queryPlan) {
+    this.plan = queryPlan;
+    return this;
+  }
+
+  /**
+   * Run the query (without sending the todos anywhere), and describe how it
+   * was planned and run: which filters were applied in what order and how
+   * many todos each left, how the candidates were walked and how many of
+   * them the walk looked at before the page was full, and how long each
+   * part took.
+   *
+   * @return the plan, with the results of running it
+   */
+  public TodoPlan explain() {
+    long start = System.nanoTime();
+    int[] returned = {0};
+    forEach(todo -> returned[0]++);
+    plan.walkMicros = (System.nanoTime() - start) / NANOS_PER_MICRO;
+    plan.candidates = candidates.cardinality();
+    plan.examined = examined;
+    plan.returned = returned[0];
+    plan.matched = totalCount();
+    plan.parallel = matches != null;
+    if (order != null) {
+      plan.walk += order.sortsMembers(plan.candidates) ? ", sorting the candidates' ranks"
+          : ", checking each rank for candidates";
+    }
+    return plan;
+  }
+
+  /**
+   * The version of the database's data this query runs against. That can
+   * be older than the database's current version if the data has been
+   * reloaded since the query was planned.
+   *
+   * @return the data version
+   */
+  @Override
+  public long version() {
+    return version;
+  }
+
+  /**
+   * An upper bound on the number of todos this query returns, which can be
+   * found without checking any unindexed filters.
+   *
+   * @return the most todos this query could return
+   */
+  @Override
+  public int maxSize() {
+    return Math.min(candidates.cardinality(), limit);
+  }
+
+  /**
+   * The number of todos matching the filters, ignoring any paging. This is
+   * free when all the filters are indexed; otherwise the unindexed filter is
+   * checked on every candidate, unless a query with the same filters has
+   * already counted them in this version of the data.
+   *
+   * @return the total number of matching todos
+   */
+  @Override
+  public int totalCount() {
+    if (totalCount == null && counts != null) {
+      totalCount = counts.get(countKey);
+    }
+    if (totalCount == null) {
+      if (filter == null) {
+        totalCount = candidates.cardinality();
+      } else if (scanInParallel()) {
+        totalCount = matches.cardinality();
+      } else {
+        long start = System.nanoTime();
+        int count = 0;
+        for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+          if (filter.test(i)) {
+            count++;
+          }
+        }
+        totalCount = count;
+        recordWalk(start);
+      }
+      if (counts != null) {
+        counts.put(countKey, totalCount);
+      }
+    }
+    return totalCount;
+  }
+
+  /**
+   * Count all the todos matching the filters (ignoring any paging) by
+   * owner, by category, and by status.
+   *
+   * @return the counts
+   */
+  public TodoSummary summary() {
+    BitSet positions = scanInParallel() ? matches : candidates;
+    IntPredicate check = matches != null ? null : filter;
+    long start = System.nanoTime();
+    Map<String, Integer> owners = new HashMap<>();
+    Map<String, Integer> categories = new HashMap<>();
+    int total = 0;
+    int complete = 0;
+    for (int i = positions.nextSetBit(0); i >= 0; i = positions.nextSetBit(i + 1)) {
+      if (check == null || check.test(i)) {
+        owners.merge(todos.owner(i), 1, Integer::sum);
+        categories.merge(todos.category(i), 1, Integer::sum);
+        total++;
+        complete += todos.status(i) ? 1 : 0;
+      }
+    }
+    recordWalk(start);
+    return new TodoSummary(total, owners, categories, complete);
+  }
+
+  /**
+   * Get a cursor for the page after this one.
+   *
+   * @return the cursor, or null if this is the last page
+   */
+  @Override
+  public String nextCursor() {
+    if (nextPosition == null) {
+      if (limit == Integer.MAX_VALUE) {
+        nextPosition = -1;
+      } else {
+        forEach(todo -> { });
+      }
+    }
+    if (nextPosition < 0) {
+      return null;
+    }
+    CharSequence key = order == null ? null : order.key().apply(nextPosition);
+    return Cursors.encode(new Cursors.Cursor(version, nextPosition, todos.id(nextPosition),
+        key == null ? null : key.toString()));
+  }
+
+  /**
+   * Run the query, passing each matching todo on the page to the given
+   * action in order.
+   *
+   * @param action what to do with each todo
+   */
+  public void forEach(Consumer<? super Todo> action) {
+    forEachPosition(position -> action.accept(todos.get(position)));
+  }
+
+  /**
+   * Run the query, writing the matching todos on the page to a stream as
+   * JSON. If the todos were already serialized when the data was loaded,
+   * this just copies their bytes, without making any `Todo`s; otherwise
+   * each one is serialized as it's written.
+   *
+   * @param out    where to write the todos; it's flushed, but not closed
+   * @param ndjson true to write newline delimited JSON instead of an array
+   */
+  @Override
+  public void writeJson(OutputStream out, boolean ndjson) {
+    if (encoded != null) {
+      encoded.write(out, ndjson, this::forEachPosition);
+    } else {
+      StreamingJson.write(out, ndjson, records -> forEachPosition(position -> records.accept(todos.get(position))));
+    }
+  }
+
+  private void forEachPosition(IntConsumer action) {
+    BitSet positions = scanInParallel() ? matches : candidates;
+    IntPredicate check = matches != null ? null : filter;
+    int[] seen = {0};
+    nextPosition = -1;
+    examined = 0;
+    walk(positions, position -> {
+      examined++;
+      if (check != null && !check.test(position)) {
+        return true;
+      }
+      seen[0]++;
+      if (seen[0] > (long) offset + limit) {
+        // This is the first todo on the next page
+        nextPosition = position;
+        return false;
+      }
+      if (seen[0] > offset) {
+        action.accept(position);
+      }
+      return true;
+    });
+  }
+
+  /**
+   * Run the query, collecting the matching todos on the page in an array.
+   *
+   * @return the matching todos, in order
+   */
+  @Override
+  public Todo[] toArray() {
+    Todo[] result = new Todo[maxSize()];
+    int[] count = {0};
+    forEach(todo -> result[count[0]++] = todo);
+    return count[0] == result.length ? result : Arrays.copyOf(result, count[0]);
+  }
+
+  /**
+   * Walk the candidates once, either in their original order or along the
+   * precomputed sort order, stopping as soon as the visitor says to. So
+   * `orderBy` never sorts anything at request time, and a page only checks
+   * the filter on as many todos as it takes to fill it.
+   *
+   * @param positions the candidates, or just those that match, if they've
+   *                  been found already
+   * @param visitor   called with each position; returns false to stop
+   */
+  private void walk(BitSet positions, IntPredicate visitor) {
+    long start = System.nanoTime();
+    if (order != null) {
+      order.forEach(positions, fromRank, fromChanged, visitor);
+    } else {
+      int i = positions.nextSetBit(fromRank);
+      while (i >= 0 && visitor.test(i)) {
+        i = positions.nextSetBit(i + 1);
+      }
+    }
+    recordWalk(start);
+  }
+
+  // Check the unindexed filter on all the candidates in parallel, unless
+  // it's been done already, or there's no filter or too few candidates
+  private boolean scanInParallel() {
+    if (matches == null && filter != null && scan != null && scan.worthIt(candidates.cardinality())) {
+      long start = System.nanoTime();
+      matches = scan.filter(candidates, filter);
+      recordWalk(start);
+    }
+    return matches != null;
+  }
+
+  private void recordWalk(long start) {
+    if (walkTimer != null) {
+      walkTimer.record(System.nanoTime() - start);
+    }
+  }
+}
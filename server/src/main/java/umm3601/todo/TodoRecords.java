@@ -0,0 +1,72 @@
+package umm3601.todo;
+
+import java.io.IOException;
+import java.util.function.Consumer;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import umm3601.JsonLoader;
+
+/**
+ * Turns the fields streamed by a `JsonLoader` into todos.
+ * <p>
+ * When the todos are going into a store that just copies their fields
+ * (like a `TodoColumnStore.Builder`), one `Todo` is reused for every
+ * record, so loading doesn't allocate an object per todo at all.
+ */
+class TodoRecords implements JsonLoader.RecordHandler {
+
+  private final Consumer<Todo> sink;
+  private final boolean reuse;
+  private Todo current = new Todo();
+
+  /**
+   * Construct a handler that passes each todo on to the given sink.
+   *
+   * @param sink  receives each complete todo
+   * @param reuse true if the sink doesn't keep the `Todo` it's given, so it
+   *              can be reused for the next record
+   */
+  TodoRecords(Consumer<Todo> sink, boolean reuse) {
+    this.sink = sink;
+    this.reuse = reuse;
+  }
+
+  @Override
+  public void field(String name, JsonParser parser) throws IOException {
+    switch (name) {
+      case "_id":
+        current._id = parser.getValueAsString();
+        break;
+      case "owner":
+        current.owner = parser.getValueAsString();
+        break;
+      case "status":
+        current.status = parser.currentToken() == JsonToken.VALUE_NULL ? null : parser.getValueAsBoolean();
+        break;
+      case "body":
+        current.body = parser.getValueAsString();
+        break;
+      case "category":
+        current.category = parser.getValueAsString();
+        break;
+      default:
+        break;
+    }
+  }
+
+  @Override
+  public void endRecord() {
+    sink.accept(current);
+    if (reuse) {
+      current._id = null;
+      current.owner = null;
+      current.status = null;
+      current.body = null;
+      current.category = null;
+    } else {
+      current = new Todo();
+    }
+  }
+}
@@ -0,0 +1,302 @@
+package umm3601.todo;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntFunction;
+
+import umm3601.EncodedRecords;
+import umm3601.Snapshot;
+
+/**
+ * A `TodoStore` that reads the todos straight out of a (memory mapped)
+ * snapshot.
+ * <p>
+ * The snapshot's payload has three sections. The first has the same
+ * columns as a `TodoColumnStore`, one after the other: the todo count, the
+ * owner dictionary and codes, the category dictionary and codes, the status
+ * bits, and then the packed IDs and bodies (the start of each string,
+ * followed by all of the characters). The second has the todos already
+ * serialized to JSON (see `EncodedRecords`), so responses can copy them
+ * straight from the mapped pages as well. The third has the indexes over
+ * the todos, which `TodoDatabase.State` writes and reads, so a database
+ * opened from a snapshot doesn't have to build them.
+ * <p>
+ * Opening a store only decodes the two small dictionaries; everything else
+ * is read from the mapped pages on demand, so the todos never have to be
+ * loaded onto the heap at all. Each section is mapped on its own, so it
+ * can be at most 2 GB (see `Snapshot`), which is about a billion
+ * characters of bodies; the sections put together can be much bigger.
+ */
+public final class TodoSnapshotStore implements TodoStore {
+
+  private static final int BITS_PER_WORD = Long.SIZE;
+
+  // The columns, the encoded todos, and the indexes
+  private static final int SECTIONS = 3;
+
+  private final int size;
+  private final String[] ownerDictionary;
+  private final IntBuffer ownerCodes;
+  private final String[] categoryDictionary;
+  private final IntBuffer categoryCodes;
+  private final LongBuffer statusWords;
+  private final IntBuffer idStarts;
+  private final CharBuffer idChars;
+  private final IntBuffer bodyStarts;
+  private final CharBuffer bodyChars;
+  private final EncodedRecords encoded;
+  private final ByteBuffer indexes;
+
+  // The store reads from the sections directly, so they mustn't change
+  // while the store is in use
+  private TodoSnapshotStore(ByteBuffer[] sections) {
+    ByteBuffer in = sections[0].duplicate();
+    size = in.getInt();
+    ownerDictionary = readDictionary(in);
+    ownerCodes = Snapshot.readInts(in, size);
+    categoryDictionary = readDictionary(in);
+    categoryCodes = Snapshot.readInts(in, size);
+    statusWords = Snapshot.slice(in, words(size) * Long.BYTES).asLongBuffer();
+    idStarts = Snapshot.readInts(in, size + 1);
+    idChars = chars(in);
+    bodyStarts = Snapshot.readInts(in, size + 1);
+    bodyChars = chars(in);
+    encoded = EncodedRecords.read(sections[1].duplicate());
+    indexes = sections[2];
+  }
+
+  /**
+   * Open the todos in a snapshot written by `write`, if it's there and up
+   * to date.
+   *
+   * @param file   the snapshot file
+   * @param source the current version of the source the todos came from
+   * @return the todos, or null if there's no usable snapshot
+   */
+  public static TodoSnapshotStore open(Path file, Snapshot.Source source) {
+    ByteBuffer[] sections = Snapshot.openSections(file, source);
+    return sections == null || sections.length != SECTIONS ? null : new TodoSnapshotStore(sections);
+  }
+
+  /**
+   * Write the todos in a store to a snapshot, indexing them to write the
+   * indexes as well.
+   *
+   * @param file   where to write the snapshot
+   * @param source the source the todos came from
+   * @param store  the todos
+   * @throws IOException if the snapshot can't be written
+   */
+  public static void write(Path file, Snapshot.Source source, TodoStore store) throws IOException {
+    write(file, source, TodoDatabase.State.of(store, null, false));
+  }
+
+  /**
+   * Write the todos in a database's state to a snapshot, along with their
+   * indexes. Their JSON is copied from the state's encodings, if it has
+   * them, rather than serializing them again.
+   *
+   * @param file   where to write the snapshot
+   * @param source the source the todos came from
+   * @param state  the todos and their indexes, with no changes laid over
+   *               them
+   * @throws IOException if the snapshot can't be written
+   */
+  static void write(Path file, Snapshot.Source source, TodoDatabase.State state) throws IOException {
+    TodoStore store = state.store();
+    EncodedRecords encodedTodos = state.encoded();
+    Snapshot.write(file, source,
+        out -> writeColumns(store, out),
+        out -> {
+          if (encodedTodos != null) {
+            encodedTodos.write(out);
+          } else {
+            EncodedRecords.write(out, store.size(), store::get);
+          }
+        },
+        state::writeIndexes);
+  }
+
+  private static void writeColumns(TodoStore store, DataOutputStream out) throws IOException {
+    int size = store.size();
+    out.writeInt(size);
+    writeDictionaryColumn(out, size, store::owner);
+    writeDictionaryColumn(out, size, store::category);
+    for (int word = 0; word < words(size); word++) {
+      long bits = 0;
+      for (int bit = 0; bit < BITS_PER_WORD && word * BITS_PER_WORD + bit < size; bit++) {
+        if (store.status(word * BITS_PER_WORD + bit)) {
+          bits |= 1L << bit;
+        }
+      }
+      out.writeLong(bits);
+    }
+    writePackedColumn(out, size, store::id);
+    writePackedColumn(out, size, store::body);
+  }
+
+  /**
+   * The todos serialized to JSON, read straight from the payload.
+   *
+   * @return the encoded todos
+   */
+  public EncodedRecords encoded() {
+    return encoded;
+  }
+
+  // The indexes over the todos, for `TodoDatabase.State` to read
+  ByteBuffer indexes() {
+    return indexes.duplicate();
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public Todo get(int position) {
+    Todo todo = new Todo();
+    todo._id = id(position);
+    todo.owner = owner(position);
+    todo.status = status(position);
+    CharSequence body = body(position);
+    todo.body = body == null ? null : body.toString();
+    todo.category = category(position);
+    return todo;
+  }
+
+  @Override
+  public String id(int position) {
+    CharSequence id = view(idStarts, idChars, position);
+    return id == null ? null : id.toString();
+  }
+
+  @Override
+  public String owner(int position) {
+    return ownerDictionary[ownerCodes.get(position)];
+  }
+
+  @Override
+  public String category(int position) {
+    return categoryDictionary[categoryCodes.get(position)];
+  }
+
+  @Override
+  public boolean status(int position) {
+    return (statusWords.get(position / BITS_PER_WORD) & (1L << (position % BITS_PER_WORD))) != 0;
+  }
+
+  @Override
+  public CharSequence body(int position) {
+    return view(bodyStarts, bodyChars, position);
+  }
+
+  @Override
+  public boolean bodyContains(int position, String target, boolean ignoreCase) {
+    int start = bodyStarts.get(position);
+    if (start < 0) {
+      return false;
+    }
+    int last = start(bodyStarts, position + 1) - target.length();
+    for (int from = start; from <= last; from++) {
+      int j = 0;
+      while (j < target.length() && same(bodyChars.get(from + j), target.charAt(j), ignoreCase)) {
+        j++;
+      }
+      if (j == target.length()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean same(char a, char b, boolean ignoreCase) {
+    return a == b || (ignoreCase && Character.toLowerCase(a) == Character.toLowerCase(b));
+  }
+
+  private static int words(int size) {
+    return (size + BITS_PER_WORD - 1) / BITS_PER_WORD;
+  }
+
+  // A negative start means the string is null, and encodes where the next
+  // string starts (as in `TodoColumnStore`)
+  private static int start(IntBuffer starts, int i) {
+    int start = starts.get(i);
+    return start < 0 ? -1 - start : start;
+  }
+
+  private static CharSequence view(IntBuffer starts, CharBuffer chars, int i) {
+    int start = starts.get(i);
+    return start < 0 ? null : chars.subSequence(start, start(starts, i + 1));
+  }
+
+  private static CharBuffer chars(ByteBuffer in) {
+    int count = in.getInt();
+    return Snapshot.slice(in, count * Character.BYTES).asCharBuffer();
+  }
+
+  private static String[] readDictionary(ByteBuffer in) {
+    String[] dictionary = new String[in.getInt()];
+    for (int i = 0; i < dictionary.length; i++) {
+      dictionary[i] = Snapshot.readString(in);
+    }
+    return dictionary;
+  }
+
+  private static void writeDictionaryColumn(DataOutputStream out, int size, IntFunction<String> column)
+      throws IOException {
+    Map<String, Integer> dictionary = new HashMap<>();
+    List<String> values = new ArrayList<>();
+    int[] codes = new int[size];
+    for (int i = 0; i < size; i++) {
+      String value = column.apply(i);
+      Integer code = dictionary.get(value);
+      if (code == null) {
+        code = values.size();
+        dictionary.put(value, code);
+        values.add(value);
+      }
+      codes[i] = code;
+    }
+    out.writeInt(values.size());
+    for (String value : values) {
+      Snapshot.writeString(out, value);
+    }
+    for (int code : codes) {
+      out.writeInt(code);
+    }
+  }
+
+  private static void writePackedColumn(DataOutputStream out, int size, IntFunction<? extends CharSequence> column)
+      throws IOException {
+    int length = 0;
+    for (int i = 0; i < size; i++) {
+      CharSequence value = column.apply(i);
+      if (value == null) {
+        out.writeInt(-1 - length);
+      } else {
+        out.writeInt(length);
+        length += value.length();
+      }
+    }
+    out.writeInt(length);
+    // The character count, then the characters
+    out.writeInt(length);
+    for (int i = 0; i < size; i++) {
+      CharSequence value = column.apply(i);
+      for (int j = 0; value != null && j < value.length(); j++) {
+        out.writeChar(value.charAt(j));
+      }
+    }
+  }
+}
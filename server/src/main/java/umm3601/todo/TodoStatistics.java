@@ -0,0 +1,132 @@
+package umm3601.todo;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Statistics about each field of the todos in a `TodoStore`, gathered once
+ * when the store is indexed: how often each owner and category occurs (and
+ * so how many distinct ones there are), how many todos are complete, and
+ * how long the bodies are on average.
+ * <p>
+ * `TodoDatabase.query` uses these to guess how many todos each filter will
+ * leave, which decides the order it applies them in and whether searching
+ * the bodies is cheaper through the trigram index or by just checking them.
+ * Everything but the average body length comes from the field indexes, so
+ * that's all a snapshot has to keep (see `TodoDatabase.State`).
+ */
+final class TodoStatistics {
+
+  private final int size;
+  private final Map<String, Integer> owners = new HashMap<>();
+  private final Map<String, Integer> categories = new HashMap<>();
+  private final int complete;
+  private final double averageBodyLength;
+
+  /**
+   * Gather the statistics from a store and its field indexes.
+   *
+   * @param store      the todos
+   * @param byOwner    the positions of the todos with each owner
+   * @param byCategory the positions of the todos in each category
+   * @param completed  the positions of the complete todos
+   */
+  TodoStatistics(TodoStore store, Map<String, BitSet> byOwner, Map<String, BitSet> byCategory, BitSet completed) {
+    this(store.size(), byOwner, byCategory, completed, averageBodyLength(store));
+  }
+
+  /**
+   * Gather the statistics from the field indexes, given the average body
+   * length (e.g., from a snapshot).
+   *
+   * @param size              the number of todos
+   * @param byOwner           the positions of the todos with each owner
+   * @param byCategory        the positions of the todos in each category
+   * @param completed         the positions of the complete todos
+   * @param averageBodyLength the average length of the todos' bodies
+   */
+  TodoStatistics(int size, Map<String, BitSet> byOwner, Map<String, BitSet> byCategory, BitSet completed,
+      double averageBodyLength) {
+    this.size = size;
+    byOwner.forEach((owner, positions) -> owners.put(owner, positions.cardinality()));
+    byCategory.forEach((category, positions) -> categories.put(category, positions.cardinality()));
+    this.complete = completed.cardinality();
+    this.averageBodyLength = averageBodyLength;
+  }
+
+  private static double averageBodyLength(TodoStore store) {
+    long bodyLength = 0;
+    for (int i = 0; i < store.size(); i++) {
+      CharSequence body = store.body(i);
+      bodyLength += body == null ? 0 : body.length();
+    }
+    return store.size() == 0 ? 0 : (double) bodyLength / store.size();
+  }
+
+  /**
+   * The number of todos.
+   *
+   * @return the number of todos
+   */
+  int size() {
+    return size;
+  }
+
+  /**
+   * The number of todos with the given owner.
+   *
+   * @param owner an owner
+   * @return the number of their todos
+   */
+  int owner(String owner) {
+    return owners.getOrDefault(owner, 0);
+  }
+
+  /**
+   * The number of distinct owners.
+   *
+   * @return the number of owners
+   */
+  int distinctOwners() {
+    return owners.size();
+  }
+
+  /**
+   * The number of todos in the given category.
+   *
+   * @param category a category
+   * @return the number of todos in it
+   */
+  int category(String category) {
+    return categories.getOrDefault(category, 0);
+  }
+
+  /**
+   * The number of distinct categories.
+   *
+   * @return the number of categories
+   */
+  int distinctCategories() {
+    return categories.size();
+  }
+
+  /**
+   * The number of todos with the given status.
+   *
+   * @param isComplete true for complete todos, false for incomplete ones
+   * @return the number of todos with that status
+   */
+  int status(boolean isComplete) {
+    return isComplete ? complete : size - complete;
+  }
+
+  /**
+   * The average length of the todos' bodies, in characters.
+   *
+   * @return the average body length
+   */
+  double averageBodyLength() {
+    return averageBodyLength;
+  }
+}
@@ -0,0 +1,79 @@
+package umm3601.todo;
+
+/**
+ * Where a `TodoDatabase` keeps its todos.
+ * <p>
+ * Todos are addressed by their position (0 up to `size() - 1`), and the
+ * indexes and queries only ever read the individual fields they need, so a
+ * store doesn't have to keep a `Todo` object around for every todo; it only
+ * has to be able to make one (with `get`) when a todo is sent to a client.
+ */
+public interface TodoStore {
+
+  /**
+   * The number of todos in the store.
+   *
+   * @return the number of todos
+   */
+  int size();
+
+  /**
+   * Get (or make) the todo at the given position.
+   *
+   * @param position a position in the store
+   * @return the todo at that position
+   */
+  Todo get(int position);
+
+  /**
+   * The `_id` of the todo at the given position.
+   *
+   * @param position a position in the store
+   * @return the todo's ID
+   */
+  String id(int position);
+
+  /**
+   * The owner of the todo at the given position.
+   *
+   * @param position a position in the store
+   * @return the todo's owner
+   */
+  String owner(int position);
+
+  /**
+   * The category of the todo at the given position.
+   *
+   * @param position a position in the store
+   * @return the todo's category
+   */
+  String category(int position);
+
+  /**
+   * Whether the todo at the given position is complete.
+   *
+   * @param position a position in the store
+   * @return true if the todo is complete
+   */
+  boolean status(int position);
+
+  /**
+   * The body of the todo at the given position, which might just be a view
+   * of the store's own data (so it shouldn't be kept around).
+   *
+   * @param position a position in the store
+   * @return the todo's body, or null if it doesn't have one
+   */
+  CharSequence body(int position);
+
+  /**
+   * Check whether the body of the todo at the given position contains the
+   * target string.
+   *
+   * @param position   a position in the store
+   * @param target     the string to look for
+   * @param ignoreCase true to ignore case when comparing
+   * @return true if the body contains the target
+   */
+  boolean bodyContains(int position, String target, boolean ignoreCase);
+}
@@ -0,0 +1,49 @@
+package umm3601.todo;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * How many todos there are (in all, or matching some filters), broken down
+ * by owner, by category, and by status. This is what `/api/todos/summary`
+ * responds with.
+ */
+@SuppressWarnings({"VisibilityModifier"})
+public class TodoSummary {
+  public final int total;
+  public final Map<String, Integer> owner;
+  public final Map<String, Integer> category;
+  public final Map<String, Integer> status;
+
+  /**
+   * Construct a summary from counts.
+   *
+   * @param total      the number of todos
+   * @param owners     the number of todos for each owner
+   * @param categories the number of todos in each category
+   * @param complete   the number of those todos that are complete
+   */
+  TodoSummary(int total, Map<String, Integer> owners, Map<String, Integer> categories, int complete) {
+    this.total = total;
+    this.owner = sorted(owners);
+    this.category = sorted(categories);
+    Map<String, Integer> statuses = new LinkedHashMap<>();
+    statuses.put("complete", complete);
+    statuses.put("incomplete", total - complete);
+    this.status = Collections.unmodifiableMap(statuses);
+  }
+
+  // In order of name, leaving out todos with no value (which still count
+  // in the total) and values with no todos
+  private static Map<String, Integer> sorted(Map<String, Integer> counts) {
+    Map<String, Integer> sorted = new TreeMap<>();
+    counts.forEach((value, count) -> {
+      if (value != null && count > 0) {
+        sorted.put(value, count);
+      }
+    });
+    return Collections.unmodifiableMap(new LinkedHashMap<>(sorted));
+  }
+}
@@ -0,0 +1,511 @@
+package umm3601.todo;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import umm3601.Snapshot;
+import umm3601.WriteAheadLog;
+
+/**
+ * Makes durable changes to the todos in a `TodoDatabase`.
+ * <p>
+ * Every change is appended to a write-ahead log before it's applied, so it
+ * survives a restart: opening a writer replays the log into the database.
+ * Changes are made by a single background thread that takes every request
+ * that's waiting, logs them all with one `fsync` (group commit), and then
+ * applies them to the database as one new version of the data. Reads never
+ * wait for any of this; they just keep using the previous version until
+ * the new one is published.
+ * <p>
+ * Once the log gets long, it's compacted: the todos as they are at that
+ * moment are written to a snapshot, and the log records they include are
+ * trimmed off the log. That happens on a thread of its own, so changes
+ * keep being made while the snapshot is written; they're made again on top
+ * of it once it's ready (see `TodoDatabase.rebase`). From then on that
+ * snapshot (plus the log) is where the todos come from, and the JSON data
+ * file is just the seed. If compacting fails, it's tried again later, and
+ * later still if it keeps failing. Both the log and the snapshot record the fingerprint of the seed
+ * they were made on top of. If the seed has changed since (or it's a
+ * different file altogether), they'd be changes to the wrong data, so
+ * they're set aside (renamed to `*.stale`) and the writer starts over from
+ * the seed.
+ */
+public class TodoWriter implements Closeable {
+
+  /** The most changes to log and apply at once. */
+  public static final int MAX_BATCH = 1024;
+
+  /** How many logged changes to allow before compacting, by default. */
+  public static final int DEFAULT_COMPACT_EVERY = 10_000;
+
+  /** How long to wait before compacting again after compacting fails, at first. */
+  public static final long COMPACT_RETRY_MILLIS = 1000;
+
+  /** The longest to wait before compacting again after compacting fails. */
+  public static final long MAX_COMPACT_RETRY_MILLIS = 60_000;
+
+  /** Added to the name of a log or snapshot that's set aside. */
+  public static final String STALE_SUFFIX = ".stale";
+
+  private static final int ID_TIME_DIGITS = 8;
+  private static final int ID_RANDOM_DIGITS = 16;
+
+  private final TodoDatabase database;
+  private final WriteAheadLog log;
+  private final Path snapshotFile;
+  private final Snapshot.Source compactedSource;
+  private final int compactEvery;
+
+  private final BlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+  private final Thread thread;
+  private boolean closed;
+  // What stopped the writer thread, if something unexpected did
+  private Throwable failure;
+
+  // The compaction that's running, if there is one, and when it's alright
+  // to start another after the last one failed
+  private Compaction compaction;
+  private long retryDelayMillis;
+  private long retryAt;
+
+  private final AtomicLong mutations = new AtomicLong();
+  private final AtomicLong batches = new AtomicLong();
+  private final AtomicLong compactions = new AtomicLong();
+  private final AtomicLong compactionFailures = new AtomicLong();
+  private final AtomicLong replayed = new AtomicLong();
+  private final AtomicLong setAside = new AtomicLong();
+
+  /**
+   * A change waiting to be made, and where to send its outcome.
+   */
+  private static final class Request {
+    private final Kind kind;
+    private final String id;
+    private final Todo todo;
+    private final CompletableFuture<Todo> result = new CompletableFuture<>();
+
+    Request(Kind kind, String id, Todo todo) {
+      this.kind = kind;
+      this.id = id;
+      this.todo = todo;
+    }
+  }
+
+  private enum Kind {
+    CREATE, REPLACE, DELETE
+  }
+
+  /**
+   * A compaction of the todos as they were when it started. The changes
+   * made since then are kept, to make again on top of the snapshot.
+   */
+  private static final class Compaction {
+    private final TodoDatabase.State state;
+    // The number of log records the snapshot includes
+    private final long covered;
+    private final List<TodoMutation> since = new ArrayList<>();
+    private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+    Compaction(TodoDatabase.State state, long covered) {
+      this.state = state;
+      this.covered = covered;
+    }
+  }
+
+  // Queued by `close`, after every real request
+  private static final Request STOP = new Request(Kind.DELETE, null, null);
+
+  /**
+   * Start making durable changes to a database. If there's a compacted
+   * snapshot, it replaces whatever the database was loaded with, and then
+   * everything in the log is replayed on top. A log or snapshot that was
+   * made on top of anything but the given seed is set aside instead.
+   *
+   * @param database     the database to change
+   * @param seed         the fingerprint of the data file the database was
+   *                     loaded from
+   * @param logFile      the write-ahead log
+   * @param snapshotFile where compacted snapshots go
+   * @param compactEvery how many logged changes to allow before compacting
+   * @throws IOException if the log or snapshot can't be read, or a stale
+   *                     one can't be set aside
+   */
+  public TodoWriter(TodoDatabase database, Snapshot.Source seed, Path logFile, Path snapshotFile,
+      int compactEvery) throws IOException {
+    this.database = database;
+    this.snapshotFile = snapshotFile;
+    this.compactedSource = compacted(seed);
+    this.compactEvery = compactEvery;
+
+    // The log only ever holds changes made since the snapshot, so if either
+    // one is stale (or unreadable), the pair of them is
+    boolean logBelongs = WriteAheadLog.belongsTo(logFile, seed);
+    TodoSnapshotStore compacted = logBelongs ? TodoSnapshotStore.open(snapshotFile, compactedSource) : null;
+    if (!logBelongs || (compacted == null && Files.exists(snapshotFile))) {
+      setAside(logFile);
+      setAside(snapshotFile);
+      setAside.incrementAndGet();
+    }
+    if (compacted != null) {
+      database.setTodos(compacted);
+    }
+    this.log = new WriteAheadLog(logFile, seed);
+    List<TodoMutation> changes = new ArrayList<>();
+    log.replay(record -> changes.add(TodoMutation.decode(record)));
+    if (!changes.isEmpty()) {
+      database.apply(changes);
+    }
+    replayed.set(changes.size());
+
+    this.thread = new Thread(this::run, "todo-writer");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * The "source" recorded in a snapshot compacted on top of the given seed:
+   * the seed's own fingerprint, with the length made negative. So it's tied
+   * to the seed, but since no real file has a negative length, it can never
+   * be taken for a snapshot of the JSON data file itself.
+   *
+   * @param seed the fingerprint of the data file
+   * @return the fingerprint compacted snapshots of it are written with
+   */
+  static Snapshot.Source compacted(Snapshot.Source seed) {
+    return new Snapshot.Source(-1 - seed.length(), seed.lastModified());
+  }
+
+  private static void setAside(Path file) throws IOException {
+    if (Files.exists(file)) {
+      Files.move(file, file.resolveSibling(file.getFileName() + STALE_SUFFIX), StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
+  /**
+   * Add a new todo, with a new ID.
+   *
+   * @param todo the todo to add; its `_id` is ignored
+   * @return the todo as it was added
+   */
+  public Todo create(Todo todo) {
+    return submit(new Request(Kind.CREATE, null, todo));
+  }
+
+  /**
+   * Replace the todo with the given ID.
+   *
+   * @param id   the ID of the todo to replace
+   * @param todo the new todo; its `_id` is ignored
+   * @return the new todo, or null if there was no todo with that ID
+   */
+  public Todo replace(String id, Todo todo) {
+    return submit(new Request(Kind.REPLACE, id, todo));
+  }
+
+  /**
+   * Delete the todo with the given ID.
+   *
+   * @param id the ID of the todo to delete
+   * @return the deleted todo, or null if there was no todo with that ID
+   */
+  public Todo delete(String id) {
+    return submit(new Request(Kind.DELETE, id, null));
+  }
+
+  private Todo submit(Request request) {
+    synchronized (queue) {
+      if (closed) {
+        throw new IllegalStateException("The todo writer has been closed");
+      }
+      if (failure != null) {
+        throw new IllegalStateException("The todo writer stopped after an unexpected error", failure);
+      }
+      queue.add(request);
+    }
+    try {
+      return request.result.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted waiting for a change to be made", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw new UncheckedIOException((IOException) e.getCause());
+      }
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  private void run() {
+    List<Request> batch = new ArrayList<>();
+    boolean stop = false;
+    while (!stop) {
+      try {
+        batch.add(queue.take());
+        // Everything that piled up while the last batch was being synced
+        // goes into this one
+        queue.drainTo(batch, MAX_BATCH - 1);
+        stop = batch.remove(STOP);
+        if (!batch.isEmpty()) {
+          commit(batch);
+        }
+      } catch (InterruptedException e) {
+        stop = true;
+      } catch (IOException | RuntimeException e) {
+        if (!fail(batch, e)) {
+          // Every request had already been told how it turned out, so
+          // this is the only place the failure shows up
+          System.err.println("The todo writer failed after making a batch of changes.");
+          e.printStackTrace(System.err);
+        }
+      } catch (Throwable e) {
+        // Something like running out of memory: there's no telling what
+        // state this thread has left things in, so it takes nothing more on
+        System.err.println("The todo writer stopped after an unexpected error; no more changes can be made.");
+        e.printStackTrace(System.err);
+        synchronized (queue) {
+          failure = e;
+          queue.drainTo(batch);
+        }
+        fail(batch, e);
+        stop = true;
+      }
+      batch.clear();
+    }
+  }
+
+  // Pass a failure on to the requests that are still waiting, if any are
+  private static boolean fail(List<Request> batch, Throwable e) {
+    boolean failed = false;
+    for (Request request : batch) {
+      failed |= request.result.completeExceptionally(e);
+    }
+    return failed;
+  }
+
+  /**
+   * Log a batch of requests, apply them to the database, and tell each
+   * request how it turned out: the todo as created or replaced, the todo
+   * that was deleted, or null if there was no todo with the ID.
+   */
+  private synchronized void commit(List<Request> batch) throws IOException {
+    // The todos this batch has changed so far (null if deleted); the
+    // database only knows how things were before the batch
+    Map<String, Todo> changed = new HashMap<>();
+    List<TodoMutation> changes = new ArrayList<>();
+    List<Todo> results = new ArrayList<>();
+    for (Request request : batch) {
+      Todo result = null;
+      if (request.kind == Kind.CREATE) {
+        String id = newId();
+        while (find(changed, id) != null) {
+          id = newId();
+        }
+        result = copy(request.todo, id);
+        changes.add(TodoMutation.put(result));
+        changed.put(id, result);
+      } else {
+        Todo existing = find(changed, request.id);
+        if (existing != null && request.kind == Kind.REPLACE) {
+          result = copy(request.todo, request.id);
+          changes.add(TodoMutation.put(result));
+          changed.put(request.id, result);
+        } else if (existing != null) {
+          result = existing;
+          changes.add(TodoMutation.delete(request.id));
+          changed.put(request.id, null);
+        }
+      }
+      results.add(result);
+    }
+
+    if (!changes.isEmpty()) {
+      List<byte[]> records = new ArrayList<>(changes.size());
+      for (TodoMutation change : changes) {
+        records.add(change.encode());
+      }
+      log.append(records);
+      database.apply(changes);
+      if (compaction != null) {
+        compaction.since.addAll(changes);
+      }
+      mutations.addAndGet(changes.size());
+    }
+    batches.incrementAndGet();
+    for (int i = 0; i < batch.size(); i++) {
+      batch.get(i).result.complete(results.get(i));
+    }
+    if (log.records() >= compactEvery && compaction == null
+        && (retryDelayMillis == 0 || System.nanoTime() - retryAt >= 0)) {
+      startCompaction();
+    }
+  }
+
+  private Todo find(Map<String, Todo> changed, String id) {
+    return changed.containsKey(id) ? changed.get(id) : database.getTodo(id);
+  }
+
+  private static Todo copy(Todo todo, String id) {
+    Todo copy = new Todo();
+    copy._id = id;
+    copy.owner = todo.owner;
+    copy.status = todo.status;
+    copy.body = todo.body;
+    copy.category = todo.category;
+    return copy;
+  }
+
+  // Like MongoDB's object IDs: 24 hex digits, starting with the time
+  private static String newId() {
+    String time = Long.toHexString(System.currentTimeMillis() / TimeUnit.SECONDS.toMillis(1));
+    String random = Long.toHexString(ThreadLocalRandom.current().nextLong());
+    return "0".repeat(ID_TIME_DIGITS - time.length()) + time
+        + "0".repeat(ID_RANDOM_DIGITS - random.length()) + random;
+  }
+
+  /**
+   * Fold the log into a snapshot of the current todos, and wait until
+   * that's done. Unlike the compactions the writer starts itself, this
+   * doesn't wait out the delay after one fails.
+   *
+   * @throws IOException if the snapshot can't be written or the log can't
+   *                     be trimmed
+   */
+  public void compact() throws IOException {
+    Compaction running;
+    synchronized (this) {
+      running = compaction;
+    }
+    if (running != null) {
+      // It started before some of the changes, so it might not have them
+      running.done.handle((result, e) -> result).join();
+    }
+    try {
+      startCompaction().done.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  // Start compacting the todos as they are now, on a thread of its own,
+  // unless that's already happening
+  private synchronized Compaction startCompaction() {
+    if (compaction == null) {
+      Compaction started = new Compaction(database.state(), log.records());
+      Thread compactor = new Thread(() -> runCompaction(started), "todo-compactor");
+      compactor.setDaemon(true);
+      compaction = started;
+      compactor.start();
+    }
+    return compaction;
+  }
+
+  /**
+   * Write a snapshot of the todos as they were when a compaction started,
+   * then switch the database over to it and trim the log records it
+   * includes. The snapshot is safely in place before the log is trimmed;
+   * if the server dies in between, replaying those records again is
+   * harmless.
+   * <p>
+   * Merging the changes laid over the todos and building the indexes for
+   * the snapshot is the slow part, so that's done without holding up the
+   * writer thread. It only waits while the database reads the indexes back
+   * out of the snapshot and makes the changes since the compaction started
+   * again.
+   */
+  private void runCompaction(Compaction running) {
+    try {
+      TodoSnapshotStore.write(snapshotFile, compactedSource, database.merged(running.state));
+      TodoSnapshotStore compacted = TodoSnapshotStore.open(snapshotFile, compactedSource);
+      if (compacted == null) {
+        throw new IOException("The compacted snapshot " + snapshotFile + " couldn't be read back");
+      }
+      synchronized (this) {
+        compaction = null;
+        database.rebase(compacted, running.since);
+        log.trim(running.covered);
+        retryDelayMillis = 0;
+      }
+      compactions.incrementAndGet();
+      running.done.complete(null);
+    } catch (Throwable e) {
+      long delay;
+      synchronized (this) {
+        compaction = null;
+        retryDelayMillis = Math.min(Math.max(2 * retryDelayMillis, COMPACT_RETRY_MILLIS), MAX_COMPACT_RETRY_MILLIS);
+        retryAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(retryDelayMillis);
+        delay = retryDelayMillis;
+      }
+      compactionFailures.incrementAndGet();
+      System.err.println("Compacting the todo changes failed; trying again in " + delay + " ms at the earliest.");
+      e.printStackTrace(System.err);
+      running.done.completeExceptionally(e);
+    }
+  }
+
+  /**
+   * The counters for this writer, e.g., for a stats endpoint.
+   *
+   * @return the counters by name
+   */
+  public Map<String, Long> stats() {
+    Map<String, Long> stats = new LinkedHashMap<>();
+    stats.put("mutations", mutations.get());
+    stats.put("batches", batches.get());
+    stats.put("compactions", compactions.get());
+    stats.put("compactionFailures", compactionFailures.get());
+    stats.put("replayed", replayed.get());
+    stats.put("setAside", setAside.get());
+    stats.put("logRecords", log.records());
+    return stats;
+  }
+
+  /**
+   * Finish the changes that have already been requested, and any
+   * compaction that's running, then stop.
+   *
+   * @throws IOException if the log can't be closed
+   */
+  @Override
+  public void close() throws IOException {
+    synchronized (queue) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      queue.add(STOP);
+    }
+    try {
+      thread.join();
+      Compaction running;
+      synchronized (this) {
+        running = compaction;
+      }
+      if (running != null) {
+        running.done.handle((result, e) -> result).join();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    log.close();
+  }
+}
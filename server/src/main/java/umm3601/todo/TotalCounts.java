@@ -0,0 +1,50 @@
+package umm3601.todo;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * The total number of matches of recently run queries that have an
+ * unindexed filter, for one version of the todos, keyed by the queries'
+ * filters.
+ * <p>
+ * Every page of a `contains` search sends the total count, which means
+ * checking the filter on every candidate, not just enough of them to fill
+ * the page. With this, that happens once for each search (until the data
+ * changes), rather than once for each page of it.
+ */
+final class TotalCounts {
+
+  /** The most counts to keep; the least recently used go first. */
+  static final int MAX_ENTRIES = 256;
+
+  private static final int INITIAL_CAPACITY = 16;
+  private static final float LOAD_FACTOR = 0.75f;
+
+  // In access order, so the first entry is always the least recently used
+  private final LinkedHashMap<List<String>, Integer> counts =
+      new LinkedHashMap<>(INITIAL_CAPACITY, LOAD_FACTOR, true);
+
+  /**
+   * Get the count for a query's filters, if it's been kept.
+   *
+   * @param filters the query's filters
+   * @return the number of todos matching them, or null if it isn't known
+   */
+  synchronized Integer get(List<String> filters) {
+    return counts.get(filters);
+  }
+
+  /**
+   * Keep the count for a query's filters.
+   *
+   * @param filters the query's filters
+   * @param count   the number of todos matching them
+   */
+  synchronized void put(List<String> filters, int count) {
+    counts.put(filters, count);
+    if (counts.size() > MAX_ENTRIES) {
+      counts.remove(counts.keySet().iterator().next());
+    }
+  }
+}
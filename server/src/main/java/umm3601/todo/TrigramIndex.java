@@ -0,0 +1,273 @@
+package umm3601.todo;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.IntFunction;
+
+import umm3601.Snapshot;
+
+/**
+ * An inverted index from every three character sequence ("trigram") to the
+ * positions of the texts that contain it.
+ * <p>
+ * Any text that contains a query string has to contain every trigram of the
+ * query, so intersecting the trigram posting lists gives a (usually much)
+ * smaller set of candidates that then only need a final `contains` check.
+ * The index is built over lower cased text, so the same index narrows both
+ * case sensitive and case insensitive searches.
+ * <p>
+ * The posting lists are kept one after the other in a single buffer, with
+ * the sorted trigrams and where each one's list starts alongside, so the
+ * whole index is three flat buffers that can be written to a snapshot
+ * payload and `read` straight back out of the mapped pages.
+ */
+public class TrigramIndex {
+
+  private static final int GRAM_LENGTH = 3;
+  private static final int CHAR_BITS = 16;
+
+  // Every trigram that occurs, as its three characters packed into a long,
+  // in order; where each one's posting list starts in `postings` (and, after
+  // the last one, where the lists end); and the sorted positions of the
+  // texts containing each trigram. They're heap arrays (wrapped), or slices
+  // of a mapped snapshot.
+  private final LongBuffer grams;
+  private final IntBuffer starts;
+  private final IntBuffer postings;
+  private final int size;
+
+  /**
+   * Build an index over the given texts.
+   *
+   * @param texts the texts to index; positions in this array are what
+   *              `candidates` returns, and null texts are never candidates
+   */
+  public TrigramIndex(String[] texts) {
+    this(texts.length, i -> texts[i]);
+  }
+
+  /**
+   * Build an index over the texts at positions `0` to `size - 1`.
+   *
+   * @param size  the number of texts
+   * @param texts gets the text at a position (or null if there isn't one);
+   *              the texts don't need to be kept after the index is built
+   */
+  public TrigramIndex(int size, IntFunction<CharSequence> texts) {
+    Map<Long, PostingList> lists = new HashMap<>();
+    for (int position = 0; position < size; position++) {
+      CharSequence text = texts.apply(position);
+      for (int i = 0; text != null && i + GRAM_LENGTH <= text.length(); i++) {
+        lists.computeIfAbsent(gram(text, i), k -> new PostingList()).add(position);
+      }
+    }
+    long[] sortedGrams = lists.keySet().stream().mapToLong(Long::longValue).sorted().toArray();
+    int[] listStarts = new int[sortedGrams.length + 1];
+    for (int i = 0; i < sortedGrams.length; i++) {
+      listStarts[i + 1] = listStarts[i] + lists.get(sortedGrams[i]).length;
+    }
+    int[] allPostings = new int[listStarts[sortedGrams.length]];
+    for (int i = 0; i < sortedGrams.length; i++) {
+      PostingList list = lists.get(sortedGrams[i]);
+      System.arraycopy(list.positions, 0, allPostings, listStarts[i], list.length);
+    }
+    this.grams = LongBuffer.wrap(sortedGrams);
+    this.starts = IntBuffer.wrap(listStarts);
+    this.postings = IntBuffer.wrap(allPostings);
+    this.size = size;
+  }
+
+  private TrigramIndex(int size, LongBuffer grams, IntBuffer starts, IntBuffer postings) {
+    this.size = size;
+    this.grams = grams;
+    this.starts = starts;
+    this.postings = postings;
+  }
+
+  /**
+   * Write this index to a snapshot payload, in the form `read` reads.
+   *
+   * @param out where to write it
+   * @throws IOException if it can't be written
+   */
+  public void write(DataOutputStream out) throws IOException {
+    out.writeInt(size);
+    out.writeInt(grams.limit());
+    for (int i = 0; i < grams.limit(); i++) {
+      out.writeLong(grams.get(i));
+    }
+    Snapshot.writeInts(out, starts);
+    out.writeInt(postings.limit());
+    Snapshot.writeInts(out, postings);
+  }
+
+  /**
+   * Read an index written by `write`, straight from the payload rather than
+   * copying it, so the payload mustn't change while the index is in use.
+   *
+   * @param in the payload, positioned at the index; it's left positioned
+   *           just after it
+   * @return the index
+   */
+  public static TrigramIndex read(ByteBuffer in) {
+    int size = in.getInt();
+    int count = in.getInt();
+    LongBuffer grams = Snapshot.slice(in, count * Long.BYTES).asLongBuffer();
+    IntBuffer starts = Snapshot.readInts(in, count + 1);
+    IntBuffer postings = Snapshot.readInts(in, in.getInt());
+    return new TrigramIndex(size, grams, starts, postings);
+  }
+
+  // The index in `grams` of the trigram at a place in a text, or -1 if no
+  // text has it
+  private int find(CharSequence text, int start) {
+    long gram = gram(text, start);
+    int low = 0;
+    int high = grams.limit() - 1;
+    while (low <= high) {
+      int middle = (low + high) >>> 1;
+      long value = grams.get(middle);
+      if (value < gram) {
+        low = middle + 1;
+      } else if (value > gram) {
+        high = middle - 1;
+      } else {
+        return middle;
+      }
+    }
+    return -1;
+  }
+
+  // The length of a trigram's posting list
+  private int length(int gram) {
+    return starts.get(gram + 1) - starts.get(gram);
+  }
+
+  /**
+   * Get the positions of the texts that might contain the given string,
+   * ignoring case.
+   *
+   * @param query the string being searched for
+   * @return the candidate positions, or null if the query is too short for
+   *         the index to narrow anything down
+   */
+  public BitSet candidates(String query) {
+    if (query.length() < GRAM_LENGTH) {
+      return null;
+    }
+    BitSet result = new BitSet(size);
+    result.set(0, size);
+    for (int i = 0; i + GRAM_LENGTH <= query.length() && !result.isEmpty(); i++) {
+      int gram = find(query, i);
+      if (gram < 0) {
+        return new BitSet();
+      }
+      BitSet matching = new BitSet(size);
+      for (int j = starts.get(gram); j < starts.get(gram + 1); j++) {
+        matching.set(postings.get(j));
+      }
+      result.and(matching);
+    }
+    return result;
+  }
+
+  /**
+   * Estimate how many texts `candidates` will return for a query, without
+   * intersecting anything: the length of the query's shortest posting list,
+   * which is an upper bound.
+   *
+   * @param query the string being searched for
+   * @return the most candidates there can be, or -1 if the query is too
+   *         short for the index to narrow anything down
+   */
+  public int estimate(String query) {
+    if (query.length() < GRAM_LENGTH) {
+      return -1;
+    }
+    int estimate = size;
+    for (int i = 0; i + GRAM_LENGTH <= query.length(); i++) {
+      int gram = find(query, i);
+      estimate = Math.min(estimate, gram < 0 ? 0 : length(gram));
+    }
+    return estimate;
+  }
+
+  /**
+   * Estimate the work `candidates` does for a query: one unit for each
+   * position in the query's posting lists, plus one for each word of the
+   * bitsets it intersects them in.
+   *
+   * @param query the string being searched for
+   * @return the estimated cost, or 0 if the query is too short for the
+   *         index to be used
+   */
+  public long cost(String query) {
+    long cost = 0;
+    for (int i = 0; i + GRAM_LENGTH <= query.length(); i++) {
+      int gram = find(query, i);
+      if (gram < 0) {
+        // The search stops here, with no candidates
+        return cost;
+      }
+      cost += length(gram) + size / Long.SIZE;
+    }
+    return cost;
+  }
+
+  /**
+   * Check whether `text` contains `target`, ignoring case in the same way
+   * the index does.
+   *
+   * @param text   the text to search
+   * @param target the string to look for
+   * @return true if some region of `text` matches `target` ignoring case
+   */
+  public static boolean containsIgnoreCase(String text, String target) {
+    int last = text.length() - target.length();
+    for (int start = 0; start <= last; start++) {
+      int i = 0;
+      while (i < target.length()
+          && Character.toLowerCase(text.charAt(start + i)) == Character.toLowerCase(target.charAt(i))) {
+        i++;
+      }
+      if (i == target.length()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static long gram(CharSequence text, int start) {
+    long gram = 0;
+    for (int i = start; i < start + GRAM_LENGTH; i++) {
+      gram = (gram << CHAR_BITS) | Character.toLowerCase(text.charAt(i));
+    }
+    return gram;
+  }
+
+  /**
+   * A growable, sorted list of positions used while building the index.
+   */
+  private static final class PostingList {
+    private int[] positions = new int[2];
+    private int length;
+
+    void add(int position) {
+      if (length > 0 && positions[length - 1] == position) {
+        // This text already had this trigram earlier on
+        return;
+      }
+      if (length == positions.length) {
+        positions = Arrays.copyOf(positions, length * 2);
+      }
+      positions[length++] = position;
+    }
+  }
+}
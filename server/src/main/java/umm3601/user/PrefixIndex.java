@@ -0,0 +1,130 @@
+package umm3601.user;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Locale;
+
+/**
+ * A case-insensitive index over one string field of the users: the
+ * (lower-cased) values, sorted, along with the position of the user each
+ * came from.
+ * <p>
+ * All the values that start with a given prefix sort next to each other,
+ * so a prefix (or a whole value) is two binary searches, and the matching
+ * users are one run of the sorted array. A type-ahead lookup costs
+ * `O(log n)` plus the number of matches, however many users there are.
+ */
+final class PrefixIndex {
+
+  // `keys[i]` is the lower-cased value of the user at `positions[i]`.
+  // Users without a value aren't in the index at all.
+  private final String[] keys;
+  private final int[] positions;
+  private final int size;
+
+  /**
+   * Index the given values.
+   *
+   * @param values the value of each user, by position; may contain nulls
+   */
+  PrefixIndex(String[] values) {
+    this.size = values.length;
+    Integer[] sorted = new Integer[values.length];
+    String[] lowered = new String[values.length];
+    int count = 0;
+    for (int i = 0; i < values.length; i++) {
+      if (values[i] != null) {
+        lowered[i] = normalize(values[i]);
+        sorted[count++] = i;
+      }
+    }
+    // Stable, so users with the same value stay in their original order
+    Arrays.sort(sorted, 0, count, (a, b) -> lowered[a].compareTo(lowered[b]));
+    this.keys = new String[count];
+    this.positions = new int[count];
+    for (int i = 0; i < count; i++) {
+      keys[i] = lowered[sorted[i]];
+      positions[i] = sorted[i];
+    }
+  }
+
+  /**
+   * Put a value or prefix in the form it's indexed in.
+   *
+   * @param value the value
+   * @return the value in lower case
+   */
+  static String normalize(String value) {
+    return value.toLowerCase(Locale.ROOT);
+  }
+
+  /**
+   * Find the users whose value starts with the given prefix, ignoring case.
+   *
+   * @param prefix the prefix; an empty one matches every user with a value
+   * @return the positions of the matching users
+   */
+  BitSet withPrefix(String prefix) {
+    String key = normalize(prefix);
+    return positions(firstAtLeast(key, true), firstAbove(key, true));
+  }
+
+  /**
+   * Find the users whose value is the given one, ignoring case.
+   *
+   * @param value the value
+   * @return the positions of the matching users
+   */
+  BitSet withValue(String value) {
+    String key = normalize(value);
+    return positions(firstAtLeast(key, false), firstAbove(key, false));
+  }
+
+  private BitSet positions(int from, int to) {
+    BitSet result = new BitSet(size);
+    for (int i = from; i < to; i++) {
+      result.set(positions[i]);
+    }
+    return result;
+  }
+
+  // The first index whose key is at least the given one (only comparing
+  // as much of the key as the prefix, when looking for a prefix)
+  private int firstAtLeast(String key, boolean prefix) {
+    int low = 0;
+    int high = keys.length;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (compare(keys[middle], key, prefix) < 0) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  // The first index whose key is more than the given one
+  private int firstAbove(String key, boolean prefix) {
+    int low = 0;
+    int high = keys.length;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (compare(keys[middle], key, prefix) <= 0) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  // Compare an indexed key with the one being looked for. When looking for
+  // a prefix, keys that start with it compare as equal to it.
+  private static int compare(String indexed, String key, boolean prefix) {
+    if (prefix && indexed.startsWith(key)) {
+      return 0;
+    }
+    return indexed.compareTo(key);
+  }
+}
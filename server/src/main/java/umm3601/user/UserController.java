@@ -3,6 +3,9 @@ package umm3601.user;
 import io.javalin.http.Context;
 import io.javalin.http.HttpStatus;
 import io.javalin.http.NotFoundResponse;
+import umm3601.BatchLookup;
+import umm3601.PagedResponses;
+import umm3601.ResponseCache;
 
 /**
  * Controller that manages requests for info about users.
@@ -11,6 +14,9 @@ public class UserController {
 
   private UserDatabase database;
 
+  // Cache of serialized responses to `getUsers`, or null to not cache them
+  private ResponseCache cache;
+
 
   /**
    * Construct a controller for users.
@@ -25,6 +31,18 @@ public class UserController {
     this.database = database;
   }
 
+  /**
+   * Construct a controller for users that caches the responses it sends
+   * for lists of users.
+   *
+   * @param database the `Database` containing user data
+   * @param cache    where to cache serialized responses
+   */
+  public UserController(UserDatabase database, ResponseCache cache) {
+    this.database = database;
+    this.cache = cache;
+  }
+
 
   /**
    * Get the single user specified by the `id` parameter in the request.
@@ -42,14 +60,27 @@ public class UserController {
     }
   }
 
+  /**
+   * Get the users with the IDs in the request body (a JSON array), all in
+   * one response. See `BatchLookup` for the formats.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void getUserBatch(Context ctx) {
+    BatchLookup.send(ctx, database.getUsers(BatchLookup.readIds(ctx)));
+  }
+
   /**
    * Get a JSON response with a list of all the users in the "database".
+   * <p>
+   * The page is sent as `PagedResponses` describes: streamed if it's
+   * large, with paging headers, and served from this controller's cache if
+   * it has one.
    *
    * @param ctx a Javalin HTTP context
    */
   public void getUsers(Context ctx) {
-    User[] users = database.listUsers(ctx.queryParamMap());
-    ctx.json(users);
+    PagedResponses.send(ctx, cache, database::version, database::query);
   }
 
 }
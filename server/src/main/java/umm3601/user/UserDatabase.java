@@ -2,12 +2,26 @@ package umm3601.user;
 
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import io.javalin.http.BadRequestResponse;
+import umm3601.Cursors;
+import umm3601.EncodedRecords;
+import umm3601.JsonLoader;
+import umm3601.Snapshot;
+import umm3601.SortOrder;
 
 /**
  * A fake "database" of user info
@@ -19,16 +33,290 @@ import io.javalin.http.BadRequestResponse;
  */
 public class UserDatabase {
 
-  private User[] allUsers;
+  private static final Comparator<String> BY_STRING = Comparator.nullsFirst(Comparator.naturalOrder());
+
+  // The fields `orderBy` accepts, each with ties broken by `_id`, so every
+  // user (with a unique ID) has a place in each order a cursor can seek to
+  private static final Map<String, Comparator<User>> ORDERS = Map.of(
+      "age", Comparator.<User>comparingInt(user -> user.age).thenComparing(user -> user._id, BY_STRING),
+      "name", Comparator.<User, String>comparing(user -> user.name, BY_STRING)
+          .thenComparing(user -> user._id, BY_STRING),
+      "company", Comparator.<User, String>comparing(user -> user.company, BY_STRING)
+          .thenComparing(user -> user._id, BY_STRING));
+
+  /**
+   * Everything built from one version of the data: the users and the
+   * indexes over them. A state is never changed once it's built; reloading
+   * swaps in a whole new one (see `TodoDatabase`).
+   */
+  private static final class State {
+    private final User[] allUsers;
+
+    // Index from each user's `_id` to their position, so `getUser` doesn't
+    // have to scan the whole array.
+    private final Map<String, Integer> usersById;
+
+    // The users pre-sorted by each of the fields `orderBy` accepts.
+    private final Map<String, SortOrder> sortOrders = new HashMap<>();
+
+    // The users' ages in age order, i.e., `agesByRank[rank]` is the age of
+    // the user with that rank in the "age" sort order. Any age range is one
+    // contiguous run of ranks, found by binary search.
+    private final SortOrder byAge;
+    private final int[] agesByRank;
+
+    // Case-insensitive indexes over the fields that can be searched by
+    // prefix, for type-ahead
+    private final PrefixIndex names;
+    private final PrefixIndex emails;
+    private final PrefixIndex companies;
+
+    // Each user already serialized to JSON, so listing them is just copying
+    // bytes
+    private final EncodedRecords encoded;
+
+    private final long version;
+
+    // Index the users from scratch; any that are the same as in the
+    // previous version are copied from its encodings rather than
+    // serialized again
+    State(User[] users, State previous) {
+      usersById = new HashMap<>(users.length * 2);
+      for (int position = 0; position < users.length; position++) {
+        usersById.putIfAbsent(users[position]._id, position);
+      }
+      ORDERS.forEach((field, order) -> sortOrders.put(field,
+          new SortOrder(users.length, (a, b) -> order.compare(users[a], users[b]))));
+      byAge = sortOrders.get("age");
+      agesByRank = new int[users.length];
+      for (int rank = 0; rank < users.length; rank++) {
+        agesByRank[rank] = users[byAge.position(rank)].age;
+      }
+      names = new PrefixIndex(Arrays.stream(users).map(user -> user.name).toArray(String[]::new));
+      emails = new PrefixIndex(Arrays.stream(users).map(user -> user.email).toArray(String[]::new));
+      companies = new PrefixIndex(Arrays.stream(users).map(user -> user.company).toArray(String[]::new));
+      this.allUsers = users;
+      this.encoded = previous == null ? new EncodedRecords(users.length, i -> users[i])
+          : new EncodedRecords(users.length, i -> users[i], previous.encoded, i -> previous.same(users[i]));
+      this.version = previous == null ? 1 : previous.version + 1;
+    }
+
+    // The position of a user exactly like the given one, or -1 if there
+    // isn't one
+    int same(User user) {
+      Integer position = usersById.get(user._id);
+      if (position == null) {
+        return -1;
+      }
+      User old = allUsers[position];
+      return Objects.equals(old.name, user.name) && old.age == user.age
+          && Objects.equals(old.company, user.company) && Objects.equals(old.email, user.email) ? position : -1;
+    }
+
+    // The first rank in age order of a user at least the given age
+    int firstRankOfAge(int age) {
+      int low = 0;
+      int high = agesByRank.length;
+      while (low < high) {
+        int middle = (low + high) >>> 1;
+        if (agesByRank[middle] < age) {
+          low = middle + 1;
+        } else {
+          high = middle;
+        }
+      }
+      return low;
+    }
+
+    User user(String id) {
+      Integer position = usersById.get(id);
+      return position == null ? null : allUsers[position];
+    }
+
+    /**
+     * Find where the page a cursor points at starts.
+     *
+     * @param cursor  the cursor
+     * @param orderBy the field the query sorts by, or null for position
+     *                order
+     * @return the rank in that field's order to start at, or the position
+     *         if there isn't one
+     */
+    int start(Cursors.Cursor cursor, String orderBy) {
+      int position = cursor.position();
+      boolean current = cursor.version() == version && position < allUsers.length
+          && Objects.equals(allUsers[position]._id, cursor.id());
+      if (orderBy == null) {
+        if (current) {
+          return position;
+        }
+        Integer found = usersById.get(cursor.id());
+        return found != null ? found : Math.min(position, allUsers.length);
+      }
+      SortOrder order = sortOrders.get(orderBy);
+      if (current) {
+        return order.rankOf(position);
+      }
+      User probe = probe(orderBy, cursor);
+      Comparator<User> comparator = ORDERS.get(orderBy);
+      return order.seek(p -> comparator.compare(allUsers[p], probe) < 0);
+    }
+  }
+
+  // A user's value of the field an order sorts by, as a cursor keeps it
+  private static String sortKey(String orderBy, User user) {
+    if (orderBy.equals("age")) {
+      return Integer.toString(user.age);
+    }
+    return orderBy.equals("name") ? user.name : user.company;
+  }
+
+  // A stand-in for the user a cursor points at, with just the fields its
+  // order compares, to find that user's place in the order
+  private static User probe(String orderBy, Cursors.Cursor cursor) {
+    User probe = new User();
+    probe._id = cursor.id();
+    if (orderBy.equals("age")) {
+      probe.age = Integer.parseInt(cursor.key());
+    } else if (orderBy.equals("name")) {
+      probe.name = cursor.key();
+    } else {
+      probe.company = cursor.key();
+    }
+    return probe;
+  }
+
+  /**
+   * Gets the users from wherever this database loads them from.
+   */
+  @FunctionalInterface
+  private interface UserLoader {
+    User[] load() throws IOException;
+  }
+
+  // The current state; only ever replaced as a whole (in `setUsers`)
+  private volatile State state;
+
+  // How to (re)load the users
+  private final UserLoader loader;
 
   public UserDatabase(String userDataFile) throws IOException {
-    InputStreamReader reader = new InputStreamReader(getClass().getResourceAsStream(userDataFile));
+    this(() -> readJson(userDataFile));
+  }
+
+  /**
+   * Construct a database from a binary snapshot of a JSON data file, which
+   * is much quicker to load than the JSON itself.
+   * <p>
+   * If the snapshot is missing, corrupt, or older than the data file, the
+   * JSON is read instead, and a new snapshot is written for next time.
+   *
+   * @param userDataFile the name of the data file on the classpath
+   * @param snapshotFile where the snapshot is (or should be) kept
+   * @throws IOException if neither the snapshot nor the data file can be
+   *                     read, or a new snapshot can't be written
+   */
+  public UserDatabase(String userDataFile, Path snapshotFile) throws IOException {
+    this(() -> openSnapshot(snapshotFile, Snapshot.Source.of(UserDatabase.class.getResource(userDataFile)),
+        () -> readJson(userDataFile)));
+  }
+
+  /**
+   * Construct a database from a JSON data file on disk. The file is parsed
+   * one token at a time, so only the users themselves end up on the heap.
+   *
+   * @param userDataFile the data file: a JSON array of users, or one user
+   *                     object after another
+   * @param snapshotFile where a snapshot of the data is (or should be)
+   *                     kept, or null to always read the JSON
+   * @param progress     receives progress reports while the JSON is read;
+   *                     may be null
+   * @throws IOException if the data can't be read
+   */
+  public UserDatabase(Path userDataFile, Path snapshotFile, Consumer<JsonLoader.Progress> progress)
+      throws IOException {
+    this(snapshotFile == null
+        ? () -> load(userDataFile, progress)
+        : () -> openSnapshot(snapshotFile, Snapshot.Source.of(userDataFile.toUri().toURL()),
+            () -> load(userDataFile, progress)));
+  }
+
+  /**
+   * Construct a database directly from an array of users, e.g., for
+   * benchmarks that need a lot more data than `users.json` has.
+   *
+   * @param users the users to store in this database
+   */
+  public UserDatabase(User[] users) {
+    this.loader = () -> users;
+    setUsers(users);
+  }
+
+  private UserDatabase(UserLoader loader) throws IOException {
+    this.loader = loader;
+    reload();
+  }
+
+  // The users in the snapshot, if it's up to date; otherwise the users in
+  // the JSON, which are then written to a new snapshot
+  private static User[] openSnapshot(Path snapshotFile, Snapshot.Source source, UserLoader json)
+      throws IOException {
+    ByteBuffer payload = Snapshot.open(snapshotFile, source);
+    if (payload != null) {
+      return UserSnapshot.read(payload);
+    }
+    User[] users = json.load();
+    Snapshot.write(snapshotFile, source, out -> UserSnapshot.write(users, out));
+    return users;
+  }
+
+  private static User[] load(Path userDataFile, Consumer<JsonLoader.Progress> progress) throws IOException {
+    List<User> users = new ArrayList<>();
+    JsonLoader.load(userDataFile, new UserRecords(users::add), progress);
+    return users.toArray(new User[0]);
+  }
+
+  private static User[] readJson(String userDataFile) throws IOException {
+    InputStreamReader reader = new InputStreamReader(UserDatabase.class.getResourceAsStream(userDataFile));
     ObjectMapper objectMapper = new ObjectMapper();
-    allUsers = objectMapper.readValue(reader, User[].class);
+    return objectMapper.readValue(reader, User[].class);
+  }
+
+  /**
+   * Load the users again from wherever they came from (e.g., because the
+   * data file has changed), and rebuild the ID index. Requests keep being
+   * answered from the old data until the new data is completely ready, and
+   * if loading fails the old data stays in place.
+   *
+   * @throws IOException if the data can't be loaded
+   */
+  public synchronized void reload() throws IOException {
+    setUsers(loader.load());
+  }
+
+  /**
+   * Replace the users in this database, rebuilding the ID index so
+   * that it stays consistent with the data.
+   *
+   * @param users the new users
+   */
+  private synchronized void setUsers(User[] users) {
+    state = new State(users, state);
+  }
+
+  /**
+   * The version of the data in this database, which goes up every time the
+   * data changes. Anything derived from the data (like cached responses)
+   * is out of date if it was made from an older version.
+   *
+   * @return the current data version
+   */
+  public long version() {
+    return state.version;
   }
 
   public int size() {
-    return allUsers.length;
+    return state.allUsers.length;
   }
 
   /**
@@ -39,7 +327,24 @@ public class UserDatabase {
    * @return the user with the given ID, or null if there is no user with that ID
    */
   public User getUser(String id) {
-    return Arrays.stream(allUsers).filter(x -> x._id.equals(id)).findFirst().orElse(null);
+    return state.user(id);
+  }
+
+  /**
+   * Get the users with the given IDs, all from the same version of the data
+   * (even if it's reloaded part way through).
+   *
+   * @param ids the IDs of the desired users
+   * @return the user with each ID, in the same order, or null where there is
+   *         no user with that ID
+   */
+  public User[] getUsers(String[] ids) {
+    State current = state;
+    User[] users = new User[ids.length];
+    for (int i = 0; i < ids.length; i++) {
+      users[i] = current.user(ids[i]);
+    }
+    return users;
   }
 
   /**
@@ -49,50 +354,156 @@ public class UserDatabase {
    * @return an array of all the users matching the given criteria
    */
   public User[] listUsers(Map<String, List<String>> queryParams) {
-    User[] filteredUsers = allUsers;
+    return query(queryParams).toArray();
+  }
 
-    // Filter age if defined
+  /**
+   * Plan a query for the users satisfying the queries in the params.
+   * <p>
+   * The `age`, `minAge`, and `maxAge` filters are answered with a binary
+   * search over the users in age order, which gives the matching users as
+   * one contiguous run of that order.
+   * <p>
+   * `name` and `email` match the users whose name or email starts with the
+   * given text, and `companyPrefix` those whose company does, ignoring case
+   * (e.g., `name=ja` for type-ahead). `company` matches the whole company
+   * name, also ignoring case. These are all looked up in sorted indexes of
+   * the (lower-cased) values, and the matches of each are intersected.
+   * <p>
+   * `orderBy` (`age`, `name`, or `company`) walks a sort order that was
+   * computed when the data was loaded, so nothing is sorted per request.
+   * Ordering an age range by age just walks its run; ordering it by
+   * anything else walks that field's order, keeping the users in the range.
+   *
+   * @param queryParams map of key-value pairs for the query
+   * @return a query that can be run to get the matching users
+   */
+  public UserQuery query(Map<String, List<String>> queryParams) {
+    State current = state;
+
+    // Filter age if defined: an exact age, or a range (inclusive at both
+    // ends), or both, as the ranks in age order from `firstRank` up to
+    // (but not including) `endRank`
+    int minAge = Integer.MIN_VALUE;
+    int maxAge = Integer.MAX_VALUE;
     if (queryParams.containsKey("age")) {
-      String ageParam = queryParams.get("age").get(0);
+      int targetAge = parseAge("age", queryParams.get("age").get(0));
+      minAge = targetAge;
+      maxAge = targetAge;
+    }
+    if (queryParams.containsKey("minAge")) {
+      minAge = Math.max(minAge, parseAge("minAge", queryParams.get("minAge").get(0)));
+    }
+    if (queryParams.containsKey("maxAge")) {
+      maxAge = Math.min(maxAge, parseAge("maxAge", queryParams.get("maxAge").get(0)));
+    }
+    boolean byAge = minAge != Integer.MIN_VALUE || maxAge != Integer.MAX_VALUE;
+    int firstRank = current.firstRankOfAge(minAge);
+    int endRank = maxAge == Integer.MAX_VALUE ? current.allUsers.length : current.firstRankOfAge(maxAge + 1);
+    endRank = Math.max(firstRank, endRank);
+
+    // Search names, emails, and companies if defined, as the positions of
+    // the users matching all of them
+    BitSet candidates = null;
+    if (queryParams.containsKey("name")) {
+      candidates = intersect(candidates, current.names.withPrefix(queryParams.get("name").get(0)));
+    }
+    if (queryParams.containsKey("email")) {
+      candidates = intersect(candidates, current.emails.withPrefix(queryParams.get("email").get(0)));
+    }
+    if (queryParams.containsKey("company")) {
+      candidates = intersect(candidates, current.companies.withValue(queryParams.get("company").get(0)));
+    }
+    if (queryParams.containsKey("companyPrefix")) {
+      candidates = intersect(candidates, current.companies.withPrefix(queryParams.get("companyPrefix").get(0)));
+    }
+    // Process other query parameters here...
+
+    SortOrder order = null;
+    String targetSorting = null;
+    if (queryParams.containsKey("orderBy")) {
+      targetSorting = queryParams.get("orderBy").get(0);
+      order = current.sortOrders.get(targetSorting);
+      if (order == null) {
+        throw new BadRequestResponse("Specified orderBy '" + targetSorting + "' isn't one of age, name, or company");
+      }
+    }
+
+    // Paging: the page size, and where the page starts (either a number of
+    // users to skip, or a cursor from a previous page)
+    int targetLimit = Integer.MAX_VALUE;
+    if (queryParams.containsKey("limit")) {
+      targetLimit = parseCount("limit", queryParams.get("limit").get(0));
+    }
+    int targetOffset = 0;
+    if (queryParams.containsKey("offset")) {
+      targetOffset = parseCount("offset", queryParams.get("offset").get(0));
+    }
+    int fromRank = 0;
+    if (queryParams.containsKey("cursor")) {
+      String cursor = queryParams.get("cursor").get(0);
       try {
-        int targetAge = Integer.parseInt(ageParam);
-        filteredUsers = filterUsersByAge(filteredUsers, targetAge);
+        fromRank = current.start(Cursors.decode(cursor), targetSorting);
       } catch (NumberFormatException e) {
-        throw new BadRequestResponse("Specified age '" + ageParam + "' can't be parsed to an integer");
+        // An age order cursor without an age
+        throw new BadRequestResponse("Specified cursor '" + cursor + "' is not valid");
       }
     }
-    // Filter company if defined
-    if (queryParams.containsKey("company")) {
-      String targetCompany = queryParams.get("company").get(0);
-      filteredUsers = filterUsersByCompany(filteredUsers, targetCompany);
+
+    UserQuery query = new UserQuery(current.allUsers, current.encoded, current.version, fromRank, targetOffset,
+        targetLimit);
+    String sorting = targetSorting;
+    Function<User, String> sortKey = user -> sortKey(sorting, user);
+    if (byAge && order == current.byAge && candidates == null) {
+      // Only the age range's run of the age order needs walking
+      return query.along(order, sortKey, firstRank, endRank);
     }
-    // Process other query parameters here...
+    if (byAge) {
+      candidates = intersect(candidates, positions(current.byAge, firstRank, endRank));
+    }
+    if (candidates != null) {
+      query.among(candidates);
+    }
+    return order == null ? query : query.along(order, sortKey, 0, order.size());
+  }
 
-    return filteredUsers;
+  // The positions in both sets, where a missing set means every position
+  private static BitSet intersect(BitSet positions, BitSet more) {
+    if (positions == null) {
+      return more;
+    }
+    positions.and(more);
+    return positions;
   }
 
-  /**
-   * Get an array of all the users having the target age.
-   *
-   * @param users     the list of users to filter by age
-   * @param targetAge the target age to look for
-   * @return an array of all the users from the given list that have the target
-   *         age
-   */
-  public User[] filterUsersByAge(User[] users, int targetAge) {
-    return Arrays.stream(users).filter(x -> x.age == targetAge).toArray(User[]::new);
+  // The positions of the users with the given ranks in an order
+  private static BitSet positions(SortOrder order, int firstRank, int endRank) {
+    BitSet positions = new BitSet(order.size());
+    for (int rank = firstRank; rank < endRank; rank++) {
+      positions.set(order.position(rank));
+    }
+    return positions;
   }
 
-  /**
-   * Get an array of all the users having the target company.
-   *
-   * @param users         the list of users to filter by company
-   * @param targetCompany the target company to look for
-   * @return an array of all the users from the given list that have the target
-   *         company
-   */
-  public User[] filterUsersByCompany(User[] users, String targetCompany) {
-    return Arrays.stream(users).filter(x -> x.company.equals(targetCompany)).toArray(User[]::new);
+  private static int parseAge(String name, String value) {
+    try {
+      return Integer.parseInt(value);
+    } catch (NumberFormatException e) {
+      throw new BadRequestResponse("Specified " + name + " '" + value + "' can't be parsed to an integer");
+    }
+  }
+
+  private static int parseCount(String name, String value) {
+    int count;
+    try {
+      count = Integer.parseInt(value);
+    } catch (NumberFormatException e) {
+      throw new BadRequestResponse("Specified " + name + " '" + value + "' can't be parsed to an integer");
+    }
+    if (count < 0) {
+      throw new BadRequestResponse("Specified " + name + " '" + value + "' can't be negative");
+    }
+    return count;
   }
 
 }
@@ -0,0 +1,258 @@
+package umm3601.user;
+
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+import java.util.function.IntPredicate;
+
+import umm3601.Cursors;
+import umm3601.EncodedRecords;
+import umm3601.PagedQuery;
+import umm3601.SortOrder;
+
+/**
+ * A user query that has been planned against a `UserDatabase` but not yet
+ * run.
+ * <p>
+ * Every filter is answered by an index, so running the query is a single
+ * pass over the matching users, stopping once the page is full. The
+ * indexes have narrowed the pass down to a set of candidate positions, or
+ * to a run of ranks in a sort order, or both. It can either fill an
+ * array, feed the users straight to a consumer, or write their
+ * already-serialized JSON straight to a response stream, without ever
+ * holding the whole result.
+ * <p>
+ * A page is described by a `limit` and either an `offset` (a number of
+ * matching users to skip) or a cursor (the user to start at; see
+ * `Cursors`). Starting from a cursor only costs as much as the page
+ * itself.
+ */
+public class UserQuery implements PagedQuery<User> {
+
+  private final User[] users;
+  private final EncodedRecords encoded;
+  private final long version;
+  private final int fromRank;
+  private final int offset;
+  private final int limit;
+
+  // The positions that passed the indexed filters, or null for all of them
+  private BitSet candidates;
+
+  // The order to walk the users in, or null for their original order, how
+  // to get each user's value of the field it sorts by (for cursors), and
+  // the run of ranks in it to walk (from `firstRank` up to, but not
+  // including, `endRank`)
+  private SortOrder order;
+  private Function<User, String> sortKey;
+  private int firstRank;
+  private int endRank;
+
+  // The position of the first user after this page, or -1 if there isn't
+  // one. This is null until some pass has found out.
+  private Integer nextPosition;
+
+  /**
+   * Construct a query over the given users.
+   *
+   * @param users    all the users in the database
+   * @param encoded  the same users, serialized to JSON
+   * @param version  the version of the data `users` is from
+   * @param fromRank the rank in the sort order (or the position, if there
+   *                 isn't one) to start at
+   * @param offset   the number of matching users to skip
+   * @param limit    the maximum number of users to return
+   */
+  UserQuery(User[] users, EncodedRecords encoded, long version, int fromRank, int offset, int limit) {
+    this.users = users;
+    this.encoded = encoded;
+    this.version = version;
+    this.fromRank = fromRank;
+    this.offset = offset;
+    this.limit = limit;
+    this.endRank = users.length;
+  }
+
+  /**
+   * Only walk the given positions, e.g., those an index has found.
+   *
+   * @param positions the positions that pass the indexed filters
+   * @return this query
+   */
+  UserQuery among(BitSet positions) {
+    this.candidates = positions;
+    return this;
+  }
+
+  /**
+   * Walk the users along a sort order, only taking those with ranks in the
+   * given run.
+   *
+   * @param sortOrder the order to return the users in
+   * @param key       gets a user's value of the field the order sorts by
+   * @param first     the first rank to walk
+   * @param end       the rank after the last one to walk
+   * @return this query
+   */
+  UserQuery along(SortOrder sortOrder, Function<User, String> key, int first, int end) {
+    this.order = sortOrder;
+    this.sortKey = key;
+    this.firstRank = first;
+    this.endRank = end;
+    return this;
+  }
+
+  /**
+   * The version of the database's data this query runs against.
+   *
+   * @return the data version
+   */
+  @Override
+  public long version() {
+    return version;
+  }
+
+  /**
+   * An upper bound on the number of users this query returns, which can be
+   * found without checking any unindexed filters.
+   *
+   * @return the most users this query could return
+   */
+  @Override
+  public int maxSize() {
+    return Math.min(candidateCount(), limit);
+  }
+
+  private int candidateCount() {
+    if (candidates != null) {
+      return candidates.cardinality();
+    }
+    return order == null ? users.length : endRank - firstRank;
+  }
+
+  /**
+   * The number of users matching the filters, ignoring any paging. The
+   * filters are all indexed, so this is just the number of candidates.
+   *
+   * @return the total number of matching users
+   */
+  @Override
+  public int totalCount() {
+    return candidateCount();
+  }
+
+  /**
+   * Get a cursor for the page after this one.
+   *
+   * @return the cursor, or null if this is the last page
+   */
+  @Override
+  public String nextCursor() {
+    if (nextPosition == null) {
+      if (limit == Integer.MAX_VALUE) {
+        nextPosition = -1;
+      } else {
+        forEach(user -> { });
+      }
+    }
+    if (nextPosition < 0) {
+      return null;
+    }
+    User next = users[nextPosition];
+    return Cursors.encode(new Cursors.Cursor(version, nextPosition, next._id,
+        sortKey == null ? null : sortKey.apply(next)));
+  }
+
+  /**
+   * Run the query, passing each matching user on the page to the given
+   * action in order.
+   *
+   * @param action what to do with each user
+   */
+  public void forEach(Consumer<? super User> action) {
+    forEachPosition(position -> action.accept(users[position]));
+  }
+
+  /**
+   * Run the query, writing the matching users on the page to a stream as
+   * JSON. The users were already serialized when the data was loaded, so
+   * this just copies their bytes.
+   *
+   * @param out    where to write the users; it's flushed, but not closed
+   * @param ndjson true to write newline delimited JSON instead of an array
+   */
+  @Override
+  public void writeJson(OutputStream out, boolean ndjson) {
+    encoded.write(out, ndjson, this::forEachPosition);
+  }
+
+  private void forEachPosition(IntConsumer action) {
+    int[] seen = {0};
+    nextPosition = -1;
+    walk(fromRank, position -> {
+      seen[0]++;
+      if (seen[0] > (long) offset + limit) {
+        // This is the first user on the next page
+        nextPosition = position;
+        return false;
+      }
+      if (seen[0] > offset) {
+        action.accept(position);
+      }
+      return true;
+    });
+  }
+
+  /**
+   * Run the query, collecting the matching users on the page in an array.
+   * If there's no filtering, ordering, or paging at all we can just return
+   * all the users without allocating anything.
+   *
+   * @return the matching users, in order
+   */
+  @Override
+  public User[] toArray() {
+    if (candidates == null && order == null && fromRank == 0 && offset == 0
+        && limit >= users.length) {
+      nextPosition = -1;
+      return users;
+    }
+    User[] result = new User[maxSize()];
+    int[] count = {0};
+    forEach(user -> result[count[0]++] = user);
+    return count[0] == result.length ? result : Arrays.copyOf(result, count[0]);
+  }
+
+  /**
+   * Walk the candidates once, either in their original order or along the
+   * precomputed sort order, stopping as soon as the visitor says to. So
+   * neither an age range nor `orderBy` sorts or searches anything past a
+   * binary search at request time.
+   *
+   * @param start   the position (or rank, if there's an order) to start at
+   * @param visitor called with each candidate position; returns false to stop
+   */
+  private void walk(int start, IntPredicate visitor) {
+    if (order != null && candidates != null) {
+      order.forEach(candidates, Math.max(start, firstRank), visitor);
+    } else if (order != null) {
+      int rank = Math.max(start, firstRank);
+      while (rank < endRank && visitor.test(order.position(rank))) {
+        rank++;
+      }
+    } else if (candidates != null) {
+      int i = candidates.nextSetBit(start);
+      while (i >= 0 && visitor.test(i)) {
+        i = candidates.nextSetBit(i + 1);
+      }
+    } else {
+      int i = start;
+      while (i < users.length && visitor.test(i)) {
+        i++;
+      }
+    }
+  }
+}
@@ -0,0 +1,55 @@
+package umm3601.user;
+
+import java.io.IOException;
+import java.util.function.Consumer;
+
+import com.fasterxml.jackson.core.JsonParser;
+
+import umm3601.JsonLoader;
+
+/**
+ * Turns the fields streamed by a `JsonLoader` into users.
+ */
+class UserRecords implements JsonLoader.RecordHandler {
+
+  private final Consumer<User> sink;
+  private User current = new User();
+
+  /**
+   * Construct a handler that passes each user on to the given sink.
+   *
+   * @param sink receives each complete user
+   */
+  UserRecords(Consumer<User> sink) {
+    this.sink = sink;
+  }
+
+  @Override
+  public void field(String name, JsonParser parser) throws IOException {
+    switch (name) {
+      case "_id":
+        current._id = parser.getValueAsString();
+        break;
+      case "name":
+        current.name = parser.getValueAsString();
+        break;
+      case "age":
+        current.age = parser.getValueAsInt();
+        break;
+      case "company":
+        current.company = parser.getValueAsString();
+        break;
+      case "email":
+        current.email = parser.getValueAsString();
+        break;
+      default:
+        break;
+    }
+  }
+
+  @Override
+  public void endRecord() {
+    sink.accept(current);
+    current = new User();
+  }
+}
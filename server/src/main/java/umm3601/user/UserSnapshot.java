@@ -0,0 +1,61 @@
+package umm3601.user;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import umm3601.Snapshot;
+
+/**
+ * Reads and writes users as a snapshot payload: the user count, followed
+ * by each user's ID, name, age, company, and email.
+ * <p>
+ * There are few enough users that they're still decoded into `User`
+ * objects when the snapshot is opened, but that's just a sequential copy
+ * out of the mapped file, with none of the tokenizing and reflection that
+ * parsing the JSON takes.
+ */
+public final class UserSnapshot {
+
+  private UserSnapshot() {
+  }
+
+  /**
+   * Write users as a snapshot payload.
+   *
+   * @param users the users
+   * @param out   where to write the payload
+   * @throws IOException if the payload can't be written
+   */
+  public static void write(User[] users, DataOutputStream out) throws IOException {
+    out.writeInt(users.length);
+    for (User user : users) {
+      Snapshot.writeString(out, user._id);
+      Snapshot.writeString(out, user.name);
+      out.writeInt(user.age);
+      Snapshot.writeString(out, user.company);
+      Snapshot.writeString(out, user.email);
+    }
+  }
+
+  /**
+   * Read the users from a payload written by `write`.
+   *
+   * @param payload the payload
+   * @return the users
+   */
+  public static User[] read(ByteBuffer payload) {
+    ByteBuffer in = payload.duplicate();
+    User[] users = new User[in.getInt()];
+    for (int i = 0; i < users.length; i++) {
+      User user = new User();
+      user._id = Snapshot.readString(in);
+      user.name = Snapshot.readString(in);
+      user.age = in.getInt();
+      user.company = Snapshot.readString(in);
+      user.email = Snapshot.readString(in);
+      users[i] = user;
+    }
+    return users;
+  }
+}
@@ -0,0 +1,46 @@
+package umm3601;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+
+/**
+ * A servlet output stream that just remembers everything written to it,
+ * so tests can hand it to a mocked `Context` and check what a controller
+ * streamed to the client.
+ */
+public class CapturedOutputStream extends ServletOutputStream {
+
+  private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+  @Override
+  public boolean isReady() {
+    return true;
+  }
+
+  @Override
+  public void setWriteListener(WriteListener writeListener) {
+    // Writes never block, so there's nothing to listen for
+  }
+
+  @Override
+  public void write(int b) {
+    bytes.write(b);
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) {
+    bytes.write(b, off, len);
+  }
+
+  public byte[] toByteArray() {
+    return bytes.toByteArray();
+  }
+
+  @Override
+  public String toString() {
+    return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+  }
+}
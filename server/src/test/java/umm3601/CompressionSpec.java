@@ -0,0 +1,62 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+import io.javalin.http.Context;
+
+/**
+ * Tests gzip content negotiation and compression.
+ */
+@SuppressWarnings({ "MagicNumber" })
+public class CompressionSpec {
+
+  @Test
+  public void negotiatesGzip() {
+    assertFalse(Compression.accepts(null, "gzip"));
+    assertFalse(Compression.accepts("", "gzip"));
+    assertFalse(Compression.accepts("br, deflate", "gzip"));
+    assertTrue(Compression.accepts("gzip", "gzip"));
+    assertTrue(Compression.accepts("deflate, GZIP, br", "gzip"));
+    assertTrue(Compression.accepts("gzip;q=0.5", "gzip"));
+    assertFalse(Compression.accepts("gzip;q=0", "gzip"));
+    assertFalse(Compression.accepts("gzip; q=0.0", "gzip"));
+    assertFalse(Compression.accepts("gzip;q=nonsense", "gzip"));
+    assertTrue(Compression.accepts("*", "gzip"));
+    assertFalse(Compression.accepts("*;q=0", "gzip"));
+    assertFalse(Compression.accepts("*, gzip;q=0", "gzip"));
+    assertTrue(Compression.accepts("gzip;foo=bar, *;q=0", "gzip"));
+
+    Context ctx = mock(Context.class);
+    when(ctx.header("Accept-Encoding")).thenReturn("gzip, deflate, br");
+    assertTrue(Compression.acceptsGzip(ctx));
+  }
+
+  @Test
+  public void onlyCompressesBigEnoughText() {
+    assertTrue(Compression.worthCompressing("application/json", Compression.MIN_SIZE));
+    assertTrue(Compression.worthCompressing("application/x-ndjson", 5000));
+    assertTrue(Compression.worthCompressing("text/html; charset=utf-8", 5000));
+    assertTrue(Compression.worthCompressing("application/javascript", 5000));
+    assertTrue(Compression.worthCompressing("image/svg+xml", 5000));
+    assertFalse(Compression.worthCompressing("application/json", Compression.MIN_SIZE - 1));
+    assertFalse(Compression.worthCompressing("image/png", 5000));
+    assertFalse(Compression.worthCompressing(null, 5000));
+  }
+
+  @Test
+  public void gzipsAndGunzips() {
+    byte[] body = "[{\"owner\":\"Fry\"},{\"owner\":\"Fry\"},{\"owner\":\"Fry\"}]".repeat(100)
+        .getBytes(StandardCharsets.UTF_8);
+    byte[] gzipped = Compression.gzip(body);
+    assertTrue(gzipped.length < body.length / 10);
+    assertArrayEquals(body, Compression.gunzip(gzipped));
+  }
+}
@@ -0,0 +1,201 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import umm3601.todo.Todo;
+import umm3601.todo.TodoDatabase;
+import umm3601.user.User;
+import umm3601.user.UserDatabase;
+
+/**
+ * Tests the synthetic data generator: that it's reproducible, and that its
+ * settings shape the data the way they say they do.
+ */
+@SuppressWarnings({ "MagicNumber" })
+public class DataGeneratorSpec {
+
+  private Path dir;
+
+  @BeforeEach
+  public void setUp(@TempDir Path tempDir) {
+    dir = tempDir;
+  }
+
+  private static String todosJson(DataGenerator generator, boolean ndjson) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    generator.writeTodos(out, ndjson);
+    return new String(out.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void sameSeedGivesTheSameData() {
+    DataGenerator first = DataGenerator.builder().todos(500).users(50).build();
+    DataGenerator second = DataGenerator.builder().todos(500).users(50).build();
+    assertEquals(todosJson(first, false), todosJson(second, false));
+
+    DataGenerator reseeded = DataGenerator.builder().seed(42).todos(500).build();
+    assertNotEquals(todosJson(first, false), todosJson(reseeded, false));
+
+    // More users doesn't change the todos
+    DataGenerator moreUsers = DataGenerator.builder().todos(500).users(5000).build();
+    assertEquals(todosJson(first, false), todosJson(moreUsers, false));
+  }
+
+  @Test
+  public void todosLookLikeTheRealOnes() {
+    Todo[] todos = DataGenerator.builder().todos(10_000).build().todos();
+    assertEquals(10_000, todos.length);
+    Set<String> ids = new HashSet<>();
+    Set<String> owners = new HashSet<>();
+    Set<String> categories = new HashSet<>();
+    int complete = 0;
+    for (Todo todo : todos) {
+      ids.add(todo._id);
+      owners.add(todo.owner);
+      categories.add(todo.category);
+      assertEquals(24, todo._id.length());
+      int words = todo.body.split(" ").length;
+      assertTrue(words >= 10 && words <= 30, todo.body);
+      assertTrue(Character.isUpperCase(todo.body.charAt(0)));
+      assertTrue(todo.body.endsWith("."));
+      complete += todo.status ? 1 : 0;
+    }
+    assertEquals(10_000, ids.size());
+    assertEquals(Set.of("Blanche", "Fry", "Barry", "Dawn", "Roberta", "Workman"), owners);
+    assertEquals(Set.of("software design", "video games", "homework", "groceries"), categories);
+    assertEquals(0.48, complete / 10_000.0, 0.03);
+  }
+
+  @Test
+  public void cardinalityAndSkewCanBeChosen() {
+    Todo[] todos = DataGenerator.builder().todos(20_000)
+        .owners(30, 1.5)
+        .categories(10, 0)
+        .complete(0.9)
+        .build().todos();
+    Map<String, Integer> byOwner = new HashMap<>();
+    Map<String, Integer> byCategory = new HashMap<>();
+    int complete = 0;
+    for (Todo todo : todos) {
+      byOwner.merge(todo.owner, 1, Integer::sum);
+      byCategory.merge(todo.category, 1, Integer::sum);
+      complete += todo.status ? 1 : 0;
+    }
+    assertTrue(byOwner.size() <= 30);
+    assertTrue(byOwner.containsKey("Blanche 2"));
+    // With a skew of 1.5, the top owner has over a third of the todos, and
+    // 2^1.5 (about 2.8) times as many as the second one has
+    assertTrue(byOwner.get("Blanche") > todos.length / 3);
+    assertEquals(2.83, byOwner.get("Blanche") / (double) byOwner.get("Fry"), 0.3);
+    // With no skew, every category has about a tenth
+    assertEquals(10, byCategory.size());
+    for (int count : byCategory.values()) {
+      assertEquals(2000, count, 250);
+    }
+    assertEquals(0.9, complete / 20_000.0, 0.02);
+  }
+
+  @Test
+  public void bodyLengthsFollowTheirDistribution() {
+    for (DataGenerator.Lengths lengths : DataGenerator.Lengths.values()) {
+      Todo[] todos = DataGenerator.builder().todos(5000).bodyWords(3, 40, lengths).build().todos();
+      int[] counts = new int[41];
+      for (Todo todo : todos) {
+        int words = todo.body.split(" ").length;
+        assertTrue(words >= 3 && words <= 40, lengths + ": " + todo.body);
+        counts[words]++;
+      }
+      if (lengths == DataGenerator.Lengths.LONG_TAIL) {
+        assertTrue(counts[3] > counts[20] * 5);
+      } else if (lengths == DataGenerator.Lengths.NORMAL) {
+        assertTrue(counts[21] > counts[4] * 5);
+      } else {
+        assertEquals(5000 / 38.0, counts[3], 50);
+        assertEquals(5000 / 38.0, counts[21], 50);
+      }
+    }
+    Todo[] oneWord = DataGenerator.builder().todos(10).bodyWords(1, 1, DataGenerator.Lengths.NORMAL).build().todos();
+    assertFalse(oneWord[0].body.contains(" "));
+  }
+
+  @Test
+  public void usersLookLikeTheRealOnes() {
+    User[] users = DataGenerator.builder().users(5000).companies(20, 1).build().users();
+    assertEquals(5000, users.length);
+    Set<String> companies = new HashSet<>();
+    for (User user : users) {
+      companies.add(user.company);
+      assertTrue(user.age >= 18);
+      assertTrue(user.name.contains(" "));
+      assertTrue(user.email.endsWith(".com"));
+      assertFalse(user.email.contains(" "));
+    }
+    assertTrue(companies.contains("OHMNET"));
+    assertTrue(companies.contains("OHMNET 2"));
+    assertTrue(companies.size() <= 20);
+  }
+
+  @Test
+  public void writesJsonAndNdjson() throws IOException {
+    DataGenerator generator = DataGenerator.builder().todos(100).build();
+    Todo[] fromArray = new ObjectMapper().readValue(todosJson(generator, false), Todo[].class);
+    assertEquals(100, fromArray.length);
+    String ndjson = todosJson(generator, true);
+    String[] lines = ndjson.split("\n");
+    assertEquals(100, lines.length);
+    assertTrue(lines[1].startsWith("{"));
+    assertEquals(fromArray[7]._id, new ObjectMapper().readValue(lines[7], Todo.class)._id);
+  }
+
+  @Test
+  public void writesDataFilesTheServerCanLoad() throws IOException {
+    DataGenerator.main(new String[] {
+      "todos=1000", "users=200", "seed=7", "owners=12", "ownerSkew=0.5", "categories=6", "categorySkew=1",
+      "companies=4", "companySkew=0", "minWords=2", "maxWords=8", "lengths=long_tail", "complete=0.25",
+      "format=ndjson", "out=" + dir,
+    });
+    TodoDatabase todos = new TodoDatabase(dir.resolve("todos.ndjson"), TodoDatabase.Storage.COLUMNS, null, null);
+    assertEquals(1000, todos.size());
+    UserDatabase users = new UserDatabase(dir.resolve("users.ndjson"), null, null);
+    assertEquals(200, users.size());
+
+    Path json = dir.resolve("json");
+    DataGenerator.main(new String[] {"todos=10", "out=" + json});
+    assertTrue(Files.exists(json.resolve("todos.json")));
+    assertFalse(Files.exists(json.resolve("users.json")));
+    assertEquals(10, new TodoDatabase(json.resolve("todos.json"), TodoDatabase.Storage.OBJECTS, null, null).size());
+  }
+
+  @Test
+  public void rejectsBadSettings() {
+    assertThrows(IllegalArgumentException.class, () -> DataGenerator.builder().todos(-1));
+    assertThrows(IllegalArgumentException.class, () -> DataGenerator.builder().owners(0, 1));
+    assertThrows(IllegalArgumentException.class,
+        () -> DataGenerator.builder().bodyWords(10, 5, DataGenerator.Lengths.UNIFORM));
+    assertThrows(IllegalArgumentException.class, () -> DataGenerator.builder().complete(1.5));
+    assertThrows(IllegalArgumentException.class, () -> DataGenerator.builder().complete(-0.1));
+    assertThrows(IllegalArgumentException.class, () -> DataGenerator.main(new String[] {"todos"}));
+    assertArrayEquals(new Todo[0], DataGenerator.builder().build().todos());
+  }
+}
@@ -0,0 +1,88 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests reloading data when its file changes, and the reload metrics.
+ */
+@SuppressWarnings({ "MagicNumber" })
+public class DataReloaderSpec {
+
+  private static final long TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(20);
+
+  private Path dir;
+  private final AtomicLong generation = new AtomicLong(1);
+
+  @BeforeEach
+  public void setUp(@TempDir Path tempDir) {
+    dir = tempDir;
+  }
+
+  @Test
+  public void countsReloadsAndFailures() {
+    boolean[] fail = {false};
+    DataReloader reloader = new DataReloader(() -> {
+      if (fail[0]) {
+        throw new IOException("bad data");
+      }
+      generation.incrementAndGet();
+    }, generation::get);
+
+    assertTrue(reloader.reloadNow());
+    fail[0] = true;
+    assertFalse(reloader.reloadNow());
+
+    Map<String, Object> stats = reloader.stats();
+    assertEquals(2L, stats.get("generation"));
+    assertEquals(1L, stats.get("reloads"));
+    assertEquals(1L, stats.get("failures"));
+    assertTrue((Double) stats.get("lastReloadMillis") >= 0);
+    assertEquals("java.io.IOException: bad data", stats.get("lastError"));
+
+    fail[0] = false;
+    assertTrue(reloader.reloadNow());
+    assertNull(reloader.stats().get("lastError"));
+  }
+
+  @Test
+  public void reloadsWhenTheFileChanges() throws IOException, InterruptedException {
+    Path file = dir.resolve("data.json");
+    Files.write(file, "[]".getBytes(StandardCharsets.UTF_8));
+    try (DataReloader reloader = new DataReloader(generation::incrementAndGet, generation::get)) {
+      reloader.watch(file);
+      assertThrows(IllegalStateException.class, () -> reloader.watch(file));
+
+      // Changes to other files in the directory don't count
+      Files.write(dir.resolve("other.json"), "[]".getBytes(StandardCharsets.UTF_8));
+      Files.write(file, "[{}]".getBytes(StandardCharsets.UTF_8));
+
+      long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+      while (reloader.reloads() == 0 && System.currentTimeMillis() < deadline) {
+        Thread.sleep(DataReloader.QUIET_MILLIS);
+      }
+      assertEquals(1, reloader.reloads());
+      assertEquals(2, generation.get());
+    }
+  }
+
+  @Test
+  public void closingWithoutWatchingIsFine() throws IOException {
+    new DataReloader(() -> { }, generation::get).close();
+  }
+}
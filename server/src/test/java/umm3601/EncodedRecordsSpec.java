@@ -0,0 +1,138 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that writing pre-encoded records gives exactly the bytes that
+ * serializing them on the fly with `StreamingJson` does.
+ */
+@SuppressWarnings({ "MagicNumber" })
+public class EncodedRecordsSpec {
+
+  private static final List<Object> RECORDS = List.of(
+      Map.of("name", "Fry", "age", 25),
+      Map.of("name", "Leela \"Turanga\"", "note", "naïve café, 日本"),
+      List.of(1, 2, 3),
+      "just a string",
+      Map.of());
+
+  private static String streamed(boolean ndjson, int... positions) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    StreamingJson.write(out, ndjson, records -> {
+      for (int position : positions) {
+        records.accept(RECORDS.get(position));
+      }
+    });
+    return out.toString(StandardCharsets.UTF_8);
+  }
+
+  private static String encoded(EncodedRecords encoded, boolean ndjson, int... positions) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    encoded.write(out, ndjson, records -> {
+      for (int position : positions) {
+        records.accept(position);
+      }
+    });
+    return out.toString(StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void writesTheSameBytesAsSerializingEachTime() {
+    EncodedRecords encoded = new EncodedRecords(RECORDS.size(), RECORDS::get);
+    int[][] selections = {{}, {0}, {0, 1, 2, 3, 4}, {4, 1, 1}, {3, 0}};
+    for (int[] positions : selections) {
+      for (boolean ndjson : new boolean[] {false, true}) {
+        assertEquals(streamed(ndjson, positions), encoded(encoded, ndjson, positions));
+      }
+    }
+    assertEquals("[]", encoded(encoded, false));
+    assertEquals("[\"just a string\",[1,2,3]]", encoded(encoded, false, 3, 2));
+    assertEquals("\"just a string\"\n[1,2,3]\n", encoded(encoded, true, 3, 2));
+  }
+
+  @Test
+  public void recordsCanBeSpreadOverSegments() {
+    // Bigger than a segment, so each one gets a segment of its own
+    String big = "x".repeat(17 * 1024 * 1024);
+    EncodedRecords encoded = new EncodedRecords(3, i -> i == 1 ? big : "record " + i);
+    assertEquals(big.length() + 2 + "\"record 0\"".length() * 2, encoded.bytes());
+    String written = encoded(encoded, false, 2, 1, 0);
+    assertEquals("[\"record 2\",\"" + big + "\",\"record 0\"]", written);
+  }
+
+  @Test
+  public void noRecordsTakeNoBytes() {
+    EncodedRecords encoded = new EncodedRecords(0, i -> null);
+    assertEquals(0, encoded.bytes());
+    assertEquals("", encoded(encoded, true));
+  }
+
+  // Records written to a payload and read back, from off the heap (as
+  // they are from a mapped snapshot)
+  private static EncodedRecords readBack(ByteArrayOutputStream payload) {
+    ByteBuffer in = ByteBuffer.allocateDirect(payload.size());
+    in.put(payload.toByteArray()).flip();
+    EncodedRecords read = EncodedRecords.read(in);
+    assertEquals(0, in.remaining());
+    return read;
+  }
+
+  @Test
+  public void recordsCanBeWrittenToAPayloadAndReadBack() throws IOException {
+    ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+    EncodedRecords.write(new DataOutputStream(streamed), RECORDS.size(), RECORDS::get);
+    ByteArrayOutputStream copied = new ByteArrayOutputStream();
+    new EncodedRecords(RECORDS.size(), RECORDS::get).write(new DataOutputStream(copied));
+
+    for (EncodedRecords read : List.of(readBack(streamed), readBack(copied))) {
+      assertEquals(RECORDS.size(), read.size());
+      for (boolean ndjson : new boolean[] {false, true}) {
+        assertEquals(streamed(ndjson, 0, 1, 2, 3, 4), encoded(read, ndjson, 0, 1, 2, 3, 4));
+        assertEquals(streamed(ndjson, 3, 1), encoded(read, ndjson, 3, 1));
+      }
+    }
+  }
+
+  @Test
+  public void changedRecordsAreWrittenToAPayload() throws IOException {
+    BitSet changed = new BitSet();
+    changed.set(1);
+    changed.set(5);
+    EncodedRecords encoded = new EncodedRecords(RECORDS.size(), RECORDS::get)
+        .with(changed, i -> i == 1 ? "changed" : "added");
+    ByteArrayOutputStream payload = new ByteArrayOutputStream();
+    encoded.write(new DataOutputStream(payload));
+
+    EncodedRecords read = readBack(payload);
+    assertEquals(6, read.size());
+    assertEquals(encoded(encoded, false, 0, 1, 2, 3, 4, 5), encoded(read, false, 0, 1, 2, 3, 4, 5));
+    assertEquals("[\"changed\",\"added\"]", encoded(read, false, 1, 5));
+  }
+
+  @Test
+  public void unchangedRecordsAreCopiedRatherThanSerializedAgain() {
+    EncodedRecords previous = new EncodedRecords(RECORDS.size(), RECORDS::get);
+    int[] serialized = {0};
+    // The old records in reverse, then a new one; only the new one (and
+    // the one that's said to have changed) should be serialized
+    EncodedRecords reloaded = new EncodedRecords(RECORDS.size() + 1, i -> {
+      serialized[0]++;
+      return i < RECORDS.size() ? RECORDS.get(RECORDS.size() - 1 - i) : "new";
+    }, previous, i -> i < RECORDS.size() && i != 2 ? RECORDS.size() - 1 - i : -1);
+
+    assertEquals(2, serialized[0]);
+    String old = streamed(false, 4, 3, 2, 1, 0);
+    assertEquals(old.substring(0, old.length() - 1) + ",\"new\"]", encoded(reloaded, false, 0, 1, 2, 3, 4, 5));
+  }
+}
@@ -0,0 +1,116 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+
+/**
+ * Tests streaming records out of JSON data files.
+ */
+@SuppressWarnings({ "MagicNumber" })
+public class JsonLoaderSpec {
+
+  private Path dir;
+
+  @BeforeEach
+  public void setUp(@TempDir Path tempDir) {
+    dir = tempDir;
+  }
+
+  /**
+   * Records every field as "name=value", and each record end as "|".
+   */
+  private static final class Recorder implements JsonLoader.RecordHandler {
+    private final List<String> events = new ArrayList<>();
+
+    @Override
+    public void field(String name, JsonParser parser) throws IOException {
+      events.add(name + "=" + parser.getValueAsString());
+    }
+
+    @Override
+    public void endRecord() {
+      events.add("|");
+    }
+  }
+
+  private Path file(String json) throws IOException {
+    Path file = dir.resolve("data.json");
+    Files.write(file, json.getBytes(StandardCharsets.UTF_8));
+    return file;
+  }
+
+  @Test
+  public void loadsAnArrayOfRecords() throws IOException {
+    Recorder recorder = new Recorder();
+    List<JsonLoader.Progress> reports = new ArrayList<>();
+    JsonLoader.Progress done = JsonLoader.load(
+        file("[{\"a\": \"x\", \"b\": 3}, {\"nested\": {\"a\": [1, 2]}, \"a\": null}, {}]"), recorder, reports::add);
+
+    assertEquals(List.of("a=x", "b=3", "|", "nested=null", "a=null", "|", "|"), recorder.events);
+    assertEquals(3, done.records());
+    assertTrue(done.done());
+    assertEquals(done.totalBytes(), done.bytes());
+    assertEquals(List.of(done), reports);
+  }
+
+  @Test
+  public void loadsOneRecordAfterAnother() throws IOException {
+    Recorder recorder = new Recorder();
+    JsonLoader.Progress done = JsonLoader.load(file("{\"a\": \"x\"}\n{\"a\": \"y\"}\n"), recorder, null);
+
+    assertEquals(List.of("a=x", "|", "a=y", "|"), recorder.events);
+    assertEquals(2, done.records());
+  }
+
+  @Test
+  public void rejectsThingsThatAreNotRecords() throws IOException {
+    assertThrows(JsonParseException.class, () -> JsonLoader.load(file("[1, 2]"), new Recorder(), null));
+    assertThrows(JsonParseException.class, () -> JsonLoader.load(file("[{}] {}"), new Recorder(), null));
+    assertThrows(JsonParseException.class, () -> JsonLoader.load(file("{} 7"), new Recorder(), null));
+    assertThrows(JsonParseException.class, () -> JsonLoader.load(file("[{}"), new Recorder(), null));
+  }
+
+  @Test
+  public void reportsProgressWhileLoading() throws IOException {
+    StringBuilder json = new StringBuilder();
+    for (int i = 0; i < JsonLoader.REPORT_INTERVAL + 1; i++) {
+      json.append("{}\n");
+    }
+    List<JsonLoader.Progress> reports = new ArrayList<>();
+    JsonLoader.load(file(json.toString()), new Recorder(), reports::add);
+
+    assertEquals(2, reports.size());
+    JsonLoader.Progress first = reports.get(0);
+    assertFalse(first.done());
+    assertEquals(JsonLoader.REPORT_INTERVAL, first.records());
+    assertTrue(first.bytes() > 0 && first.bytes() < first.totalBytes());
+    assertTrue(first.elapsedNanos() > 0);
+    assertTrue(first.recordsPerSecond() > 0);
+    assertTrue(first.megabytesPerSecond() > 0);
+    assertTrue(first.toString().startsWith("Loading 100,000 records ("));
+    assertTrue(reports.get(1).toString().startsWith("Loaded 100,001 records (100% of 300,003 bytes)"));
+  }
+
+  @Test
+  public void emptyFilesHaveNoRecords() throws IOException {
+    JsonLoader.Progress done = JsonLoader.load(file(""), new Recorder(), null);
+    assertEquals(0, done.records());
+    assertTrue(done.toString().startsWith("Loaded 0 records (100% of 0 bytes)"));
+  }
+}
@@ -0,0 +1,82 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests the log-linear latency histogram: its precision, its quantiles,
+ * and that recording into it doesn't allocate.
+ */
+@SuppressWarnings({ "MagicNumber" })
+public class LatencyHistogramSpec {
+
+  @Test
+  public void emptyHistogramsReportZero() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    assertEquals(0, histogram.count());
+    assertEquals(0, histogram.sum());
+    assertEquals(0, histogram.max());
+    assertEquals(0, histogram.valueAtQuantile(0.99));
+  }
+
+  @Test
+  public void bucketsKeepValuesWithinThreePercent() {
+    Random random = new Random(3601);
+    for (int i = 0; i < 100_000; i++) {
+      long value = random.nextLong() & LatencyHistogram.MAX_VALUE;
+      value >>>= random.nextInt(40);
+      int bucket = LatencyHistogram.bucketOf(value);
+      long highest = LatencyHistogram.highestValueIn(bucket);
+      assertTrue(highest >= value, value + " is above its bucket's top, " + highest);
+      assertTrue(highest - value <= value / 32, value + " is too far from its bucket's top, " + highest);
+      // Buckets don't overlap
+      assertTrue(bucket == 0 || LatencyHistogram.highestValueIn(bucket - 1) < value);
+    }
+    assertEquals(7, LatencyHistogram.highestValueIn(LatencyHistogram.bucketOf(7)));
+  }
+
+  @Test
+  public void quantilesComeFromTheRecordedValues() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (long value = 1; value <= 1000; value++) {
+      histogram.record(value * 1000);
+    }
+    assertEquals(1000, histogram.count());
+    assertEquals(500_500_000L, histogram.sum());
+    assertEquals(1_000_000, histogram.max());
+    assertEquals(500_000, histogram.valueAtQuantile(0.5), 500_000 / 32.0);
+    assertEquals(990_000, histogram.valueAtQuantile(0.99), 990_000 / 32.0);
+    // Never more than the largest value actually seen
+    assertEquals(1_000_000, histogram.valueAtQuantile(1));
+    assertEquals(1000, histogram.valueAtQuantile(0), 1000 / 32.0);
+  }
+
+  @Test
+  public void outOfRangeValuesAreClamped() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(-5);
+    histogram.record(Long.MAX_VALUE);
+    assertEquals(2, histogram.count());
+    assertEquals(0, histogram.valueAtQuantile(0.5));
+    assertEquals(LatencyHistogram.MAX_VALUE, histogram.valueAtQuantile(1));
+  }
+
+  @Test
+  public void recordingDoesNotAllocate() {
+    com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(1);
+    long before = threads.getCurrentThreadAllocatedBytes();
+    for (long value = 0; value < 100_000; value++) {
+      histogram.record(value * 7919);
+    }
+    long allocated = threads.getCurrentThreadAllocatedBytes() - before;
+    // Reading the allocation counter can allocate a little itself
+    assertTrue(allocated < 1024, "Recording allocated " + allocated + " bytes");
+  }
+}
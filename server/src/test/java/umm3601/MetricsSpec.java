@@ -0,0 +1,114 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import org.eclipse.jetty.server.HttpOutput;
+import org.eclipse.jetty.server.Response;
+import org.junit.jupiter.api.Test;
+
+import io.javalin.http.Context;
+import io.javalin.http.HandlerType;
+
+/**
+ * Tests the metrics registry, its Prometheus output, and the per-route
+ * request metrics.
+ */
+@SuppressWarnings({ "MagicNumber" })
+public class MetricsSpec {
+
+  @Test
+  public void writesCountersAndTimersInThePrometheusFormat() {
+    Metrics metrics = new Metrics();
+    metrics.counter("widgets_total", "Widgets made", "color=\"red\"").add(3);
+    metrics.counter("widgets_total", "Widgets made", "color=\"blue\"").increment();
+    LatencyHistogram timer = metrics.timer("work_duration_seconds", "How long work took", "");
+    timer.record(2_000_000);
+    timer.record(500_000_000);
+
+    String text = metrics.prometheus();
+    assertTrue(text.startsWith("# HELP widgets_total Widgets made\n# TYPE widgets_total counter\n"), text);
+    assertTrue(text.contains("widgets_total{color=\"red\"} 3\n"), text);
+    assertTrue(text.contains("widgets_total{color=\"blue\"} 1\n"), text);
+    assertTrue(text.contains("# TYPE work_duration_seconds summary\n"), text);
+    assertTrue(text.contains("work_duration_seconds{quantile=\"0.999\"} 0.5\n"), text);
+    assertTrue(text.contains("work_duration_seconds_sum 0.502\n"), text);
+    assertTrue(text.contains("work_duration_seconds_count 2\n"), text);
+  }
+
+  @Test
+  public void gaugesAreReadWhenWrittenOut() {
+    Metrics metrics = new Metrics();
+    long[] level = {7};
+    metrics.gauge("level", "The current level", "tank=\"a\"", () -> level[0]);
+    assertTrue(metrics.prometheus().contains("# TYPE level gauge\nlevel{tank=\"a\"} 7\n"));
+    level[0] = 3;
+    assertTrue(metrics.prometheus().contains("level{tank=\"a\"} 3\n"));
+    assertThrows(IllegalArgumentException.class, () -> metrics.counter("level", "The current level", ""));
+  }
+
+  @Test
+  public void registeringTwiceGivesTheSameMetric() {
+    Metrics metrics = new Metrics();
+    assertSame(metrics.counter("a_total", "A", ""), metrics.counter("a_total", "A", ""));
+    assertSame(metrics.timer("b_seconds", "B", "x=\"1\""), metrics.timer("b_seconds", "B", "x=\"1\""));
+    assertThrows(IllegalArgumentException.class, () -> metrics.timer("a_total", "A", ""));
+  }
+
+  private static Context request(HandlerType method, String path, int status) {
+    Context ctx = mock(Context.class);
+    when(ctx.method()).thenReturn(method);
+    when(ctx.endpointHandlerPath()).thenReturn(path);
+    when(ctx.statusCode()).thenReturn(status);
+    return ctx;
+  }
+
+  @Test
+  public void recordsRegisteredRoutes() {
+    Metrics metrics = new Metrics();
+    RequestMetrics requests = new RequestMetrics(metrics);
+    requests.route(HandlerType.GET, "/api/todos");
+    requests.route(HandlerType.GET, "/api/todos/{id}");
+    requests.route(HandlerType.DELETE, "/api/todos/{id}");
+
+    Response response = mock(Response.class);
+    HttpOutput output = mock(HttpOutput.class);
+    when(response.getHttpOutput()).thenReturn(output);
+    when(output.getWritten()).thenReturn(1234L);
+    when(response.getHeader("X-Total-Count")).thenReturn("42");
+    Context list = request(HandlerType.GET, "/api/todos", 200);
+    when(list.res()).thenReturn(response);
+    requests.handle(list, 3.5f);
+    requests.handle(list, 1.5f);
+
+    requests.handle(request(HandlerType.GET, "/api/todos/{id}", 404), 0.25f);
+    requests.handle(request(HandlerType.DELETE, "/api/todos/{id}", 204), 1f);
+    requests.handle(request(HandlerType.GET, "/api/todos/{id}", 999), 1f);
+    // Not registered, so not recorded
+    requests.handle(request(HandlerType.PUT, "/api/todos/{id}", 200), 1f);
+    requests.handle(request(HandlerType.GET, "/hello", 200), 1f);
+    // Never reached an endpoint, so it has no route
+    Context unmatched = request(HandlerType.HEAD, "/api/todos", 200);
+    when(unmatched.handlerType()).thenReturn(HandlerType.BEFORE);
+    when(unmatched.endpointHandlerPath()).thenThrow(new IllegalStateException("no endpoint"));
+    requests.handle(unmatched, 1f);
+
+    String text = metrics.prometheus();
+    String list200 = "method=\"GET\",route=\"/api/todos\"";
+    assertTrue(text.contains("http_request_duration_seconds_count{" + list200 + "} 2\n"), text);
+    assertTrue(text.contains("http_request_duration_seconds_sum{" + list200 + "} 0.005\n"), text);
+    assertTrue(text.contains("http_requests_total{" + list200 + ",code=\"2xx\"} 2\n"), text);
+    assertTrue(text.contains("http_response_bytes_total{" + list200 + "} 2468\n"), text);
+    assertTrue(text.contains("http_result_matches_total{" + list200 + "} 84\n"), text);
+    assertTrue(text.contains("http_requests_total{method=\"GET\",route=\"/api/todos/{id}\",code=\"4xx\"} 1\n"), text);
+    assertTrue(text.contains("http_request_duration_seconds_count{method=\"GET\",route=\"/api/todos/{id}\"} 2\n"),
+        text);
+    assertTrue(text.contains("http_requests_total{method=\"DELETE\",route=\"/api/todos/{id}\",code=\"2xx\"} 1\n"),
+        text);
+    assertFalse(text.contains("PUT"), text);
+  }
+}
@@ -0,0 +1,81 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.BitSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntPredicate;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that parallel scans find exactly the candidates a sequential check
+ * would, and stay within their own bounded pool of threads.
+ */
+@SuppressWarnings({ "MagicNumber" })
+public class ParallelScanSpec {
+
+  private static BitSet sequential(BitSet candidates, IntPredicate test) {
+    BitSet result = new BitSet();
+    for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+      if (test.test(i)) {
+        result.set(i);
+      }
+    }
+    return result;
+  }
+
+  @Test
+  public void findsTheSameMatchesAsCheckingInOrder() {
+    Random random = new Random(24);
+    try (ParallelScan scan = new ParallelScan(4, 1)) {
+      for (int size : new int[] {0, 1, 63, 64, 65, 4097, 100_003}) {
+        BitSet candidates = new BitSet(size);
+        for (int i = 0; i < size; i++) {
+          if (random.nextInt(3) != 0) {
+            candidates.set(i);
+          }
+        }
+        IntPredicate test = i -> Integer.bitCount(i * 31) % 3 == 0;
+        assertEquals(sequential(candidates, test), scan.filter(candidates, test), "size " + size);
+      }
+    }
+  }
+
+  @Test
+  public void onlyLargeCandidateSetsAreWorthIt() {
+    try (ParallelScan scan = new ParallelScan(2, 1000)) {
+      assertFalse(scan.worthIt(999));
+      assertTrue(scan.worthIt(1000));
+    }
+  }
+
+  @Test
+  public void neverUsesMoreThreadsThanItsParallelism() {
+    Set<Thread> threads = ConcurrentHashMap.newKeySet();
+    BitSet candidates = new BitSet();
+    candidates.set(0, 200_000);
+    try (ParallelScan scan = new ParallelScan(3, 1)) {
+      BitSet matches = scan.filter(candidates, i -> {
+        threads.add(Thread.currentThread());
+        return i % 2 == 0;
+      });
+      assertEquals(100_000, matches.cardinality());
+    }
+    assertTrue(threads.size() <= 3);
+    assertFalse(threads.contains(Thread.currentThread()));
+    for (Thread thread : threads) {
+      assertTrue(thread.getName().startsWith("parallel-scan-"));
+    }
+  }
+
+  @Test
+  public void rejectsNoThreads() {
+    assertThrows(IllegalArgumentException.class, () -> new ParallelScan(0, 1));
+  }
+}
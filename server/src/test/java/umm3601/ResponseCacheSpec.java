@@ -0,0 +1,211 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import io.javalin.http.Context;
+import io.javalin.http.HttpStatus;
+
+/**
+ * Tests the eviction, invalidation, and ETag handling of the ResponseCache
+ */
+@SuppressWarnings({ "MagicNumber" })
+public class ResponseCacheSpec {
+
+  private ResponseCache cache;
+
+  @BeforeEach
+  public void setUp() {
+    cache = new ResponseCache(10);
+  }
+
+  private static ResponseCache.Entry entry(String body) {
+    return new ResponseCache.Entry(body.getBytes(StandardCharsets.UTF_8), "application/json", new HashMap<>());
+  }
+
+  @Test
+  public void keysIgnoreParameterOrder() {
+    Map<String, List<String>> first = new LinkedHashMap<>();
+    first.put("owner", Arrays.asList("Fry"));
+    first.put("limit", Arrays.asList("10"));
+    Map<String, List<String>> second = new LinkedHashMap<>();
+    second.put("limit", Arrays.asList("10"));
+    second.put("owner", Arrays.asList("Fry"));
+
+    assertEquals(ResponseCache.key(first, "json"), ResponseCache.key(second, "json"));
+    assertNotEquals(ResponseCache.key(first, "json"), ResponseCache.key(first, "ndjson"));
+  }
+
+  @Test
+  public void countsHitsAndMisses() {
+    assertNull(cache.lookup("a", 1));
+    cache.put("a", 1, entry("[1]"));
+    assertEquals("[1]", new String(cache.lookup("a", 1).body(), StandardCharsets.UTF_8));
+
+    assertEquals(1, cache.hits());
+    assertEquals(1, cache.misses());
+    assertEquals(3, cache.bytes());
+  }
+
+  @Test
+  public void evictsLeastRecentlyUsedWhenFull() {
+    cache.put("a", 1, entry("aaaa"));
+    cache.put("b", 1, entry("bbbb"));
+    // Use "a" so that "b" is the least recently used
+    cache.lookup("a", 1);
+    cache.put("c", 1, entry("cccc"));
+
+    assertNull(cache.lookup("b", 1));
+    assertEquals("aaaa", new String(cache.lookup("a", 1).body(), StandardCharsets.UTF_8));
+    assertEquals(1, cache.evictions());
+    assertEquals(8, cache.bytes());
+  }
+
+  @Test
+  public void replacingAnEntryKeepsTheSizeRight() {
+    cache.put("a", 1, entry("aaaa"));
+    cache.put("a", 1, entry("aa"));
+    assertEquals(2, cache.bytes());
+  }
+
+  @Test
+  public void doesNotKeepEntriesBiggerThanTheCache() {
+    ResponseCache.Entry big = entry("this is far too big");
+    assertSame(big, cache.put("big", 1, big));
+    assertNull(cache.lookup("big", 1));
+    assertEquals(0, cache.bytes());
+  }
+
+  @Test
+  public void newDataVersionInvalidatesEverything() {
+    cache.put("a", 1, entry("aaaa"));
+    assertNull(cache.lookup("a", 2));
+
+    // Responses made from the old data can't come back
+    cache.put("a", 1, entry("aaaa"));
+    assertNull(cache.lookup("a", 1));
+    assertNull(cache.lookup("a", 2));
+
+    Map<String, Long> stats = cache.stats();
+    assertEquals(0L, stats.get("entries"));
+    assertEquals(3L, stats.get("misses"));
+  }
+
+  @Test
+  public void etagsAreStrongAndDependOnTheBody() {
+    String etag = entry("[1]").etag();
+    assertTrue(etag.matches("\"[0-9a-f]{32}\""));
+    assertEquals(etag, entry("[1]").etag());
+    assertNotEquals(etag, entry("[2]").etag());
+  }
+
+  @Test
+  public void matchesIfNoneMatchHeaders() {
+    ResponseCache.Entry cached = entry("[1]");
+    assertFalse(cached.matches(null));
+    assertFalse(cached.matches("\"other\""));
+    assertTrue(cached.matches("\"other\", " + cached.etag()));
+    assertTrue(cached.matches("*"));
+  }
+
+  @Test
+  public void sendsBodyWithHeaders() {
+    Map<String, String> headers = new HashMap<>();
+    headers.put("X-Total-Count", "1");
+    ResponseCache.Entry cached = new ResponseCache.Entry(new byte[] {'[', ']'}, "application/json", headers);
+    Context ctx = mock(Context.class);
+
+    cached.send(ctx);
+
+    verify(ctx).header("X-Total-Count", "1");
+    verify(ctx).header("ETag", cached.etag());
+    verify(ctx).contentType("application/json");
+    verify(ctx).result(cached.body());
+    assertArrayEquals(new byte[] {'[', ']'}, cached.body());
+    assertEquals("application/json", cached.contentType());
+    assertEquals("1", cached.headers().get("X-Total-Count"));
+  }
+
+  @Test
+  public void sendsNotModifiedWhenClientHasTheBody() {
+    ResponseCache.Entry cached = entry("[1]");
+    Context ctx = mock(Context.class);
+    when(ctx.header("If-None-Match")).thenReturn(cached.etag());
+
+    cached.send(ctx);
+
+    verify(ctx).status(HttpStatus.NOT_MODIFIED);
+    verify(ctx, never()).result(any(byte[].class));
+  }
+
+  private static ResponseCache.Entry bigEntry() {
+    String body = "[" + "{\"owner\":\"Blanche\",\"category\":\"homework\"},".repeat(100) + "{}]";
+    return new ResponseCache.Entry(body.getBytes(StandardCharsets.UTF_8), "application/json", new HashMap<>());
+  }
+
+  @Test
+  public void keepsBigBodiesGzipped() {
+    ResponseCache.Entry big = bigEntry();
+    assertTrue(big.gzipped());
+    assertTrue(big.size() < big.body().length / 5);
+    assertTrue(new String(big.body(), StandardCharsets.UTF_8).startsWith("[{\"owner\":\"Blanche\""));
+    assertFalse(entry("[1]").gzipped());
+    // Text that doesn't shrink isn't kept gzipped
+    byte[] noise = new byte[Compression.MIN_SIZE * 2];
+    new Random(1).nextBytes(noise);
+    assertFalse(new ResponseCache.Entry(noise, "text/plain", new HashMap<>()).gzipped());
+
+    ResponseCache bigCache = new ResponseCache(1000);
+    bigCache.put("big", 1, big);
+    assertEquals(big.size(), bigCache.bytes());
+  }
+
+  @Test
+  public void sendsGzippedBodiesToClientsThatAcceptThem() {
+    ResponseCache.Entry big = bigEntry();
+    Context gzipClient = mock(Context.class);
+    when(gzipClient.header("Accept-Encoding")).thenReturn("gzip, deflate");
+    big.send(gzipClient);
+    verify(gzipClient).header("Content-Encoding", "gzip");
+    verify(gzipClient).header("Vary", "Accept-Encoding");
+    ArgumentCaptor<String> gzipEtag = ArgumentCaptor.forClass(String.class);
+    verify(gzipClient).header(eq("ETag"), gzipEtag.capture());
+    assertNotEquals(big.etag(), gzipEtag.getValue());
+    ArgumentCaptor<byte[]> gzipped = ArgumentCaptor.forClass(byte[].class);
+    verify(gzipClient).result(gzipped.capture());
+    assertArrayEquals(big.body(), Compression.gunzip(gzipped.getValue()));
+
+    Context plainClient = mock(Context.class);
+    big.send(plainClient);
+    verify(plainClient, never()).header(eq("Content-Encoding"), any());
+    verify(plainClient).header("ETag", big.etag());
+    verify(plainClient).result(big.body());
+
+    // Either ETag means the client already has it
+    assertTrue(big.matches(gzipEtag.getValue()));
+    assertFalse(entry("[1]").matches(gzipEtag.getValue()));
+  }
+}
@@ -0,0 +1,127 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests writing snapshot files and the checks made when opening them.
+ */
+@SuppressWarnings({ "MagicNumber" })
+public class SnapshotSpec {
+
+  private Path dir;
+
+  @BeforeEach
+  public void setUp(@TempDir Path tempDir) {
+    dir = tempDir;
+  }
+
+  private final Snapshot.Source source = new Snapshot.Source(100, 12345);
+
+  private Path writeSample() throws IOException {
+    Path file = dir.resolve("sample.snap");
+    Snapshot.write(file, source, out -> {
+      out.writeInt(42);
+      Snapshot.writeString(out, "hello");
+      Snapshot.writeString(out, null);
+    });
+    return file;
+  }
+
+  @Test
+  public void readsBackWhatWasWritten() throws IOException {
+    ByteBuffer payload = Snapshot.open(writeSample(), source);
+    assertNotNull(payload);
+    assertEquals(42, payload.getInt());
+    assertEquals("hello", Snapshot.readString(payload));
+    assertNull(Snapshot.readString(payload));
+    assertEquals(0, payload.remaining());
+  }
+
+  @Test
+  public void readsBackEachSection() throws IOException {
+    Path file = dir.resolve("sections.snap");
+    Snapshot.write(file, source, out -> out.writeInt(1), out -> { }, out -> {
+      out.writeLong(2);
+      Snapshot.writeString(out, "three");
+    });
+    ByteBuffer[] sections = Snapshot.openSections(file, source);
+    assertEquals(3, sections.length);
+    assertEquals(1, sections[0].getInt());
+    assertEquals(0, sections[0].remaining());
+    assertEquals(0, sections[1].remaining());
+    assertEquals(2, sections[2].getLong());
+    assertEquals("three", Snapshot.readString(sections[2]));
+    assertEquals(0, sections[2].remaining());
+    // Only a snapshot with one section can be opened as one payload
+    assertNull(Snapshot.open(file, source));
+  }
+
+  @Test
+  public void ignoresSnapshotsOfOtherVersionsOfTheSource() throws IOException {
+    Path file = writeSample();
+    assertNull(Snapshot.open(file, new Snapshot.Source(101, 12345)));
+    assertNull(Snapshot.open(file, new Snapshot.Source(100, 12346)));
+  }
+
+  @Test
+  public void ignoresCorruptOrTruncatedSnapshots() throws IOException {
+    Path file = writeSample();
+    byte[] bytes = Files.readAllBytes(file);
+
+    bytes[bytes.length - 1] ^= 1;
+    Files.write(file, bytes);
+    assertNull(Snapshot.open(file, source));
+
+    Files.write(file, Arrays.copyOf(bytes, bytes.length - 1));
+    assertNull(Snapshot.open(file, source));
+
+    Files.write(file, new byte[] {1, 2, 3});
+    assertNull(Snapshot.open(file, source));
+
+    bytes[0] ^= 1;
+    Files.write(file, bytes);
+    assertNull(Snapshot.open(file, source));
+  }
+
+  @Test
+  public void missingSnapshotIsIgnored() {
+    assertNull(Snapshot.open(dir.resolve("missing.snap"), source));
+  }
+
+  @Test
+  public void failedWritesLeaveNothingBehind() throws IOException {
+    Path file = dir.resolve("failed.snap");
+    assertThrows(IOException.class, () -> Snapshot.write(file, source, out -> {
+      throw new IOException("disk full");
+    }));
+    try (Stream<Path> files = Files.list(dir)) {
+      assertEquals(0, files.count());
+    }
+  }
+
+  @Test
+  public void fingerprintsResources() throws IOException {
+    URL resource = getClass().getResource(Server.TODO_DATA_FILE);
+    Snapshot.Source fingerprint = Snapshot.Source.of(resource);
+    assertEquals(Files.size(Path.of(resource.getPath())), fingerprint.length());
+    assertEquals(Files.getLastModifiedTime(Path.of(resource.getPath())).toMillis(), fingerprint.lastModified());
+
+    assertThrows(NoSuchFileException.class, () -> Snapshot.Source.of(null));
+  }
+}
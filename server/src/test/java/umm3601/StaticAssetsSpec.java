@@ -0,0 +1,141 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import io.javalin.http.Context;
+import io.javalin.http.NotFoundResponse;
+
+/**
+ * Tests that the client's files are read and compressed once, served to
+ * suit the client, and read again when they change.
+ */
+@SuppressWarnings({ "MagicNumber" })
+public class StaticAssetsSpec {
+
+  private static final String SCRIPT = "function hello() { console.log('hello'); }\n".repeat(100);
+
+  private Path dir;
+  private StaticAssets assets;
+
+  @BeforeEach
+  public void setUp(@TempDir Path tempDir) throws IOException {
+    dir = tempDir;
+    Files.writeString(dir.resolve("index.html"), "<html></html>");
+    Files.createDirectories(dir.resolve("javascript"));
+    Files.writeString(dir.resolve("javascript/todos.js"), SCRIPT);
+    Files.write(dir.resolve("logo.png"), new byte[2000]);
+    Files.writeString(dir.resolve("README"), "notes");
+    assets = new StaticAssets(dir);
+  }
+
+  @Test
+  public void servesEveryFileAtItsPath() {
+    assertEquals(Set.of("/", "/index.html", "/javascript/todos.js", "/logo.png", "/README"), assets.paths());
+    assertSame(assets.get("/"), assets.get("/index.html"));
+    assertNull(assets.get("/missing.html"));
+
+    assertEquals("text/html; charset=utf-8", assets.get("/").contentType());
+    assertTrue(assets.get("/javascript/todos.js").contentType().contains("javascript"));
+    assertEquals("image/png", assets.get("/logo.png").contentType());
+    assertEquals("application/octet-stream", assets.get("/README").contentType());
+    assertEquals("no-cache", assets.get("/").headers().get("Cache-Control"));
+  }
+
+  @Test
+  public void compressesOnlyWhatsWorthIt() {
+    assertTrue(assets.get("/javascript/todos.js").gzipped());
+    assertArrayEquals(SCRIPT.getBytes(StandardCharsets.UTF_8), assets.get("/javascript/todos.js").body());
+    assertFalse(assets.get("/index.html").gzipped());
+    assertFalse(assets.get("/logo.png").gzipped());
+
+    Map<String, Long> stats = assets.stats();
+    assertEquals(4L, stats.get("files"));
+    long original = SCRIPT.length() + "<html></html>".length() + 2000 + "notes".length();
+    assertEquals(original, stats.get("originalBytes"));
+    assertTrue(stats.get("bytes") < original - SCRIPT.length() / 2);
+  }
+
+  @Test
+  public void sendsTheFileForTheRequestsPath() {
+    Context ctx = mock(Context.class);
+    when(ctx.path()).thenReturn("/javascript/todos.js");
+    when(ctx.header("Accept-Encoding")).thenReturn("gzip");
+    assets.send(ctx);
+    verify(ctx).header("Content-Encoding", "gzip");
+
+    Context missing = mock(Context.class);
+    when(missing.path()).thenReturn("/missing.js");
+    assertThrows(NotFoundResponse.class, () -> assets.send(missing));
+  }
+
+  @Test
+  public void answersHeadRequestsWithTheSameHeadersButNoBody() {
+    Context ctx = mock(Context.class);
+    when(ctx.path()).thenReturn("/index.html");
+    assets.sendHead(ctx);
+    verify(ctx).contentType("text/html; charset=utf-8");
+    verify(ctx).header("Content-Length", "13");
+    verify(ctx).header("Cache-Control", "no-cache");
+    verify(ctx, never()).result(any(byte[].class));
+
+    ResponseCache.Entry script = assets.get("/javascript/todos.js");
+    Context gzip = mock(Context.class);
+    when(gzip.path()).thenReturn("/javascript/todos.js");
+    when(gzip.header("Accept-Encoding")).thenReturn("gzip");
+    assets.sendHead(gzip);
+    verify(gzip).header("Vary", "Accept-Encoding");
+    verify(gzip).header("Content-Encoding", "gzip");
+    verify(gzip).header("Content-Length", Integer.toString(script.size()));
+    verify(gzip, never()).result(any(byte[].class));
+
+    // Clients that don't take gzip are told the length they'd get instead
+    Context plain = mock(Context.class);
+    when(plain.path()).thenReturn("/javascript/todos.js");
+    assets.sendHead(plain);
+    verify(plain).header("Vary", "Accept-Encoding");
+    verify(plain).header("Content-Length", Integer.toString(SCRIPT.length()));
+
+    Context missing = mock(Context.class);
+    when(missing.path()).thenReturn("/missing.js");
+    assertThrows(NotFoundResponse.class, () -> assets.sendHead(missing));
+  }
+
+  @Test
+  public void readsFilesAgainWhenTheyChange() throws IOException {
+    ResponseCache.Entry before = assets.get("/");
+    assertSame(before, assets.get("/"));
+
+    Path index = dir.resolve("index.html");
+    Files.writeString(index, "<html><body>changed</body></html>");
+    Files.setLastModifiedTime(index, FileTime.fromMillis(Files.getLastModifiedTime(index).toMillis() + 5000));
+    ResponseCache.Entry after = assets.get("/");
+    assertEquals("<html><body>changed</body></html>", new String(after.body(), StandardCharsets.UTF_8));
+    assertSame(after, assets.get("/index.html"));
+
+    Files.delete(index);
+    assertNull(assets.get("/"));
+  }
+}
@@ -0,0 +1,349 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests appending to, replaying, and recovering a write-ahead log.
+ */
+@SuppressWarnings({ "MagicNumber" })
+public class WriteAheadLogSpec {
+
+  private static final Snapshot.Source SOURCE = new Snapshot.Source(1234, 5678);
+
+  private Path file;
+
+  @BeforeEach
+  public void setUp(@TempDir Path tempDir) {
+    file = tempDir.resolve("sub").resolve("test.wal");
+  }
+
+  private static byte[] bytes(String text) {
+    return text.getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static List<String> replay(WriteAheadLog log) throws IOException {
+    List<String> records = new ArrayList<>();
+    log.replay(record -> {
+      byte[] bytes = new byte[record.remaining()];
+      record.get(bytes);
+      records.add(new String(bytes, StandardCharsets.UTF_8));
+    });
+    return records;
+  }
+
+  @Test
+  public void replaysWhatWasAppended() throws IOException {
+    try (WriteAheadLog log = new WriteAheadLog(file, SOURCE)) {
+      assertEquals(List.of(), replay(log));
+      log.append(List.of(bytes("one"), bytes("two")));
+      log.append(List.of(bytes(""), bytes("three")));
+      assertEquals(4, log.records());
+    }
+    try (WriteAheadLog log = new WriteAheadLog(file, SOURCE)) {
+      assertEquals(List.of("one", "two", "", "three"), replay(log));
+      assertEquals(4, log.records());
+      log.append(List.of(bytes("four")));
+    }
+    try (WriteAheadLog log = new WriteAheadLog(file, SOURCE)) {
+      assertEquals(List.of("one", "two", "", "three", "four"), replay(log));
+    }
+  }
+
+  @Test
+  public void mustBeReplayedBeforeAppending() throws IOException {
+    try (WriteAheadLog log = new WriteAheadLog(file, SOURCE)) {
+      assertThrows(IllegalStateException.class, () -> log.append(List.of(bytes("one"))));
+    }
+  }
+
+  @Test
+  public void cutsOffTornRecords() throws IOException {
+    try (WriteAheadLog log = new WriteAheadLog(file, SOURCE)) {
+      replay(log);
+      log.append(List.of(bytes("one"), bytes("two")));
+    }
+    byte[] whole = Files.readAllBytes(file);
+
+    // Half of the last record made it to disk
+    Files.write(file, Arrays.copyOf(whole, whole.length - 2));
+    try (WriteAheadLog log = new WriteAheadLog(file, SOURCE)) {
+      assertEquals(List.of("one"), replay(log));
+      log.append(List.of(bytes("three")));
+    }
+    try (WriteAheadLog log = new WriteAheadLog(file, SOURCE)) {
+      assertEquals(List.of("one", "three"), replay(log));
+    }
+
+    // A corrupted record, and everything after it, is dropped
+    byte[] corrupt = whole.clone();
+    corrupt[whole.length - 1] ^= 1;
+    Files.write(file, corrupt);
+    try (WriteAheadLog log = new WriteAheadLog(file, SOURCE)) {
+      assertEquals(List.of("one"), replay(log));
+    }
+
+    // So is a frame with a nonsense length
+    ByteBuffer bad = ByteBuffer.allocate(whole.length + 20).put(whole).putInt(-5).putLong(0);
+    Files.write(file, bad.array());
+    try (WriteAheadLog log = new WriteAheadLog(file, SOURCE)) {
+      assertEquals(List.of("one", "two"), replay(log));
+      assertEquals(whole.length, log.bytes());
+    }
+
+    // A header that never made it to disk just starts a new log
+    Files.write(file, Arrays.copyOf(whole, WriteAheadLog.HEADER_BYTES - 1));
+    try (WriteAheadLog log = new WriteAheadLog(file, SOURCE)) {
+      assertEquals(List.of(), replay(log));
+      assertEquals(WriteAheadLog.HEADER_BYTES, log.bytes());
+    }
+  }
+
+  @Test
+  public void clearThrowsAwayEveryRecord() throws IOException {
+    try (WriteAheadLog log = new WriteAheadLog(file, SOURCE)) {
+      replay(log);
+      log.append(List.of(bytes("one")));
+      log.clear();
+      assertEquals(0, log.records());
+      assertEquals(WriteAheadLog.HEADER_BYTES, log.bytes());
+      log.append(List.of(bytes("two")));
+    }
+    try (WriteAheadLog log = new WriteAheadLog(file, SOURCE)) {
+      assertEquals(List.of("two"), replay(log));
+    }
+  }
+
+  @Test
+  public void trimKeepsTheLaterRecords() throws IOException {
+    try (WriteAheadLog log = new WriteAheadLog(file, SOURCE)) {
+      replay(log);
+      log.append(List.of(bytes("one"), bytes("two")));
+      log.append(List.of(bytes("three")));
+      log.trim(2);
+      assertEquals(1, log.records());
+      // New records go after the ones that were kept
+      log.append(List.of(bytes("four")));
+      log.trim(0);
+      assertEquals(2, log.records());
+    }
+    try (WriteAheadLog log = new WriteAheadLog(file, SOURCE)) {
+      assertEquals(List.of("three", "four"), replay(log));
+      log.trim(5);
+      assertEquals(0, log.records());
+      assertEquals(WriteAheadLog.HEADER_BYTES, log.bytes());
+    }
+    assertFalse(Files.exists(file.resolveSibling("test.wal.trim")));
+  }
+
+  @Test
+  public void belongsToTheDataItWasWrittenOnTopOf() throws IOException {
+    Snapshot.Source other = new Snapshot.Source(1234, 9999);
+    assertTrue(WriteAheadLog.belongsTo(file, other));
+    try (WriteAheadLog log = new WriteAheadLog(file, SOURCE)) {
+      replay(log);
+      log.append(List.of(bytes("one")));
+    }
+    assertTrue(WriteAheadLog.belongsTo(file, SOURCE));
+    assertFalse(WriteAheadLog.belongsTo(file, other));
+    try (WriteAheadLog log = new WriteAheadLog(file, other)) {
+      assertThrows(IOException.class, () -> replay(log));
+    }
+
+    // Nor does a log from before there were headers belong to anything
+    Files.write(file, bytes("no header here, just records"));
+    assertFalse(WriteAheadLog.belongsTo(file, SOURCE));
+  }
+
+  /**
+   * A file channel that can be told to tear the next write (writing only
+   * half of it before failing), to fail the next `force`, or to fail
+   * truncating.
+   */
+  private static final class FailingChannel extends FileChannel {
+    private final FileChannel file;
+    private boolean tearNextWrite;
+    private boolean failNextForce;
+    private boolean failTruncate;
+
+    FailingChannel(FileChannel file) {
+      this.file = file;
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+      if (tearNextWrite) {
+        tearNextWrite = false;
+        ByteBuffer half = src.duplicate();
+        half.limit(src.position() + src.remaining() / 2);
+        file.write(half);
+        throw new IOException("No space left on device");
+      }
+      return file.write(src);
+    }
+
+    @Override
+    public FileChannel truncate(long size) throws IOException {
+      if (failTruncate) {
+        throw new IOException("Read-only file system");
+      }
+      file.truncate(size);
+      return this;
+    }
+
+    @Override
+    public void force(boolean metaData) throws IOException {
+      if (failNextForce) {
+        failNextForce = false;
+        throw new IOException("Input/output error");
+      }
+      file.force(metaData);
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+      return file.read(dst);
+    }
+
+    @Override
+    public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+      return file.read(dsts, offset, length);
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+      return file.write(srcs, offset, length);
+    }
+
+    @Override
+    public long position() throws IOException {
+      return file.position();
+    }
+
+    @Override
+    public FileChannel position(long newPosition) throws IOException {
+      file.position(newPosition);
+      return this;
+    }
+
+    @Override
+    public long size() throws IOException {
+      return file.size();
+    }
+
+    @Override
+    public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+      return file.transferTo(position, count, target);
+    }
+
+    @Override
+    public long transferFrom(ReadableByteChannel src, long position, long count) throws IOException {
+      return file.transferFrom(src, position, count);
+    }
+
+    @Override
+    public int read(ByteBuffer dst, long position) throws IOException {
+      return file.read(dst, position);
+    }
+
+    @Override
+    public int write(ByteBuffer src, long position) throws IOException {
+      return file.write(src, position);
+    }
+
+    @Override
+    public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException {
+      return file.map(mode, position, size);
+    }
+
+    @Override
+    public FileLock lock(long position, long size, boolean shared) throws IOException {
+      return file.lock(position, size, shared);
+    }
+
+    @Override
+    public FileLock tryLock(long position, long size, boolean shared) throws IOException {
+      return file.tryLock(position, size, shared);
+    }
+
+    @Override
+    protected void implCloseChannel() throws IOException {
+      file.close();
+    }
+  }
+
+  private FailingChannel failingChannel() throws IOException {
+    Files.createDirectories(file.getParent());
+    return new FailingChannel(FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+        StandardOpenOption.WRITE));
+  }
+
+  @Test
+  public void failedBatchesAreCutBackOff() throws IOException {
+    FailingChannel channel = failingChannel();
+    try (WriteAheadLog log = new WriteAheadLog(channel, SOURCE)) {
+      replay(log);
+      log.append(List.of(bytes("one")));
+      long intact = log.bytes();
+
+      channel.tearNextWrite = true;
+      assertThrows(IOException.class, () -> log.append(List.of(bytes("two"), bytes("three"))));
+      assertEquals(intact, log.bytes());
+      channel.failNextForce = true;
+      assertThrows(IOException.class, () -> log.append(List.of(bytes("four"))));
+      assertEquals(intact, log.bytes());
+      assertEquals(1, log.records());
+
+      // The next batch goes right after the last one that worked, so
+      // replay gets to it
+      log.append(List.of(bytes("five")));
+    }
+    try (WriteAheadLog log = new WriteAheadLog(file, SOURCE)) {
+      assertEquals(List.of("one", "five"), replay(log));
+    }
+  }
+
+  @Test
+  public void refusesToAppendAfterATornBatchThatCantBeCutOff() throws IOException {
+    FailingChannel channel = failingChannel();
+    try (WriteAheadLog log = new WriteAheadLog(channel, SOURCE)) {
+      replay(log);
+      log.append(List.of(bytes("one")));
+      channel.tearNextWrite = true;
+      channel.failTruncate = true;
+      IOException failure = assertThrows(IOException.class, () -> log.append(List.of(bytes("two"))));
+      assertEquals(1, failure.getSuppressed().length);
+      IOException refused = assertThrows(IOException.class, () -> log.append(List.of(bytes("three"))));
+      assertTrue(refused.getMessage().contains("can't be appended to"));
+
+      // Clearing the log (after compacting it) makes it usable again
+      channel.failTruncate = false;
+      log.clear();
+      log.append(List.of(bytes("four")));
+    }
+    try (WriteAheadLog log = new WriteAheadLog(file, SOURCE)) {
+      assertEquals(List.of("four"), replay(log));
+    }
+  }
+}
@@ -0,0 +1,154 @@
+package umm3601.todo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static umm3601.todo.TodoFixtures.assertSameTodos;
+import static umm3601.todo.TodoFixtures.describe;
+import static umm3601.todo.TodoFixtures.params;
+import static umm3601.todo.TodoFixtures.todo;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import umm3601.Server;
+import umm3601.Snapshot;
+
+/**
+ * Tests that the columnar todo storage behaves just like the plain array of
+ * todos, including with missing fields.
+ */
+@SuppressWarnings({ "MagicNumber" })
+public class TodoColumnStoreSpec {
+
+  private TodoDatabase objects;
+  private TodoDatabase columns;
+
+  private Path dir;
+
+  @BeforeEach
+  public void setUp(@TempDir Path tempDir) throws IOException {
+    dir = tempDir;
+    objects = new TodoDatabase(Server.TODO_DATA_FILE, TodoDatabase.Storage.OBJECTS);
+    columns = new TodoDatabase(Server.TODO_DATA_FILE, TodoDatabase.Storage.COLUMNS);
+  }
+
+  @Test
+  public void columnsAnswerQueriesLikeObjects() {
+    List<Map<String, List<String>>> queries = Arrays.asList(
+        params(),
+        params("owner", "Blanche"),
+        params("category", "homework", "status", "complete"),
+        params("status", "incomplete", "orderBy", "body"),
+        params("contains", "Lorem", "orderBy", "owner", "limit", "7"),
+        params("contains", "ipsum", "ignoreCase", "true", "orderBy", "status"),
+        params("contains", "id", "orderBy", "category", "offset", "20", "limit", "5"));
+    for (Map<String, List<String>> query : queries) {
+      assertSameTodos(objects.listTodos(query), columns.listTodos(query));
+      assertEquals(objects.query(query).totalCount(), columns.query(query).totalCount());
+    }
+  }
+
+  @Test
+  public void columnsFindTodosById() {
+    Todo[] all = objects.listTodos(params());
+    for (Todo todo : all) {
+      assertEquals(describe(todo), describe(columns.getTodo(todo._id)));
+    }
+    assertNull(columns.getTodo("no such id"));
+    assertNull(columns.getTodo(null));
+  }
+
+  @Test
+  public void columnsKeepMissingFields() {
+    Todo[] todos = {
+      todo("a", null, null, null, null),
+      todo(null, "Fry", true, "", "groceries"),
+      todo("c", "Fry", false, "Buy MILK", "groceries"),
+    };
+    TodoColumnStore store = TodoColumnStore.of(todos);
+
+    assertEquals(3, store.size());
+    assertNull(store.id(1));
+    assertNull(store.owner(0));
+    assertNull(store.category(0));
+    assertNull(store.body(0));
+    assertEquals("", store.get(1).body);
+    assertEquals("Buy MILK", store.body(2).toString());
+    // A missing status comes back as incomplete
+    assertEquals(false, store.get(0).status);
+    assertTrue(store.status(1));
+
+    assertFalse(store.bodyContains(0, "milk", true));
+    assertFalse(store.bodyContains(2, "milk", false));
+    assertTrue(store.bodyContains(2, "milk", true));
+    assertTrue(store.bodyContains(2, "MILK", false));
+    assertFalse(store.bodyContains(1, "a", false));
+  }
+
+  @Test
+  public void everyStoreSkipsMissingBodies() throws IOException {
+    Todo[] todos = {
+      todo("a", "Fry", false, null, "groceries"),
+      todo("b", "Fry", true, "Buy MILK", "groceries"),
+    };
+    Path file = dir.resolve("bodies.snap");
+    TodoSnapshotStore.write(file, new Snapshot.Source(1, 1), new TodoArrayStore(todos));
+    for (TodoStore store : List.of(new TodoArrayStore(todos), TodoColumnStore.of(todos),
+        TodoSnapshotStore.open(file, new Snapshot.Source(1, 1)))) {
+      assertFalse(store.bodyContains(0, "mi", false));
+      assertFalse(store.bodyContains(0, "mi", true));
+      assertTrue(store.bodyContains(1, "MI", false));
+      // Too short for the trigram index, so every body is checked
+      Todo[] found = new TodoDatabase(store).listTodos(params("contains", "mi", "ignoreCase", "true"));
+      assertEquals(1, found.length);
+      assertEquals("b", found[0]._id);
+    }
+  }
+
+  @Test
+  public void idIndexKeepsTheFirstOfDuplicateIds() {
+    TodoStore store = new TodoArrayStore(new Todo[] {
+      todo("x", "first", null, null, null),
+      todo(null, null, null, null, null),
+      todo("x", "second", null, null, null),
+      todo("y", null, null, null, null),
+    });
+    IdIndex index = new IdIndex(store);
+
+    assertEquals(0, index.find("x"));
+    assertEquals(3, index.find("y"));
+    assertEquals(-1, index.find("z"));
+    assertEquals(-1, index.find(null));
+  }
+
+  @Test
+  public void emptyStoresHaveNoTodos() {
+    TodoDatabase empty = new TodoDatabase(new TodoColumnStore.Builder().build());
+    assertEquals(0, empty.size());
+    assertEquals(0, empty.listTodos(params("orderBy", "owner")).length);
+    assertNull(empty.getTodo("a"));
+  }
+
+  @Test
+  public void columnsGrowByDoublingUpToTheLargestArray() {
+    assertEquals(32, TodoColumnStore.grow(16, 17, "bodies"));
+    assertEquals(100, TodoColumnStore.grow(16, 100, "bodies"));
+    // Doubling past 2^30 would overflow an int
+    assertEquals(TodoColumnStore.MAX_LENGTH, TodoColumnStore.grow(1 << 30, (1L << 30) + 1, "bodies"));
+    assertEquals(TodoColumnStore.MAX_LENGTH,
+        TodoColumnStore.grow(TodoColumnStore.MAX_LENGTH - 10, TodoColumnStore.MAX_LENGTH, "bodies"));
+    IllegalStateException full = assertThrows(IllegalStateException.class,
+        () -> TodoColumnStore.grow(TodoColumnStore.MAX_LENGTH, TodoColumnStore.MAX_LENGTH + 1L, "bodies"));
+    assertTrue(full.getMessage().startsWith("The todo bodies need 2147483640 entries"));
+  }
+}
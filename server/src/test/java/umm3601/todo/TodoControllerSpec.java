@@ -2,11 +2,17 @@ package umm3601.todo;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
@@ -15,13 +21,24 @@ import java.util.Map;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.ArgumentCaptor;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+
 import io.javalin.http.BadRequestResponse;
 import io.javalin.http.Context;
 import io.javalin.http.HttpStatus;
+import io.javalin.http.MethodNotAllowedResponse;
 import io.javalin.http.NotFoundResponse;
+import umm3601.BatchLookup;
+import umm3601.CapturedOutputStream;
+import umm3601.Metrics;
+import umm3601.PagedResponses;
+import umm3601.ResponseCache;
 import umm3601.Server;
+import umm3601.Snapshot;
+import umm3601.StreamingJson;
 
 /**
  * Tests the logic of the UserController
@@ -123,6 +140,69 @@ public class TodoControllerSpec {
     assertEquals("Blanche", todo.owner);
   }
 
+  @Test
+  public void canGetTodosWithOwnerCategoryAndStatus() throws IOException {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("owner", Arrays.asList(new String[] {"Blanche"}));
+    queryParams.put("category", Arrays.asList(new String[] {"homework"}));
+    queryParams.put("status", Arrays.asList(new String[] {"complete"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+
+    todoController.getTodos(ctx);
+
+    ArgumentCaptor<Todo[]> argument = ArgumentCaptor.forClass(Todo[].class);
+    verify(ctx).json(argument.capture());
+    for (Todo todo : argument.getValue()) {
+      assertEquals("Blanche", todo.owner);
+      assertEquals("homework", todo.category);
+      assertEquals(true, todo.status);
+    }
+    assertEquals(5, argument.getValue().length);
+  }
+
+  @Test
+  public void canGetTodosWithIndexedFiltersAndContains() throws IOException {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("owner", Arrays.asList(new String[] {"Blanche"}));
+    queryParams.put("category", Arrays.asList(new String[] {"homework"}));
+    queryParams.put("status", Arrays.asList(new String[] {"complete"}));
+    queryParams.put("contains", Arrays.asList(new String[] {"dolor"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+
+    todoController.getTodos(ctx);
+
+    ArgumentCaptor<Todo[]> argument = ArgumentCaptor.forClass(Todo[].class);
+    verify(ctx).json(argument.capture());
+    assertEquals(1, argument.getValue().length);
+    assertTrue(argument.getValue()[0].body.contains("dolor"));
+  }
+
+  @Test
+  public void unknownOwnerMatchesNoTodos() throws IOException {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("owner", Arrays.asList(new String[] {"Nobody"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+
+    todoController.getTodos(ctx);
+
+    ArgumentCaptor<Todo[]> argument = ArgumentCaptor.forClass(Todo[].class);
+    verify(ctx).json(argument.capture());
+    assertEquals(0, argument.getValue().length);
+  }
+
+  @Test
+  public void canGetTodoByIdFromArrayBackedDatabase() {
+    Todo first = new Todo();
+    first._id = "first";
+    Todo second = new Todo();
+    second._id = "second";
+    TodoDatabase arrayDb = new TodoDatabase(new Todo[] {first, second});
+
+    assertEquals(2, arrayDb.size());
+    assertEquals(second, arrayDb.getTodo("second"));
+    assertEquals(null, arrayDb.getTodo("third"));
+  }
+
   @Test
   public void respondsAppropriatelyToRequestForNonexistentId() throws IOException {
     when(ctx.pathParam("id")).thenReturn(null);
@@ -170,6 +250,34 @@ public void filterByContains() throws IOException {
   }
 }
 
+@Test
+public void filterByContainsIsCaseSensitiveByDefault() throws IOException {
+  Map<String, List<String>> queryParams = new HashMap<>();
+  queryParams.put("contains", Arrays.asList(new String[] {"IPSUM"}));
+  when(ctx.queryParamMap()).thenReturn(queryParams);
+  todoController.getTodos(ctx);
+
+  ArgumentCaptor<Todo[]> argument = ArgumentCaptor.forClass(Todo[].class);
+  verify(ctx).json(argument.capture());
+  assertEquals(0, argument.getValue().length);
+}
+
+@Test
+public void filterByContainsIgnoringCase() throws IOException {
+  Map<String, List<String>> queryParams = new HashMap<>();
+  queryParams.put("contains", Arrays.asList(new String[] {"IPSUM"}));
+  queryParams.put("ignoreCase", Arrays.asList(new String[] {"true"}));
+  when(ctx.queryParamMap()).thenReturn(queryParams);
+  todoController.getTodos(ctx);
+
+  ArgumentCaptor<Todo[]> argument = ArgumentCaptor.forClass(Todo[].class);
+  verify(ctx).json(argument.capture());
+  assertTrue(argument.getValue().length > 0);
+  for (Todo todo : argument.getValue()) {
+    assertTrue(todo.body.toLowerCase().contains("ipsum"));
+  }
+}
+
 @Test
 public void filterBySortingOwner() {
   Map<String, List<String>> queryParams = new HashMap<>();
@@ -221,4 +329,459 @@ public void filterBySortingBody() {
     }
 
 }
+
+  @Test
+  public void sortingByOwnerIsOrderedAndLeavesDatabaseUnchanged() {
+    Todo firstBefore = db.listTodos(new HashMap<>())[0];
+
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("orderBy", Arrays.asList(new String[] {"owner"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    todoController.getTodos(ctx);
+
+    ArgumentCaptor<Todo[]> argument = ArgumentCaptor.forClass(Todo[].class);
+    verify(ctx).json(argument.capture());
+    Todo[] todos = argument.getValue();
+    assertEquals(db.size(), todos.length);
+    for (int i = 0; i < todos.length - 1; i++) {
+      assertTrue(todos[i].owner.compareTo(todos[i + 1].owner) <= 0);
+    }
+    assertEquals(firstBefore, db.listTodos(new HashMap<>())[0]);
+  }
+
+  @Test
+  public void sortingWithLimitReturnsTheFirstTodosInOrder() {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("orderBy", Arrays.asList(new String[] {"body"}));
+    queryParams.put("contains", Arrays.asList(new String[] {"sit"}));
+    queryParams.put("limit", Arrays.asList(new String[] {"10"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    todoController.getTodos(ctx);
+
+    Map<String, List<String>> unlimitedParams = new HashMap<>(queryParams);
+    unlimitedParams.remove("limit");
+    Todo[] unlimited = db.listTodos(unlimitedParams);
+
+    ArgumentCaptor<Todo[]> argument = ArgumentCaptor.forClass(Todo[].class);
+    verify(ctx).json(argument.capture());
+    assertEquals(10, argument.getValue().length);
+    assertEquals(Arrays.asList(unlimited).subList(0, 10), Arrays.asList(argument.getValue()));
+  }
+
+  @Test
+  public void sortingAFewFilteredTodosByCategory() {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("owner", Arrays.asList(new String[] {"Blanche"}));
+    queryParams.put("status", Arrays.asList(new String[] {"complete"}));
+    queryParams.put("contains", Arrays.asList(new String[] {"dolor"}));
+    queryParams.put("orderBy", Arrays.asList(new String[] {"category"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    todoController.getTodos(ctx);
+
+    ArgumentCaptor<Todo[]> argument = ArgumentCaptor.forClass(Todo[].class);
+    verify(ctx).json(argument.capture());
+    Todo[] todos = argument.getValue();
+    assertTrue(todos.length > 0);
+    for (int i = 0; i < todos.length - 1; i++) {
+      assertTrue(todos[i].category.compareTo(todos[i + 1].category) <= 0);
+    }
+  }
+
+  @Test
+  public void limitOfZeroReturnsNoTodos() {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("orderBy", Arrays.asList(new String[] {"status"}));
+    queryParams.put("limit", Arrays.asList(new String[] {"0"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    todoController.getTodos(ctx);
+
+    ArgumentCaptor<Todo[]> argument = ArgumentCaptor.forClass(Todo[].class);
+    verify(ctx).json(argument.capture());
+    assertEquals(0, argument.getValue().length);
+  }
+
+  @Test
+  public void respondsAppropriatelyToNegativeLimit() {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("limit", Arrays.asList(new String[] {"-3"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    Throwable exception = Assertions.assertThrows(BadRequestResponse.class, () -> {
+      todoController.getTodos(ctx);
+    });
+    assertEquals("Specified limit '-3' can't be negative", exception.getMessage());
+  }
+
+  @Test
+  public void respondsAppropriatelyToUnknownSortField() {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("orderBy", Arrays.asList(new String[] {"color"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    Throwable exception = Assertions.assertThrows(BadRequestResponse.class, () -> {
+      todoController.getTodos(ctx);
+    });
+    assertEquals("nothing to sort", exception.getMessage());
+  }
+
+  @Test
+  public void streamsNdjsonWhenAsked() throws IOException {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("owner", Arrays.asList(new String[] {"Fry"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    when(ctx.header("Accept")).thenReturn("application/x-ndjson");
+    CapturedOutputStream out = new CapturedOutputStream();
+    when(ctx.outputStream()).thenReturn(out);
+
+    todoController.getTodos(ctx);
+
+    verify(ctx).contentType(StreamingJson.NDJSON);
+    verify(ctx, never()).json(any());
+    String[] lines = out.toString().split("\n");
+    assertEquals(db.listTodos(queryParams).length, lines.length);
+    ObjectMapper mapper = new ObjectMapper();
+    for (String line : lines) {
+      assertEquals("Fry", mapper.readValue(line, Todo.class).owner);
+    }
+  }
+
+  @Test
+  public void streamsLargeResultsAsAJsonArray() throws IOException {
+    Todo[] todos = new Todo[PagedResponses.STREAMING_THRESHOLD + 1];
+    for (int i = 0; i < todos.length; i++) {
+      todos[i] = new Todo();
+      todos[i]._id = "todo" + i;
+      todos[i].owner = "Fry";
+      todos[i].status = false;
+      todos[i].body = "Body " + i;
+      todos[i].category = "homework";
+    }
+    TodoController largeController = new TodoController(new TodoDatabase(todos));
+    when(ctx.queryParamMap()).thenReturn(new HashMap<>());
+    CapturedOutputStream out = new CapturedOutputStream();
+    when(ctx.outputStream()).thenReturn(out);
+
+    largeController.getTodos(ctx);
+
+    verify(ctx).contentType(StreamingJson.JSON);
+    verify(ctx, never()).json(any());
+    Todo[] streamed = new ObjectMapper().readValue(out.toByteArray(), Todo[].class);
+    assertEquals(todos.length, streamed.length);
+    assertEquals("todo1000", streamed[1000]._id);
+  }
+
+  @Test
+  public void canPageThroughSortedTodosWithCursors() {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("orderBy", Arrays.asList(new String[] {"body"}));
+    queryParams.put("status", Arrays.asList(new String[] {"complete"}));
+    Todo[] everything = db.listTodos(queryParams);
+    queryParams.put("limit", Arrays.asList(new String[] {"40"}));
+
+    List<Todo> paged = new ArrayList<>();
+    String cursor = null;
+    int pages = 0;
+    do {
+      if (cursor != null) {
+        queryParams.put("cursor", Arrays.asList(new String[] {cursor}));
+      }
+      TodoQuery query = db.query(queryParams);
+      Todo[] page = query.toArray();
+      assertTrue(page.length <= 40);
+      assertEquals(everything.length, query.totalCount());
+      paged.addAll(Arrays.asList(page));
+      cursor = query.nextCursor();
+      pages++;
+    } while (cursor != null);
+
+    assertEquals((everything.length + 39) / 40, pages);
+    assertEquals(Arrays.asList(everything), paged);
+  }
+
+  @Test
+  public void canPageThroughContainsResultsWithCursors() {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("contains", Arrays.asList(new String[] {"sit"}));
+    Todo[] everything = db.listTodos(queryParams);
+    queryParams.put("limit", Arrays.asList(new String[] {"7"}));
+
+    List<Todo> paged = new ArrayList<>();
+    TodoQuery query = db.query(queryParams);
+    while (true) {
+      paged.addAll(Arrays.asList(query.toArray()));
+      assertEquals(everything.length, query.totalCount());
+      String cursor = query.nextCursor();
+      if (cursor == null) {
+        break;
+      }
+      queryParams.put("cursor", Arrays.asList(new String[] {cursor}));
+      query = db.query(queryParams);
+    }
+    assertEquals(Arrays.asList(everything), paged);
+  }
+
+  @Test
+  public void offsetSkipsMatchingTodos() {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("owner", Arrays.asList(new String[] {"Fry"}));
+    Todo[] everything = db.listTodos(queryParams);
+    queryParams.put("offset", Arrays.asList(new String[] {"5"}));
+    queryParams.put("limit", Arrays.asList(new String[] {"3"}));
+
+    Todo[] page = db.listTodos(queryParams);
+    assertEquals(Arrays.asList(everything).subList(5, 8), Arrays.asList(page));
+  }
+
+  @Test
+  public void setsPagingHeaders() {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("category", Arrays.asList(new String[] {"homework"}));
+    queryParams.put("limit", Arrays.asList(new String[] {"10"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+
+    todoController.getTodos(ctx);
+
+    TodoQuery query = db.query(queryParams);
+    query.toArray();
+    verify(ctx).header(PagedResponses.TOTAL_COUNT_HEADER, Integer.toString(query.totalCount()));
+    verify(ctx).header(PagedResponses.NEXT_CURSOR_HEADER, query.nextCursor());
+  }
+
+  @Test
+  public void lastPageHasNoNextCursor() {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("owner", Arrays.asList(new String[] {"Fry"}));
+    queryParams.put("limit", Arrays.asList(new String[] {"1000"}));
+    TodoQuery query = db.query(queryParams);
+    assertEquals(null, query.nextCursor());
+    assertEquals(null, db.query(new HashMap<>()).nextCursor());
+  }
+
+  @Test
+  public void respondsAppropriatelyToBadCursors() {
+    for (String cursor : new String[] {"!!!", "eDEy", "ci0x", "cmFiYw"}) {
+      Map<String, List<String>> queryParams = new HashMap<>();
+      queryParams.put("cursor", Arrays.asList(new String[] {cursor}));
+      when(ctx.queryParamMap()).thenReturn(queryParams);
+      Throwable exception = Assertions.assertThrows(BadRequestResponse.class, () -> {
+        todoController.getTodos(ctx);
+      });
+      assertEquals("Specified cursor '" + cursor + "' is not valid", exception.getMessage());
+    }
+  }
+
+  @Test
+  public void cachedControllerServesRepeatQueriesFromTheCache() throws IOException {
+    ResponseCache cache = new ResponseCache(1 << 20);
+    TodoController cachedController = new TodoController(db, cache);
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("owner", Arrays.asList(new String[] {"Fry"}));
+    queryParams.put("limit", Arrays.asList(new String[] {"5"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+
+    cachedController.getTodos(ctx);
+    cachedController.getTodos(ctx);
+
+    ArgumentCaptor<byte[]> argument = ArgumentCaptor.forClass(byte[].class);
+    verify(ctx, times(2)).result(argument.capture());
+    verify(ctx, never()).json(any());
+    Todo[] todos = new ObjectMapper().readValue(argument.getValue(), Todo[].class);
+    assertEquals(5, todos.length);
+    assertEquals(db.listTodos(queryParams)[4]._id, todos[4]._id);
+    verify(ctx, times(2)).header(PagedResponses.NEXT_CURSOR_HEADER, db.query(queryParams).nextCursor());
+    assertEquals(1, cache.hits());
+    assertEquals(1, cache.misses());
+  }
+
+  @Test
+  public void cachedControllerAnswersMatchingEtagWithNotModified() {
+    ResponseCache cache = new ResponseCache(1 << 20);
+    TodoController cachedController = new TodoController(db, cache);
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("category", Arrays.asList(new String[] {"groceries"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    cachedController.getTodos(ctx);
+
+    ArgumentCaptor<String> etag = ArgumentCaptor.forClass(String.class);
+    verify(ctx).header(eq("ETag"), etag.capture());
+    Context pollingCtx = mock(Context.class);
+    when(pollingCtx.queryParamMap()).thenReturn(queryParams);
+    when(pollingCtx.header("If-None-Match")).thenReturn(etag.getValue());
+
+    cachedController.getTodos(pollingCtx);
+
+    verify(pollingCtx).status(HttpStatus.NOT_MODIFIED);
+    verify(pollingCtx, never()).result(any(byte[].class));
+  }
+
+  @Test
+  public void cachedControllerStreamsResultsTooBigToCache() {
+    Todo[] todos = new Todo[PagedResponses.STREAMING_THRESHOLD + 1];
+    for (int i = 0; i < todos.length; i++) {
+      todos[i] = new Todo();
+      todos[i]._id = "todo" + i;
+      todos[i].body = "";
+    }
+    ResponseCache cache = new ResponseCache(1 << 20);
+    TodoController largeController = new TodoController(new TodoDatabase(todos), cache);
+    when(ctx.queryParamMap()).thenReturn(new HashMap<>());
+    CapturedOutputStream out = new CapturedOutputStream();
+    when(ctx.outputStream()).thenReturn(out);
+
+    largeController.getTodos(ctx);
+
+    verify(ctx).contentType(StreamingJson.JSON);
+    assertTrue(out.toString().startsWith("[{\"_id\":\"todo0\""));
+    assertEquals(0, cache.bytes());
+  }
+
+  private static Todo newTodo() {
+    Todo todo = new Todo();
+    todo.owner = "Leela";
+    todo.status = true;
+    todo.body = "Fly the ship";
+    todo.category = "video games";
+    return todo;
+  }
+
+  private static TodoWriter writer(Path tempDir) throws IOException {
+    return new TodoWriter(db, new Snapshot.Source(0, 0), tempDir.resolve("todos.wal"), tempDir.resolve("todos.snap"),
+        100);
+  }
+
+  @Test
+  public void canAddReplaceAndDeleteTodos(@TempDir Path tempDir) throws IOException {
+    try (TodoWriter writer = writer(tempDir)) {
+      TodoController writable = new TodoController(db, null, writer);
+      when(ctx.bodyAsClass(Todo.class)).thenReturn(newTodo());
+      writable.addTodo(ctx);
+      verify(ctx).status(HttpStatus.CREATED);
+      ArgumentCaptor<Todo> added = ArgumentCaptor.forClass(Todo.class);
+      verify(ctx).json(added.capture());
+      String id = added.getValue()._id;
+      assertEquals("Fly the ship", db.getTodo(id).body);
+
+      Context replaceCtx = mock(Context.class);
+      Todo changed = newTodo();
+      changed.body = "Land the ship";
+      when(replaceCtx.bodyAsClass(Todo.class)).thenReturn(changed);
+      when(replaceCtx.pathParam("id")).thenReturn(id);
+      writable.replaceTodo(replaceCtx);
+      verify(replaceCtx).status(HttpStatus.OK);
+      assertEquals("Land the ship", db.getTodo(id).body);
+
+      Context deleteCtx = mock(Context.class);
+      when(deleteCtx.pathParam("id")).thenReturn(id);
+      writable.deleteTodo(deleteCtx);
+      verify(deleteCtx).status(HttpStatus.NO_CONTENT);
+      assertEquals(null, db.getTodo(id));
+
+      // It's gone now
+      Assertions.assertThrows(NotFoundResponse.class, () -> writable.deleteTodo(deleteCtx));
+      when(deleteCtx.bodyAsClass(Todo.class)).thenReturn(newTodo());
+      Assertions.assertThrows(NotFoundResponse.class, () -> writable.replaceTodo(deleteCtx));
+    }
+  }
+
+  @Test
+  public void respondsAppropriatelyToBadTodos(@TempDir Path tempDir) throws IOException {
+    try (TodoWriter writer = writer(tempDir)) {
+      TodoController writable = new TodoController(db, null, writer);
+      when(ctx.bodyAsClass(Todo.class)).thenThrow(new IllegalArgumentException("Not JSON"));
+      Assertions.assertThrows(BadRequestResponse.class, () -> writable.addTodo(ctx));
+
+      Context emptyCtx = mock(Context.class);
+      Assertions.assertThrows(BadRequestResponse.class, () -> writable.addTodo(emptyCtx));
+      Todo noOwner = newTodo();
+      noOwner.owner = null;
+      when(emptyCtx.bodyAsClass(Todo.class)).thenReturn(noOwner);
+      Assertions.assertThrows(BadRequestResponse.class, () -> writable.addTodo(emptyCtx));
+      assertEquals(0L, writer.stats().get("mutations"));
+    }
+  }
+
+  @Test
+  public void canGetManyTodosByIdInOneRequest() throws IOException {
+    String[] ids = {"58895985a22c04e761776d54", "no such todo", "58895985a22c04e761776d54"};
+    when(ctx.bodyAsClass(String[].class)).thenReturn(ids);
+    CapturedOutputStream out = new CapturedOutputStream();
+    when(ctx.outputStream()).thenReturn(out);
+
+    todoController.getTodoBatch(ctx);
+
+    verify(ctx).contentType(StreamingJson.JSON);
+    verify(ctx).header(BatchLookup.MISSING_COUNT_HEADER, "1");
+    Todo[] todos = new ObjectMapper().readValue(out.toByteArray(), Todo[].class);
+    assertEquals(3, todos.length);
+    assertEquals("Blanche", todos[0].owner);
+    assertEquals(null, todos[1]);
+    assertEquals(ids[2], todos[2]._id);
+  }
+
+  @Test
+  public void respondsAppropriatelyToBadBatches() {
+    when(ctx.bodyAsClass(String[].class)).thenThrow(new IllegalArgumentException("Not JSON"));
+    Throwable exception = Assertions.assertThrows(BadRequestResponse.class, () -> todoController.getTodoBatch(ctx));
+    assertEquals("The request body isn't a JSON array of ids", exception.getMessage());
+
+    Context nullCtx = mock(Context.class);
+    when(nullCtx.bodyAsClass(String[].class)).thenReturn(new String[] {"58895985a22c04e761776d54", null});
+    Assertions.assertThrows(BadRequestResponse.class, () -> todoController.getTodoBatch(nullCtx));
+
+    Context bigCtx = mock(Context.class);
+    when(bigCtx.bodyAsClass(String[].class)).thenReturn(new String[BatchLookup.MAX_IDS + 1]);
+    Assertions.assertThrows(BadRequestResponse.class, () -> todoController.getTodoBatch(bigCtx));
+    String[] tooMany = new String[BatchLookup.MAX_IDS + 1];
+    Arrays.fill(tooMany, "id");
+    when(bigCtx.bodyAsClass(String[].class)).thenReturn(tooMany);
+    exception = Assertions.assertThrows(BadRequestResponse.class, () -> todoController.getTodoBatch(bigCtx));
+    assertEquals("A batch can have at most 1000 ids, not 1001", exception.getMessage());
+  }
+
+  @Test
+  public void readOnlyControllersRefuseChanges() {
+    when(ctx.bodyAsClass(Todo.class)).thenReturn(newTodo());
+    when(ctx.pathParam("id")).thenReturn("58895985a22c04e761776d54");
+    Assertions.assertThrows(MethodNotAllowedResponse.class, () -> todoController.addTodo(ctx));
+    Assertions.assertThrows(MethodNotAllowedResponse.class, () -> todoController.replaceTodo(ctx));
+    Assertions.assertThrows(MethodNotAllowedResponse.class, () -> todoController.deleteTodo(ctx));
+  }
+
+  @Test
+  public void queriesRecordHowLongEachFilterTakes() {
+    Metrics metrics = new Metrics();
+    db.recordTimings(metrics);
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("owner", List.of("Fry"));
+    queryParams.put("category", List.of("homework"));
+    queryParams.put("status", List.of("complete"));
+    queryParams.put("contains", List.of("sunt"));
+    TodoQuery query = db.query(queryParams);
+    query.toArray();
+    query.totalCount();
+
+    String text = metrics.prometheus();
+    for (String filter : new String[] {"owner", "category", "status", "contains"}) {
+      assertTrue(text.contains("todo_query_filter_duration_seconds_count{filter=\"" + filter + "\"} 1\n"), text);
+    }
+    assertTrue(text.contains("todo_query_walk_duration_seconds_count 2\n"), text);
+  }
+
+  @Test
+  public void canSummarizeTodos() {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("category", List.of("homework"));
+    queryParams.put("status", List.of("complete"));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+
+    todoController.getTodoSummary(ctx);
+
+    ArgumentCaptor<TodoSummary> argument = ArgumentCaptor.forClass(TodoSummary.class);
+    verify(ctx).json(argument.capture());
+    TodoSummary summary = argument.getValue();
+    assertEquals(db.query(queryParams).totalCount(), summary.total);
+    assertEquals(Map.of("homework", summary.total), summary.category);
+    assertEquals(summary.total, summary.status.get("complete"));
+    assertEquals(5, summary.owner.get("Blanche"));
+    assertEquals(summary.total, summary.owner.values().stream().mapToInt(Integer::intValue).sum());
+  }
 }
+
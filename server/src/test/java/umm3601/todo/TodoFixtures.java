@@ -0,0 +1,76 @@
+package umm3601.todo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Helpers the todo specs (and the user query spec) share for making todos,
+ * comparing them, and building query parameters.
+ */
+public final class TodoFixtures {
+
+  private TodoFixtures() {
+  }
+
+  /**
+   * Make a todo; any of the fields can be missing (null).
+   *
+   * @param id       its `_id`
+   * @param owner    its owner
+   * @param status   its status
+   * @param body     its body
+   * @param category its category
+   * @return the todo
+   */
+  public static Todo todo(String id, String owner, Boolean status, String body, String category) {
+    Todo todo = new Todo();
+    todo._id = id;
+    todo.owner = owner;
+    todo.status = status;
+    todo.body = body;
+    todo.category = category;
+    return todo;
+  }
+
+  /**
+   * Every field of a todo in one string, so two todos can be compared with
+   * `assertEquals` (`Todo` has no `equals`).
+   *
+   * @param todo the todo
+   * @return its fields, separated by `|`
+   */
+  public static String describe(Todo todo) {
+    return String.join("|", todo._id, todo.owner, String.valueOf(todo.status), todo.body, todo.category);
+  }
+
+  /**
+   * Check that two arrays have the same todos, in the same order.
+   *
+   * @param expected the todos there should be
+   * @param actual   the todos there are
+   */
+  public static void assertSameTodos(Todo[] expected, Todo[] actual) {
+    assertEquals(expected.length, actual.length);
+    for (int i = 0; i < expected.length; i++) {
+      assertEquals(describe(expected[i]), describe(actual[i]));
+    }
+  }
+
+  /**
+   * Query parameters, as the controllers get them from a request.
+   *
+   * @param namesAndValues each parameter's name followed by its value
+   * @return the parameters; the map can be changed
+   */
+  public static Map<String, List<String>> params(String... namesAndValues) {
+    Map<String, List<String>> params = new HashMap<>();
+    for (int i = 0; i < namesAndValues.length; i += 2) {
+      params.put(namesAndValues[i], Arrays.asList(namesAndValues[i + 1]));
+    }
+    return params;
+  }
+}
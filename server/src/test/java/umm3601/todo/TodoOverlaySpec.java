@@ -0,0 +1,207 @@
+package umm3601.todo;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static umm3601.todo.TodoFixtures.params;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+
+import umm3601.DataGenerator;
+
+/**
+ * Tests that changes laid over the indexed todos (rather than rebuilding
+ * the indexes) answer every kind of query exactly as a database built from
+ * scratch with the same todos does, and that applying them doesn't touch
+ * the rest of the todos.
+ */
+@SuppressWarnings({ "MagicNumber" })
+public class TodoOverlaySpec {
+
+  private static final Todo[] TODOS = DataGenerator.builder().seed(29).todos(3000).owners(10, 1).categories(6, 0.5)
+      .build().todos();
+
+  private static final String[][] QUERIES = {
+      {}, {"owner", "Blanche"}, {"category", "homework"}, {"status", "complete"},
+      {"owner", "Fry", "status", "incomplete"}, {"contains", "sunt"}, {"contains", "ES", "ignoreCase", "true"},
+      {"contains", "qui", "category", "groceries"}, {"orderBy", "owner"}, {"orderBy", "body"},
+      {"orderBy", "status", "owner", "Blanche"}, {"orderBy", "category", "contains", "est"},
+      {"orderBy", "owner", "offset", "100", "limit", "50"}};
+
+  private static Todo todo(String id, Todo like) {
+    Todo todo = new Todo();
+    todo._id = id;
+    todo.owner = like.owner;
+    todo.status = like.status;
+    todo.body = like.body;
+    todo.category = like.category;
+    return todo;
+  }
+
+  private static List<String> ids(Todo[] todos) {
+    return Arrays.stream(todos).map(todo -> todo._id).collect(Collectors.toList());
+  }
+
+  // Every page of a query, following the cursors
+  private static List<String> paged(TodoDatabase database, String[] query) {
+    Map<String, List<String>> queryParams = params(query);
+    queryParams.put("limit", List.of("170"));
+    List<String> paged = new ArrayList<>();
+    while (true) {
+      TodoQuery page = database.query(queryParams);
+      paged.addAll(ids(page.toArray()));
+      String cursor = page.nextCursor();
+      if (cursor == null) {
+        return paged;
+      }
+      queryParams.put("cursor", List.of(cursor));
+    }
+  }
+
+  private static String json(TodoDatabase database, String[] query) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    database.query(params(query)).writeJson(out, false);
+    return out.toString();
+  }
+
+  private static void assertSameAnswers(TodoDatabase expected, TodoDatabase actual) {
+    assertEquals(expected.size(), actual.size());
+    for (String[] query : QUERIES) {
+      String name = Arrays.toString(query);
+      assertEquals(ids(expected.listTodos(params(query))), ids(actual.listTodos(params(query))), name);
+      assertEquals(expected.query(params(query)).totalCount(), actual.query(params(query)).totalCount(), name);
+      assertEquals(json(expected, query), json(actual, query), name);
+      if (!params(query).containsKey("offset")) {
+        assertEquals(paged(expected, query), paged(actual, query), name);
+      }
+      TodoSummary want = expected.summarize(params(query));
+      TodoSummary got = actual.summarize(params(query));
+      assertEquals(want.total, got.total, name);
+      assertEquals(want.owner, got.owner, name);
+      assertEquals(want.category, got.category, name);
+      assertEquals(want.status, got.status, name);
+    }
+  }
+
+  @Test
+  public void changedTodosAnswerQueriesLikeRebuiltOnes() {
+    TodoDatabase changing = new TodoDatabase(TODOS);
+    // The todos as `apply` should leave them: puts replace in place or add
+    // at the end, and deletes close up the gap
+    List<Todo> expected = new ArrayList<>(Arrays.asList(TODOS));
+    List<String> deleted = new ArrayList<>();
+    Random random = new Random(31);
+    for (int batch = 0; batch < 30; batch++) {
+      List<TodoMutation> mutations = new ArrayList<>();
+      for (int i = 0; i < 10; i++) {
+        Todo like = TODOS[random.nextInt(TODOS.length)];
+        int choice = random.nextInt(4);
+        if (choice == 0 || expected.isEmpty()) {
+          // Sometimes bring back a todo that was deleted
+          String id = !deleted.isEmpty() && random.nextBoolean() ? deleted.remove(0) : "new" + batch + "-" + i;
+          Todo added = todo(id, like);
+          mutations.add(TodoMutation.put(added));
+          expected.add(added);
+        } else if (choice == 1) {
+          Todo gone = expected.remove(random.nextInt(expected.size()));
+          mutations.add(TodoMutation.delete(gone._id));
+          deleted.add(gone._id);
+        } else {
+          int position = random.nextInt(expected.size());
+          Todo replaced = todo(expected.get(position)._id, like);
+          mutations.add(TodoMutation.put(replaced));
+          expected.set(position, replaced);
+        }
+      }
+      changing.apply(mutations);
+      if (batch % 10 == 0) {
+        assertSameAnswers(new TodoDatabase(expected.toArray(new Todo[0])), changing);
+      }
+    }
+    TodoDatabase rebuilt = new TodoDatabase(expected.toArray(new Todo[0]));
+    assertSameAnswers(rebuilt, changing);
+    for (String id : deleted) {
+      assertNull(changing.getTodo(id));
+    }
+    String[] changedIds = expected.subList(expected.size() - 5, expected.size()).stream().map(todo -> todo._id)
+        .toArray(String[]::new);
+    assertArrayEquals(rebuilt.getTodos(changedIds), changing.getTodos(changedIds));
+
+    // Compacting merges the changes in, without changing any answers
+    long version = changing.version();
+    changing.compact();
+    assertEquals(version + 1, changing.version());
+    assertSameAnswers(rebuilt, changing);
+  }
+
+  // Counts how often the todos' IDs, and anything else about them, are read
+  private static final class CountingStore extends TodoArrayStore {
+    private int ids;
+    private int others;
+
+    CountingStore(Todo[] todos) {
+      super(todos);
+    }
+
+    @Override
+    public Todo get(int position) {
+      others++;
+      return super.get(position);
+    }
+
+    @Override
+    public String id(int position) {
+      ids++;
+      return super.id(position);
+    }
+
+    @Override
+    public String owner(int position) {
+      others++;
+      return super.owner(position);
+    }
+
+    @Override
+    public String category(int position) {
+      others++;
+      return super.category(position);
+    }
+
+    @Override
+    public boolean status(int position) {
+      others++;
+      return super.status(position);
+    }
+
+    @Override
+    public CharSequence body(int position) {
+      others++;
+      return super.body(position);
+    }
+  }
+
+  @Test
+  public void applyingChangesOnlyLooksAtTheChangedTodos() {
+    CountingStore store = new CountingStore(TODOS);
+    TodoDatabase changing = new TodoDatabase(store);
+    store.ids = 0;
+    store.others = 0;
+    changing.apply(List.of(TodoMutation.put(todo(TODOS[5]._id, TODOS[9])), TodoMutation.delete(TODOS[7]._id),
+        TodoMutation.put(todo("brand new", TODOS[3]))));
+    changing.apply(List.of(TodoMutation.put(todo(TODOS[11]._id, TODOS[12]))));
+    // Only the IDs the changes were for were looked up
+    assertTrue(store.ids <= 4);
+    assertEquals(0, store.others);
+    assertEquals(TODOS.length, changing.size());
+    assertEquals(TODOS[9].body, changing.getTodo(TODOS[5]._id).body);
+  }
+}
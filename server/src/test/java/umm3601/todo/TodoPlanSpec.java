@@ -0,0 +1,262 @@
+package umm3601.todo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static umm3601.todo.TodoFixtures.params;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import io.javalin.http.Context;
+
+import umm3601.DataGenerator;
+import umm3601.ParallelScan;
+import umm3601.StreamingJson;
+
+/**
+ * Tests that the query planner applies the todo filters in order of how
+ * many todos they match, chooses sensibly between the trigram index and
+ * checking the bodies, and never changes what a query returns.
+ */
+@SuppressWarnings({ "MagicNumber" })
+public class TodoPlanSpec {
+
+  // Skewed, so some owners have far more todos than others
+  private static final Todo[] TODOS = DataGenerator.builder().seed(23).todos(8000).owners(12, 1.5)
+      .categories(8, 0).build().todos();
+
+  private final TodoDatabase db = new TodoDatabase(TODOS);
+
+  private static List<String> filters(TodoPlan plan) {
+    return plan.steps.stream().map(step -> step.filter).collect(Collectors.toList());
+  }
+
+  @Test
+  public void appliesTheMostSelectiveFilterFirst() {
+    // Blanche (the first owner) has the most todos, Nibbler the fewest
+    TodoPlan plan = db.query(params("owner", "Blanche", "category", "homework", "status", "complete")).explain();
+    assertEquals(List.of("category = homework", "status = complete", "owner = Blanche"), filters(plan));
+    plan = db.query(params("owner", "Nibbler", "category", "homework", "status", "complete")).explain();
+    assertEquals(List.of("owner = Nibbler", "category = homework", "status = complete"), filters(plan));
+    for (TodoPlan.Step step : plan.steps) {
+      assertEquals("index", step.path);
+    }
+    // Each step leaves no more than the one before it
+    for (int i = 1; i < plan.steps.size(); i++) {
+      assertTrue(plan.steps.get(i).rows <= plan.steps.get(i - 1).rows);
+    }
+    assertEquals(plan.steps.get(2).rows, plan.matched);
+  }
+
+  @Test
+  public void skipsTheRestOnceNothingIsLeft() {
+    TodoPlan plan = db.query(params("owner", "Nobody", "category", "homework", "contains", "sunt")).explain();
+    assertEquals("owner = Nobody", plan.steps.get(0).filter);
+    assertEquals(0, plan.steps.get(0).estimatedRows);
+    assertEquals("skipped", plan.steps.get(1).path);
+    assertEquals("skipped", plan.steps.get(2).path);
+    assertEquals(0, plan.matched);
+  }
+
+  @Test
+  public void usesTheTrigramIndexOnlyWhenItsCheaper() {
+    // With every todo still a candidate, narrowing is worth it
+    TodoPlan plan = db.query(params("contains", "sunt")).explain();
+    assertEquals("index", plan.steps.get(0).path);
+    assertTrue(plan.candidates < TODOS.length);
+    // With only a few todos left, just checking their bodies is cheaper
+    plan = db.query(params("owner", "Nibbler", "category", "homework", "status", "complete",
+        "contains", "sunt")).explain();
+    TodoPlan.Step trigrams = plan.steps.stream()
+        .filter(step -> step.filter.equals("body has the trigrams of 'sunt'")).findFirst().get();
+    assertEquals("scan", trigrams.path);
+    assertEquals("body contains 'sunt'", plan.residual);
+  }
+
+  @Test
+  public void planningNeverChangesTheResults() {
+    String[] owners = {null, "Blanche", "Nibbler", "Nobody"};
+    String[] categories = {null, "homework", "chores"};
+    String[] statuses = {null, "complete", "incomplete"};
+    String[] searches = {null, "sunt", "Ad", "zzzz"};
+    for (String owner : owners) {
+      for (String category : categories) {
+        for (String status : statuses) {
+          for (String contains : searches) {
+            List<Todo> expected = new ArrayList<>();
+            for (Todo todo : TODOS) {
+              if ((owner == null || owner.equals(todo.owner))
+                  && (category == null || category.equals(todo.category))
+                  && (status == null || todo.status == status.equals("complete"))
+                  && (contains == null || todo.body.contains(contains))) {
+                expected.add(todo);
+              }
+            }
+            Map<String, List<String>> queryParams = new HashMap<>();
+            String[][] filters = {{"owner", owner}, {"category", category}, {"status", status},
+              {"contains", contains}};
+            for (String[] filter : filters) {
+              if (filter[1] != null) {
+                queryParams.put(filter[0], List.of(filter[1]));
+              }
+            }
+            assertEquals(expected, Arrays.asList(db.listTodos(queryParams)), queryParams.toString());
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void walksStopOnceThePageIsFull() {
+    TodoPlan plan = db.query(params("limit", "5", "orderBy", "owner")).explain();
+    assertEquals(5, plan.returned);
+    assertEquals(TODOS.length, plan.matched);
+    // The page, plus the first todo of the next one
+    assertEquals(6, plan.examined);
+    assertEquals(Integer.valueOf(5), plan.limit);
+    assertEquals("in owner order, checking each rank for candidates", plan.walk);
+  }
+
+  @Test
+  public void parallelScansReturnTheSameTodosInTheSameOrder() {
+    TodoDatabase parallel = new TodoDatabase(TODOS);
+    try (ParallelScan scan = new ParallelScan(4, 100)) {
+      parallel.scanInParallel(scan);
+      String[][] queries = {
+        {"contains", "sunt"},
+        {"contains", "Ad", "orderBy", "body"},
+        {"contains", "est", "ignoreCase", "true", "orderBy", "owner", "offset", "7", "limit", "20"},
+        {"contains", "sunt", "owner", "Nibbler"},
+      };
+      for (String[] query : queries) {
+        TodoQuery expected = db.query(params(query));
+        TodoQuery actual = parallel.query(params(query));
+        assertEquals(Arrays.asList(expected.toArray()), Arrays.asList(actual.toArray()), Arrays.toString(query));
+        assertEquals(expected.totalCount(), actual.totalCount());
+        assertEquals(expected.nextCursor(), actual.nextCursor());
+        assertEquals(expected.summary().owner, actual.summary().owner);
+      }
+      assertTrue(parallel.query(params("contains", "sunt")).explain().parallel);
+      // Too few candidates left to be worth it
+      assertFalse(parallel.query(params("contains", "sunt", "owner", "Nibbler", "category", "homework"))
+          .explain().parallel);
+    }
+  }
+
+  // Page through a query, calling `between` before following each cursor
+  private List<Todo> page(TodoDatabase database, Map<String, List<String>> queryParams, Runnable between) {
+    List<Todo> paged = new ArrayList<>();
+    TodoQuery query = database.query(queryParams);
+    while (true) {
+      paged.addAll(Arrays.asList(query.toArray()));
+      String cursor = query.nextCursor();
+      if (cursor == null) {
+        return paged;
+      }
+      between.run();
+      queryParams.put("cursor", List.of(cursor));
+      query = database.query(queryParams);
+    }
+  }
+
+  @Test
+  public void cursorsKeepTheirPlaceWhenTodosChangeBeforeThem() {
+    String[][] queries = {{"orderBy", "owner"}, {"orderBy", "status"}, {"orderBy", "body", "status", "complete"},
+        {"category", "homework"}};
+    for (String[] query : queries) {
+      TodoDatabase changing = new TodoDatabase(TODOS);
+      List<Todo> expected = Arrays.asList(changing.listTodos(params(query)));
+      Map<String, List<String>> queryParams = params(query);
+      queryParams.put("limit", List.of("300"));
+      List<Todo> seen = new ArrayList<>();
+      List<Todo> paged = page(changing, queryParams, () -> {
+        // Delete a todo that's already been seen, so everything after it
+        // moves up a place
+        Todo gone = changing.listTodos(params(query))[0];
+        changing.apply(List.of(TodoMutation.delete(gone._id)));
+        seen.add(gone);
+      });
+      // Every todo turns up exactly once, apart from those deleted after
+      // they were seen
+      assertEquals(expected, paged, Arrays.toString(query));
+      assertFalse(seen.isEmpty());
+    }
+  }
+
+  @Test
+  public void searchesOnlyCountTheirMatchesOncePerVersion() {
+    // Counts the bodies checked (a spy would slow down indexing them)
+    int[] checked = {0};
+    TodoStore store = new TodoArrayStore(TODOS) {
+      @Override
+      public boolean bodyContains(int position, String target, boolean ignoreCase) {
+        checked[0]++;
+        return super.bodyContains(position, target, ignoreCase);
+      }
+    };
+    TodoDatabase counted = new TodoDatabase(store);
+    // Too short for the trigram index, so every todo is a candidate
+    Map<String, List<String>> queryParams = params("contains", "su", "limit", "20");
+    TodoQuery first = counted.query(queryParams);
+    int total = first.totalCount();
+    assertTrue(total > 100);
+    queryParams.put("cursor", List.of(first.nextCursor()));
+
+    checked[0] = 0;
+    TodoQuery second = counted.query(queryParams);
+    assertEquals(total, second.totalCount());
+    assertEquals(20, second.toArray().length);
+    // Only as many bodies as it took to fill the page were checked
+    assertTrue(checked[0] <= TODOS.length / 10);
+
+    // A new version of the data counts again
+    counted.apply(List.of(TodoMutation.delete(second.toArray()[0]._id)));
+    queryParams.remove("cursor");
+    assertEquals(total - 1, counted.query(queryParams).totalCount());
+  }
+
+  @Test
+  public void controllerExplainsInsteadOfListing() {
+    Context ctx = mock(Context.class);
+    when(ctx.queryParamMap()).thenReturn(params("category", "homework", "explain", "true"));
+
+    new TodoController(db).getTodos(ctx);
+
+    ArgumentCaptor<TodoPlan> argument = ArgumentCaptor.forClass(TodoPlan.class);
+    verify(ctx).json(argument.capture());
+    assertEquals(List.of("category = homework"), filters(argument.getValue()));
+    assertEquals(TODOS.length, argument.getValue().todos);
+  }
+
+  @Test
+  public void writingPreEncodedTodosMatchesSerializingThem() {
+    List<Map<String, List<String>>> queries = List.of(params(),
+        params("owner", "Fry", "orderBy", "body"),
+        params("contains", "ipsum", "limit", "50", "offset", "7"),
+        params("category", "homework", "status", "complete", "limit", "0"));
+    for (Map<String, List<String>> query : queries) {
+      for (boolean ndjson : new boolean[] {false, true}) {
+        ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+        StreamingJson.write(serialized, ndjson, db.query(query)::forEach);
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        db.query(query).writeJson(encoded, ndjson);
+        assertEquals(serialized.toString(StandardCharsets.UTF_8), encoded.toString(StandardCharsets.UTF_8),
+            query.toString());
+      }
+    }
+  }
+}
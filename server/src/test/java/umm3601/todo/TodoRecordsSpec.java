@@ -0,0 +1,118 @@
+package umm3601.todo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static umm3601.todo.TodoFixtures.describe;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import umm3601.JsonLoader;
+import umm3601.Server;
+
+/**
+ * Tests loading a `TodoDatabase` from a data file on disk.
+ */
+@SuppressWarnings({ "MagicNumber" })
+public class TodoRecordsSpec {
+
+  private Path dir;
+  private Path dataFile;
+
+  @BeforeEach
+  public void setUp(@TempDir Path tempDir) throws IOException {
+    dir = tempDir;
+    dataFile = dir.resolve("todos.json");
+    Files.copy(getClass().getResourceAsStream(Server.TODO_DATA_FILE), dataFile);
+  }
+
+  private static void assertSameTodos(TodoDatabase expected, TodoDatabase actual) {
+    Todo[] expectedTodos = expected.listTodos(new HashMap<>());
+    Todo[] actualTodos = actual.listTodos(new HashMap<>());
+    assertEquals(expectedTodos.length, actualTodos.length);
+    for (int i = 0; i < expectedTodos.length; i++) {
+      assertEquals(describe(expectedTodos[i]), describe(actualTodos[i]));
+    }
+  }
+
+  @Test
+  public void loadsTheSameTodosIntoEitherStorage() throws IOException {
+    TodoDatabase expected = new TodoDatabase(Server.TODO_DATA_FILE);
+    JsonLoader.Progress[] last = new JsonLoader.Progress[1];
+
+    assertSameTodos(expected, new TodoDatabase(dataFile, TodoDatabase.Storage.OBJECTS, null, p -> last[0] = p));
+    assertEquals(expected.size(), last[0].records());
+    assertSameTodos(expected, new TodoDatabase(dataFile, TodoDatabase.Storage.COLUMNS, null, null));
+  }
+
+  @Test
+  public void loadsThroughASnapshot() throws IOException {
+    Path snapshot = dir.resolve("todos.snap");
+    TodoDatabase expected = new TodoDatabase(Server.TODO_DATA_FILE);
+    JsonLoader.Progress[] last = new JsonLoader.Progress[1];
+
+    assertSameTodos(expected, new TodoDatabase(dataFile, TodoDatabase.Storage.COLUMNS, snapshot, p -> last[0] = p));
+    assertEquals(expected.size(), last[0].records());
+    last[0] = null;
+    // The second time around the JSON isn't read at all
+    assertSameTodos(expected, new TodoDatabase(dataFile, TodoDatabase.Storage.COLUMNS, snapshot, p -> last[0] = p));
+    assertNull(last[0]);
+  }
+
+  @Test
+  public void missingAndUnknownFieldsAreIgnored() throws IOException {
+    Files.write(dataFile, ("{\"_id\": \"a\", \"status\": null, \"tags\": [\"x\"], \"owner\": \"Fry\"}\n"
+        + "{\"_id\": \"b\", \"status\": true, \"body\": \"Milk\", \"category\": \"groceries\"}\n")
+        .getBytes(StandardCharsets.UTF_8));
+    TodoDatabase db = new TodoDatabase(dataFile, TodoDatabase.Storage.OBJECTS, null, null);
+
+    assertEquals(2, db.size());
+    assertEquals("a|Fry|null|null|null", describe(db.getTodo("a")));
+    assertEquals("b|null|true|Milk|groceries", describe(db.getTodo("b")));
+
+    db = new TodoDatabase(dataFile, TodoDatabase.Storage.COLUMNS, null, null);
+    assertEquals("a|Fry|false|null|null", describe(db.getTodo("a")));
+    assertEquals("b|null|true|Milk|groceries", describe(db.getTodo("b")));
+  }
+
+  @Test
+  public void reloadSwapsInTheNewDataAllAtOnce() throws IOException {
+    Files.write(dataFile, "[{\"_id\": \"a\", \"owner\": \"Fry\"}]".getBytes(StandardCharsets.UTF_8));
+    TodoDatabase db = new TodoDatabase(dataFile, TodoDatabase.Storage.COLUMNS, dir.resolve("todos.snap"), null);
+    long version = db.version();
+    TodoQuery before = db.query(new HashMap<>());
+
+    Files.write(dataFile, ("[{\"_id\": \"b\", \"owner\": \"Leela\"}, {\"_id\": \"c\"}]")
+        .getBytes(StandardCharsets.UTF_8));
+    db.reload();
+
+    assertEquals(version + 1, db.version());
+    assertEquals(2, db.size());
+    assertNull(db.getTodo("a"));
+    assertEquals("Leela", db.getTodo("b").owner);
+    // A query planned before the reload still sees the old data, all of it
+    assertEquals(version, before.version());
+    assertEquals("a", before.toArray()[0]._id);
+    assertEquals(version + 1, db.query(new HashMap<>()).version());
+  }
+
+  @Test
+  public void failedReloadKeepsTheOldData() throws IOException {
+    TodoDatabase db = new TodoDatabase(dataFile, TodoDatabase.Storage.OBJECTS, null, null);
+    int size = db.size();
+    long version = db.version();
+
+    Files.write(dataFile, "[{\"_id\": ".getBytes(StandardCharsets.UTF_8));
+    assertThrows(IOException.class, db::reload);
+    assertEquals(size, db.size());
+    assertEquals(version, db.version());
+  }
+}
@@ -0,0 +1,198 @@
+package umm3601.todo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static umm3601.todo.TodoFixtures.describe;
+import static umm3601.todo.TodoFixtures.params;
+import static umm3601.todo.TodoFixtures.todo;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import umm3601.DataGenerator;
+import umm3601.EncodedRecords;
+import umm3601.Server;
+import umm3601.Snapshot;
+
+/**
+ * Tests todo snapshots, and starting a `TodoDatabase` from one.
+ */
+@SuppressWarnings({ "MagicNumber" })
+public class TodoSnapshotStoreSpec {
+
+  private Path dir;
+
+  @BeforeEach
+  public void setUp(@TempDir Path tempDir) {
+    dir = tempDir;
+  }
+
+  private TodoSnapshotStore roundTrip(TodoStore store) throws IOException {
+    Path file = dir.resolve("store.snap");
+    Snapshot.Source source = new Snapshot.Source(1, 1);
+    TodoSnapshotStore.write(file, source, store);
+    return TodoSnapshotStore.open(file, source);
+  }
+
+  @Test
+  public void snapshotKeepsEveryField() throws IOException {
+    Todo[] todos = new Todo[70];
+    for (int i = 0; i < todos.length; i++) {
+      todos[i] = todo("id" + i, "owner" + (i % 3), i % 5 == 0, "Body number " + i, "cat" + (i % 4));
+    }
+    todos[3] = todo(null, null, null, null, null);
+    todos[4] = todo("empty", "Fry", true, "", null);
+    TodoSnapshotStore store = roundTrip(new TodoArrayStore(todos));
+
+    assertEquals(70, store.size());
+    for (int i = 0; i < todos.length; i++) {
+      Todo expected = i == 3 ? todo(null, null, false, null, null) : todos[i];
+      assertEquals(describe(expected), describe(store.get(i)));
+    }
+    assertTrue(store.status(65));
+    assertFalse(store.status(66));
+    assertEquals("Body number 7", store.body(7).toString());
+  }
+
+  @Test
+  public void snapshotSearchesBodies() throws IOException {
+    TodoSnapshotStore store = roundTrip(new TodoArrayStore(new Todo[] {
+      todo("a", "Fry", false, "Buy MILK", "groceries"),
+      todo("b", "Fry", false, null, "groceries"),
+    }));
+    assertTrue(store.bodyContains(0, "MILK", false));
+    assertFalse(store.bodyContains(0, "milk", false));
+    assertTrue(store.bodyContains(0, "milk", true));
+    assertFalse(store.bodyContains(0, "Buy MILK!", true));
+    assertFalse(store.bodyContains(1, "milk", true));
+  }
+
+  @Test
+  public void databaseWritesThenUsesSnapshot() throws IOException {
+    Path file = dir.resolve("todos.snap");
+    TodoDatabase json = new TodoDatabase(Server.TODO_DATA_FILE);
+    TodoDatabase first = new TodoDatabase(Server.TODO_DATA_FILE, TodoDatabase.Storage.OBJECTS, file);
+    assertTrue(Files.exists(file));
+    TodoDatabase second = new TodoDatabase(Server.TODO_DATA_FILE, TodoDatabase.Storage.OBJECTS, file);
+
+    for (Map<String, List<String>> query : Arrays.asList(
+        params(),
+        params("owner", "Blanche", "orderBy", "body"),
+        params("contains", "ipsum", "ignoreCase", "true", "status", "complete"))) {
+      Todo[] expected = json.listTodos(query);
+      Todo[] fromFirst = first.listTodos(query);
+      Todo[] fromSecond = second.listTodos(query);
+      assertEquals(expected.length, fromSecond.length);
+      for (int i = 0; i < expected.length; i++) {
+        assertEquals(describe(expected[i]), describe(fromFirst[i]));
+        assertEquals(describe(expected[i]), describe(fromSecond[i]));
+      }
+    }
+    assertNotNull(second.getTodo("58895985a22c04e761776d54"));
+  }
+
+  @Test
+  public void databaseReadsCurrentSnapshotInsteadOfJson() throws IOException {
+    // A snapshot that claims to match the data file, but has other todos
+    Path file = dir.resolve("todos.snap");
+    Snapshot.Source source = Snapshot.Source.of(getClass().getResource(Server.TODO_DATA_FILE));
+    TodoStore other = new TodoArrayStore(new Todo[] {todo("x", "Nobody", true, "From the snapshot", "none")});
+    TodoSnapshotStore.write(file, source, other);
+
+    TodoDatabase db = new TodoDatabase(Server.TODO_DATA_FILE, TodoDatabase.Storage.COLUMNS, file);
+    assertEquals(1, db.size());
+    assertEquals("From the snapshot", db.getTodo("x").body);
+  }
+
+  @Test
+  public void databaseReplacesStaleSnapshot() throws IOException {
+    Path file = dir.resolve("todos.snap");
+    TodoStore other = new TodoArrayStore(new Todo[] {todo("x", "Nobody", true, "From the snapshot", "none")});
+    TodoSnapshotStore.write(file, new Snapshot.Source(1, 1), other);
+
+    TodoDatabase db = new TodoDatabase(Server.TODO_DATA_FILE, TodoDatabase.Storage.COLUMNS, file);
+    assertEquals(new TodoDatabase(Server.TODO_DATA_FILE).size(), db.size());
+    assertNull(db.getTodo("x"));
+    TodoSnapshotStore rewritten = TodoSnapshotStore.open(file,
+        Snapshot.Source.of(getClass().getResource(Server.TODO_DATA_FILE)));
+    assertEquals(db.size(), rewritten.size());
+  }
+
+  private static String json(TodoDatabase database, Map<String, List<String>> query, boolean ndjson) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    database.query(query).writeJson(out, ndjson);
+    return out.toString();
+  }
+
+  @Test
+  public void snapshotHasTheTodosAlreadySerialized() throws IOException {
+    Path file = dir.resolve("todos.snap");
+    TodoDatabase json = new TodoDatabase(Server.TODO_DATA_FILE);
+    new TodoDatabase(Server.TODO_DATA_FILE, TodoDatabase.Storage.COLUMNS, file);
+    // Columns aren't kept serialized unless they come from a snapshot
+    TodoDatabase columns = new TodoDatabase(Server.TODO_DATA_FILE, TodoDatabase.Storage.COLUMNS);
+    TodoDatabase mapped = new TodoDatabase(Server.TODO_DATA_FILE, TodoDatabase.Storage.COLUMNS, file);
+
+    for (Map<String, List<String>> query : Arrays.asList(
+        params(),
+        params("owner", "Blanche", "orderBy", "body"),
+        params("contains", "ipsum", "ignoreCase", "true", "status", "complete"))) {
+      for (boolean ndjson : new boolean[] {false, true}) {
+        assertEquals(json(json, query, ndjson), json(columns, query, ndjson));
+        assertEquals(json(json, query, ndjson), json(mapped, query, ndjson));
+      }
+    }
+    EncodedRecords encoded = TodoSnapshotStore.open(file,
+        Snapshot.Source.of(getClass().getResource(Server.TODO_DATA_FILE))).encoded();
+    assertEquals(json.size(), encoded.size());
+  }
+
+  @Test
+  public void indexesAreReadFromTheSnapshot() throws IOException {
+    Todo[] todos = DataGenerator.builder().seed(37).todos(2000).owners(9, 1).categories(5, 0.5).build().todos();
+    Path file = dir.resolve("indexed.snap");
+    Snapshot.Source source = new Snapshot.Source(1, 1);
+    TodoSnapshotStore.write(file, source, new TodoArrayStore(todos));
+    TodoDatabase built = new TodoDatabase(todos);
+    TodoDatabase mapped = new TodoDatabase(TodoSnapshotStore.open(file, source));
+
+    for (Map<String, List<String>> query : Arrays.asList(
+        params(),
+        params("owner", "Blanche"),
+        params("category", "homework", "status", "incomplete"),
+        params("contains", "sunt", "orderBy", "owner"),
+        params("contains", "ES", "ignoreCase", "true", "orderBy", "category"),
+        params("orderBy", "body", "limit", "40"),
+        params("orderBy", "status", "offset", "300", "limit", "25"))) {
+      Todo[] expected = built.listTodos(query);
+      Todo[] actual = mapped.listTodos(query);
+      assertEquals(expected.length, actual.length, query.toString());
+      for (int i = 0; i < expected.length; i++) {
+        assertEquals(describe(expected[i]), describe(actual[i]), query.toString());
+      }
+      assertEquals(json(built, query, false), json(mapped, query, false), query.toString());
+      TodoSummary want = built.summarize(query);
+      TodoSummary got = mapped.summarize(query);
+      assertEquals(want.total, got.total, query.toString());
+      assertEquals(want.owner, got.owner, query.toString());
+      assertEquals(want.category, got.category, query.toString());
+      assertEquals(want.status, got.status, query.toString());
+    }
+    for (Todo todo : Arrays.copyOf(todos, 50)) {
+      assertEquals(describe(todo), describe(mapped.getTodo(todo._id)));
+    }
+    assertNull(mapped.getTodo("not an id"));
+  }
+}
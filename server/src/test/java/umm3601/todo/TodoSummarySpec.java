@@ -0,0 +1,133 @@
+package umm3601.todo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+
+import umm3601.DataGenerator;
+
+/**
+ * Tests that todo summaries, whether added up from the facet counts or
+ * counted from a query, match counting the todos one by one.
+ */
+@SuppressWarnings({ "MagicNumber" })
+public class TodoSummarySpec {
+
+  private static final Todo[] TODOS = DataGenerator.builder().seed(19).todos(5000).owners(12, 1).categories(5, 0.5)
+      .build().todos();
+
+  // Counts the todos one at a time, the slow way
+  private static TodoSummary bruteForce(String owner, String category, String status, String contains) {
+    Map<String, Integer> owners = new HashMap<>();
+    Map<String, Integer> categories = new HashMap<>();
+    int total = 0;
+    int complete = 0;
+    for (Todo todo : TODOS) {
+      if ((owner == null || owner.equals(todo.owner))
+          && (category == null || category.equals(todo.category))
+          && (status == null || todo.status == !status.equals("incomplete"))
+          && (contains == null || todo.body.contains(contains))) {
+        owners.merge(todo.owner, 1, Integer::sum);
+        categories.merge(todo.category, 1, Integer::sum);
+        total++;
+        complete += todo.status ? 1 : 0;
+      }
+    }
+    return new TodoSummary(total, owners, categories, complete);
+  }
+
+  private static Map<String, List<String>> params(String owner, String category, String status, String contains) {
+    Map<String, List<String>> params = new HashMap<>();
+    if (owner != null) {
+      params.put("owner", List.of(owner));
+    }
+    if (category != null) {
+      params.put("category", List.of(category));
+    }
+    if (status != null) {
+      params.put("status", List.of(status));
+    }
+    if (contains != null) {
+      params.put("contains", List.of(contains));
+    }
+    return params;
+  }
+
+  private static void assertSameSummary(TodoSummary expected, TodoSummary actual) {
+    assertEquals(expected.total, actual.total);
+    assertEquals(expected.owner, actual.owner);
+    assertEquals(expected.category, actual.category);
+    assertEquals(expected.status, actual.status);
+  }
+
+  @Test
+  public void everyFilterCombinationMatchesCountingOneByOne() {
+    for (TodoDatabase.Storage storage : TodoDatabase.Storage.values()) {
+      TodoDatabase db = new TodoDatabase(TODOS);
+      if (storage == TodoDatabase.Storage.COLUMNS) {
+        db.setTodos(TodoColumnStore.of(TODOS));
+      }
+      for (String owner : new String[] {null, "Blanche", "Fry 2", "Nobody"}) {
+        for (String category : new String[] {null, "homework", "groceries 2", "Nothing"}) {
+          for (String status : new String[] {null, "complete", "incomplete"}) {
+            for (String contains : new String[] {null, "sunt", "zzz"}) {
+              String what = storage + " " + owner + " " + category + " " + status + " " + contains;
+              TodoSummary summary = db.summarize(params(owner, category, status, contains));
+              TodoSummary expected = bruteForce(owner, category, status, contains);
+              assertEquals(expected.total, summary.total, what);
+              assertSameSummary(expected, summary);
+            }
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void summariesAreOrderedAndLeaveOutEmptyValues() {
+    TodoSummary summary = new TodoDatabase(TODOS).summarize(params("Blanche", null, null, null));
+    assertEquals(List.of("Blanche"), new ArrayList<>(summary.owner.keySet()));
+    List<String> categories = new ArrayList<>(summary.category.keySet());
+    assertEquals(categories.stream().sorted().collect(Collectors.toList()), categories);
+    assertEquals(List.of("complete", "incomplete"), new ArrayList<>(summary.status.keySet()));
+    assertEquals(summary.total, summary.status.get("complete") + summary.status.get("incomplete"));
+
+    // Todos with no owner still count
+    Todo ownerless = new Todo();
+    ownerless._id = "1";
+    ownerless.status = false;
+    ownerless.body = "body";
+    ownerless.category = "homework";
+    TodoSummary withOwnerless = new TodoDatabase(new Todo[] {ownerless}).summarize(Map.of());
+    assertEquals(1, withOwnerless.total);
+    assertTrue(withOwnerless.owner.isEmpty());
+    assertEquals(Map.of("homework", 1), withOwnerless.category);
+  }
+
+  @Test
+  public void summariesIgnorePagingAndSorting() {
+    TodoDatabase db = new TodoDatabase(TODOS);
+    Map<String, List<String>> paged = params("Fry", null, null, "sunt");
+    paged.put("limit", List.of("3"));
+    paged.put("offset", List.of("2"));
+    paged.put("orderBy", List.of("body"));
+    assertSameSummary(bruteForce("Fry", null, null, "sunt"), db.summarize(paged));
+    paged.remove("contains");
+    assertSameSummary(bruteForce("Fry", null, null, null), db.summarize(paged));
+  }
+
+  @Test
+  public void facetsKeepOneCountPerCombination() {
+    TodoFacets facets = new TodoFacets(new TodoArrayStore(TODOS));
+    // At most 12 owners x 5 categories x 2 statuses, whatever the number of todos
+    assertTrue(facets.combinations() <= 120, "" + facets.combinations());
+    assertTrue(facets.combinations() > 60, "" + facets.combinations());
+  }
+}
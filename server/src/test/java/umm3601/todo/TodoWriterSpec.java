@@ -0,0 +1,323 @@
+package umm3601.todo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import umm3601.Server;
+import umm3601.Snapshot;
+
+/**
+ * Tests durable changes to todos: the write-ahead log, group commit,
+ * compaction, and recovery.
+ */
+@SuppressWarnings({ "MagicNumber" })
+public class TodoWriterSpec {
+
+  // The fingerprint of the data file the changes are made on top of
+  private static final Snapshot.Source SEED = new Snapshot.Source(1234, 5678);
+
+  private Path logFile;
+  private Path snapshotFile;
+
+  @BeforeEach
+  public void setUp(@TempDir Path tempDir) {
+    logFile = tempDir.resolve("todos.wal");
+    snapshotFile = tempDir.resolve("todos.snap");
+  }
+
+  private static Todo todo(String owner, String body) {
+    Todo todo = new Todo();
+    todo.owner = owner;
+    todo.status = false;
+    todo.body = body;
+    todo.category = "groceries";
+    return todo;
+  }
+
+  private static Map<String, List<String>> params(String name, String value) {
+    Map<String, List<String>> params = new HashMap<>();
+    params.put(name, List.of(value));
+    return params;
+  }
+
+  @Test
+  public void changesAreVisibleAndSurviveARestart() throws IOException {
+    TodoDatabase db = new TodoDatabase(Server.TODO_DATA_FILE);
+    int size = db.size();
+    String existing = db.listTodos(new HashMap<>())[0]._id;
+    Todo added;
+    try (TodoWriter writer = new TodoWriter(db, SEED, logFile, snapshotFile, 100)) {
+      long version = db.version();
+      added = writer.create(todo("Zoidberg", "Find food"));
+      assertEquals(24, added._id.length());
+      assertEquals("Find food", db.getTodo(added._id).body);
+      assertEquals(size + 1, db.size());
+      assertTrue(db.version() > version);
+
+      Todo replaced = writer.replace(existing, todo("Zoidberg", "Find more food"));
+      assertEquals(existing, replaced._id);
+      assertEquals("Zoidberg", db.getTodo(existing).owner);
+      assertEquals(2, db.listTodos(params("owner", "Zoidberg")).length);
+
+      assertEquals(added._id, writer.delete(added._id)._id);
+      assertNull(db.getTodo(added._id));
+      assertNull(writer.delete(added._id));
+      assertNull(writer.replace("no such id", todo("Zoidberg", "Nothing")));
+
+      Map<String, Long> stats = writer.stats();
+      assertEquals(3L, stats.get("mutations"));
+      assertEquals(5L, stats.get("batches"));
+      assertEquals(3L, stats.get("logRecords"));
+      assertEquals(0L, stats.get("replayed"));
+    }
+
+    // A new server replays the log on top of the data file
+    TodoDatabase restarted = new TodoDatabase(Server.TODO_DATA_FILE, TodoDatabase.Storage.COLUMNS);
+    try (TodoWriter writer = new TodoWriter(restarted, SEED, logFile, snapshotFile, 100)) {
+      assertEquals(3L, writer.stats().get("replayed"));
+      assertEquals(size, restarted.size());
+      assertNull(restarted.getTodo(added._id));
+      assertEquals("Find more food", restarted.getTodo(existing).body);
+      assertEquals(1, restarted.listTodos(params("owner", "Zoidberg")).length);
+    }
+  }
+
+  @Test
+  public void compactionFoldsTheLogIntoASnapshot() throws IOException {
+    TodoDatabase db = new TodoDatabase(Server.TODO_DATA_FILE);
+    int size = db.size();
+    List<String> ids = new ArrayList<>();
+    TodoWriter writer = new TodoWriter(db, SEED, logFile, snapshotFile, 3);
+    for (int i = 0; i < 4; i++) {
+      ids.add(writer.create(todo("Bender", "Bend " + i))._id);
+    }
+    // Closing waits for the compaction the third change started, which
+    // covers the first three changes but not the fourth
+    writer.close();
+    assertEquals(1L, writer.stats().get("compactions"));
+    assertEquals(1L, writer.stats().get("logRecords"));
+    assertTrue(Files.exists(snapshotFile));
+    // The database has switched over to the snapshot, with the fourth change
+    // made again on top
+    assertEquals(size + 4, db.size());
+    assertEquals("Bend 3", db.getTodo(ids.get(3)).body);
+
+    TodoDatabase restarted = new TodoDatabase(Server.TODO_DATA_FILE);
+    try (TodoWriter again = new TodoWriter(restarted, SEED, logFile, snapshotFile, 3)) {
+      assertEquals(1L, again.stats().get("replayed"));
+      assertEquals(size + 4, restarted.size());
+      for (int i = 0; i < 4; i++) {
+        assertEquals("Bend " + i, restarted.getTodo(ids.get(i)).body);
+      }
+      again.compact();
+      assertEquals(0L, again.stats().get("logRecords"));
+      assertTrue(restarted.state().store() instanceof TodoSnapshotStore);
+      // Replaying a log that's already in the snapshot changes nothing
+      restarted.apply(List.of(TodoMutation.put(restarted.getTodo(ids.get(0))), TodoMutation.delete("nope")));
+      assertEquals(size + 4, restarted.size());
+    }
+  }
+
+  @Test
+  public void changesMadeDuringACompactionAreKept() throws Exception {
+    TodoDatabase db = new TodoDatabase(new Todo[0]);
+    ExecutorService pool = Executors.newFixedThreadPool(4);
+    List<String> ids = new ArrayList<>();
+    try (TodoWriter writer = new TodoWriter(db, SEED, logFile, snapshotFile, TodoWriter.DEFAULT_COMPACT_EVERY)) {
+      for (int i = 0; i < 100; i++) {
+        ids.add(writer.create(todo("Leela", "Before " + i))._id);
+      }
+      Future<?> compacted = pool.submit(() -> {
+        writer.compact();
+        return null;
+      });
+      List<Future<Todo>> results = new ArrayList<>();
+      for (int i = 0; i < 200; i++) {
+        String body = "During " + i;
+        results.add(pool.submit(() -> writer.create(todo("Leela", body))));
+      }
+      for (Future<Todo> result : results) {
+        ids.add(result.get()._id);
+      }
+      compacted.get();
+      assertEquals(300, db.size());
+      assertEquals(1L, writer.stats().get("compactions"));
+      // Only the records in the snapshot were trimmed off the log
+      assertTrue(writer.stats().get("logRecords") <= 200L);
+    } finally {
+      pool.shutdown();
+    }
+
+    TodoDatabase restarted = new TodoDatabase(new Todo[0]);
+    try (TodoWriter writer = new TodoWriter(restarted, SEED, logFile, snapshotFile, TodoWriter.DEFAULT_COMPACT_EVERY)) {
+      assertEquals(300, restarted.size());
+      for (String id : ids) {
+        assertNotNull(restarted.getTodo(id));
+      }
+    }
+  }
+
+  @Test
+  public void failedCompactionsAreTriedAgainLater(@TempDir Path tempDir) throws IOException {
+    // The snapshot can't be written under a regular file
+    Path notADirectory = Files.createFile(tempDir.resolve("file"));
+    TodoDatabase db = new TodoDatabase(new Todo[0]);
+    try (TodoWriter writer = new TodoWriter(db, SEED, logFile, notADirectory.resolve("todos.snap"), 1)) {
+      assertThrows(IOException.class, writer::compact);
+      long failures = writer.stats().get("compactionFailures");
+      assertTrue(failures >= 1L);
+      // Changes still go through, without compacting again straight away
+      for (int i = 0; i < 5; i++) {
+        writer.create(todo("Fry", "Try " + i));
+      }
+      assertEquals(failures, writer.stats().get("compactionFailures"));
+      assertEquals(0L, writer.stats().get("compactions"));
+      assertEquals(5L, writer.stats().get("logRecords"));
+      assertEquals(5, db.size());
+    }
+  }
+
+  @Test
+  public void unexpectedErrorsStopTheWriterInsteadOfHanging() throws IOException {
+    TodoDatabase db = new TodoDatabase(new Todo[0]) {
+      @Override
+      synchronized void apply(List<TodoMutation> mutations) {
+        throw new OutOfMemoryError("Pretending to run out of memory");
+      }
+    };
+    try (TodoWriter writer = new TodoWriter(db, SEED, logFile, snapshotFile, 100)) {
+      assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+        IllegalStateException first = assertThrows(IllegalStateException.class,
+            () -> writer.create(todo("Fry", "one")));
+        assertTrue(first.getCause() instanceof OutOfMemoryError);
+        IllegalStateException later = assertThrows(IllegalStateException.class,
+            () -> writer.create(todo("Fry", "two")));
+        assertTrue(later.getMessage().contains("unexpected error"));
+      });
+    }
+  }
+
+  @Test
+  public void changesToADifferentDataFileAreSetAside() throws IOException {
+    TodoDatabase db = new TodoDatabase(Server.TODO_DATA_FILE);
+    int size = db.size();
+    try (TodoWriter writer = new TodoWriter(db, SEED, logFile, snapshotFile, 2)) {
+      for (int i = 0; i < 3; i++) {
+        writer.create(todo("Bender", "Bend " + i));
+      }
+    }
+    assertTrue(Files.exists(snapshotFile));
+
+    // The data file has changed since
+    Snapshot.Source changed = new Snapshot.Source(SEED.length() + 1, SEED.lastModified());
+    TodoDatabase restarted = new TodoDatabase(Server.TODO_DATA_FILE);
+    try (TodoWriter writer = new TodoWriter(restarted, changed, logFile, snapshotFile, 2)) {
+      assertEquals(1L, writer.stats().get("setAside"));
+      assertEquals(0L, writer.stats().get("replayed"));
+      assertEquals(size, restarted.size());
+      assertFalse(Files.exists(snapshotFile));
+      assertTrue(Files.exists(logFile.resolveSibling("todos.wal" + TodoWriter.STALE_SUFFIX)));
+      assertTrue(Files.exists(snapshotFile.resolveSibling("todos.snap" + TodoWriter.STALE_SUFFIX)));
+      writer.create(todo("Bender", "Start over"));
+    }
+
+    // The new log belongs to the new data file
+    TodoDatabase again = new TodoDatabase(Server.TODO_DATA_FILE);
+    try (TodoWriter writer = new TodoWriter(again, changed, logFile, snapshotFile, 2)) {
+      assertEquals(0L, writer.stats().get("setAside"));
+      assertEquals(1L, writer.stats().get("replayed"));
+      assertEquals(size + 1, again.size());
+    }
+  }
+
+  @Test
+  public void concurrentChangesShareBatches() throws Exception {
+    TodoDatabase db = new TodoDatabase(new Todo[0]);
+    ExecutorService pool = Executors.newFixedThreadPool(8);
+    try (TodoWriter writer = new TodoWriter(db, SEED, logFile, snapshotFile, TodoWriter.DEFAULT_COMPACT_EVERY)) {
+      List<Future<Todo>> results = new ArrayList<>();
+      for (int i = 0; i < 200; i++) {
+        String body = "Todo " + i;
+        results.add(pool.submit(() -> writer.create(todo("Fry", body))));
+      }
+      for (Future<Todo> result : results) {
+        assertNotNull(db.getTodo(result.get()._id));
+      }
+      assertEquals(200, db.size());
+      assertEquals(200L, writer.stats().get("mutations"));
+      assertTrue(writer.stats().get("batches") <= 200L);
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void changesInOneBatchSeeEachOther() throws IOException {
+    TodoDatabase db = new TodoDatabase(new Todo[0]);
+    try (TodoWriter writer = new TodoWriter(db, SEED, logFile, snapshotFile, 100)) {
+      Todo first = writer.create(todo("Fry", "one"));
+      Todo second = writer.create(todo("Fry", "two"));
+      assertNotEquals(first._id, second._id);
+      db.apply(List.of(
+          TodoMutation.put(copyWithBody(first, "changed")),
+          TodoMutation.delete(first._id),
+          TodoMutation.put(copyWithBody(first, "back again")),
+          TodoMutation.delete(second._id)));
+      assertEquals(1, db.size());
+      assertEquals("back again", db.getTodo(first._id).body);
+    }
+  }
+
+  private static Todo copyWithBody(Todo todo, String body) {
+    Todo copy = todo("Fry", body);
+    copy._id = todo._id;
+    return copy;
+  }
+
+  @Test
+  public void closedWritersRefuseChanges() throws IOException {
+    TodoWriter writer = new TodoWriter(new TodoDatabase(new Todo[0]), SEED, logFile, snapshotFile, 100);
+    writer.close();
+    writer.close();
+    assertThrows(IllegalStateException.class, () -> writer.create(todo("Fry", "late")));
+  }
+
+  @Test
+  public void mutationsRoundTrip() {
+    Todo todo = todo("Fry", "Buy milk");
+    todo._id = "x";
+    for (Boolean status : new Boolean[] {null, true, false}) {
+      todo.status = status;
+      TodoMutation decoded = TodoMutation.decode(ByteBuffer.wrap(TodoMutation.put(todo).encode()));
+      assertEquals("x", decoded.id());
+      assertEquals(status, decoded.todo().status);
+      assertEquals("Buy milk", decoded.todo().body);
+    }
+    TodoMutation delete = TodoMutation.decode(ByteBuffer.wrap(TodoMutation.delete("y").encode()));
+    assertEquals("y", delete.id());
+    assertNull(delete.todo());
+  }
+}
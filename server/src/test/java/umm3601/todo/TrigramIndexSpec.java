@@ -0,0 +1,78 @@
+package umm3601.todo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.BitSet;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests the candidate narrowing of the TrigramIndex
+ */
+public class TrigramIndexSpec {
+
+  private TrigramIndex index;
+
+  @BeforeEach
+  public void setUp() {
+    index = new TrigramIndex(new String[] {"Walk the dog", "Feed the cat", "dogdog", "ab", null});
+  }
+
+  @Test
+  public void narrowsToTextsWithEveryTrigram() {
+    BitSet candidates = index.candidates("dog");
+    assertEquals(2, candidates.cardinality());
+    assertTrue(candidates.get(0));
+    assertTrue(candidates.get(2));
+
+    candidates = index.candidates("the cat");
+    assertEquals(1, candidates.cardinality());
+    assertTrue(candidates.get(1));
+  }
+
+  @Test
+  public void ignoresCaseWhenNarrowing() {
+    BitSet candidates = index.candidates("WALK");
+    assertEquals(1, candidates.cardinality());
+    assertTrue(candidates.get(0));
+  }
+
+  @Test
+  public void unknownTrigramHasNoCandidates() {
+    assertTrue(index.candidates("xyz").isEmpty());
+  }
+
+  @Test
+  public void shortQueriesCannotBeNarrowed() {
+    assertNull(index.candidates("ab"));
+  }
+
+  @Test
+  public void containsIgnoreCaseChecksEveryRegion() {
+    assertTrue(TrigramIndex.containsIgnoreCase("Feed the Cat", "the cAT"));
+    assertFalse(TrigramIndex.containsIgnoreCase("Feed the Cat", "dog"));
+    assertFalse(TrigramIndex.containsIgnoreCase("ab", "abc"));
+  }
+
+  @Test
+  public void estimatesAreUpperBoundsOnTheCandidates() {
+    for (String query : new String[] {"dog", "the cat", "WALK", "xyz", "dogdog"}) {
+      assertTrue(index.estimate(query) >= index.candidates(query).cardinality());
+    }
+    assertEquals(2, index.estimate("dog"));
+    assertEquals(0, index.estimate("xyz"));
+    assertEquals(-1, index.estimate("ab"));
+  }
+
+  @Test
+  public void costCountsThePostingsLookedAt() {
+    assertEquals(2, index.cost("dog"));
+    assertEquals(0, index.cost("xyz"));
+    assertEquals(0, index.cost("ab"));
+    assertTrue(index.cost("the cat") > index.cost("cat"));
+  }
+}
@@ -1,11 +1,15 @@
 package umm3601.user;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
@@ -16,12 +20,19 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+
 import io.javalin.http.BadRequestResponse;
 import io.javalin.http.Context;
 import io.javalin.http.HttpStatus;
 import io.javalin.http.NotFoundResponse;
 
+import umm3601.BatchLookup;
+import umm3601.CapturedOutputStream;
+import umm3601.PagedResponses;
+import umm3601.ResponseCache;
 import umm3601.Server;
+import umm3601.StreamingJson;
 
 /**
  * Tests the logic of the UserController
@@ -160,6 +171,19 @@ public class UserControllerSpec {
     assertEquals("Cervantes Morin", user.name);
   }
 
+  @Test
+  public void canGetUserByIdFromArrayBackedDatabase() {
+    User first = new User();
+    first._id = "first";
+    User second = new User();
+    second._id = "second";
+    UserDatabase arrayDb = new UserDatabase(new User[] {first, second});
+
+    assertEquals(2, arrayDb.size());
+    assertEquals(second, arrayDb.getUser("second"));
+    assertEquals(null, arrayDb.getUser("third"));
+  }
+
   @Test
   public void respondsAppropriatelyToRequestForNonexistentId() throws IOException {
     when(ctx.pathParam("id")).thenReturn(null);
@@ -168,4 +192,188 @@ public class UserControllerSpec {
     });
     assertEquals("No user with id " + null + " was found.", exception.getMessage());
   }
+
+  @Test
+  public void streamsNdjsonWhenAsked() throws IOException {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("company", Arrays.asList(new String[] {"OHMNET"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    when(ctx.header("Accept")).thenReturn("application/x-ndjson");
+    CapturedOutputStream out = new CapturedOutputStream();
+    when(ctx.outputStream()).thenReturn(out);
+
+    userController.getUsers(ctx);
+
+    verify(ctx).contentType(StreamingJson.NDJSON);
+    verify(ctx, never()).json(any());
+    String[] lines = out.toString().split("\n");
+    assertEquals(db.listUsers(queryParams).length, lines.length);
+    ObjectMapper mapper = new ObjectMapper();
+    for (String line : lines) {
+      assertEquals("OHMNET", mapper.readValue(line, User.class).company);
+    }
+  }
+
+  @Test
+  public void streamsLargeResultsAsAJsonArray() throws IOException {
+    // Big enough that even the users of one age are too many to send at once
+    User[] users = new User[2 * PagedResponses.STREAMING_THRESHOLD + 2];
+    for (int i = 0; i < users.length; i++) {
+      users[i] = new User();
+      users[i]._id = "user" + i;
+      users[i].name = "User " + i;
+      users[i].age = i % 2 == 0 ? 25 : 30;
+      users[i].company = "OHMNET";
+    }
+    UserController largeController = new UserController(new UserDatabase(users));
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("age", Arrays.asList(new String[] {"25"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    CapturedOutputStream out = new CapturedOutputStream();
+    when(ctx.outputStream()).thenReturn(out);
+
+    largeController.getUsers(ctx);
+
+    verify(ctx).contentType(StreamingJson.JSON);
+    verify(ctx, never()).json(any());
+    User[] streamed = new ObjectMapper().readValue(out.toByteArray(), User[].class);
+    assertEquals(users.length / 2, streamed.length);
+    for (User user : streamed) {
+      assertEquals(25, user.age);
+    }
+  }
+
+  @Test
+  public void canPageThroughUsersWithCursors() {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("limit", Arrays.asList(new String[] {"3"}));
+
+    List<User> paged = new ArrayList<>();
+    UserQuery query = db.query(queryParams);
+    while (true) {
+      paged.addAll(Arrays.asList(query.toArray()));
+      assertEquals(db.size(), query.totalCount());
+      String cursor = query.nextCursor();
+      if (cursor == null) {
+        break;
+      }
+      queryParams.put("cursor", Arrays.asList(new String[] {cursor}));
+      query = db.query(queryParams);
+    }
+    assertEquals(Arrays.asList(db.listUsers(new HashMap<>())), paged);
+  }
+
+  @Test
+  public void canGetManyUsersByIdInOneRequest() throws IOException {
+    User[] all = db.listUsers(new HashMap<>());
+    String[] ids = {all[3]._id, "missing", all[0]._id, "also missing"};
+    when(ctx.bodyAsClass(String[].class)).thenReturn(ids);
+    when(ctx.header("Accept")).thenReturn(StreamingJson.NDJSON);
+    CapturedOutputStream out = new CapturedOutputStream();
+    when(ctx.outputStream()).thenReturn(out);
+
+    userController.getUserBatch(ctx);
+
+    verify(ctx).contentType(StreamingJson.NDJSON);
+    verify(ctx).header(BatchLookup.MISSING_COUNT_HEADER, "2");
+    String[] lines = out.toString().split("\n");
+    ObjectMapper mapper = new ObjectMapper();
+    assertEquals(4, lines.length);
+    assertEquals(all[3].name, mapper.readValue(lines[0], User.class).name);
+    assertEquals("null", lines[1]);
+    assertEquals(all[0].name, mapper.readValue(lines[2], User.class).name);
+    assertEquals("null", lines[3]);
+  }
+
+  @Test
+  public void offsetSkipsMatchingUsers() {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("company", Arrays.asList(new String[] {"OHMNET"}));
+    User[] everything = db.listUsers(queryParams);
+    queryParams.put("offset", Arrays.asList(new String[] {"1"}));
+    queryParams.put("limit", Arrays.asList(new String[] {"1"}));
+
+    UserQuery query = db.query(queryParams);
+    assertEquals(Arrays.asList(everything).subList(1, 2), Arrays.asList(query.toArray()));
+    assertEquals(everything.length, query.totalCount());
+  }
+
+  @Test
+  public void setsPagingHeaders() {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("limit", Arrays.asList(new String[] {"4"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+
+    userController.getUsers(ctx);
+
+    verify(ctx).header(PagedResponses.TOTAL_COUNT_HEADER, Integer.toString(db.size()));
+    verify(ctx).header(PagedResponses.NEXT_CURSOR_HEADER, db.query(queryParams).nextCursor());
+  }
+
+  @Test
+  public void unlimitedQueryHasNoNextCursor() {
+    assertEquals(null, db.query(new HashMap<>()).nextCursor());
+  }
+
+  @Test
+  public void respondsAppropriatelyToNegativeOffset() {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("offset", Arrays.asList(new String[] {"-1"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    Throwable exception = Assertions.assertThrows(BadRequestResponse.class, () -> {
+      userController.getUsers(ctx);
+    });
+    assertEquals("Specified offset '-1' can't be negative", exception.getMessage());
+  }
+
+  @Test
+  public void respondsAppropriatelyToIllegalLimit() {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("limit", Arrays.asList(new String[] {"many"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    Throwable exception = Assertions.assertThrows(BadRequestResponse.class, () -> {
+      userController.getUsers(ctx);
+    });
+    assertEquals("Specified limit 'many' can't be parsed to an integer", exception.getMessage());
+  }
+
+  @Test
+  public void cachedControllerServesRepeatQueriesFromTheCache() throws IOException {
+    ResponseCache cache = new ResponseCache(1 << 20);
+    UserController cachedController = new UserController(db, cache);
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("age", Arrays.asList(new String[] {"25"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+
+    cachedController.getUsers(ctx);
+    cachedController.getUsers(ctx);
+
+    ArgumentCaptor<byte[]> argument = ArgumentCaptor.forClass(byte[].class);
+    verify(ctx, times(2)).result(argument.capture());
+    verify(ctx, never()).json(any());
+    User[] users = new ObjectMapper().readValue(argument.getValue(), User[].class);
+    assertEquals(2, users.length);
+    verify(ctx, times(2)).header(PagedResponses.TOTAL_COUNT_HEADER, "2");
+    assertEquals(1, cache.hits());
+    assertEquals(1, cache.misses());
+  }
+
+  @Test
+  public void cachedControllerStreamsResultsTooBigToCache() {
+    User[] users = new User[PagedResponses.STREAMING_THRESHOLD + 1];
+    for (int i = 0; i < users.length; i++) {
+      users[i] = new User();
+      users[i]._id = "user" + i;
+    }
+    ResponseCache cache = new ResponseCache(1 << 20);
+    UserController largeController = new UserController(new UserDatabase(users), cache);
+    when(ctx.queryParamMap()).thenReturn(new HashMap<>());
+    CapturedOutputStream out = new CapturedOutputStream();
+    when(ctx.outputStream()).thenReturn(out);
+
+    largeController.getUsers(ctx);
+
+    verify(ctx).contentType(StreamingJson.JSON);
+    assertEquals(0, cache.bytes());
+  }
 }
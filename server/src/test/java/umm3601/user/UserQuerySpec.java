@@ -0,0 +1,230 @@
+package umm3601.user;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static umm3601.todo.TodoFixtures.params;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+
+import io.javalin.http.BadRequestResponse;
+
+import umm3601.DataGenerator;
+import umm3601.StreamingJson;
+
+/**
+ * Tests that user queries using the age index, the prefix indexes, and the
+ * precomputed sort orders give the same results as filtering and sorting
+ * the users one by one.
+ */
+@SuppressWarnings({ "MagicNumber" })
+public class UserQuerySpec {
+
+  private static final User[] USERS = DataGenerator.builder().seed(20).users(3000).companies(8, 1).build().users();
+
+  private final UserDatabase db = new UserDatabase(USERS);
+
+  // Ties are broken by ID
+  private static final Comparator<User> BY_ID = Comparator.comparing(user -> user._id);
+  private static final Map<String, Comparator<User>> ORDERS = Map.of(
+      "age", Comparator.<User>comparingInt(user -> user.age).thenComparing(BY_ID),
+      "name", Comparator.<User, String>comparing(user -> user.name, Comparator.nullsFirst(Comparator.naturalOrder()))
+          .thenComparing(BY_ID),
+      "company", Comparator.<User, String>comparing(user -> user.company,
+          Comparator.nullsFirst(Comparator.naturalOrder())).thenComparing(BY_ID));
+
+  // Filters and sorts the users one at a time, the slow way
+  private static List<User> bruteForce(Predicate<User> filter, String orderBy) {
+    List<User> matches = Arrays.stream(USERS).filter(filter).collect(Collectors.toList());
+    if (orderBy != null) {
+      matches.sort(ORDERS.get(orderBy));
+    }
+    return matches;
+  }
+
+  @Test
+  public void ageRangesMatchFilteringOneByOne() {
+    int[][] ranges = {{30, 40}, {0, 25}, {55, 200}, {40, 40}, {41, 39}, {-5, 0}};
+    for (int[] range : ranges) {
+      Map<String, List<String>> queryParams = params("minAge", Integer.toString(range[0]),
+          "maxAge", Integer.toString(range[1]));
+      List<User> expected = bruteForce(user -> user.age >= range[0] && user.age <= range[1], null);
+      UserQuery query = db.query(queryParams);
+      assertEquals(expected, Arrays.asList(query.toArray()));
+      assertEquals(expected.size(), query.totalCount());
+    }
+  }
+
+  @Test
+  public void openEndedRangesAndExactAgesCombine() {
+    assertEquals(bruteForce(user -> user.age >= 50, null), Arrays.asList(db.listUsers(params("minAge", "50"))));
+    assertEquals(bruteForce(user -> user.age <= 30, null), Arrays.asList(db.listUsers(params("maxAge", "30"))));
+    assertEquals(bruteForce(user -> user.age == 35, null),
+        Arrays.asList(db.listUsers(params("age", "35", "minAge", "20", "maxAge", "60"))));
+    assertEquals(List.of(), Arrays.asList(db.listUsers(params("age", "35", "minAge", "36"))));
+  }
+
+  @Test
+  public void ordersMatchSortingOneByOne() {
+    for (String orderBy : ORDERS.keySet()) {
+      assertEquals(bruteForce(user -> true, orderBy), Arrays.asList(db.listUsers(params("orderBy", orderBy))));
+    }
+  }
+
+  @Test
+  public void ageRangesCanBeOrderedByAnyField() {
+    String company = USERS[0].company;
+    for (String orderBy : ORDERS.keySet()) {
+      Map<String, List<String>> queryParams = params("minAge", "25", "maxAge", "45", "orderBy", orderBy);
+      assertEquals(bruteForce(user -> user.age >= 25 && user.age <= 45, orderBy),
+          Arrays.asList(db.listUsers(queryParams)));
+      queryParams.put("company", List.of(company));
+      UserQuery query = db.query(queryParams);
+      List<User> expected = bruteForce(user -> user.age >= 25 && user.age <= 45 && user.company.equals(company),
+          orderBy);
+      assertEquals(expected, Arrays.asList(query.toArray()));
+      assertEquals(expected.size(), query.totalCount());
+    }
+  }
+
+  @Test
+  public void cursorsPageThroughOrderedRanges() {
+    for (String orderBy : ORDERS.keySet()) {
+      Map<String, List<String>> queryParams = params("minAge", "30", "maxAge", "50", "orderBy", orderBy,
+          "limit", "97");
+      List<User> paged = new ArrayList<>();
+      UserQuery query = db.query(queryParams);
+      while (true) {
+        paged.addAll(Arrays.asList(query.toArray()));
+        String cursor = query.nextCursor();
+        if (cursor == null) {
+          break;
+        }
+        queryParams.put("cursor", List.of(cursor));
+        query = db.query(queryParams);
+      }
+      assertEquals(bruteForce(user -> user.age >= 30 && user.age <= 50, orderBy), paged);
+    }
+  }
+
+  @Test
+  public void cursorsKeepTheirPlaceAcrossReloads() throws IOException {
+    for (String orderBy : new String[] {"age", "name", "company", null}) {
+      Map<String, List<String>> queryParams = params("minAge", "30", "limit", "97");
+      if (orderBy != null) {
+        queryParams.put("orderBy", List.of(orderBy));
+      }
+      List<User> paged = new ArrayList<>();
+      UserQuery query = db.query(queryParams);
+      while (true) {
+        paged.addAll(Arrays.asList(query.toArray()));
+        String cursor = query.nextCursor();
+        if (cursor == null) {
+          break;
+        }
+        // The cursor is from the version before, so it has to find its user
+        // again by key (or, in position order, by ID)
+        db.reload();
+        queryParams.put("cursor", List.of(cursor));
+        query = db.query(queryParams);
+      }
+      assertEquals(bruteForce(user -> user.age >= 30, orderBy), paged);
+    }
+  }
+
+  @Test
+  public void offsetsSkipWithinOrderedRanges() {
+    Map<String, List<String>> queryParams = params("minAge", "30", "orderBy", "name", "offset", "10",
+        "limit", "5");
+    assertEquals(bruteForce(user -> user.age >= 30, "name").subList(10, 15), Arrays.asList(db.listUsers(queryParams)));
+    assertEquals(5, db.query(queryParams).maxSize());
+  }
+
+  private static boolean startsWith(String value, String prefix) {
+    return value != null && value.toLowerCase(Locale.ROOT).startsWith(prefix.toLowerCase(Locale.ROOT));
+  }
+
+  @Test
+  public void prefixSearchesMatchFilteringOneByOne() {
+    String[] prefixes = {"j", "Ja", "MAR", "zzz", "", USERS[7].name, USERS[7].name + "x"};
+    for (String prefix : prefixes) {
+      assertEquals(bruteForce(user -> startsWith(user.name, prefix), null),
+          Arrays.asList(db.listUsers(params("name", prefix))));
+      assertEquals(bruteForce(user -> startsWith(user.email, prefix), null),
+          Arrays.asList(db.listUsers(params("email", prefix))));
+      assertEquals(bruteForce(user -> startsWith(user.company, prefix), null),
+          Arrays.asList(db.listUsers(params("companyPrefix", prefix))));
+    }
+  }
+
+  @Test
+  public void companiesMatchWholeNamesIgnoringCase() {
+    String company = USERS[0].company;
+    List<User> expected = bruteForce(user -> user.company.equalsIgnoreCase(company), null);
+    assertEquals(expected, Arrays.asList(db.listUsers(params("company", company.toLowerCase(Locale.ROOT)))));
+    String prefix = company.substring(0, company.length() - 1);
+    assertEquals(List.of(), Arrays.asList(db.listUsers(params("company", prefix))));
+  }
+
+  @Test
+  public void searchesCombineWithAgesAndOrders() {
+    for (String orderBy : ORDERS.keySet()) {
+      Map<String, List<String>> queryParams = params("name", "m", "companyPrefix", "o", "minAge", "30",
+          "maxAge", "50", "orderBy", orderBy);
+      UserQuery query = db.query(queryParams);
+      List<User> expected = bruteForce(user -> startsWith(user.name, "m") && startsWith(user.company, "o")
+          && user.age >= 30 && user.age <= 50, orderBy);
+      assertEquals(expected, Arrays.asList(query.toArray()));
+      assertEquals(expected.size(), query.totalCount());
+    }
+  }
+
+  @Test
+  public void usersWithoutAValueAreNeverFound() {
+    User nameless = new User();
+    nameless._id = "nameless";
+    nameless.company = "Acme";
+    UserDatabase small = new UserDatabase(new User[] {nameless, USERS[0]});
+    assertEquals(List.of(USERS[0]), Arrays.asList(small.listUsers(params("name", ""))));
+    assertEquals(List.of(nameless), Arrays.asList(small.listUsers(params("company", "ACME"))));
+  }
+
+  @Test
+  public void rejectsBadAgesAndOrders() {
+    BadRequestResponse badAge = assertThrows(BadRequestResponse.class, () -> db.query(params("minAge", "old")));
+    assertEquals("Specified minAge 'old' can't be parsed to an integer", badAge.getMessage());
+    badAge = assertThrows(BadRequestResponse.class, () -> db.query(params("maxAge", "1.5")));
+    assertEquals("Specified maxAge '1.5' can't be parsed to an integer", badAge.getMessage());
+    BadRequestResponse badOrder = assertThrows(BadRequestResponse.class, () -> db.query(params("orderBy", "email")));
+    assertEquals("Specified orderBy 'email' isn't one of age, name, or company", badOrder.getMessage());
+  }
+
+  @Test
+  public void writingPreEncodedUsersMatchesSerializingThem() {
+    List<Map<String, List<String>>> queries = List.of(params(),
+        params("minAge", "30", "maxAge", "40", "orderBy", "name"),
+        params("name", "a", "limit", "20", "offset", "3"),
+        params("company", "nobody"));
+    for (Map<String, List<String>> query : queries) {
+      for (boolean ndjson : new boolean[] {false, true}) {
+        ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+        StreamingJson.write(serialized, ndjson, db.query(query)::forEach);
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        db.query(query).writeJson(encoded, ndjson);
+        assertEquals(serialized.toString(StandardCharsets.UTF_8), encoded.toString(StandardCharsets.UTF_8),
+            query.toString());
+      }
+    }
+  }
+}
@@ -0,0 +1,93 @@
+package umm3601.user;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import umm3601.JsonLoader;
+import umm3601.Server;
+
+/**
+ * Tests loading a `UserDatabase` from a data file on disk.
+ */
+@SuppressWarnings({ "MagicNumber" })
+public class UserRecordsSpec {
+
+  private Path dir;
+  private Path dataFile;
+
+  @BeforeEach
+  public void setUp(@TempDir Path tempDir) throws IOException {
+    dir = tempDir;
+    dataFile = dir.resolve("users.json");
+    Files.copy(getClass().getResourceAsStream(Server.USER_DATA_FILE), dataFile);
+  }
+
+  private static String describe(User user) {
+    return String.join("|", user._id, user.name, String.valueOf(user.age), user.company, user.email);
+  }
+
+  private static void assertSameUsers(UserDatabase expected, UserDatabase actual) {
+    User[] expectedUsers = expected.listUsers(new HashMap<>());
+    User[] actualUsers = actual.listUsers(new HashMap<>());
+    assertEquals(expectedUsers.length, actualUsers.length);
+    for (int i = 0; i < expectedUsers.length; i++) {
+      assertEquals(describe(expectedUsers[i]), describe(actualUsers[i]));
+    }
+  }
+
+  @Test
+  public void loadsTheSameUsersAsTheResource() throws IOException {
+    UserDatabase expected = new UserDatabase(Server.USER_DATA_FILE);
+    JsonLoader.Progress[] last = new JsonLoader.Progress[1];
+
+    assertSameUsers(expected, new UserDatabase(dataFile, null, p -> last[0] = p));
+    assertEquals(expected.size(), last[0].records());
+  }
+
+  @Test
+  public void loadsThroughASnapshot() throws IOException {
+    Path snapshot = dir.resolve("users.snap");
+    UserDatabase expected = new UserDatabase(Server.USER_DATA_FILE);
+    JsonLoader.Progress[] last = new JsonLoader.Progress[1];
+
+    assertSameUsers(expected, new UserDatabase(dataFile, snapshot, null));
+    assertSameUsers(expected, new UserDatabase(dataFile, snapshot, p -> last[0] = p));
+    assertNull(last[0]);
+  }
+
+  @Test
+  public void missingAndUnknownFieldsAreIgnored() throws IOException {
+    Files.write(dataFile, "[{\"_id\": \"a\", \"age\": 30, \"avatar\": {\"url\": \"x\"}, \"email\": null}]"
+        .getBytes(StandardCharsets.UTF_8));
+    UserDatabase db = new UserDatabase(dataFile, null, null);
+
+    assertEquals(1, db.size());
+    assertEquals("a|null|30|null|null", describe(db.getUser("a")));
+  }
+
+  @Test
+  public void reloadSwapsInTheNewData() throws IOException {
+    UserDatabase db = new UserDatabase(dataFile, null, null);
+    long version = db.version();
+    UserQuery before = db.query(new HashMap<>());
+
+    Files.write(dataFile, "[{\"_id\": \"a\", \"age\": 30}]".getBytes(StandardCharsets.UTF_8));
+    db.reload();
+
+    assertEquals(version + 1, db.version());
+    assertEquals(1, db.size());
+    assertEquals(30, db.getUser("a").age);
+    assertEquals(version, before.version());
+    assertEquals(new UserDatabase(Server.USER_DATA_FILE).size(), before.toArray().length);
+  }
+}
@@ -0,0 +1,67 @@
+package umm3601.user;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import umm3601.Server;
+import umm3601.Snapshot;
+
+/**
+ * Tests user snapshots, and starting a `UserDatabase` from one.
+ */
+@SuppressWarnings({ "MagicNumber" })
+public class UserSnapshotSpec {
+
+  private Path dir;
+
+  @BeforeEach
+  public void setUp(@TempDir Path tempDir) {
+    dir = tempDir;
+  }
+
+  private static String describe(User user) {
+    return String.join("|", user._id, user.name, String.valueOf(user.age), user.company, user.email);
+  }
+
+  @Test
+  public void databaseWritesThenUsesSnapshot() throws IOException {
+    Path file = dir.resolve("users.snap");
+    User[] expected = new UserDatabase(Server.USER_DATA_FILE).listUsers(new HashMap<>());
+
+    new UserDatabase(Server.USER_DATA_FILE, file);
+    assertTrue(Files.exists(file));
+    UserDatabase fromSnapshot = new UserDatabase(Server.USER_DATA_FILE, file);
+
+    User[] actual = fromSnapshot.listUsers(new HashMap<>());
+    assertEquals(expected.length, actual.length);
+    for (int i = 0; i < expected.length; i++) {
+      assertEquals(describe(expected[i]), describe(actual[i]));
+    }
+    assertEquals("Connie Stewart", fromSnapshot.getUser("588935f57546a2daea44de7c").name);
+  }
+
+  @Test
+  public void databaseReadsCurrentSnapshotInsteadOfJson() throws IOException {
+    Path file = dir.resolve("users.snap");
+    User user = new User();
+    user._id = "x";
+    user.age = 7;
+    Snapshot.Source source = Snapshot.Source.of(getClass().getResource(Server.USER_DATA_FILE));
+    Snapshot.write(file, source, out -> UserSnapshot.write(new User[] {user}, out));
+
+    UserDatabase db = new UserDatabase(Server.USER_DATA_FILE, file);
+    assertEquals(1, db.size());
+    assertEquals(7, db.getUser("x").age);
+    assertNull(db.getUser("x").name);
+  }
+}